@@ -42,7 +42,7 @@ import org.datavec.api.util.ndarray.RecordConverter;
 import org.datavec.api.writable.*;
 import org.datavec.arrow.recordreader.ArrowWritableRecordBatch;
 import org.datavec.arrow.recordreader.ArrowWritableRecordTimeSeriesBatch;
-import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.arrow.ArrowBuffers;
 import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.exception.ND4JIllegalArgumentException;
@@ -55,7 +55,6 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.*;
 
 import static java.nio.channels.Channels.newChannel;
@@ -144,22 +143,8 @@ public class ArrowConverter {
 
         }
 
-        int cols = schema.numColumns();
-        INDArray arr  = Nd4j.create(rows,cols);
-        for(int i = 0; i < cols; i++) {
-            INDArray put = ArrowConverter.convertArrowVector(columnVectors.get(i),schema.getType(i));
-            switch(arr.data().dataType()) {
-                case FLOAT:
-                    arr.putColumn(i,Nd4j.create(put.data().asFloat()).reshape(rows,1));
-                    break;
-                case DOUBLE:
-                    arr.putColumn(i,Nd4j.create(put.data().asDouble()).reshape(rows,1));
-                    break;
-            }
-
-        }
-
-        return arr;
+        //Each column is wrapped without copying and then copied into the output with a single op
+        return ArrowBuffers.toMatrix(columnVectors, Nd4j.defaultFloatingPointType());
     }
 
     /**
@@ -169,28 +154,26 @@ public class ArrowConverter {
      * @return the converted ndarray
      */
     public static INDArray convertArrowVector(FieldVector fieldVector,ColumnType type) {
-        DataBuffer buffer = null;
-        int cols = fieldVector.getValueCount();
-        ByteBuffer direct = ByteBuffer.allocateDirect(fieldVector.getDataBuffer().capacity());
-        direct.order(ByteOrder.nativeOrder());
-        fieldVector.getDataBuffer().getBytes(0,direct);
-        direct.rewind();
+        DataType dataType = dataTypeFor(type);
+        //View of the vector's memory: copy it (single op), so the result is valid after the vector is closed.
+        //Use ArrowBuffers.toArray(FieldVector) directly to avoid the copy
+        INDArray view = ArrowBuffers.toArray(fieldVector);
+        return view.dataType() == dataType ? view.dup() : view.castTo(dataType);
+    }
+
+    private static DataType dataTypeFor(ColumnType type) {
         switch(type) {
             case Integer:
-                buffer = Nd4j.createBuffer(direct, DataType.INT,cols,0);
-                break;
+                return DataType.INT;
             case Float:
-                buffer = Nd4j.createBuffer(direct, DataType.FLOAT,cols);
-                break;
+                return DataType.FLOAT;
             case Double:
-                buffer = Nd4j.createBuffer(direct, DataType.DOUBLE,cols);
-                break;
+                return DataType.DOUBLE;
             case Long:
-                buffer =  Nd4j.createBuffer(direct, DataType.LONG,cols);
-                break;
+                return DataType.LONG;
+            default:
+                throw new IllegalArgumentException("Illegal type " + type);
         }
-
-        return Nd4j.create(buffer,new int[] {cols,1});
     }
 
 
@@ -205,48 +188,16 @@ public class ArrowConverter {
      * @return the list of field vectors
      */
     public static List<FieldVector> convertToArrowVector(INDArray from,List<String> name,ColumnType type,BufferAllocator bufferAllocator) {
+        DataType dataType = dataTypeFor(type);
         List<FieldVector> ret = new ArrayList<>();
         if(from.isVector()) {
-            long cols = from.length();
-            switch(type) {
-                case Double:
-                    double[] fromData = from.isView() ? from.dup().data().asDouble() : from.data().asDouble();
-                    ret.add(vectorFor(bufferAllocator,name.get(0),fromData));
-                    break;
-                case Float:
-                    float[] fromDataFloat = from.isView() ? from.dup().data().asFloat() : from.data().asFloat();
-                    ret.add(vectorFor(bufferAllocator,name.get(0),fromDataFloat));
-                    break;
-                case Integer:
-                    int[] fromDataInt = from.isView() ? from.dup().data().asInt() : from.data().asInt();
-                    ret.add(vectorFor(bufferAllocator,name.get(0),fromDataInt));
-                    break;
-                default:
-                    throw new IllegalArgumentException("Illegal type " + type);
-            }
-
+            ret.add(ArrowBuffers.toVector(from.castTo(dataType),name.get(0),bufferAllocator));
         }
         else {
             long cols = from.size(1);
             for(int i = 0; i < cols; i++) {
                 INDArray column = from.getColumn(i);
-
-                switch(type) {
-                    case Double:
-                        double[] fromData = column.isView() ? column.dup().data().asDouble() : from.data().asDouble();
-                        ret.add(vectorFor(bufferAllocator,name.get(i),fromData));
-                        break;
-                    case Float:
-                        float[] fromDataFloat = column.isView() ? column.dup().data().asFloat() : from.data().asFloat();
-                        ret.add(vectorFor(bufferAllocator,name.get(i),fromDataFloat));
-                        break;
-                    case Integer:
-                        int[] fromDataInt = column.isView() ? column.dup().data().asInt() : from.data().asInt();
-                        ret.add(vectorFor(bufferAllocator,name.get(i),fromDataInt));
-                        break;
-                    default:
-                        throw new IllegalArgumentException("Illegal type " + type);
-                }
+                ret.add(ArrowBuffers.toVector(column.castTo(dataType),name.get(i),bufferAllocator));
             }
         }
 
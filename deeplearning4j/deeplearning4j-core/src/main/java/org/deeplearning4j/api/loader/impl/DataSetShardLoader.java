@@ -0,0 +1,41 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.api.loader.impl;
+
+import org.deeplearning4j.api.loader.DataSetLoader;
+import org.deeplearning4j.datasets.iterator.file.DataSetShard;
+import org.deeplearning4j.datasets.iterator.file.DataSetShardWriter;
+import org.nd4j.api.loader.Source;
+import org.nd4j.linalg.dataset.DataSet;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Loads all examples of a shard file (as written by {@link DataSetShardWriter}) as a single DataSet, using
+ * {@link DataSetShard#load(InputStream)}.<br>
+ * Can be used with path based training (for example, {@code fitPaths} of the Spark training masters), with shards
+ * written using {@link DataSetShardWriter#export} with one minibatch per shard.
+ */
+public class DataSetShardLoader implements DataSetLoader {
+    @Override
+    public DataSet load(Source source) throws IOException {
+        try(InputStream is = source.getInputStream()){
+            return DataSetShard.load(is);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+package org.deeplearning4j.datasets.iterator;
+
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.api.loader.impl.DataSetShardLoader;
+import org.deeplearning4j.datasets.iterator.file.DataSetShard;
+import org.deeplearning4j.datasets.iterator.file.DataSetShardIterator;
+import org.deeplearning4j.datasets.iterator.file.DataSetShardWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.api.loader.LocalFileSource;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.preprocessor.NormalizerStandardize;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestDataSetShards extends BaseDL4JTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTripWithMasks() throws Exception {
+        Nd4j.getRandom().setSeed(12345);
+        DataSet ds = new DataSet(Nd4j.rand(DataType.FLOAT, 23, 3, 5), Nd4j.rand(DataType.DOUBLE, 23, 2, 5),
+                Nd4j.rand(DataType.FLOAT, 23, 5).gt(0.3).castTo(DataType.FLOAT), Nd4j.ones(DataType.FLOAT, 23, 5));
+
+        //Written in pieces of 7 examples, with blocks of 10 examples: 3 blocks, with 10, 10 and 3 examples
+        File f = folder.newFile("ts." + DataSetShard.EXTENSION);
+        try (DataSetShardWriter w = new DataSetShardWriter(f, 10)) {
+            for (int i = 0; i < 23; i += 7)
+                w.write((DataSet) ds.getRange(i, Math.min(i + 7, 23)));
+        }
+
+        try (DataSetShard shard = new DataSetShard(f)) {
+            assertEquals(23, shard.getNumExamples());
+            assertEquals(3, shard.numBlocks());
+            assertEquals(10, shard.numExamples(0));
+            assertEquals(3, shard.numExamples(2));
+            assertArrayEquals(new long[]{3, 5}, shard.exampleShape(DataSetShard.FEATURES));
+            assertEquals(DataType.DOUBLE, shard.dataType(DataSetShard.LABELS));
+
+            DataSet b1 = shard.getBlock(1);
+            assertEquals(ds.getFeatures().get(NDArrayIndex.interval(10, 20), NDArrayIndex.all(), NDArrayIndex.all()), b1.getFeatures());
+            assertEquals(ds.getLabelsMaskArray().get(NDArrayIndex.interval(10, 20), NDArrayIndex.all()), b1.getLabelsMaskArray());
+
+            DataSet all = shard.getAll();
+            assertEquals(ds.getFeatures(), all.getFeatures());
+            assertEquals(ds.getLabels(), all.getLabels());
+            assertEquals(ds.getFeaturesMaskArray(), all.getFeaturesMaskArray());
+            assertEquals(ds.getLabelsMaskArray(), all.getLabelsMaskArray());
+        }
+    }
+
+    @Test
+    public void testArbitraryBatchSizes() throws Exception {
+        DataSet ds = data(50);
+        List<File> shards = DataSetShardWriter.export(new IteratorDataSetIterator(ds.asList().iterator(), 9),
+                folder.newFolder(), 30, 8);
+        assertEquals(2, shards.size());
+
+        for (int batchSize : new int[]{1, 4, 8, 13, 50, 64}) {
+            DataSetShardIterator iter = new DataSetShardIterator(shards, batchSize, null);
+            assertEquals(50, iter.numExamples());
+            assertEquals(4, iter.inputColumns());
+            assertEquals(3, iter.totalOutcomes());
+            List<DataSet> l = new ArrayList<>();
+            while (iter.hasNext()) {
+                DataSet next = iter.next();
+                assertTrue(next.numExamples() == batchSize || !iter.hasNext());
+                l.add(next);
+            }
+            DataSet merged = DataSet.merge(l);
+            assertEquals(String.valueOf(batchSize), ds.getFeatures(), merged.getFeatures());
+            assertEquals(String.valueOf(batchSize), ds.getLabels(), merged.getLabels());
+            iter.close();
+        }
+
+        //Mixed sizes via next(int), and blocks as written
+        DataSetShardIterator iter = new DataSetShardIterator(shards, -1, null);
+        assertEquals(8, iter.next().numExamples());
+        assertEquals(ds.getFeatures().get(NDArrayIndex.interval(8, 11), NDArrayIndex.all()), iter.next(3).getFeatures());
+        assertEquals(5, iter.next().numExamples());
+        assertEquals(ds.getFeatures().get(NDArrayIndex.interval(16, 36), NDArrayIndex.all()), iter.next(20).getFeatures());
+        iter.close();
+    }
+
+    @Test
+    public void testBlockShuffle() throws Exception {
+        DataSet ds = data(64);
+        File dir = folder.newFolder();
+        DataSetShardWriter.export(new IteratorDataSetIterator(ds.asList().iterator(), 16), dir, 32, 4);
+
+        DataSetShardIterator iter = new DataSetShardIterator(dir, 6, new Random(12345));
+        Set<List<Integer>> orders = new HashSet<>();
+        for (int epoch = 0; epoch < 3; epoch++) {
+            List<Integer> order = new ArrayList<>();
+            while (iter.hasNext()) {
+                INDArray f = iter.next().getFeatures();
+                for (int i = 0; i < f.rows(); i++)
+                    order.add(f.getInt(i, 0));
+            }
+            //All examples returned exactly once, with the order of examples within each block of 4 unchanged
+            assertEquals(64, order.size());
+            assertEquals(64, new HashSet<>(order).size());
+            for (int i = 0; i < 64; i += 4) {
+                assertEquals(0, order.get(i) % 4);
+                for (int j = 1; j < 4; j++)
+                    assertEquals(order.get(i) + j, (int) order.get(i + j));
+            }
+            orders.add(order);
+            iter.reset();
+        }
+        assertEquals(3, orders.size());
+        iter.close();
+    }
+
+    @Test
+    public void testZeroCopy() throws Exception {
+        File f = folder.newFile("zc." + DataSetShard.EXTENSION);
+        try (DataSetShardWriter w = new DataSetShardWriter(f, 20)) {
+            w.write(data(40));
+        }
+
+        DataSetShardIterator iter = new DataSetShardIterator(Collections.singletonList(f), 5, null);
+        DataSet d1 = iter.next();
+        DataSet d2 = iter.next();
+        //Minibatches are views of (aligned) mapped memory, not copies
+        assertEquals(0, d1.getFeatures().data().address() % DataSetShard.ALIGNMENT);
+        assertEquals(0, d1.getLabels().data().address() % DataSetShard.ALIGNMENT);
+        assertEquals(data(40).getFeatures().get(NDArrayIndex.interval(5, 10), NDArrayIndex.all()), d2.getFeatures());
+
+        //Pre-processing happens in place, without modifying the shard file or later epochs
+        NormalizerStandardize norm = new NormalizerStandardize();
+        norm.fit(data(40));
+        iter.setPreProcessor(norm);
+        iter.reset();
+        DataSet p = iter.next();
+        assertNotEquals(d1.getFeatures(), p.getFeatures());
+        assertEquals(data(40).getFeatures().get(NDArrayIndex.interval(0, 5), NDArrayIndex.all()), d1.getFeatures());
+        iter.setPreProcessor(null);
+        iter.reset();
+        assertEquals(d1, iter.next());
+        iter.close();
+    }
+
+    @Test
+    public void testInPlaceModification() throws Exception {
+        File f = folder.newFile("ip." + DataSetShard.EXTENSION);
+        try (DataSetShardWriter w = new DataSetShardWriter(f, 20)) {
+            w.write(data(20));
+        }
+        long length = f.length();
+        INDArray expFeatures = data(20).getFeatures().get(NDArrayIndex.interval(0, 10), NDArrayIndex.all());
+
+        DataSetShard shard = new DataSetShard(f);
+        DataSet ds = shard.get(0, 0, 10);
+        ds.getFeatures().divi(255);
+        ds.getLabels().assign(-1);
+        assertEquals(expFeatures.div(255), ds.getFeatures());
+
+        //Modifications are private to the returned arrays: not visible to other views, or in the file
+        assertEquals(expFeatures, shard.get(0, 0, 10).getFeatures());
+        shard.close();
+        assertEquals(length, f.length());
+        try (DataSetShard reopened = new DataSetShard(f)) {
+            assertEquals(data(20).getRange(0, 10), reopened.get(0, 0, 10));
+        }
+
+        //Arrays remain valid after the shard is closed and garbage collected
+        shard = null;
+        System.gc();
+        assertEquals(expFeatures.div(255), ds.getFeatures());
+        assertEquals(Nd4j.valueArrayOf(new long[]{10, 3}, -1.0, DataType.FLOAT), ds.getLabels());
+
+        //Read only files are read rather than mapped, and can also be modified in place
+        assertTrue(f.setWritable(false));
+        try (DataSetShard readOnly = new DataSetShard(f)) {
+            DataSet r = readOnly.get(0, 0, 10);
+            r.getFeatures().muli(2);
+            assertEquals(expFeatures.mul(2), r.getFeatures());
+            assertEquals(expFeatures, readOnly.get(0, 0, 10).getFeatures());
+        } finally {
+            f.setWritable(true);
+        }
+    }
+
+    @Test
+    public void testLoader() throws Exception {
+        DataSet ds = data(12);
+        File dir = folder.newFolder();
+        List<File> shards = DataSetShardWriter.export(new IteratorDataSetIterator(ds.asList().iterator(), 5), dir, 4, 4);
+        assertEquals(3, shards.size());
+
+        DataSetShardLoader loader = new DataSetShardLoader();
+        for (int i = 0; i < 3; i++) {
+            DataSet loaded = loader.load(new LocalFileSource(shards.get(i).getPath()));
+            assertEquals(ds.getRange(4 * i, 4 * i + 4), loaded);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSchemaMismatch() throws Exception {
+        try (DataSetShardWriter w = new DataSetShardWriter(folder.newFile(), 10)) {
+            w.write(data(5));
+            w.write(new DataSet(Nd4j.rand(DataType.FLOAT, 5, 3), Nd4j.rand(DataType.FLOAT, 5, 3)));
+        }
+    }
+
+    /**
+     * Features: [n, 4] with the example index in each column; labels: [n, 3]
+     */
+    private static DataSet data(int n) {
+        INDArray features = Nd4j.linspace(DataType.FLOAT, 0, n, 1).reshape(n, 1).repeat(1, 4);
+        INDArray labels = Nd4j.linspace(DataType.FLOAT, 0, 3 * n, 1).reshape(n, 3);
+        return new DataSet(features, labels);
+    }
+}
@@ -0,0 +1,245 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.deeplearning4j.nn.misc;
+
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.TestUtils;
+import org.deeplearning4j.gradientcheck.GradientCheckUtil;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.WorkspaceMode;
+import org.deeplearning4j.nn.conf.dropout.GaussianDropout;
+import org.deeplearning4j.nn.conf.graph.ElementWiseVertex;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.junit.Test;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.function.Consumer;
+import org.nd4j.linalg.learning.config.Adam;
+import org.nd4j.linalg.learning.config.NoOp;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import static org.junit.Assert.*;
+
+public class TestActivationRecomputation extends BaseDL4JTest {
+
+    private static MultiLayerConfiguration getMLNConf(WorkspaceMode wsm, int... checkpoints) {
+        NeuralNetConfiguration.ListBuilder b = new NeuralNetConfiguration.Builder()
+                .dataType(DataType.DOUBLE)
+                .seed(12345)
+                .trainingWorkspaceMode(wsm)
+                .inferenceWorkspaceMode(wsm)
+                .updater(new Adam(0.01))
+                .activation(Activation.TANH)
+                .dropOut(new GaussianDropout(0.1))
+                .list();
+        for (int i = 0; i < 6; i++) {
+            b.layer(new DenseLayer.Builder().nIn(i == 0 ? 4 : 6).nOut(6).build());
+        }
+        return b.layer(new OutputLayer.Builder().nIn(6).nOut(3).activation(Activation.SOFTMAX)
+                        .lossFunction(LossFunctions.LossFunction.MCXENT).build())
+                .activationCheckpoints(checkpoints)
+                .build();
+    }
+
+    @Test
+    public void testMultiLayerNetwork() {
+        INDArray f = Nd4j.rand(DataType.DOUBLE, 5, 4);
+        INDArray l = TestUtils.randomOneHot(5, 3);
+
+        for (WorkspaceMode wsm : new WorkspaceMode[]{WorkspaceMode.ENABLED, WorkspaceMode.NONE}) {
+            MultiLayerNetwork net = new MultiLayerNetwork(getMLNConf(wsm));
+            net.init();
+
+            MultiLayerConfiguration conf = getMLNConf(wsm, 3, 1);
+            assertArrayEquals(new int[]{1, 3}, conf.getActivationCheckpoints());
+            assertEquals(conf, MultiLayerConfiguration.fromJson(conf.toJson()));
+            MultiLayerNetwork netRecompute = new MultiLayerNetwork(conf);
+            netRecompute.init(net.params().dup(), false);
+
+            net.setInput(f);
+            net.setLabels(l);
+            Nd4j.getRandom().setSeed(12345);
+            net.computeGradientAndScore();
+            netRecompute.setInput(f);
+            netRecompute.setLabels(l);
+            Nd4j.getRandom().setSeed(12345);
+            netRecompute.computeGradientAndScore();
+
+            assertEquals(wsm.toString(), net.score(), netRecompute.score(), 1e-12);
+            assertEquals(wsm.toString(), net.getGradientsViewArray(), netRecompute.getGradientsViewArray());
+
+            for (int i = 0; i < 3; i++) {
+                Nd4j.getRandom().setSeed(12345 + i);
+                net.fit(f, l);
+                Nd4j.getRandom().setSeed(12345 + i);
+                netRecompute.fit(f, l);
+            }
+            assertEquals(wsm.toString(), net.params(), netRecompute.params());
+            assertEquals(wsm.toString(), net.output(f), netRecompute.output(f));
+        }
+    }
+
+    @Test
+    public void testDropoutGradients() {
+        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
+                .dataType(DataType.DOUBLE)
+                .seed(12345)
+                .updater(new NoOp())
+                .activation(Activation.TANH)
+                .dropOut(new GaussianDropout(0.1))
+                .list()
+                .layer(new DenseLayer.Builder().nIn(4).nOut(5).build())
+                .layer(new DenseLayer.Builder().nIn(5).nOut(5).build())
+                .layer(new DenseLayer.Builder().nIn(5).nOut(5).build())
+                .layer(new OutputLayer.Builder().nIn(5).nOut(3).activation(Activation.SOFTMAX)
+                        .lossFunction(LossFunctions.LossFunction.MCXENT).build())
+                .activationCheckpoints(1)
+                .build();
+        MultiLayerNetwork net = new MultiLayerNetwork(conf);
+        net.init();
+
+        INDArray f = Nd4j.rand(DataType.DOUBLE, 3, 4);
+        INDArray l = TestUtils.randomOneHot(3, 3);
+
+        boolean gradOK = GradientCheckUtil.checkGradients(new GradientCheckUtil.MLNConfig().net(net).input(f)
+                .labels(l).callEachIter(new Consumer<MultiLayerNetwork>() {
+                    @Override
+                    public void accept(MultiLayerNetwork net) {
+                        Nd4j.getRandom().setSeed(12345);
+                    }
+                }));
+        assertTrue(gradOK);
+
+        ComputationGraphConfiguration graphConf = new NeuralNetConfiguration.Builder()
+                .dataType(DataType.DOUBLE)
+                .seed(12345)
+                .updater(new NoOp())
+                .activation(Activation.TANH)
+                .dropOut(new GaussianDropout(0.1))
+                .graphBuilder()
+                .addInputs("in")
+                .addLayer("0", new DenseLayer.Builder().nIn(4).nOut(5).build(), "in")
+                .addLayer("1", new DenseLayer.Builder().nIn(5).nOut(5).build(), "0")
+                .addVertex("add", new ElementWiseVertex(ElementWiseVertex.Op.Add), "0", "1")
+                .addLayer("2", new DenseLayer.Builder().nIn(5).nOut(5).build(), "add")
+                .addLayer("out", new OutputLayer.Builder().nIn(5).nOut(3).activation(Activation.SOFTMAX)
+                        .lossFunction(LossFunctions.LossFunction.MCXENT).build(), "2")
+                .setOutputs("out")
+                .activationCheckpoints("add")
+                .build();
+        ComputationGraph graph = new ComputationGraph(graphConf);
+        graph.init();
+
+        gradOK = GradientCheckUtil.checkGradients(new GradientCheckUtil.GraphConfig().net(graph)
+                .inputs(new INDArray[]{f}).labels(new INDArray[]{l}).callEachIter(new Consumer<ComputationGraph>() {
+                    @Override
+                    public void accept(ComputationGraph net) {
+                        Nd4j.getRandom().setSeed(12345);
+                    }
+                }));
+        assertTrue(gradOK);
+    }
+
+    @Test
+    public void testInvalidCheckpoints() {
+        try {
+            getMLNConf(WorkspaceMode.ENABLED, 6);
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("checkpoint"));
+        }
+
+        try {
+            getGraphConf(WorkspaceMode.ENABLED, "doesNotExist");
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("doesNotExist"));
+        }
+    }
+
+    private static ComputationGraphConfiguration getGraphConf(WorkspaceMode wsm, String... checkpoints) {
+        //Residual blocks: x + dense(dense(x))
+        ComputationGraphConfiguration.GraphBuilder b = new NeuralNetConfiguration.Builder()
+                .dataType(DataType.DOUBLE)
+                .seed(12345)
+                .trainingWorkspaceMode(wsm)
+                .inferenceWorkspaceMode(wsm)
+                .updater(new Adam(0.01))
+                .activation(Activation.TANH)
+                .dropOut(new GaussianDropout(0.1))
+                .graphBuilder()
+                .addInputs("in")
+                .addLayer("0", new DenseLayer.Builder().nIn(4).nOut(6).build(), "in");
+        String prev = "0";
+        for (int i = 0; i < 3; i++) {
+            b.addLayer("a" + i, new DenseLayer.Builder().nIn(6).nOut(6).build(), prev)
+                    .addLayer("b" + i, new DenseLayer.Builder().nIn(6).nOut(6).build(), "a" + i)
+                    .addVertex("add" + i, new ElementWiseVertex(ElementWiseVertex.Op.Add), prev, "b" + i);
+            prev = "add" + i;
+        }
+        return b.addLayer("out", new OutputLayer.Builder().nIn(6).nOut(3).activation(Activation.SOFTMAX)
+                        .lossFunction(LossFunctions.LossFunction.MCXENT).build(), prev)
+                .setOutputs("out")
+                .activationCheckpoints(checkpoints)
+                .build();
+    }
+
+    @Test
+    public void testComputationGraph() {
+        INDArray f = Nd4j.rand(DataType.DOUBLE, 5, 4);
+        INDArray l = TestUtils.randomOneHot(5, 3);
+
+        for (WorkspaceMode wsm : new WorkspaceMode[]{WorkspaceMode.ENABLED, WorkspaceMode.NONE}) {
+            ComputationGraph net = new ComputationGraph(getGraphConf(wsm));
+            net.init();
+
+            ComputationGraphConfiguration conf = getGraphConf(wsm, "add0", "add1");
+            assertEquals(conf, ComputationGraphConfiguration.fromJson(conf.toJson()));
+            ComputationGraph netRecompute = new ComputationGraph(conf);
+            netRecompute.init(net.params().dup(), false);
+
+            net.setInputs(f);
+            net.setLabels(l);
+            Nd4j.getRandom().setSeed(12345);
+            net.computeGradientAndScore();
+            netRecompute.setInputs(f);
+            netRecompute.setLabels(l);
+            Nd4j.getRandom().setSeed(12345);
+            netRecompute.computeGradientAndScore();
+
+            assertEquals(wsm.toString(), net.score(), netRecompute.score(), 1e-12);
+            assertEquals(wsm.toString(), net.getGradientsViewArray(), netRecompute.getGradientsViewArray());
+
+            for (int i = 0; i < 3; i++) {
+                Nd4j.getRandom().setSeed(12345 + i);
+                net.fit(new INDArray[]{f}, new INDArray[]{l});
+                Nd4j.getRandom().setSeed(12345 + i);
+                netRecompute.fit(new INDArray[]{f}, new INDArray[]{l});
+            }
+            assertEquals(wsm.toString(), net.params(), netRecompute.params());
+            assertEquals(wsm.toString(), net.outputSingle(f), netRecompute.outputSingle(f));
+        }
+    }
+}
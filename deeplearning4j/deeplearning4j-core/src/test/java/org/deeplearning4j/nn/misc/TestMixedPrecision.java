@@ -0,0 +1,213 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.deeplearning4j.nn.misc;
+
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.TestUtils;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.MixedPrecision;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.nn.updater.BaseMultiLayerUpdater;
+import org.junit.Test;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.learning.config.Adam;
+import org.nd4j.linalg.learning.config.IUpdater;
+import org.nd4j.linalg.learning.config.Sgd;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import static org.junit.Assert.*;
+
+public class TestMixedPrecision extends BaseDL4JTest {
+
+    private static MultiLayerConfiguration getMLNConf(DataType dt, IUpdater updater, MixedPrecision mp) {
+        return new NeuralNetConfiguration.Builder()
+                .dataType(dt)
+                .seed(12345)
+                .updater(updater)
+                .activation(Activation.TANH)
+                .mixedPrecision(mp)
+                .list()
+                .layer(new DenseLayer.Builder().nIn(4).nOut(8).build())
+                .layer(new DenseLayer.Builder().nIn(8).nOut(8).build())
+                .layer(new OutputLayer.Builder().nIn(8).nOut(3).activation(Activation.SOFTMAX)
+                        .lossFunction(LossFunctions.LossFunction.MCXENT).build())
+                .build();
+    }
+
+    private static ComputationGraphConfiguration getCGConf(DataType dt, IUpdater updater, MixedPrecision mp) {
+        return new NeuralNetConfiguration.Builder()
+                .dataType(dt)
+                .seed(12345)
+                .updater(updater)
+                .activation(Activation.TANH)
+                .mixedPrecision(mp)
+                .graphBuilder()
+                .addInputs("in")
+                .addLayer("0", new DenseLayer.Builder().nIn(4).nOut(8).build(), "in")
+                .addLayer("1", new DenseLayer.Builder().nIn(8).nOut(8).build(), "0")
+                .addLayer("out", new OutputLayer.Builder().nIn(8).nOut(3).activation(Activation.SOFTMAX)
+                        .lossFunction(LossFunctions.LossFunction.MCXENT).build(), "1")
+                .setOutputs("out")
+                .build();
+    }
+
+    private static DataSet getData() {
+        Nd4j.getRandom().setSeed(12345);
+        return new DataSet(Nd4j.rand(DataType.FLOAT, 8, 4), TestUtils.randomOneHot(8, 3).castTo(DataType.FLOAT));
+    }
+
+    @Test
+    public void testMultiLayerNetwork() {
+        DataSet ds = getData();
+
+        MultiLayerConfiguration conf = getMLNConf(DataType.HALF, new Sgd(1e-4), new MixedPrecision());
+        assertEquals(conf, MultiLayerConfiguration.fromJson(conf.toJson()));
+        MultiLayerNetwork net = new MultiLayerNetwork(conf);
+        net.init();
+        MultiLayerNetwork ref = new MultiLayerNetwork(getMLNConf(DataType.FLOAT, new Sgd(1e-4), null));
+        ref.init(net.params().castTo(DataType.FLOAT), true);
+
+        INDArray initialParams = net.params().dup();
+        for (int i = 0; i < 5; i++) {
+            net.fit(ds);
+            ref.fit(ds);
+        }
+
+        BaseMultiLayerUpdater<?> u = (BaseMultiLayerUpdater<?>) net.getUpdater();
+        INDArray master = u.getMasterParams();
+        assertEquals(DataType.HALF, net.params().dataType());
+        assertEquals(DataType.FLOAT, master.dataType());
+        assertEquals(master.castTo(DataType.HALF), net.params());
+        assertFalse(u.isLastUpdateSkipped());
+        assertEquals(MixedPrecision.DEFAULT_INITIAL_LOSS_SCALE, u.getLossScale(), 0.0);
+
+        //Updates are too small to be represented in half precision, but are accumulated in the FLOAT master params
+        assertNotEquals(initialParams.castTo(DataType.FLOAT), master);
+        assertTrue(master.equalsWithEps(ref.params(), 1e-5));
+
+        //Larger updates, with FLOAT updater state
+        conf = getMLNConf(DataType.HALF, new Adam(1e-2), new MixedPrecision());
+        net = new MultiLayerNetwork(conf);
+        net.init();
+        ref = new MultiLayerNetwork(getMLNConf(DataType.FLOAT, new Adam(1e-2), null));
+        ref.init(net.params().castTo(DataType.FLOAT), true);
+        for (int i = 0; i < 5; i++) {
+            net.fit(ds);
+            ref.fit(ds);
+        }
+        assertEquals(DataType.FLOAT, net.getUpdater().getStateViewArray().dataType());
+        assertTrue(net.params().castTo(DataType.FLOAT).equalsWithEps(ref.params(), 1e-2));
+        assertEquals(ref.score(ds), net.score(ds), 1e-2);
+    }
+
+    @Test
+    public void testComputationGraph() {
+        DataSet ds = getData();
+
+        ComputationGraphConfiguration conf = getCGConf(DataType.HALF, new Adam(1e-2), new MixedPrecision());
+        assertEquals(conf, ComputationGraphConfiguration.fromJson(conf.toJson()));
+        ComputationGraph net = new ComputationGraph(conf);
+        net.init();
+        ComputationGraph ref = new ComputationGraph(getCGConf(DataType.FLOAT, new Adam(1e-2), null));
+        ref.init(net.params().castTo(DataType.FLOAT), true);
+
+        for (int i = 0; i < 5; i++) {
+            net.fit(ds);
+            ref.fit(ds);
+        }
+
+        BaseMultiLayerUpdater<?> u = net.getUpdater();
+        assertEquals(DataType.FLOAT, u.getMasterParams().dataType());
+        assertEquals(DataType.FLOAT, u.getStateViewArray().dataType());
+        assertEquals(u.getMasterParams().castTo(DataType.HALF), net.params());
+        assertTrue(net.params().castTo(DataType.FLOAT).equalsWithEps(ref.params(), 1e-2));
+        assertEquals(ref.score(ds), net.score(ds), 1e-2);
+    }
+
+    @Test
+    public void testDynamicLossScaling() {
+        DataSet ds = getData();
+
+        //Loss scale is too large for half precision: the first update should be skipped
+        MixedPrecision mp = MixedPrecision.builder().initialLossScale(1e9).backoffFactor(1e-5).growthInterval(2).build();
+        for (boolean graph : new boolean[]{false, true}) {
+            MultiLayerNetwork mln = null;
+            ComputationGraph cg = null;
+            if (graph) {
+                cg = new ComputationGraph(getCGConf(DataType.HALF, new Adam(1e-2), mp));
+                cg.init();
+            } else {
+                mln = new MultiLayerNetwork(getMLNConf(DataType.HALF, new Adam(1e-2), mp));
+                mln.init();
+            }
+            INDArray params = (graph ? cg.params() : mln.params());
+            INDArray initialParams = params.dup();
+
+            if (graph) cg.fit(ds); else mln.fit(ds);
+            BaseMultiLayerUpdater<?> u = (graph ? cg.getUpdater() : (BaseMultiLayerUpdater<?>) mln.getUpdater());
+            assertTrue(u.isLastUpdateSkipped());
+            assertEquals(initialParams, params);
+            assertEquals(1e4, u.getLossScale(), 1e-6);
+
+            if (graph) cg.fit(ds); else mln.fit(ds);
+            assertFalse(u.isLastUpdateSkipped());
+            assertNotEquals(initialParams, params);
+            assertEquals(1e4, u.getLossScale(), 1e-6);
+
+            //Loss scale should be increased after 2 iterations without overflow
+            if (graph) cg.fit(ds); else mln.fit(ds);
+            assertFalse(u.isLastUpdateSkipped());
+            assertEquals(2e4, u.getLossScale(), 1e-6);
+
+            //Master params should be reset if the network params are set directly
+            if (graph) cg.setParams(initialParams); else mln.setParams(initialParams);
+            assertEquals(initialParams.castTo(DataType.FLOAT), u.getMasterParams());
+        }
+    }
+
+    @Test
+    public void testInvalidConfig() {
+        try {
+            getMLNConf(DataType.FLOAT, new Adam(), new MixedPrecision());
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("HALF"));
+        }
+        try {
+            getCGConf(DataType.DOUBLE, new Adam(), new MixedPrecision());
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("HALF"));
+        }
+        try {
+            getMLNConf(DataType.HALF, new Adam(), MixedPrecision.builder().backoffFactor(2.0).build());
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("backoffFactor"));
+        }
+    }
+}
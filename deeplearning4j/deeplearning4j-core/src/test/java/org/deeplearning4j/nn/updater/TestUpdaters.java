@@ -1105,4 +1105,50 @@ public class TestUpdaters extends BaseDL4JTest {
         INDArray expView3 = view.get(interval(0,0,true), interval(start3, start3 + length3));
         assertEquals(expView3, l.get(2));
     }
+
+    @Test
+    public void testRegularizationRanges() {
+        //Layers 0 and 1 have the same L2 for weights and biases: regularization should be applied over one range
+        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
+                .dataType(DataType.DOUBLE)
+                .updater(new Sgd(0.1))
+                .list()
+                .layer(new DenseLayer.Builder().nIn(4).nOut(5).l2(0.2).l2Bias(0.2).build())
+                .layer(new DenseLayer.Builder().nIn(5).nOut(6).l2(0.2).l2Bias(0.2).build())
+                .layer(new OutputLayer.Builder().nIn(6).nOut(3).l2(0.5).activation(Activation.SOFTMAX).build())
+                .build();
+
+        MultiLayerNetwork net = new MultiLayerNetwork(conf);
+        net.init();
+
+        BaseMultiLayerUpdater u = (BaseMultiLayerUpdater) net.getUpdater();
+        assertEquals(1, u.getUpdaterBlocks().size());
+        UpdaterBlock ub = (UpdaterBlock) u.getUpdaterBlocks().get(0);
+        List<UpdaterBlock.RegularizationRange> ranges = ub.getRegularizationRanges();
+        //Output layer: different L2 for the weights, no regularization for the bias
+        assertEquals(2, ranges.size());
+        assertEquals(4, ranges.get(0).getParams().size());
+        assertEquals(0, ranges.get(0).getParamOffsetStart());
+        assertEquals(4 * 5 + 5 + 5 * 6 + 6, ranges.get(0).getParamOffsetEnd());
+        assertEquals(1, ranges.get(1).getParams().size());
+        assertEquals("W", ranges.get(1).getParams().get(0).getParamName());
+
+        //Check the update against the regularization applied separately for each parameter
+        Nd4j.getRandom().setSeed(12345);
+        net.setInput(Nd4j.rand(DataType.DOUBLE, 8, 4));
+        net.setLabels(Nd4j.rand(DataType.DOUBLE, 8, 3));
+        net.computeGradientAndScore();
+        Gradient g = net.gradient();
+        Map<String, INDArray> expected = new LinkedHashMap<>();
+        for (Map.Entry<String, INDArray> e : g.gradientForVariable().entrySet()) {
+            double l2 = e.getKey().equals("2_W") ? 0.5 : (e.getKey().equals("2_b") ? 0.0 : 0.2);
+            INDArray p = net.getParam(e.getKey());
+            expected.put(e.getKey(), e.getValue().div(8).addi(p.mul(l2)).muli(0.1));
+        }
+
+        u.update(g, 0, 0, 8, LayerWorkspaceMgr.noWorkspaces());
+        for (Map.Entry<String, INDArray> e : expected.entrySet()) {
+            assertEquals(e.getKey(), e.getValue(), g.getGradientFor(e.getKey()));
+        }
+    }
 }
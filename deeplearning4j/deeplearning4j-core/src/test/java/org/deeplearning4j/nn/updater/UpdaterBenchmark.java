@@ -0,0 +1,143 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.nn.updater;
+
+import org.deeplearning4j.nn.api.Updater;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.BatchNormalization;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.gradient.Gradient;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.nn.workspace.LayerWorkspaceMgr;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.learning.config.*;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark for the optimizer step of a {@link MultiLayerNetwork}: the updater alone (normalization, regularization
+ * and the gradient updater for each {@link UpdaterBlock}), and a full fit iteration.<br>
+ * The network alternates dense and batch normalization layers: the batch norm mean/variance parameters are not trained
+ * by the updater, so the updater has many small blocks.<br>
+ * Not a unit test: run it via {@link #main(String[])} from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UpdaterBenchmark {
+
+    @Param({"adam", "nesterovs", "rmsprop", "amsgrad"})
+    public String updater;
+
+    @Param({"16", "256"})
+    public int layerSize;
+
+    @Param({"8"})
+    public int numLayers;
+
+    private MultiLayerNetwork net;
+    private Updater netUpdater;
+    private Gradient gradient;
+    private INDArray gradientCopy;
+    private DataSet data;
+    private int iteration;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        NeuralNetConfiguration.ListBuilder b = new NeuralNetConfiguration.Builder()
+                .dataType(DataType.FLOAT)
+                .seed(12345)
+                .updater(updater(updater))
+                .l2(1e-4)
+                .list();
+        for (int i = 0; i < numLayers; i++) {
+            b.layer(new DenseLayer.Builder().nIn(layerSize).nOut(layerSize).activation(Activation.TANH).build());
+            b.layer(new BatchNormalization.Builder().nOut(layerSize).build());
+        }
+        b.layer(new OutputLayer.Builder().nIn(layerSize).nOut(10).activation(Activation.SOFTMAX)
+                .lossFunction(LossFunctions.LossFunction.MCXENT).build());
+
+        MultiLayerConfiguration conf = b.build();
+        net = new MultiLayerNetwork(conf);
+        net.init();
+
+        Nd4j.getRandom().setSeed(12345);
+        INDArray features = Nd4j.rand(DataType.FLOAT, 32, layerSize);
+        INDArray labels = Nd4j.zeros(DataType.FLOAT, 32, 10);
+        for (int i = 0; i < 32; i++)
+            labels.putScalar(i, i % 10, 1.0);
+        data = new DataSet(features, labels);
+
+        net.setInput(features);
+        net.setLabels(labels);
+        net.computeGradientAndScore();
+        gradient = net.gradient();
+        gradientCopy = gradient.gradient().dup();
+        netUpdater = net.getUpdater();
+    }
+
+    private static IUpdater updater(String name) {
+        switch (name) {
+            case "adam":
+                return new Adam(1e-3);
+            case "nesterovs":
+                return new Nesterovs(1e-2, 0.9);
+            case "rmsprop":
+                return new RmsProp(1e-3);
+            case "amsgrad":
+                return new AMSGrad(1e-3);
+            default:
+                throw new IllegalArgumentException("Unknown updater: " + name);
+        }
+    }
+
+    @Benchmark
+    public INDArray updaterStep() {
+        //The updater modifies the gradient view in-place
+        gradient.gradient().assign(gradientCopy);
+        netUpdater.update(net, gradient, iteration++, 0, 32, LayerWorkspaceMgr.noWorkspaces());
+        return gradient.gradient();
+    }
+
+    @Benchmark
+    public MultiLayerNetwork fitIteration() {
+        net.fit(data);
+        return net;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(UpdaterBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,304 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.deeplearning4j.optimize.solver.accumulation;
+
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.optimize.solvers.accumulation.AllReduceGradientsAccumulator;
+import org.deeplearning4j.optimize.solvers.accumulation.allreduce.AllReduceAlgorithm;
+import org.deeplearning4j.optimize.solvers.accumulation.allreduce.AllReduceTransport;
+import org.deeplearning4j.optimize.solvers.accumulation.allreduce.AllReducer;
+import org.deeplearning4j.optimize.solvers.accumulation.allreduce.LocalAllReduceTransport;
+import org.deeplearning4j.optimize.solvers.accumulation.allreduce.SocketAllReduceTransport;
+import org.deeplearning4j.optimize.stepfunctions.NegativeGradientStepFunction;
+import org.junit.Test;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.learning.config.Sgd;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class AllReduceTest extends BaseDL4JTest {
+
+    @Override
+    public long getTimeoutMilliseconds() {
+        return 240000L;
+    }
+
+    @Test
+    public void testLocalTransport() throws Exception {
+        for (AllReduceAlgorithm algorithm : AllReduceAlgorithm.values()) {
+            for (int n = 1; n <= 5; n++) {
+                //Small buckets and chunks: multiple buckets, multiple chunks per segment, and empty segments
+                List<AllReduceTransport> group = LocalAllReduceTransport.createGroup(n);
+                checkSum(group, algorithm, 1003, 300, 17);
+                checkSum(group, algorithm, 3, 300, 17);
+
+                //Bytes sent: 2 * (n-1)/n * length per member, independent of the number of members
+                long length = 4000;
+                group = LocalAllReduceTransport.createGroup(n);
+                checkSum(group, algorithm, length, length, 64);
+                long expBytes = 2 * (n - 1) * length * DataType.DOUBLE.width() / n;
+                for (AllReduceTransport t : group) {
+                    String msg = algorithm + ", n=" + n + ", rank=" + t.getRank();
+                    assertEquals(msg, expBytes, t.getBytesSent(), 2 * n * DataType.DOUBLE.width());
+                    assertEquals(msg, t.getBytesSent(), t.getBytesReceived(), 2 * n * DataType.DOUBLE.width());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSocketTransport() throws Exception {
+        int n = 4;
+        final List<InetSocketAddress> addresses = loopbackAddresses(n);
+        ExecutorService exec = Executors.newFixedThreadPool(n);
+        try {
+            List<Future<AllReduceTransport>> futures = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                final int rank = i;
+                futures.add(exec.submit(new Callable<AllReduceTransport>() {
+                    @Override
+                    public AllReduceTransport call() throws Exception {
+                        return new SocketAllReduceTransport(rank, addresses, 60000L);
+                    }
+                }));
+            }
+            List<AllReduceTransport> group = new ArrayList<>();
+            for (Future<AllReduceTransport> f : futures)
+                group.add(f.get());
+
+            for (AllReduceAlgorithm algorithm : AllReduceAlgorithm.values())
+                checkSum(group, algorithm, 100003, 40000, 1000);
+
+            for (AllReduceTransport t : group)
+                t.close();
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSocketTransportMultipleJvms() throws Exception {
+        int n = 3;
+        List<InetSocketAddress> addresses = loopbackAddresses(n);
+        StringBuilder ports = new StringBuilder();
+        for (InetSocketAddress a : addresses)
+            ports.append(ports.length() > 0 ? "," : "").append(a.getPort());
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String cp = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+        List<Process> processes = new ArrayList<>();
+        try {
+            for (int i = 0; i < n; i++) {
+                ProcessBuilder pb = new ProcessBuilder(java, "-cp", cp, Member.class.getName(), String.valueOf(i), ports.toString());
+                pb.inheritIO();
+                processes.add(pb.start());
+            }
+            for (int i = 0; i < n; i++) {
+                Process p = processes.get(i);
+                assertTrue("Member " + i + " did not finish", p.waitFor(180, TimeUnit.SECONDS));
+                assertEquals("Member " + i + " failed", 0, p.exitValue());
+            }
+        } finally {
+            for (Process p : processes)
+                p.destroy();
+        }
+    }
+
+    /**
+     * Allreduce group member, run in a separate JVM by {@link #testSocketTransportMultipleJvms()}.
+     * Arguments: rank, comma-separated loopback ports of all members
+     */
+    public static class Member {
+        public static void main(String[] args) throws Exception {
+            int rank = Integer.parseInt(args[0]);
+            List<InetSocketAddress> addresses = new ArrayList<>();
+            for (String s : args[1].split(","))
+                addresses.add(new InetSocketAddress("127.0.0.1", Integer.parseInt(s)));
+
+            int length = 100000;
+            SocketAllReduceTransport transport = new SocketAllReduceTransport(rank, addresses, 120000L);
+            INDArray arr = memberArray(rank, length);
+            new AllReducer(transport, AllReduceAlgorithm.RING, 30000, 4096).sum(arr);
+            transport.close();
+
+            INDArray exp = memberArray(0, length);
+            for (int i = 1; i < addresses.size(); i++)
+                exp.addi(memberArray(i, length));
+            System.exit(exp.equals(arr) ? 0 : 1);
+        }
+    }
+
+    @Test
+    public void testAccumulator() throws Exception {
+        //2 members, each with 2 local workers: every worker should apply the average update of all 4 workers
+        final int members = 2;
+        final int workers = 2;
+        final int length = 1000;
+        List<AllReduceTransport> group = LocalAllReduceTransport.createGroup(members);
+        final List<AllReduceGradientsAccumulator> accumulators = new ArrayList<>();
+        for (int i = 0; i < members; i++)
+            accumulators.add(new AllReduceGradientsAccumulator(workers, group.get(i)));
+
+        ExecutorService exec = Executors.newFixedThreadPool(members * workers);
+        try {
+            List<Future<INDArray>> futures = new ArrayList<>();
+            for (int i = 0; i < members * workers; i++) {
+                final int w = i;
+                futures.add(exec.submit(new Callable<INDArray>() {
+                    @Override
+                    public INDArray call() {
+                        AllReduceGradientsAccumulator acc = accumulators.get(w / workers);
+                        INDArray params = Nd4j.zeros(DataType.FLOAT, 1, length);
+                        for (int iter = 0; iter < 3; iter++) {
+                            INDArray update = Nd4j.valueArrayOf(new long[]{1, length}, (float) (w + iter));
+                            acc.storeUpdate(update, iter, 0);
+                            acc.applyUpdate(new NegativeGradientStepFunction(), params, update, true);
+                        }
+                        return params;
+                    }
+                }));
+            }
+
+            //Mean update per iteration: 1.5 + iter => sum over 3 iterations: 7.5
+            INDArray exp = Nd4j.valueArrayOf(new long[]{1, length}, -7.5f);
+            for (Future<INDArray> f : futures)
+                assertEquals(exp, f.get());
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAccumulatorTraining() throws Exception {
+        //Data parallel training with SGD on 2 halves of the minibatch should match training on the full minibatch
+        Nd4j.getRandom().setSeed(12345);
+        final DataSet ds = new DataSet(Nd4j.rand(DataType.DOUBLE, 8, 4), Nd4j.rand(DataType.DOUBLE, 8, 3));
+        MultiLayerNetwork single = net();
+        final List<MultiLayerNetwork> nets = Arrays.asList(net(), net());
+        for (int i = 0; i < 3; i++)
+            single.fit(ds);
+
+        final List<AllReduceTransport> group = LocalAllReduceTransport.createGroup(2);
+        ExecutorService exec = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                final int rank = i;
+                futures.add(exec.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        MultiLayerNetwork net = nets.get(rank);
+                        net.setGradientsAccumulator(new AllReduceGradientsAccumulator(1, group.get(rank)));
+                        DataSet half = (DataSet) ds.getRange(4 * rank, 4 * rank + 4);
+                        for (int i = 0; i < 3; i++)
+                            net.fit(half);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> f : futures)
+                f.get();
+        } finally {
+            exec.shutdownNow();
+        }
+
+        assertEquals(nets.get(0).params(), nets.get(1).params());
+        assertTrue(single.params().equalsWithEps(nets.get(0).params(), 1e-10));
+    }
+
+    private static MultiLayerNetwork net() {
+        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
+                .dataType(DataType.DOUBLE)
+                .seed(12345)
+                .updater(new Sgd(0.1))
+                .list()
+                .layer(new DenseLayer.Builder().nIn(4).nOut(5).activation(Activation.TANH).build())
+                .layer(new OutputLayer.Builder().nIn(5).nOut(3).activation(Activation.IDENTITY)
+                        .lossFunction(LossFunctions.LossFunction.MSE).build())
+                .build();
+        MultiLayerNetwork net = new MultiLayerNetwork(conf);
+        net.init();
+        return net;
+    }
+
+    private static void checkSum(final List<AllReduceTransport> group, final AllReduceAlgorithm algorithm,
+                                 final long length, final long bucketSize, final int chunkSize) throws Exception {
+        int n = group.size();
+        ExecutorService exec = Executors.newFixedThreadPool(n);
+        try {
+            List<Future<INDArray>> futures = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                final int rank = i;
+                futures.add(exec.submit(new Callable<INDArray>() {
+                    @Override
+                    public INDArray call() {
+                        INDArray arr = memberArray(rank, length);
+                        new AllReducer(group.get(rank), algorithm, bucketSize, chunkSize).sum(arr);
+                        return arr;
+                    }
+                }));
+            }
+
+            INDArray exp = memberArray(0, length);
+            for (int i = 1; i < n; i++)
+                exp.addi(memberArray(i, length));
+            for (int i = 0; i < n; i++)
+                assertEquals(algorithm + ", n=" + n + ", rank=" + i, exp, futures.get(i).get());
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    private static INDArray memberArray(int rank, long length) {
+        return Nd4j.linspace(DataType.DOUBLE, 1, length, 1).muli(rank + 1).addi(rank);
+    }
+
+    private static List<InetSocketAddress> loopbackAddresses(int n) throws Exception {
+        List<InetSocketAddress> out = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            try (ServerSocket s = new ServerSocket(0)) {
+                out.add(new InetSocketAddress("127.0.0.1", s.getLocalPort()));
+            }
+        }
+        return out;
+    }
+}
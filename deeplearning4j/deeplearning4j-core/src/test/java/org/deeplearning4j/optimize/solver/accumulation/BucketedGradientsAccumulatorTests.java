@@ -0,0 +1,312 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.optimize.solver.accumulation;
+
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.nn.conf.GradientNormalization;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.nn.updater.BaseMultiLayerUpdater;
+import org.deeplearning4j.nn.workspace.LayerWorkspaceMgr;
+import org.deeplearning4j.optimize.api.StepFunction;
+import org.deeplearning4j.optimize.solvers.accumulation.EncodedGradientsAccumulator;
+import org.deeplearning4j.optimize.solvers.accumulation.EncodingHandler;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.UpdateDecoder;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.encoder.SignEncoder;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.encoder.TopKEncoder;
+import org.deeplearning4j.optimize.stepfunctions.NegativeGradientStepFunction;
+import org.junit.Test;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.nd4j.linalg.learning.config.Adam;
+import org.nd4j.linalg.learning.config.Nesterovs;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class BucketedGradientsAccumulatorTests extends BaseDL4JTest {
+
+    @Test
+    public void testBucketRoundTrip() {
+        Nd4j.getRandom().setSeed(12345);
+        INDArray bucket = Nd4j.rand(DataType.FLOAT, 100).subi(0.5);
+        INDArray encoded = new SignEncoder().encode(0, 0, bucket.dup());
+        INDArray exp = Nd4j.create(DataType.FLOAT, 100);
+        UpdateDecoder.decode(encoded, exp);
+
+        INDArray wrapped = UpdateDecoder.wrapBucket(encoded, 150, 100);
+        assertEquals(UpdateDecoder.BUCKET_ENCODING, wrapped.data().getInt(3));
+        INDArray target = Nd4j.ones(DataType.FLOAT, 1, 300);
+        UpdateDecoder.decode(wrapped, target);
+
+        assertEquals(Nd4j.ones(DataType.FLOAT, 1, 150), target.get(NDArrayIndex.all(), NDArrayIndex.interval(0, 150)));
+        assertEquals(Nd4j.ones(DataType.FLOAT, 1, 50), target.get(NDArrayIndex.all(), NDArrayIndex.interval(250, 300)));
+        assertEquals(exp.add(1.0).reshape(1, 100), target.get(NDArrayIndex.all(), NDArrayIndex.interval(150, 250)));
+    }
+
+    @Test
+    public void testRangesAndBuckets() {
+        EncodedGradientsAccumulator accumulator = new EncodedGradientsAccumulator.Builder(1)
+                .updateEncoder(new SignEncoder())
+                .bucketSize(10)
+                .memoryParameters(1024 * 1024L, 4)
+                .build();
+        accumulator.fallbackToSingleConsumerMode(true);
+        accumulator.touch();
+        assertTrue(accumulator.isBucketed());
+
+        //Positive and negative values only: sign encoding must cover every value, exactly once
+        INDArray updates = Nd4j.rand(DataType.FLOAT, 1, 50).addi(0.5);
+        updates.get(NDArrayIndex.all(), NDArrayIndex.interval(0, 50, 2)).negi();
+        INDArray original = updates.dup();
+
+        accumulator.storeUpdate(updates, 40, 50, 0, 0);
+        accumulator.storeUpdate(updates, 26, 30, 0, 0);
+        accumulator.storeUpdate(updates, 20, 26, 0, 0);
+        accumulator.storeUpdate(updates, 0, 5, 0, 0);
+        accumulator.storeUpdate(updates, 5, 20, 0, 0);
+        //Remaining range [30, 40) is stored by the final call
+        accumulator.storeUpdate(updates, 0, 0);
+        assertEquals(original, updates);
+
+        //Buckets: [40,50), [20,30) (merged), [0,20) (merged), [30,40)
+        EncodingHandler handler = (EncodingHandler) accumulator.getHandler();
+        assertEquals(4, handler.getUpdatesEncoded());
+        assertEquals(4, accumulator.getMessages().get(0).size());
+
+        INDArray decoded = Nd4j.create(DataType.FLOAT, 1, 50);
+        for (INDArray message : accumulator.getMessages().get(0))
+            UpdateDecoder.decode(message, decoded);
+        assertEquals(Transforms.sign(original), Transforms.sign(decoded));
+    }
+
+    @Test(timeout = 60000L)
+    public void testGatedApply() throws Exception {
+        final EncodedGradientsAccumulator accumulator = new EncodedGradientsAccumulator.Builder(2)
+                .updateEncoder(new SignEncoder())
+                .bucketSize(10)
+                .memoryParameters(1024 * 1024L, 4)
+                .build();
+        final StepFunction step = new NegativeGradientStepFunction();
+
+        //Values of equal magnitude: sign encoding is exact. Both workers store the same updates
+        final INDArray updates = Nd4j.valueArrayOf(new long[]{1, 30}, 0.5f, DataType.FLOAT);
+        updates.get(NDArrayIndex.all(), NDArrayIndex.interval(0, 30, 2)).negi();
+        final INDArray[] params = new INDArray[]{Nd4j.zeros(DataType.FLOAT, 1, 30), Nd4j.zeros(DataType.FLOAT, 1, 30)};
+
+        //Separate thread for each worker, as the accumulator state is per thread
+        ExecutorService[] workers = new ExecutorService[]{Executors.newSingleThreadExecutor(), Executors.newSingleThreadExecutor()};
+        try {
+            accumulator.registerConsumers(2);
+            for (int i = 0; i < 2; i++) {
+                workers[i].submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        accumulator.touch();
+                    }
+                }).get();
+            }
+
+            //Buckets [20,30), [10,20) stored during backprop, [0,10) stored by the final call
+            Runnable store = new Runnable() {
+                @Override
+                public void run() {
+                    accumulator.storeUpdate(updates, 20, 30, 0, 0);
+                    accumulator.storeUpdate(updates, 10, 20, 0, 0);
+                    accumulator.storeUpdate(updates, 0, 0);
+                }
+            };
+            workers[0].submit(store).get();
+
+            //Forward pass for the first layer: has to wait for the updates of worker 1
+            Future<?> firstLayer = workers[0].submit(new Runnable() {
+                @Override
+                public void run() {
+                    accumulator.applyUpdate(step, params[0], 0, 5);
+                }
+            });
+            Thread.sleep(500);
+            assertFalse(firstLayer.isDone());
+            assertEquals(Nd4j.zeros(DataType.FLOAT, 1, 30), params[0]);
+
+            workers[1].submit(store).get();
+            firstLayer.get();
+
+            //Only the bucket containing the range has been applied
+            INDArray exp = updates.mul(-2);
+            assertEquals(exp.get(NDArrayIndex.all(), NDArrayIndex.interval(0, 10)), params[0].get(NDArrayIndex.all(), NDArrayIndex.interval(0, 10)));
+            assertEquals(Nd4j.zeros(DataType.FLOAT, 1, 20), params[0].get(NDArrayIndex.all(), NDArrayIndex.interval(10, 30)));
+
+            //All workers have stored their updates: next round can be registered without waiting for the updates to be applied
+            accumulator.registerConsumers(2);
+
+            for (int i = 0; i < 2; i++) {
+                final int idx = i;
+                workers[i].submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        accumulator.applyRemainingUpdates(step, params[idx]);
+                    }
+                }).get();
+                assertEquals(exp, params[i]);
+            }
+        } finally {
+            for (ExecutorService e : workers)
+                e.shutdownNow();
+            accumulator.reset();
+        }
+    }
+
+    @Test
+    public void testLayerwiseUpdate() {
+        Nd4j.getRandom().setSeed(12345);
+        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
+                .dataType(DataType.DOUBLE)
+                .seed(12345)
+                .updater(new Adam(0.01))
+                .list()
+                .layer(new DenseLayer.Builder().nIn(4).nOut(10).activation(Activation.TANH).l2(1e-2).build())
+                .layer(new DenseLayer.Builder().nIn(10).nOut(10).activation(Activation.TANH).weightDecay(1e-2)
+                        .gradientNormalization(GradientNormalization.ClipL2PerLayer).gradientNormalizationThreshold(0.1).build())
+                .layer(new DenseLayer.Builder().nIn(10).nOut(10).activation(Activation.TANH).updater(new NonElementWiseAdam(0.02)).build())
+                .layer(new OutputLayer.Builder().nIn(10).nOut(3).activation(Activation.SOFTMAX).updater(new NonElementWiseAdam(0.02))
+                        .lossFunction(LossFunctions.LossFunction.MCXENT).build())
+                .build();
+        MultiLayerNetwork n1 = new MultiLayerNetwork(conf);
+        n1.init();
+        MultiLayerNetwork n2 = n1.clone();
+
+        INDArray f = Nd4j.rand(DataType.DOUBLE, 8, 4);
+        INDArray l = Nd4j.zeros(DataType.DOUBLE, 8, 3);
+        for (int i = 0; i < 8; i++)
+            l.putScalar(i, i % 3, 1.0);
+
+        BaseMultiLayerUpdater<?> u1 = (BaseMultiLayerUpdater<?>) n1.getUpdater();
+        BaseMultiLayerUpdater<?> u2 = (BaseMultiLayerUpdater<?>) n2.getUpdater();
+        LayerWorkspaceMgr mgr = LayerWorkspaceMgr.noWorkspaces();
+        for (int iter = 0; iter < 3; iter++) {
+            for (MultiLayerNetwork n : new MultiLayerNetwork[]{n1, n2}) {
+                n.setInput(f);
+                n.setLabels(l);
+                n.computeGradientAndScore();
+            }
+            u1.update(n1.gradient(), iter, 0, 8, mgr);
+
+            //Layers 0 and 1 (Adam): updated one layer at a time. Layers 2 and 3: updated once both are done
+            List<long[]> ranges = new ArrayList<>();
+            for (int i = n2.getnLayers() - 1; i >= 0; i--) {
+                List<long[]> r = u2.updateLayer(n2.getLayer(i), iter, 0, 8, mgr);
+                assertEquals(i == 3 ? 0 : 1, r.size());
+                ranges.addAll(r);
+            }
+            u2.update(n2.gradient(), iter, 0, 8, mgr);
+
+            long covered = 0;
+            for (long[] r : ranges)
+                covered += r[1] - r[0];
+            assertEquals(n2.numParams(), covered);
+            assertEquals(n2.getLayer(2).numParams() + n2.getLayer(3).numParams(), ranges.get(0)[1] - ranges.get(0)[0]);
+
+            assertTrue(n1.gradient().gradient().equalsWithEps(n2.gradient().gradient(), 1e-10));
+            assertTrue(u1.getStateViewArray().equalsWithEps(u2.getStateViewArray(), 1e-10));
+        }
+    }
+
+    @Test
+    public void testBucketedTraining() {
+        Nd4j.getRandom().setSeed(12345);
+        DataSet ds = new DataSet(Nd4j.rand(DataType.FLOAT, 32, 4), Nd4j.rand(DataType.FLOAT, 32, 3));
+        for (boolean graph : new boolean[]{false, true}) {
+            MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
+                    .dataType(DataType.FLOAT)
+                    .seed(12345)
+                    .updater(new Nesterovs(0.05, 0.9))
+                    .list()
+                    .layer(new DenseLayer.Builder().nIn(4).nOut(32).activation(Activation.TANH).build())
+                    .layer(new DenseLayer.Builder().nIn(32).nOut(32).activation(Activation.TANH).build())
+                    .layer(new OutputLayer.Builder().nIn(32).nOut(3).activation(Activation.IDENTITY)
+                            .lossFunction(LossFunctions.LossFunction.MSE).build())
+                    .build();
+            MultiLayerNetwork net = new MultiLayerNetwork(conf);
+            net.init();
+            ComputationGraph cg = (graph ? net.toComputationGraph() : null);
+
+            //Bucket size 1: one bucket per layer
+            EncodedGradientsAccumulator accumulator = new EncodedGradientsAccumulator.Builder(1)
+                    .updateEncoder(new TopKEncoder(1.0 / 32))
+                    .bucketSize(1)
+                    .memoryParameters(1024 * 1024L, 4)
+                    .build();
+            accumulator.fallbackToSingleConsumerMode(true);
+            accumulator.touch();
+
+            int iterations = 50;
+            double first;
+            double last;
+            if (graph) {
+                cg.setGradientsAccumulator(accumulator);
+                first = cg.score(ds);
+                for (int i = 0; i < iterations; i++)
+                    cg.fit(ds);
+                last = cg.score(ds);
+            } else {
+                net.setGradientsAccumulator(accumulator);
+                first = net.score(ds);
+                for (int i = 0; i < iterations; i++)
+                    net.fit(ds);
+                last = net.score(ds);
+            }
+            log.info("Graph: {}, score {} -> {}", graph, first, last);
+            assertTrue(first + " -> " + last, last < first);
+
+            EncodingHandler handler = (EncodingHandler) accumulator.getHandler();
+            assertEquals(3 * iterations, handler.getUpdatesEncoded());
+            accumulator.reset();
+        }
+    }
+
+    /**
+     * Adam, but not recognized as an element-wise updater: the updater blocks using it are not updated one layer at a time
+     */
+    public static class NonElementWiseAdam extends Adam {
+        public NonElementWiseAdam(double learningRate) {
+            super(learningRate);
+        }
+
+        @Override
+        public Adam clone() {
+            return new NonElementWiseAdam(getLearningRate());
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.optimize.solver.accumulation;
+
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.optimize.solvers.accumulation.EncodedGradientsAccumulator;
+import org.deeplearning4j.optimize.solvers.accumulation.EncodingHandler;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.UpdateDecoder;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.UpdateEncoder;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.encoder.LowRankEncoder;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.encoder.SignEncoder;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.encoder.TopKEncoder;
+import org.junit.Test;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.nd4j.linalg.learning.config.Sgd;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class UpdateEncoderTests extends BaseDL4JTest {
+
+    @Test
+    public void testErrorFeedback() {
+        Nd4j.getRandom().setSeed(12345);
+        UpdateEncoder[] encoders = {new TopKEncoder(1.0 / 32), new SignEncoder(), new LowRankEncoder(2)};
+        for (UpdateEncoder e : encoders) {
+            for (DataType dt : new DataType[]{DataType.FLOAT, DataType.DOUBLE}) {
+                INDArray original = Nd4j.rand(dt, 1, 1000).subi(0.5);
+                INDArray residual = original.dup();
+                INDArray encoded = e.encode(0, 0, residual);
+                assertNotNull(encoded);
+                assertTrue(UpdateDecoder.isEncoded(encoded));
+
+                //Decoded message plus the residual must be the original updates
+                INDArray decoded = Nd4j.create(dt, 1, 1000);
+                UpdateDecoder.decode(encoded, decoded);
+                assertTrue(e.toString(), original.equalsWithEps(decoded.add(residual), 1e-5));
+                assertNotEquals(e.toString(), original, residual);
+            }
+        }
+    }
+
+    @Test
+    public void testNothingToEncode() {
+        INDArray zeros = Nd4j.create(DataType.FLOAT, 1, 100);
+        assertNull(new TopKEncoder(1.0 / 32).encode(0, 0, zeros));
+        assertNull(new SignEncoder().encode(0, 0, zeros));
+        assertNull(new LowRankEncoder(1).encode(0, 0, zeros));
+    }
+
+    @Test
+    public void testTopK() {
+        int[] positions = {3, 17, 50, 99, 100, 150, 201, 250, 300, 319};
+        INDArray updates = Nd4j.rand(DataType.FLOAT, 1, 320).muli(1e-3);
+        for (int i = 0; i < positions.length; i++)
+            updates.putScalar(positions[i], (i % 2 == 0 ? 1 : -1) * (i + 1.0));
+        INDArray original = updates.dup();
+
+        //320 * 1/32 = 10 values
+        INDArray encoded = new TopKEncoder(1.0 / 32).encode(0, 0, updates);
+        assertEquals(4 + 2 * positions.length, encoded.length());
+
+        INDArray decoded = Nd4j.create(DataType.FLOAT, 1, 320);
+        UpdateDecoder.decode(encoded, decoded);
+        for (int i = 0; i < 320; i++) {
+            boolean selected = false;
+            for (int p : positions)
+                selected |= p == i;
+            if (selected) {
+                assertEquals(original.getDouble(i), decoded.getDouble(i), 0.0);
+                assertEquals(0.0, updates.getDouble(i), 0.0);
+            } else {
+                assertEquals(0.0, decoded.getDouble(i), 0.0);
+                assertEquals(original.getDouble(i), updates.getDouble(i), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testSign() {
+        INDArray updates = Nd4j.createFromArray(new float[]{1.0f, -2.0f, 3.0f, -4.0f, 0.0f}).reshape(1, 5);
+        INDArray encoded = new SignEncoder().encode(0, 0, updates);
+        //4 header values + 1 int for 5 bits
+        assertEquals(5, encoded.length());
+
+        INDArray decoded = Nd4j.create(DataType.FLOAT, 1, 5);
+        UpdateDecoder.decode(encoded, decoded);
+        assertEquals(Nd4j.createFromArray(new float[]{2.0f, -2.0f, 2.0f, -2.0f, 2.0f}).reshape(1, 5), decoded);
+        assertEquals(Nd4j.createFromArray(new float[]{-1.0f, 0.0f, 1.0f, -2.0f, -2.0f}).reshape(1, 5), updates);
+
+        //1 bit per value
+        INDArray large = Nd4j.rand(DataType.FLOAT, 1, 3200);
+        assertEquals(4 + 100, new SignEncoder().encode(0, 0, large).length());
+    }
+
+    @Test
+    public void testLowRank() {
+        //Rank 1 matrix, when reshaped to 8x8: recovered exactly by a rank 1 approximation
+        INDArray u = Nd4j.rand(DataType.FLOAT, 8, 1);
+        INDArray v = Nd4j.rand(DataType.FLOAT, 1, 8).subi(0.5);
+        INDArray m = u.mmul(v);
+        INDArray updates = m.reshape(1, 64).dup();
+
+        INDArray encoded = new LowRankEncoder(1).encode(0, 0, updates);
+        //header + segment header + 8 values for P + 8 values for Q
+        assertEquals(4 + 4 + 8 + 8, encoded.length());
+        assertEquals(0.0, updates.norm2Number().doubleValue(), 1e-5);
+
+        INDArray decoded = Nd4j.create(DataType.FLOAT, 1, 64);
+        UpdateDecoder.decode(encoded, decoded);
+        assertTrue(m.reshape(1, 64).equalsWithEps(decoded, 1e-5));
+    }
+
+    @Test
+    public void testLowRankParamLayout() {
+        Nd4j.getRandom().setSeed(12345);
+        MultiLayerNetwork net = net();
+        LowRankEncoder e = LowRankEncoder.forModel(1, net);
+        assertEquals(2, e.getParamLayout().length);
+
+        //Weights ('f' order): 4x32 at 0 and 32x3 at 160, compressed as 32x4 and 3x32 matrices. Biases are dense
+        INDArray original = Nd4j.rand(DataType.FLOAT, 1, net.numParams()).subi(0.5);
+        INDArray residual = original.dup();
+        INDArray encoded = e.encode(0, 0, residual);
+        assertEquals(4 + (4 + 32 + 4) + (4 + 32) + (4 + 3 + 32) + (4 + 3), encoded.length());
+        INDArray decoded = Nd4j.create(DataType.FLOAT, 1, net.numParams());
+        UpdateDecoder.decode(encoded, decoded);
+        assertTrue(original.equalsWithEps(decoded.add(residual), 1e-5));
+        assertEquals(original.get(NDArrayIndex.point(0), NDArrayIndex.interval(128, 160)),
+                decoded.get(NDArrayIndex.point(0), NDArrayIndex.interval(128, 160)));
+
+        //Bucket [150, 250): the first 2 columns of the second weight matrix are compressed, the rest is dense
+        INDArray bucket = original.get(NDArrayIndex.point(0), NDArrayIndex.interval(150, 250)).dup();
+        residual = bucket.dup();
+        encoded = e.forBucket(150).encode(0, 0, residual);
+        assertEquals(4 + (4 + 10) + (4 + 2 + 32) + (4 + 26), encoded.length());
+        decoded = Nd4j.create(DataType.FLOAT, 100);
+        UpdateDecoder.decode(encoded, decoded);
+        assertTrue(bucket.equalsWithEps(decoded.add(residual), 1e-5));
+    }
+
+    @Test
+    public void testEncodingHandlerStats() {
+        EncodingHandler handler = new EncodingHandler(new SignEncoder(), false);
+        for (int i = 0; i < 3; i++) {
+            INDArray encoded = handler.encodeUpdates(i, 0, Nd4j.rand(DataType.FLOAT, 1, 3200));
+            assertNotNull(encoded);
+        }
+
+        assertEquals(3, handler.getUpdatesEncoded());
+        assertEquals(3, handler.getMessagesEncoded());
+        assertEquals(3 * 3200 * 4, handler.getOriginalBytes());
+        assertEquals(3 * 104 * 4, handler.getEncodedBytes());
+        assertEquals(104.0 / 3200, handler.getCompressionRatio(), 1e-6);
+    }
+
+    @Test
+    public void testTraining() {
+        Nd4j.getRandom().setSeed(12345);
+        DataSet ds = new DataSet(Nd4j.rand(DataType.FLOAT, 32, 4), Nd4j.rand(DataType.FLOAT, 32, 3));
+        UpdateEncoder[] encoders = {new TopKEncoder(1.0 / 32), new SignEncoder(), new LowRankEncoder(1)};
+        for (UpdateEncoder e : encoders) {
+            MultiLayerNetwork net = net();
+            EncodedGradientsAccumulator accumulator = new EncodedGradientsAccumulator.Builder(1)
+                    .updateEncoder(e)
+                    .memoryParameters(1024 * 1024L, 4)
+                    .build();
+            accumulator.fallbackToSingleConsumerMode(true);
+            accumulator.touch();
+            net.setGradientsAccumulator(accumulator);
+
+            double first = net.score(ds);
+            for (int i = 0; i < 50; i++)
+                net.fit(ds);
+            double last = net.score(ds);
+            log.info("{}: score {} -> {}", e, first, last);
+            assertTrue(e + ": " + first + " -> " + last, last < first);
+        }
+    }
+
+    private static MultiLayerNetwork net() {
+        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
+                .dataType(DataType.FLOAT)
+                .seed(12345)
+                .updater(new Sgd(0.1))
+                .list()
+                .layer(new DenseLayer.Builder().nIn(4).nOut(32).activation(Activation.TANH).build())
+                .layer(new OutputLayer.Builder().nIn(32).nOut(3).activation(Activation.IDENTITY)
+                        .lossFunction(LossFunctions.LossFunction.MSE).build())
+                .build();
+        MultiLayerNetwork net = new MultiLayerNetwork(conf);
+        net.init();
+        return net;
+    }
+}
@@ -33,6 +33,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.DataSet;
 import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
@@ -40,6 +41,7 @@ import org.nd4j.linalg.dataset.api.preprocessor.Normalizer;
 import org.nd4j.linalg.dataset.api.preprocessor.NormalizerMinMaxScaler;
 import org.nd4j.linalg.dataset.api.preprocessor.NormalizerStandardize;
 import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.learning.config.Adam;
 import org.nd4j.linalg.learning.config.Sgd;
 import org.nd4j.linalg.lossfunctions.LossFunctions;
 import org.nd4j.linalg.primitives.Pair;
@@ -499,4 +501,71 @@ public class ModelSerializerTest extends BaseDL4JTest {
         ComputationGraph restoredNet = ModelSerializer.restoreComputationGraph(tempFile);
         assertEquals(net.params(), restoredNet.params());
     }
+
+    @Test
+    public void testWriteMLNModelMapped() throws Exception {
+        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder().seed(12345)
+                        .updater(new Adam(1e-3)).activation(Activation.TANH).weightInit(WeightInit.XAVIER).list()
+                        .layer(0, new DenseLayer.Builder().nIn(4).nOut(20).build())
+                        .layer(1, new OutputLayer.Builder().activation(Activation.SOFTMAX)
+                                        .lossFunction(LossFunctions.LossFunction.MCXENT).nIn(20).nOut(3).build())
+                        .build();
+
+        MultiLayerNetwork net = new MultiLayerNetwork(conf);
+        net.init();
+        DataSet ds = new IrisDataSetIterator(150, 150).next();
+        net.fit(ds);
+
+        File tempFile = tempDir.newFile();
+        ModelSerializer.writeModelMapped(net, tempFile, true);
+        assertTrue(ModelSerializer.isMappedModel(tempFile));
+
+        MultiLayerNetwork network = ModelSerializer.restoreMultiLayerNetwork(tempFile);
+        assertEquals(network.getLayerWiseConfigurations().toJson(), net.getLayerWiseConfigurations().toJson());
+        assertEquals(net.params(), network.params());
+        assertEquals(net.getUpdater().getStateViewArray(), network.getUpdater().getStateViewArray());
+        assertEquals(net.output(ds.getFeatures()), network.output(ds.getFeatures()));
+
+        //Mapping is copy-on-write: fitting the restored network must not modify the file
+        INDArray paramsBefore = network.params().dup();
+        network.fit(ds);
+        assertNotEquals(paramsBefore, network.params());
+        MultiLayerNetwork again = ModelSerializer.restoreMultiLayerNetworkMapped(tempFile, false);
+        assertEquals(paramsBefore, again.params());
+
+        //Zip files are not detected as mapped models
+        File zipFile = tempDir.newFile();
+        ModelSerializer.writeModel(net, zipFile, true);
+        assertFalse(ModelSerializer.isMappedModel(zipFile));
+    }
+
+    @Test
+    public void testWriteCGModelMapped() throws Exception {
+        ComputationGraphConfiguration config = new NeuralNetConfiguration.Builder()
+                        .updater(new Sgd(0.1)).dataType(DataType.DOUBLE)
+                        .graphBuilder().addInputs("in")
+                        .addLayer("dense", new DenseLayer.Builder().nIn(4).nOut(2).build(), "in").addLayer("out",
+                                        new OutputLayer.Builder(LossFunctions.LossFunction.MCXENT).nIn(2).nOut(3)
+                                                .activation(Activation.SOFTMAX).build(),
+                                        "dense")
+                        .setOutputs("out").build();
+
+        ComputationGraph cg = new ComputationGraph(config);
+        cg.init();
+
+        File tempFile = tempDir.newFile();
+        ModelSerializer.writeModelMapped(cg, tempFile, false);
+
+        ComputationGraph network = ModelSerializer.restoreComputationGraph(tempFile);
+        assertEquals(network.getConfiguration().toJson(), cg.getConfiguration().toJson());
+        assertEquals(DataType.DOUBLE, network.params().dataType());
+        assertEquals(cg.params(), network.params());
+
+        try {
+            ModelSerializer.restoreMultiLayerNetwork(tempFile);
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("ComputationGraph"));
+        }
+    }
 }
@@ -0,0 +1,489 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.datasets.iterator.file;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+import org.bytedeco.javacpp.*;
+import org.bytedeco.javacpp.indexer.*;
+import org.nd4j.base.Preconditions;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A shard file containing a number of {@link DataSet} examples in a binary columnar format, as written by
+ * {@link DataSetShardWriter}. Shard files are memory mapped, and examples are returned as views of the mapped memory
+ * (no deserialization, and no copying).<br>
+ * Each returned array has its own private (copy-on-write) mapping: the arrays can be modified in place (for example by
+ * a normalizer), in which case only the modified pages are copied. Such modifications are never written to the file,
+ * and are not visible to other arrays returned by this shard. The mappings are released when the arrays are garbage
+ * collected, and remain valid after the shard is closed. Note that private mappings require the file to be opened for
+ * writing: if the shard file is not writable, arrays are read into (off-heap) memory instead.<br>
+ * Examples are stored in blocks. Within each block, the features, labels, features mask and labels mask arrays (where
+ * present) are each stored as one contiguous region of raw little endian, c order data - i.e., any range of examples
+ * within a block can be returned as a view.<br>
+ * <br>
+ * File format (all values little endian):<br>
+ * - Header: 8 byte magic number, int format version, 4 bytes padding<br>
+ * - Blocks: for each block, the data of the arrays in order features, labels, features mask, labels mask. Each region
+ * is aligned to {@link #ALIGNMENT} bytes<br>
+ * - Index footer: for each of the 4 arrays: present flag (byte), and if present: data type (int), rank (int) and
+ * the shape of a single example (rank-1 longs). Then the number of blocks (int), and for each block: the number
+ * of examples (long) and the file offsets of each present array (long)<br>
+ * - Trailer: file offset of the index footer (long), 8 byte magic number<br>
+ * <br>
+ * Shards can only be written and read on little endian platforms.
+ */
+@Slf4j
+public class DataSetShard implements Closeable {
+    public static final String EXTENSION = "dsshard";
+    public static final long MAGIC = 0x4452414853534430L;        //"0DSSHARD", little endian
+    public static final int VERSION = 1;
+    public static final int HEADER_LENGTH = 16;
+    public static final int TRAILER_LENGTH = 16;
+    public static final int ALIGNMENT = 64;
+    private static final int READ_CHUNK = 1 << 26;
+
+    /** Index of the features, labels, features mask and labels mask arrays */
+    public static final int FEATURES = 0;
+    public static final int LABELS = 1;
+    public static final int FEATURES_MASK = 2;
+    public static final int LABELS_MASK = 3;
+    public static final int NUM_ARRAYS = 4;
+
+    @Getter
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer memory;
+    private final ArraySchema[] schema;
+    private final long[] blockExamples;
+    private final long[][] blockOffsets;
+    private final boolean canMap;
+    @Getter
+    private final long numExamples;
+
+    /**
+     * Open the specified shard file. Only the index footer is read: blocks are memory mapped when first used
+     *
+     * @param file Shard file to open
+     */
+    public DataSetShard(@NonNull File file) throws IOException {
+        checkByteOrder();
+        this.file = file;
+        this.memory = null;
+        //Copy-on-write (private) mappings require a channel opened for writing, even though the file itself is never modified
+        this.canMap = file.canWrite();
+        if (!canMap)
+            log.warn("Shard file {} is not writable: examples will be read instead of memory mapped", file.getAbsolutePath());
+        RandomAccessFile raf = new RandomAccessFile(file, canMap ? "rw" : "r");
+        this.channel = raf.getChannel();
+        try {
+            long size = channel.size();
+            ByteBuffer footer = readFooter(size, channel);
+            this.schema = new ArraySchema[NUM_ARRAYS];
+            int numBlocks = readSchema(footer, schema);
+            this.blockExamples = new long[numBlocks];
+            this.blockOffsets = new long[numBlocks][NUM_ARRAYS];
+            this.numExamples = readBlocks(footer, schema, blockExamples, blockOffsets);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    private DataSetShard(ByteBuffer memory) throws IOException {
+        this.file = null;
+        this.channel = null;
+        this.memory = memory;
+        this.canMap = false;
+        ByteBuffer footer = readFooter(memory.capacity(), memory);
+        this.schema = new ArraySchema[NUM_ARRAYS];
+        int numBlocks = readSchema(footer, schema);
+        this.blockExamples = new long[numBlocks];
+        this.blockOffsets = new long[numBlocks][NUM_ARRAYS];
+        this.numExamples = readBlocks(footer, schema, blockExamples, blockOffsets);
+    }
+
+    /**
+     * Load all examples of a shard from the specified stream, as a single DataSet. Unlike the arrays returned by
+     * {@link #getAll()}, the arrays are copies (owned by ND4J), hence remain valid after the stream is closed.
+     * The stream is not closed by this method.
+     *
+     * @param is Stream to read the shard from
+     * @return All examples in the shard
+     */
+    public static DataSet load(@NonNull InputStream is) throws IOException {
+        checkByteOrder();
+        byte[] bytes = IOUtils.toByteArray(is);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        direct.put(bytes);
+        direct.clear();
+        return dup(new DataSetShard(direct).getAll());
+    }
+
+    /**
+     * @return Number of blocks in the shard
+     */
+    public int numBlocks() {
+        return blockExamples.length;
+    }
+
+    /**
+     * @param block Index of the block
+     * @return Number of examples in the specified block
+     */
+    public long numExamples(int block) {
+        return blockExamples[block];
+    }
+
+    /**
+     * @param array One of {@link #FEATURES}, {@link #LABELS}, {@link #FEATURES_MASK} or {@link #LABELS_MASK}
+     * @return Shape of a single example of the array (i.e., excluding the minibatch dimension), or null if the array
+     * is not present in this shard
+     */
+    public long[] exampleShape(int array) {
+        return schema[array] == null ? null : schema[array].getExampleShape().clone();
+    }
+
+    /**
+     * @param array One of {@link #FEATURES}, {@link #LABELS}, {@link #FEATURES_MASK} or {@link #LABELS_MASK}
+     * @return Data type of the array, or null if the array is not present in this shard
+     */
+    public DataType dataType(int array) {
+        return schema[array] == null ? null : schema[array].getDataType();
+    }
+
+    /**
+     * @param block Index of the block
+     * @return All examples in the specified block, as (copy-on-write) views of the mapped memory
+     */
+    public DataSet getBlock(int block) {
+        return get(block, 0, blockExamples[block]);
+    }
+
+    /**
+     * Get the specified range of examples from one block, as (copy-on-write) views of the mapped memory
+     *
+     * @param block Index of the block
+     * @param from  First example (inclusive) within the block
+     * @param to    Last example (exclusive) within the block
+     * @return Examples from the block
+     */
+    public DataSet get(int block, long from, long to) {
+        Preconditions.checkArgument(block >= 0 && block < blockExamples.length, "Invalid block index %s: shard has %s blocks", block, blockExamples.length);
+        Preconditions.checkArgument(from >= 0 && from < to && to <= blockExamples[block],
+                "Invalid example range [%s, %s) for block with %s examples", from, to, blockExamples[block]);
+        INDArray[] arrays = new INDArray[NUM_ARRAYS];
+        for (int i = 0; i < NUM_ARRAYS; i++) {
+            if (schema[i] != null)
+                arrays[i] = view(block, i, from, to);
+        }
+        return new DataSet(arrays[FEATURES], arrays[LABELS], arrays[FEATURES_MASK], arrays[LABELS_MASK]);
+    }
+
+    /**
+     * @return All examples in the shard as a single DataSet. If the shard has a single block, the arrays are views
+     * of the mapped memory; otherwise the blocks are concatenated (copied)
+     */
+    public DataSet getAll() {
+        if (blockExamples.length == 0)
+            return new DataSet();
+        if (blockExamples.length == 1)
+            return getBlock(0);
+        List<DataSet> blocks = new ArrayList<>(blockExamples.length);
+        for (int i = 0; i < blockExamples.length; i++)
+            blocks.add(getBlock(i));
+        return concat(blocks);
+    }
+
+    /**
+     * Concatenate (copy) DataSets from the same shard(s). Unlike {@link DataSet#merge(List)}, no padding is required
+     * and masks are not modified, as all blocks have the same arrays and per-example shapes
+     */
+    static DataSet concat(List<DataSet> list) {
+        INDArray[][] arrays = new INDArray[NUM_ARRAYS][list.size()];
+        for (int i = 0; i < list.size(); i++) {
+            DataSet ds = list.get(i);
+            arrays[FEATURES][i] = ds.getFeatures();
+            arrays[LABELS][i] = ds.getLabels();
+            arrays[FEATURES_MASK][i] = ds.getFeaturesMaskArray();
+            arrays[LABELS_MASK][i] = ds.getLabelsMaskArray();
+        }
+        INDArray[] out = new INDArray[NUM_ARRAYS];
+        for (int i = 0; i < NUM_ARRAYS; i++) {
+            if (arrays[i][0] != null)
+                out[i] = Nd4j.concat(0, arrays[i]);
+        }
+        return new DataSet(out[FEATURES], out[LABELS], out[FEATURES_MASK], out[LABELS_MASK]);
+    }
+
+    /**
+     * Copy all (non-null) arrays of the DataSet, so that the DataSet no longer refers to shard memory
+     */
+    static DataSet dup(DataSet ds) {
+        return new DataSet(dup(ds.getFeatures()), dup(ds.getLabels()), dup(ds.getFeaturesMaskArray()), dup(ds.getLabelsMaskArray()));
+    }
+
+    private static INDArray dup(INDArray arr) {
+        return arr == null ? null : arr.dup();
+    }
+
+    private INDArray view(int block, int array, long from, long to) {
+        ArraySchema s = schema[array];
+        DataType dt = s.getDataType();
+        long length = (to - from) * s.getExampleLength();
+        long bytes = length * dt.width();
+        long offset = blockOffsets[block][array] + from * s.getExampleLength() * dt.width();
+
+        long[] shape = new long[s.getExampleShape().length + 1];
+        shape[0] = to - from;
+        System.arraycopy(s.getExampleShape(), 0, shape, 1, s.getExampleShape().length);
+
+        ByteBuffer bb;
+        try {
+            if (memory != null) {
+                bb = slice(memory, offset, (int) bytes);
+            } else if (canMap && bytes <= Integer.MAX_VALUE) {
+                //Copy-on-write mapping: clean pages are shared (and loaded lazily), in-place modifications stay private
+                bb = channel.map(FileChannel.MapMode.PRIVATE, offset, bytes);
+            } else {
+                return read(offset, length, dt, shape);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading block " + block + " of shard file " + file, e);
+        }
+        bb.order(ByteOrder.LITTLE_ENDIAN);
+        return Nd4j.create(wrap(bb, dt, length), shape, Nd4j.getStrides(shape, 'c'), 0, 'c', dt);
+    }
+
+    /**
+     * Wrap the NIO buffer as a DataBuffer. Note the pointer and indexer are created from typed NIO buffers so that they
+     * (and hence the DataBuffer) keep the NIO buffer - and for mapped buffers, the mapping - alive
+     */
+    private static DataBuffer wrap(ByteBuffer bb, DataType dataType, long length) {
+        Pointer pointer;
+        Indexer indexer;
+        switch (dataType) {
+            case DOUBLE:
+                DoubleBuffer db = bb.asDoubleBuffer();
+                pointer = new DoublePointer(db);
+                indexer = DoubleIndexer.create(db);
+                break;
+            case FLOAT:
+                FloatBuffer fb = bb.asFloatBuffer();
+                pointer = new FloatPointer(fb);
+                indexer = FloatIndexer.create(fb);
+                break;
+            case HALF:
+                ShortBuffer hb = bb.asShortBuffer();
+                pointer = new ShortPointer(hb);
+                indexer = HalfIndexer.create(hb);
+                break;
+            case BFLOAT16:
+                ShortBuffer bfb = bb.asShortBuffer();
+                pointer = new ShortPointer(bfb);
+                indexer = Bfloat16Indexer.create(bfb);
+                break;
+            case UINT64:
+            case LONG:
+                LongBuffer lb = bb.asLongBuffer();
+                pointer = new LongPointer(lb);
+                indexer = LongIndexer.create(lb);
+                break;
+            case UINT32:
+            case INT:
+                IntBuffer ib = bb.asIntBuffer();
+                pointer = new IntPointer(ib);
+                indexer = IntIndexer.create(ib);
+                break;
+            case UINT16:
+                ShortBuffer usb = bb.asShortBuffer();
+                pointer = new ShortPointer(usb);
+                indexer = UShortIndexer.create(usb);
+                break;
+            case SHORT:
+                ShortBuffer sb = bb.asShortBuffer();
+                pointer = new ShortPointer(sb);
+                indexer = ShortIndexer.create(sb);
+                break;
+            case UBYTE:
+                pointer = new BytePointer(bb);
+                indexer = UByteIndexer.create(bb);
+                break;
+            case BYTE:
+                pointer = new BytePointer(bb);
+                indexer = ByteIndexer.create(bb);
+                break;
+            case BOOL:
+                pointer = new BooleanPointer(bb);
+                indexer = BooleanIndexer.create(bb);
+                break;
+            default:
+                throw new IllegalStateException("Unsupported data type for shard arrays: " + dataType);
+        }
+        return Nd4j.createBuffer(pointer, dataType, length, indexer);
+    }
+
+    /**
+     * Read (rather than map) the specified region straight into an off-heap array: used when the file can't be mapped
+     */
+    private INDArray read(long offset, long length, DataType dataType, long[] shape) throws IOException {
+        INDArray arr = Nd4j.createUninitializedDetached(dataType, shape);
+        long bytes = length * dataType.width();
+        BytePointer bp = new BytePointer(arr.data().pointer());
+        for (long pos = 0; pos < bytes; pos += READ_CHUNK) {
+            long chunk = Math.min(READ_CHUNK, bytes - pos);
+            bp.position(pos).limit(pos + chunk);
+            ByteBuffer bb = bp.asByteBuffer();
+            while (bb.hasRemaining()) {
+                if (channel.read(bb, offset + pos + bb.position()) < 0)
+                    throw new EOFException("Unexpected end of shard file " + file);
+            }
+        }
+        return arr;
+    }
+
+    /**
+     * Close the shard file. Arrays previously returned by this shard remain valid
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null)
+            channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "DataSetShard(file=" + file + ", numExamples=" + numExamples + ", numBlocks=" + blockExamples.length + ")";
+    }
+
+    protected static void checkByteOrder() {
+        if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN)
+            throw new IllegalStateException("DataSet shards can only be used on little endian platforms");
+    }
+
+    private static ByteBuffer readFooter(long size, FileChannel channel) throws IOException {
+        if (size < HEADER_LENGTH + TRAILER_LENGTH)
+            throw new IOException("Invalid shard file: file is too small (" + size + " bytes)");
+        ByteBuffer header = readFully(channel, 0, HEADER_LENGTH);
+        ByteBuffer trailer = readFully(channel, size - TRAILER_LENGTH, TRAILER_LENGTH);
+        long footerOffset = checkHeaderAndTrailer(header, trailer, size);
+        return readFully(channel, footerOffset, (int) (size - TRAILER_LENGTH - footerOffset));
+    }
+
+    private static ByteBuffer readFooter(long size, ByteBuffer memory) throws IOException {
+        if (size < HEADER_LENGTH + TRAILER_LENGTH)
+            throw new IOException("Invalid shard file: file is too small (" + size + " bytes)");
+        long footerOffset = checkHeaderAndTrailer(slice(memory, 0, HEADER_LENGTH), slice(memory, size - TRAILER_LENGTH, TRAILER_LENGTH), size);
+        return slice(memory, footerOffset, (int) (size - TRAILER_LENGTH - footerOffset));
+    }
+
+    private static long checkHeaderAndTrailer(ByteBuffer header, ByteBuffer trailer, long size) throws IOException {
+        if (header.getLong() != MAGIC || trailer.getLong(8) != MAGIC)
+            throw new IOException("Invalid shard file: magic number not found");
+        int version = header.getInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported shard format version: " + version + " (expected " + VERSION + ")");
+        long footerOffset = trailer.getLong(0);
+        if (footerOffset < HEADER_LENGTH || footerOffset > size - TRAILER_LENGTH)
+            throw new IOException("Invalid shard file: invalid index footer offset " + footerOffset);
+        return footerOffset;
+    }
+
+    private static ByteBuffer slice(ByteBuffer memory, long offset, int length) {
+        ByteBuffer dup = memory.duplicate();
+        dup.position((int) offset);
+        dup.limit((int) offset + length);
+        return dup.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (bb.hasRemaining()) {
+            if (channel.read(bb, position + bb.position()) < 0)
+                throw new EOFException("Unexpected end of shard file");
+        }
+        bb.flip();
+        return bb;
+    }
+
+    private static int readSchema(ByteBuffer footer, ArraySchema[] schema) {
+        for (int i = 0; i < NUM_ARRAYS; i++) {
+            if (footer.get() == 0)
+                continue;
+            DataType dt = DataType.fromInt(footer.getInt());
+            int rank = footer.getInt();
+            long[] exampleShape = new long[rank - 1];
+            for (int j = 0; j < exampleShape.length; j++)
+                exampleShape[j] = footer.getLong();
+            schema[i] = new ArraySchema(dt, exampleShape);
+        }
+        return footer.getInt();
+    }
+
+    private static long readBlocks(ByteBuffer footer, ArraySchema[] schema, long[] blockExamples, long[][] blockOffsets) {
+        long total = 0;
+        for (int b = 0; b < blockExamples.length; b++) {
+            blockExamples[b] = footer.getLong();
+            total += blockExamples[b];
+            for (int i = 0; i < NUM_ARRAYS; i++) {
+                if (schema[i] != null)
+                    blockOffsets[b][i] = footer.getLong();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Data type and per-example shape of one of the arrays stored in a shard
+     */
+    @Getter
+    protected static class ArraySchema {
+        private final DataType dataType;
+        private final long[] exampleShape;
+        private final long exampleLength;
+
+        protected ArraySchema(DataType dataType, long[] exampleShape) {
+            this.dataType = dataType;
+            this.exampleShape = exampleShape;
+            long length = 1;
+            for (long l : exampleShape)
+                length *= l;
+            this.exampleLength = length;
+        }
+
+        protected static ArraySchema of(INDArray arr) {
+            return new ArraySchema(arr.dataType(), Arrays.copyOfRange(arr.shape(), 1, arr.rank()));
+        }
+
+        protected boolean matches(INDArray arr) {
+            return arr.dataType() == dataType && Arrays.equals(exampleShape, Arrays.copyOfRange(arr.shape(), 1, arr.rank()));
+        }
+    }
+}
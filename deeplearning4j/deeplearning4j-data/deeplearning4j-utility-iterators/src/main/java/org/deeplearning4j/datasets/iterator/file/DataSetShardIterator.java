@@ -0,0 +1,237 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.datasets.iterator.file;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import org.apache.commons.io.FileUtils;
+import org.nd4j.base.Preconditions;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.util.MathUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Iterate over the examples in a number of {@link DataSetShard} files, as written by {@link DataSetShardWriter}.<br>
+ * Shard files are memory mapped: minibatches are returned as views of the mapped memory where possible, with no
+ * deserialization and no copying. Any minibatch size can be used, independent of how the data was written. Only
+ * minibatches that span two or more blocks are copied (concatenated).<br>
+ * This iterator supports the following (optional) features, depending on the constructor used:<br>
+ * - Block level shuffling: if a {@link Random} instance is provided, the order of the blocks (across all shards) is
+ * randomized on each reset. The order of examples within a block is not changed - i.e., the degree of shuffling is
+ * determined by the block size used when writing the shards<br>
+ * - Listing of all shard files (by extension {@link DataSetShard#EXTENSION}) in a directory, including subdirectories<br>
+ * <br>
+ * Minibatches are private (copy-on-write) mappings of the shard files: they can be modified in place - for example
+ * by a {@link DataSetPreProcessor} - without affecting the files, or later minibatches and epochs. See
+ * {@link DataSetShard} for details.
+ */
+public class DataSetShardIterator implements DataSetIterator {
+
+    private final List<DataSetShard> shards;
+    private final int batchSize;
+    private final Random rng;
+    private final int[] blockShard;
+    private final int[] blockIndex;
+    private final int[] order;
+    private int cursor;
+    private long positionInBlock;
+
+    @Getter
+    @Setter
+    private List<String> labels;
+    @Getter
+    @Setter
+    private DataSetPreProcessor preProcessor;
+
+    /**
+     * Create an iterator over all shard files (by extension {@link DataSetShard#EXTENSION}) in the specified directory
+     * and its subdirectories
+     *
+     * @param rootDir   Root directory containing the shard files
+     * @param batchSize Minibatch size. If <= 0, blocks are returned as they were written
+     * @param rng       May be null. If non-null, used to randomize the order of the blocks on each reset
+     */
+    public DataSetShardIterator(@NonNull File rootDir, int batchSize, Random rng) throws IOException {
+        this(listShards(rootDir), batchSize, rng);
+    }
+
+    /**
+     * @param shardFiles Shard files to iterate over
+     * @param batchSize  Minibatch size. If <= 0, blocks are returned as they were written
+     * @param rng        May be null. If non-null, used to randomize the order of the blocks on each reset
+     */
+    public DataSetShardIterator(@NonNull Collection<File> shardFiles, int batchSize, Random rng) throws IOException {
+        Preconditions.checkArgument(!shardFiles.isEmpty(), "No shard files provided");
+        this.batchSize = batchSize;
+        this.rng = rng;
+        this.shards = new ArrayList<>(shardFiles.size());
+        int numBlocks = 0;
+        try {
+            for (File f : shardFiles) {
+                DataSetShard s = new DataSetShard(f);
+                shards.add(s);
+                numBlocks += s.numBlocks();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+
+        blockShard = new int[numBlocks];
+        blockIndex = new int[numBlocks];
+        int b = 0;
+        for (int i = 0; i < shards.size(); i++) {
+            for (int j = 0; j < shards.get(i).numBlocks(); j++) {
+                blockShard[b] = i;
+                blockIndex[b++] = j;
+            }
+        }
+        order = new int[numBlocks];
+        for (int i = 0; i < numBlocks; i++)
+            order[i] = i;
+        reset();
+    }
+
+    private static List<File> listShards(File rootDir) throws IOException {
+        if (!rootDir.isDirectory())
+            throw new IOException("Not a directory: " + rootDir);
+        List<File> files = new ArrayList<>(FileUtils.listFiles(rootDir, new String[]{DataSetShard.EXTENSION}, true));
+        if (files.isEmpty())
+            throw new IOException("No shard files (extension \"" + DataSetShard.EXTENSION + "\") found in directory " + rootDir);
+        Collections.sort(files);
+        return files;
+    }
+
+    /**
+     * @return Total number of examples in all shards
+     */
+    public long numExamples() {
+        long n = 0;
+        for (DataSetShard s : shards)
+            n += s.getNumExamples();
+        return n;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return cursor < order.length;
+    }
+
+    @Override
+    public DataSet next() {
+        return next(batchSize);
+    }
+
+    @Override
+    public DataSet next(int num) {
+        if (!hasNext())
+            throw new NoSuchElementException("No next element");
+
+        List<DataSet> parts = new ArrayList<>(2);
+        if (num <= 0) {
+            //Remainder of the current block, as written
+            DataSetShard s = shards.get(blockShard[order[cursor]]);
+            int block = blockIndex[order[cursor]];
+            parts.add(s.get(block, positionInBlock, s.numExamples(block)));
+            cursor++;
+            positionInBlock = 0;
+        } else {
+            long remaining = num;
+            while (remaining > 0 && hasNext()) {
+                DataSetShard s = shards.get(blockShard[order[cursor]]);
+                int block = blockIndex[order[cursor]];
+                long blockExamples = s.numExamples(block);
+                long count = Math.min(remaining, blockExamples - positionInBlock);
+                parts.add(s.get(block, positionInBlock, positionInBlock + count));
+                positionInBlock += count;
+                remaining -= count;
+                if (positionInBlock == blockExamples) {
+                    cursor++;
+                    positionInBlock = 0;
+                }
+            }
+        }
+
+        DataSet ds = parts.size() == 1 ? parts.get(0) : DataSetShard.concat(parts);
+        if (preProcessor != null)
+            preProcessor.preProcess(ds);
+        return ds;
+    }
+
+    @Override
+    public int inputColumns() {
+        long[] shape = shards.get(0).exampleShape(DataSetShard.FEATURES);
+        if (shape == null || shape.length == 0)
+            throw new UnsupportedOperationException("Shards do not contain features arrays with rank 2 or higher");
+        return (int) shape[0];
+    }
+
+    @Override
+    public int totalOutcomes() {
+        long[] shape = shards.get(0).exampleShape(DataSetShard.LABELS);
+        if (shape == null || shape.length == 0)
+            throw new UnsupportedOperationException("Shards do not contain labels arrays with rank 2 or higher");
+        return (int) shape[0];
+    }
+
+    @Override
+    public boolean resetSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean asyncSupported() {
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        if (rng != null)
+            MathUtils.shuffleArray(order, rng);
+        cursor = 0;
+        positionInBlock = 0;
+    }
+
+    @Override
+    public int batch() {
+        return batchSize;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Not supported");
+    }
+
+    /**
+     * Close all shard files. Arrays previously returned by this iterator remain valid
+     */
+    public void close() {
+        for (DataSetShard s : shards) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                //Private mappings: nothing to flush
+            }
+        }
+    }
+}
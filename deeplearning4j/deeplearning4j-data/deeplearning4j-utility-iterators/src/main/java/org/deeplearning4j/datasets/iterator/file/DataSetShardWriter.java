@@ -0,0 +1,307 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.datasets.iterator.file;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.bytedeco.javacpp.BytePointer;
+import org.nd4j.base.Preconditions;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.indexing.INDArrayIndex;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.deeplearning4j.datasets.iterator.file.DataSetShard.*;
+
+/**
+ * Writes {@link DataSet} examples to a shard file, in the binary columnar format described in {@link DataSetShard}.<br>
+ * DataSets of any size may be written: examples are buffered and written in blocks of (at most) blockSize examples.
+ * All DataSets written to one shard must have the same arrays present, with the same data types and per-example
+ * shapes (for time series, the same sequence length). Each block must be smaller than 2GB.<br>
+ * The shard is not valid until {@link #close()} has been called.
+ */
+public class DataSetShardWriter implements Closeable {
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    @Getter
+    private final File file;
+    @Getter
+    private final int blockSize;
+    private final FileChannel channel;
+    private final List<DataSet> pending = new ArrayList<>();
+    private final List<long[]> blocks = new ArrayList<>();
+    private ArraySchema[] schema;
+    private long pendingExamples;
+    @Getter
+    private long numExamples;
+    private boolean closed;
+
+    /**
+     * Create a writer with a block size of {@link #DEFAULT_BLOCK_SIZE} examples
+     *
+     * @param file File to write. Will be overwritten if it exists
+     */
+    public DataSetShardWriter(@NonNull File file) throws IOException {
+        this(file, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param file      File to write. Will be overwritten if it exists
+     * @param blockSize Number of examples per block. Block level shuffling (see {@link DataSetShardIterator}) is
+     *                  coarser for larger blocks; very small blocks increase the size of the index footer
+     */
+    public DataSetShardWriter(@NonNull File file, int blockSize) throws IOException {
+        Preconditions.checkArgument(blockSize > 0, "Block size must be positive, got %s", blockSize);
+        checkByteOrder();
+        this.file = file;
+        this.blockSize = blockSize;
+        this.channel = new FileOutputStream(file).getChannel();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(MAGIC).putInt(VERSION).putInt(0);
+        header.flip();
+        writeFully(header);
+    }
+
+    /**
+     * Add the examples of the specified DataSet to the shard
+     */
+    public void write(@NonNull DataSet ds) throws IOException {
+        Preconditions.checkState(!closed, "Writer has been closed");
+        if (ds.isEmpty())
+            return;
+        INDArray[] arrays = arrays(ds);
+        if (schema == null) {
+            schema = new ArraySchema[NUM_ARRAYS];
+            for (int i = 0; i < NUM_ARRAYS; i++) {
+                if (arrays[i] != null) {
+                    Preconditions.checkArgument(arrays[i].dataType() != DataType.UTF8 && arrays[i].dataType() != DataType.COMPRESSED,
+                            "Arrays of type %s cannot be written to a shard", arrays[i].dataType());
+                    schema[i] = ArraySchema.of(arrays[i]);
+                }
+            }
+            Preconditions.checkArgument(schema[FEATURES] != null || schema[LABELS] != null, "DataSet has no features or labels");
+            long exampleBytes = 0;
+            for (ArraySchema s : schema) {
+                if (s != null)
+                    exampleBytes += s.getExampleLength() * s.getDataType().width();
+            }
+            Preconditions.checkArgument(exampleBytes * blockSize + NUM_ARRAYS * ALIGNMENT < Integer.MAX_VALUE,
+                    "Blocks must be smaller than 2GB: examples are %s bytes, block size is %s", exampleBytes, blockSize);
+        } else {
+            for (int i = 0; i < NUM_ARRAYS; i++) {
+                if ((schema[i] == null) != (arrays[i] == null) || (schema[i] != null && !schema[i].matches(arrays[i])))
+                    throw new IllegalArgumentException("DataSet does not match the arrays previously written to the shard: " +
+                            "all DataSets must have the same arrays present, with the same data types and example shapes. " +
+                            "Got " + describe(arrays));
+            }
+        }
+
+        pendingExamples += ds.numExamples();
+        if (pendingExamples < blockSize) {
+            //Buffered until the block is full: copy, as the caller may reuse the arrays (or workspace memory)
+            pending.add(DataSetShard.dup(ds));
+        } else {
+            pending.add(ds);
+            DataSet merged = pending.size() == 1 ? pending.get(0) : DataSet.merge(pending);
+            pending.clear();
+            long n = merged.numExamples();
+            long pos = 0;
+            while (n - pos >= blockSize) {
+                writeBlock(merged, pos, pos + blockSize);
+                pos += blockSize;
+            }
+            if (pos < n)
+                pending.add(DataSetShard.dup(slice(merged, pos, n)));
+            pendingExamples = n - pos;
+        }
+    }
+
+    /**
+     * Write any remaining examples and the index footer, and close the file
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            if (pendingExamples > 0) {
+                DataSet merged = pending.size() == 1 ? pending.get(0) : DataSet.merge(pending);
+                pending.clear();
+                writeBlock(merged, 0, merged.numExamples());
+            }
+
+            long footerOffset = channel.position();
+            int footerLength = 4;
+            for (int i = 0; i < NUM_ARRAYS; i++) {
+                footerLength += 1;
+                if (schema != null && schema[i] != null)
+                    footerLength += 8 + 8 * schema[i].getExampleShape().length;
+            }
+            for (long[] b : blocks)
+                footerLength += 8 * b.length;
+
+            ByteBuffer footer = ByteBuffer.allocate(footerLength + TRAILER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < NUM_ARRAYS; i++) {
+                if (schema == null || schema[i] == null) {
+                    footer.put((byte) 0);
+                    continue;
+                }
+                footer.put((byte) 1);
+                footer.putInt(schema[i].getDataType().toInt());
+                footer.putInt(schema[i].getExampleShape().length + 1);
+                for (long l : schema[i].getExampleShape())
+                    footer.putLong(l);
+            }
+            footer.putInt(blocks.size());
+            for (long[] b : blocks) {
+                for (long l : b)
+                    footer.putLong(l);
+            }
+            footer.putLong(footerOffset).putLong(MAGIC);
+            footer.flip();
+            writeFully(footer);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeBlock(DataSet ds, long from, long to) throws IOException {
+        INDArray[] arrays = arrays(ds);
+        List<Long> block = new ArrayList<>();
+        block.add(to - from);
+        for (int i = 0; i < NUM_ARRAYS; i++) {
+            if (schema[i] == null)
+                continue;
+            long position = channel.position();
+            long aligned = (position + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+            if (aligned > position)
+                writeFully(ByteBuffer.allocate((int) (aligned - position)));
+            block.add(aligned);
+
+            //Merging may change the data type of masks: always store using the shard's data type
+            INDArray data = rows(arrays[i], from, to).castTo(schema[i].getDataType()).dup('c');
+            long bytes = data.length() * data.dataType().width();
+            ByteBuffer bb = new BytePointer(data.data().addressPointer()).capacity(bytes).limit(bytes).asByteBuffer();
+            writeFully(bb);
+        }
+        long[] b = new long[block.size()];
+        for (int i = 0; i < b.length; i++)
+            b[i] = block.get(i);
+        blocks.add(b);
+        numExamples += to - from;
+    }
+
+    private void writeFully(ByteBuffer bb) throws IOException {
+        while (bb.hasRemaining())
+            channel.write(bb);
+    }
+
+    private static INDArray[] arrays(DataSet ds) {
+        return new INDArray[]{ds.getFeatures(), ds.getLabels(), ds.getFeaturesMaskArray(), ds.getLabelsMaskArray()};
+    }
+
+    private static DataSet slice(DataSet ds, long from, long to) {
+        INDArray[] arrays = arrays(ds);
+        for (int i = 0; i < NUM_ARRAYS; i++) {
+            if (arrays[i] != null)
+                arrays[i] = rows(arrays[i], from, to);
+        }
+        return new DataSet(arrays[FEATURES], arrays[LABELS], arrays[FEATURES_MASK], arrays[LABELS_MASK]);
+    }
+
+    private static INDArray rows(INDArray arr, long from, long to) {
+        if (from == 0 && to == arr.size(0))
+            return arr;
+        INDArrayIndex[] idx = new INDArrayIndex[arr.rank()];
+        idx[0] = NDArrayIndex.interval(from, to);
+        for (int i = 1; i < idx.length; i++)
+            idx[i] = NDArrayIndex.all();
+        return arr.get(idx);
+    }
+
+    private static String describe(INDArray[] arrays) {
+        String[] s = new String[NUM_ARRAYS];
+        for (int i = 0; i < NUM_ARRAYS; i++)
+            s[i] = arrays[i] == null ? "null" : arrays[i].dataType() + Arrays.toString(arrays[i].shape());
+        return "[features=" + s[FEATURES] + ", labels=" + s[LABELS] + ", featuresMask=" + s[FEATURES_MASK] +
+                ", labelsMask=" + s[LABELS_MASK] + "]";
+    }
+
+    /**
+     * Write all examples from the iterator to shard files in the specified directory, with at most examplesPerShard
+     * examples per shard file. Files are named "shard_0.dsshard", "shard_1.dsshard" etc.<br>
+     * For use with {@code fitPaths} of Spark training masters (one minibatch per path) set examplesPerShard to the
+     * minibatch size, and load the shards with DataSetShardLoader.
+     *
+     * @param iterator         Iterator to export. Is reset first, if supported
+     * @param dir              Directory to write the shards to
+     * @param examplesPerShard Maximum number of examples in each shard file
+     * @param blockSize        Number of examples per block within each shard
+     * @return The shard files written
+     */
+    public static List<File> export(@NonNull DataSetIterator iterator, @NonNull File dir, long examplesPerShard,
+                                    int blockSize) throws IOException {
+        Preconditions.checkArgument(examplesPerShard > 0, "Examples per shard must be positive, got %s", examplesPerShard);
+        if (!dir.exists() && !dir.mkdirs())
+            throw new IOException("Could not create directory: " + dir);
+        if (iterator.resetSupported())
+            iterator.reset();
+
+        List<File> out = new ArrayList<>();
+        DataSetShardWriter writer = null;
+        try {
+            while (iterator.hasNext()) {
+                DataSet ds = iterator.next();
+                long n = ds.numExamples();
+                long pos = 0;
+                while (pos < n) {
+                    if (writer == null) {
+                        File f = new File(dir, "shard_" + out.size() + "." + EXTENSION);
+                        writer = new DataSetShardWriter(f, blockSize);
+                        out.add(f);
+                    }
+                    long count = Math.min(n - pos, examplesPerShard - writer.getNumExamples() - writer.pendingExamples);
+                    writer.write(slice(ds, pos, pos + count));
+                    pos += count;
+                    if (writer.getNumExamples() + writer.pendingExamples == examplesPerShard) {
+                        writer.close();
+                        writer = null;
+                    }
+                }
+            }
+        } finally {
+            if (writer != null)
+                writer.close();
+        }
+        return out;
+    }
+}
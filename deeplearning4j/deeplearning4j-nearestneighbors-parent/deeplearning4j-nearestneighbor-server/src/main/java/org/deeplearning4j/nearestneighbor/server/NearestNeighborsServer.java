@@ -27,6 +27,8 @@ import io.vertx.ext.web.Router;
 import io.vertx.ext.web.handler.BodyHandler;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FileUtils;
+import org.deeplearning4j.clustering.hnsw.HNSWIndex;
+import org.deeplearning4j.clustering.knn.NearestNeighborIndex;
 import org.deeplearning4j.clustering.sptree.DataPoint;
 import org.deeplearning4j.clustering.vptree.VPTree;
 import org.deeplearning4j.clustering.vptree.VPTreeFillSearch;
@@ -46,7 +48,7 @@ import java.util.*;
 
 /**
  * A rest server for using an
- * {@link VPTree} based on loading an ndarray containing
+ * {@link VPTree} (default) or {@link HNSWIndex} (--index hnsw) based on loading an ndarray containing
  * the data points for the path
  * The input values are an {@link CSVRecord}
  * which (based on the input schema) will automatically
@@ -64,10 +66,24 @@ public class NearestNeighborsServer extends AbstractVerticle {
         private String labelsPath = null;
         @Parameter(names = {"--nearestNeighborsPort"}, arity = 1)
         private int port = 9000;
-        @Parameter(names = {"--similarityFunction"}, arity = 1)
+        @Parameter(names = {"--similarityFunction"}, arity = 1, description = "euclidean, manhattan, cosinedistance, "
+                + "cosinesimilarity, dot, jaccard or hamming. hnsw supports euclidean, manhattan and cosinedistance, "
+                + "and cosinesimilarity and dot with --invert true (as cosinedistance, and largest inner product first)")
         private String similarityFunction = "euclidean";
-        @Parameter(names = {"--invert"}, arity = 1)
+        @Parameter(names = {"--invert"}, arity = 1, description = "Return the points with the largest value of the "
+                + "similarity function first, instead of the smallest. Required for cosinesimilarity and dot with hnsw, "
+                + "not supported for the other functions with hnsw")
         private boolean invert = false;
+        @Parameter(names = {"--index"}, arity = 1, description = "Index type: vptree (exact) or hnsw (approximate)")
+        private String index = "vptree";
+        @Parameter(names = {"--hnswM"}, arity = 1)
+        private int hnswM = 16;
+        @Parameter(names = {"--efConstruction"}, arity = 1)
+        private int efConstruction = 200;
+        @Parameter(names = {"--efSearch"}, arity = 1)
+        private int efSearch = 64;
+        @Parameter(names = {"--indexPath"}, arity = 1, description = "HNSW index file. Loaded if exists, otherwise index is built and saved there")
+        private String indexPath = null;
     }
 
     private static RunArgs instanceArgs;
@@ -162,7 +178,7 @@ public class NearestNeighborsServer extends AbstractVerticle {
             System.gc();
         }
 
-        VPTree tree = new VPTree(points, instanceArgs.similarityFunction, instanceArgs.invert);
+        NearestNeighborIndex tree = createIndex(points);
 
         //Set play secret key, if required
         //http://www.playframework.com/documentation/latest/ApplicationSecret
@@ -185,7 +201,74 @@ public class NearestNeighborsServer extends AbstractVerticle {
                 .listen(instanceArgs.port);
     }
 
-    private void createRoutes(Router r, List<String> labels, VPTree tree, INDArray points){
+    private NearestNeighborIndex createIndex(INDArray points) throws Exception {
+        if ("vptree".equalsIgnoreCase(instanceArgs.index))
+            return new VPTree(points, instanceArgs.similarityFunction, instanceArgs.invert);
+
+        if (!"hnsw".equalsIgnoreCase(instanceArgs.index))
+            throw new DL4JInvalidInputException("Unknown index type: [" + instanceArgs.index + "], expected vptree or hnsw");
+
+        File indexFile = instanceArgs.indexPath == null ? null : new File(instanceArgs.indexPath);
+        if (indexFile != null && indexFile.exists()) {
+            log.info("Loading HNSW index from {}", indexFile.getAbsolutePath());
+            HNSWIndex index = HNSWIndex.load(indexFile);
+            if (index.size() != points.rows() || index.getDimensions() != points.columns())
+                throw new DL4JInvalidInputException("HNSW index at " + indexFile.getAbsolutePath() + " doesn't match points matrix");
+            String distance = hnswDistance(instanceArgs.similarityFunction, instanceArgs.invert);
+            if (!distance.equals(index.getDistanceFunction()))
+                throw new DL4JInvalidInputException("HNSW index at " + indexFile.getAbsolutePath() + " was built with distance function ["
+                        + index.getDistanceFunction() + "], but [" + distance + "] was requested");
+            index.setEfSearch(instanceArgs.efSearch);
+            return index;
+        }
+
+        HNSWIndex index = new HNSWIndex.Builder(points.columns())
+                .distanceFunction(hnswDistance(instanceArgs.similarityFunction, instanceArgs.invert))
+                .m(instanceArgs.hnswM)
+                .efConstruction(instanceArgs.efConstruction)
+                .efSearch(instanceArgs.efSearch)
+                .build();
+
+        long time = System.currentTimeMillis();
+        index.addAll(points, Runtime.getRuntime().availableProcessors());
+        log.info("HNSW index for {} points built in {} ms", points.rows(), System.currentTimeMillis() - time);
+
+        if (indexFile != null) {
+            index.save(indexFile);
+            log.info("HNSW index saved to {}", indexFile.getAbsolutePath());
+        }
+        return index;
+    }
+
+    /**
+     * HNSW only finds the points with the smallest distance to the query. As for the VP-tree, invert means that the
+     * largest value of the similarity function comes first: hence cosinesimilarity and dot are supported with invert
+     * only (as cosine distance, and negated inner product), and the other functions without invert only.
+     * Note that distances reported for cosinesimilarity are cosine distances (1 - similarity), not negated similarities
+     */
+    private static String hnswDistance(String similarityFunction, boolean invert) {
+        String function = similarityFunction.toLowerCase();
+        switch (function) {
+            case "cosinesimilarity":
+            case "dot":
+                if (!invert)
+                    throw new DL4JInvalidInputException("Similarity function [" + function + "] without --invert (least "
+                            + "similar points first) is not supported by the hnsw index, use --invert true");
+                return "dot".equals(function) ? HNSWIndex.DOT : HNSWIndex.COSINE_DISTANCE;
+            case HNSWIndex.EUCLIDEAN:
+            case HNSWIndex.MANHATTAN:
+            case HNSWIndex.COSINE_DISTANCE:
+                if (invert)
+                    throw new DL4JInvalidInputException("Similarity function [" + function + "] with --invert (farthest "
+                            + "points first) is not supported by the hnsw index");
+                return function;
+            default:
+                throw new DL4JInvalidInputException("Similarity function [" + function + "] is not supported by the hnsw "
+                        + "index, expected euclidean, manhattan, cosinedistance, cosinesimilarity or dot");
+        }
+    }
+
+    private void createRoutes(Router r, List<String> labels, NearestNeighborIndex tree, INDArray points){
 
         r.post("/knn").handler(rc -> {
             try {
@@ -232,8 +315,8 @@ public class NearestNeighborsServer extends AbstractVerticle {
                 List<DataPoint> results;
                 List<Double> distances;
 
-                if (record.isForceFillK()) {
-                    VPTreeFillSearch vpTreeFillSearch = new VPTreeFillSearch(tree, record.getK(), arr);
+                if (record.isForceFillK() && tree instanceof VPTree) {
+                    VPTreeFillSearch vpTreeFillSearch = new VPTreeFillSearch((VPTree) tree, record.getK(), arr);
                     vpTreeFillSearch.search();
                     results = vpTreeFillSearch.getResults();
                     distances = vpTreeFillSearch.getDistances();
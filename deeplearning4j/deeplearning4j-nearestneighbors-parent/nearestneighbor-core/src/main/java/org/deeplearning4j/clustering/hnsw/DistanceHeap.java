@@ -0,0 +1,105 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.clustering.hnsw;
+
+import java.util.Arrays;
+
+/**
+ * Simple binary heap over (id, distance) pairs, backed by primitive arrays.
+ * Used by {@link HNSWIndex} for candidate and result sets during graph traversal.
+ */
+class DistanceHeap {
+    private final boolean maxHeap;
+    private int[] ids;
+    private float[] distances;
+    private int size;
+
+    /**
+     * @param capacity initial capacity. Heap grows if required
+     * @param maxHeap  if true, the element with the largest distance is on top. Otherwise, smallest one
+     */
+    DistanceHeap(int capacity, boolean maxHeap) {
+        this.maxHeap = maxHeap;
+        this.ids = new int[Math.max(capacity, 4)];
+        this.distances = new float[ids.length];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int topId() {
+        return ids[0];
+    }
+
+    float topDistance() {
+        return distances[0];
+    }
+
+    void push(int id, float distance) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            distances = Arrays.copyOf(distances, size * 2);
+        }
+
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!above(distance, distances[parent]))
+                break;
+
+            ids[i] = ids[parent];
+            distances[i] = distances[parent];
+            i = parent;
+        }
+        ids[i] = id;
+        distances[i] = distance;
+    }
+
+    void pop() {
+        if (--size == 0)
+            return;
+
+        int id = ids[size];
+        float distance = distances[size];
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && above(distances[right], distances[child]))
+                child = right;
+
+            if (!above(distances[child], distance))
+                break;
+
+            ids[i] = ids[child];
+            distances[i] = distances[child];
+            i = child;
+        }
+        ids[i] = id;
+        distances[i] = distance;
+    }
+
+    private boolean above(float a, float b) {
+        return maxHeap ? a > b : a < b;
+    }
+}
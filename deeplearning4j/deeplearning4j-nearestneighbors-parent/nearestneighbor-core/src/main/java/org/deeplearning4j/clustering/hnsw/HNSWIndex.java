@@ -0,0 +1,776 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.clustering.hnsw;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.clustering.knn.NearestNeighborIndex;
+import org.deeplearning4j.clustering.sptree.DataPoint;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.exception.ND4JIllegalStateException;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Approximate nearest neighbour index based on Hierarchical Navigable Small World graphs.<br>
+ * See: Malkov and Yashunin, "Efficient and robust approximate nearest neighbor search using
+ * Hierarchical Navigable Small World graphs" - https://arxiv.org/abs/1603.09320<br>
+ * <br>
+ * Vectors are stored as primitive float arrays, and distances are computed in plain Java, so
+ * a single query never touches ND4J ops. Features:
+ * <ul>
+ *     <li>Incremental inserts via {@link #add(INDArray)}; multi-threaded bulk build via {@link #addAll(INDArray, int)}</li>
+ *     <li>Deletes via {@link #delete(int)}: deleted points are still used for graph navigation, but never returned</li>
+ *     <li>Recall/latency tradeoff at query time via {@link #setEfSearch(int)}</li>
+ *     <li>Persistence via {@link #save(File)} and {@link #load(File)}</li>
+ * </ul>
+ * Supported distance functions: {@link #EUCLIDEAN}, {@link #MANHATTAN}, {@link #COSINE_DISTANCE} and {@link #DOT}.<br>
+ * Searches are thread safe, and can run concurrently with inserts and deletes. Save should not run concurrently with inserts.
+ */
+@Slf4j
+public class HNSWIndex implements NearestNeighborIndex {
+    public static final String EUCLIDEAN = "euclidean";
+    public static final String MANHATTAN = "manhattan";
+    /** Cosine distance (1 - cosine similarity). Vectors are normalized on insert */
+    public static final String COSINE_DISTANCE = "cosinedistance";
+    /** Largest inner product first. Reported distance is the negated inner product */
+    public static final String DOT = "dot";
+
+    private static final int MAGIC = 0x484E5357;
+    private static final int VERSION = 1;
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int NO_NODE = -1;
+    private static final int BUILD_BLOCK = 256;
+    private static final int[] NO_LINKS = new int[0];
+
+    @Getter
+    private final int dimensions;
+    @Getter
+    private final String distanceFunction;
+    @Getter
+    private final int m;
+    private final int maxM0;
+    @Getter
+    private final int efConstruction;
+    @Getter
+    private volatile int efSearch;
+    private final double levelMultiplier;
+    private final Random random;
+
+    // nodes are stored in fixed size pages, allocated on demand, so the index can grow without copying
+    private final Node[][] pages = new Node[1 << (31 - PAGE_BITS)][];
+    private final AtomicInteger nextId = new AtomicInteger(0);
+    private final AtomicInteger deleted = new AtomicInteger(0);
+    private final ReentrantLock entryLock = new ReentrantLock();
+    private volatile int entryPoint = NO_NODE;
+    private volatile int maxLevel = -1;
+
+    private final ThreadLocal<VisitedMarks> visited = new ThreadLocal<>();
+
+    protected HNSWIndex(int dimensions, @NonNull String distanceFunction, int m, int efConstruction, int efSearch, Random random) {
+        switch (distanceFunction) {
+            case EUCLIDEAN:
+            case MANHATTAN:
+            case COSINE_DISTANCE:
+            case DOT:
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported distance function: [" + distanceFunction + "]");
+        }
+
+        this.dimensions = dimensions;
+        this.distanceFunction = distanceFunction;
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.random = random;
+    }
+
+    /**
+     * @return Number of points in the index, excluding deleted ones
+     */
+    public int size() {
+        return nextId.get() - deleted.get();
+    }
+
+    /**
+     * Set the size of the dynamic candidate list used during search. Larger values give better recall, at the cost of latency.
+     * Effective value is never less than number of requested neighbours
+     */
+    public void setEfSearch(int efSearch) {
+        if (efSearch < 1)
+            throw new IllegalArgumentException("efSearch should be positive value");
+        this.efSearch = efSearch;
+    }
+
+    /**
+     * Insert single point into the index
+     *
+     * @param point Vector of length {@link #getDimensions()}
+     * @return Index assigned to the point
+     */
+    public int add(@NonNull INDArray point) {
+        if (!point.isVectorOrScalar() || point.length() != dimensions)
+            throw new ND4JIllegalStateException("Point should be a vector of length " + dimensions + " but got "
+                    + Arrays.toString(point.shape()) + " instead");
+        return add(point.toFloatVector());
+    }
+
+    /**
+     * Insert single point into the index
+     *
+     * @param point Vector of length {@link #getDimensions()}
+     * @return Index assigned to the point
+     */
+    public int add(@NonNull float[] point) {
+        if (point.length != dimensions)
+            throw new ND4JIllegalStateException("Point should have length " + dimensions + " but got " + point.length);
+
+        int id = nextId.getAndIncrement();
+        insert(id, prepare(point, true));
+        return id;
+    }
+
+    /**
+     * Insert all rows of the given matrix into the index, using multiple threads.
+     * Rows are assigned consecutive indices, so row i gets index (returned value + i)
+     *
+     * @param points  Matrix with shape [numPoints, dimensions]
+     * @param workers Number of threads to use
+     * @return Index assigned to the first row
+     */
+    public int addAll(@NonNull final INDArray points, int workers) {
+        if (points.rank() != 2 || points.columns() != dimensions)
+            throw new ND4JIllegalStateException("Points should have shape [N, " + dimensions + "] but got "
+                    + Arrays.toString(points.shape()) + " instead");
+
+        final int rows = points.rows();
+        final int first = nextId.getAndAdd(rows);
+        final AtomicInteger blocks = new AtomicInteger(0);
+
+        Runnable builder = new Runnable() {
+            @Override
+            public void run() {
+                int block;
+                while ((block = blocks.getAndIncrement()) * BUILD_BLOCK < rows) {
+                    int start = block * BUILD_BLOCK;
+                    int end = Math.min(rows, start + BUILD_BLOCK);
+                    float[][] chunk = points.get(NDArrayIndex.interval(start, end), NDArrayIndex.all()).toFloatMatrix();
+                    for (int i = 0; i < chunk.length; i++)
+                        insert(first + start + i, prepare(chunk[i], false));
+                }
+            }
+        };
+
+        if (workers <= 1) {
+            builder.run();
+            return first;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "HNSWBuilder-" + counter.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < workers; i++)
+                futures.add(executor.submit(builder));
+
+            for (Future<?> f : futures)
+                f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        return first;
+    }
+
+    /**
+     * Delete the point with the specified index. Deleted point won't be returned by searches anymore
+     *
+     * @return false if point was already deleted, true otherwise
+     */
+    public boolean delete(int index) {
+        Node node = node(index);
+        if (node == null)
+            throw new ND4JIllegalStateException("Unknown index: " + index);
+
+        synchronized (node) {
+            if (node.deleted)
+                return false;
+            node.deleted = true;
+        }
+        deleted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return true if point with given index was deleted
+     */
+    public boolean isDeleted(int index) {
+        Node node = node(index);
+        return node != null && node.deleted;
+    }
+
+    /**
+     * @return Stored vector for the given index. Note that for {@link #COSINE_DISTANCE} it's normalized
+     */
+    public float[] getVector(int index) {
+        Node node = node(index);
+        if (node == null)
+            throw new ND4JIllegalStateException("Unknown index: " + index);
+        return node.vector.clone();
+    }
+
+    @Override
+    public void search(@NonNull INDArray target, int k, List<DataPoint> results, List<Double> distances) {
+        if (!target.isVectorOrScalar() || target.length() != dimensions)
+            throw new ND4JIllegalStateException("Target for search should be a vector of length " + dimensions
+                    + " but got " + Arrays.toString(target.shape()) + " instead");
+
+        results.clear();
+        distances.clear();
+
+        int[] ids = new int[k];
+        float[] dist = new float[k];
+        int found = search(target.toFloatVector(), k, ids, dist);
+        for (int i = 0; i < found; i++) {
+            results.add(new DataPoint(ids[i], Nd4j.createFromArray(node(ids[i]).vector), distanceFunction));
+            distances.add((double) dist[i]);
+        }
+    }
+
+    /**
+     * Search for the approximate nearest neighbours of the query vector
+     *
+     * @param query     Query vector
+     * @param k         Number of neighbours to look for
+     * @param ids       Output array for neighbour indices, ordered from closest to farthest. Length should be at least k
+     * @param distances Output array for neighbour distances. Length should be at least k
+     * @return Number of neighbours found: k, unless the index has less than k points
+     */
+    public int search(@NonNull float[] query, int k, @NonNull int[] ids, @NonNull float[] distances) {
+        if (query.length != dimensions)
+            throw new ND4JIllegalStateException("Query should have length " + dimensions + " but got " + query.length);
+
+        int ep = entryPoint;
+        if (ep == NO_NODE || k < 1)
+            return 0;
+
+        float[] q = prepare(query, true);
+        float epDistance = distance(q, node(ep).vector);
+        for (int l = node(ep).level; l > 0; l--) {
+            long closest = greedy(q, ep, epDistance, l);
+            ep = (int) (closest >>> 32);
+            epDistance = Float.intBitsToFloat((int) closest);
+        }
+
+        DistanceHeap found = searchLayer(q, ep, epDistance, Math.max(efSearch, k), 0, true);
+        while (found.size() > k)
+            found.pop();
+
+        int count = found.size();
+        for (int i = count - 1; i >= 0; i--) {
+            ids[i] = found.topId();
+            distances[i] = reportedDistance(found.topDistance());
+            found.pop();
+        }
+        return count;
+    }
+
+    /**
+     * Save this index to the specified file
+     */
+    public void save(@NonNull File file) throws IOException {
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            int count = nextId.get();
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeUTF(distanceFunction);
+            dos.writeInt(dimensions);
+            dos.writeInt(m);
+            dos.writeInt(efConstruction);
+            dos.writeInt(efSearch);
+            dos.writeInt(count);
+            dos.writeInt(entryPoint);
+            dos.writeInt(maxLevel);
+
+            ByteBuffer bb = ByteBuffer.allocate(4 * dimensions);
+            for (int i = 0; i < count; i++) {
+                Node node = node(i);
+                if (node == null)
+                    throw new IllegalStateException("Index is being modified: can't save while inserts are in progress");
+
+                dos.writeInt(node.level);
+                dos.writeBoolean(node.deleted);
+                bb.clear();
+                bb.asFloatBuffer().put(node.vector);
+                dos.write(bb.array());
+
+                int[][] links = node.links;
+                for (int l = 0; l <= node.level; l++) {
+                    dos.writeInt(links[l].length);
+                    for (int n : links[l])
+                        dos.writeInt(n);
+                }
+            }
+        }
+    }
+
+    /**
+     * Load an index previously saved with {@link #save(File)}
+     */
+    public static HNSWIndex load(@NonNull File file) throws IOException {
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (dis.readInt() != MAGIC)
+                throw new IOException("File " + file.getAbsolutePath() + " is not an HNSW index file");
+            int version = dis.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported HNSW index version: " + version);
+
+            String distanceFunction = dis.readUTF();
+            int dimensions = dis.readInt();
+            int m = dis.readInt();
+            int efConstruction = dis.readInt();
+            int efSearch = dis.readInt();
+            HNSWIndex index = new HNSWIndex(dimensions, distanceFunction, m, efConstruction, efSearch, new Random());
+
+            int count = dis.readInt();
+            int entryPoint = dis.readInt();
+            int maxLevel = dis.readInt();
+
+            byte[] bytes = new byte[4 * dimensions];
+            int deleted = 0;
+            for (int i = 0; i < count; i++) {
+                int level = dis.readInt();
+                boolean isDeleted = dis.readBoolean();
+                dis.readFully(bytes);
+                float[] vector = new float[dimensions];
+                ByteBuffer.wrap(bytes).asFloatBuffer().get(vector);
+
+                Node node = new Node(vector, level);
+                node.deleted = isDeleted;
+                for (int l = 0; l <= level; l++) {
+                    int[] links = new int[dis.readInt()];
+                    for (int j = 0; j < links.length; j++)
+                        links[j] = dis.readInt();
+                    node.links[l] = links;
+                }
+
+                index.store(i, node);
+                if (isDeleted)
+                    deleted++;
+            }
+
+            index.nextId.set(count);
+            index.deleted.set(deleted);
+            index.entryPoint = entryPoint;
+            index.maxLevel = maxLevel;
+            return index;
+        }
+    }
+
+    protected void insert(int id, float[] vector) {
+        int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+        Node node = new Node(vector, level);
+        store(id, node);
+
+        // inserts that may change the entry point are serialized
+        boolean top = level > maxLevel;
+        if (top)
+            entryLock.lock();
+        try {
+            int ep = entryPoint;
+            if (ep == NO_NODE) {
+                entryPoint = id;
+                maxLevel = level;
+                return;
+            }
+
+            int epLevel = node(ep).level;
+            float epDistance = distance(vector, node(ep).vector);
+            for (int l = epLevel; l > level; l--) {
+                long closest = greedy(vector, ep, epDistance, l);
+                ep = (int) (closest >>> 32);
+                epDistance = Float.intBitsToFloat((int) closest);
+            }
+
+            for (int l = Math.min(level, epLevel); l >= 0; l--) {
+                DistanceHeap candidates = searchLayer(vector, ep, epDistance, efConstruction, l, false);
+                int[] sorted = drainAscending(candidates);
+                ep = sorted[0];
+                epDistance = distance(vector, node(ep).vector);
+
+                int[] neighbours = selectNeighbours(sorted, vector, m);
+                synchronized (node) {
+                    node.setLinks(l, neighbours);
+                }
+
+                for (int n : neighbours)
+                    connect(n, id, vector, l);
+            }
+
+            if (level > maxLevel) {
+                entryPoint = id;
+                maxLevel = level;
+            }
+        } finally {
+            if (top)
+                entryLock.unlock();
+        }
+    }
+
+    /**
+     * Add link from node n to the new node, shrinking n's neighbourhood if it's full
+     */
+    protected void connect(int n, int newId, float[] newVector, int level) {
+        Node node = node(n);
+        int maxLinks = level == 0 ? maxM0 : m;
+        synchronized (node) {
+            int[] current = node.links[level];
+            for (int c : current)
+                if (c == newId)
+                    return;
+
+            if (current.length < maxLinks) {
+                int[] updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = newId;
+                node.setLinks(level, updated);
+            } else {
+                DistanceHeap heap = new DistanceHeap(current.length + 1, true);
+                heap.push(newId, distance(node.vector, newVector));
+                for (int c : current)
+                    heap.push(c, distance(node.vector, node(c).vector));
+
+                node.setLinks(level, selectNeighbours(drainAscending(heap), node.vector, maxLinks));
+            }
+        }
+    }
+
+    /**
+     * Neighbour selection heuristic (algorithm 4 in the paper): candidate is kept only if it's closer to the
+     * base point than to any of already selected neighbours. This keeps links pointing in diverse directions
+     *
+     * @param sorted candidates, sorted by distance to the base point, ascending
+     */
+    protected int[] selectNeighbours(int[] sorted, float[] base, int maxLinks) {
+        int[] selected = new int[Math.min(maxLinks, sorted.length)];
+        int count = 0;
+        for (int i = 0; i < sorted.length && count < selected.length; i++) {
+            float[] candidate = node(sorted[i]).vector;
+            float d = distance(base, candidate);
+            boolean good = true;
+            for (int j = 0; j < count; j++) {
+                if (distance(candidate, node(selected[j]).vector) < d) {
+                    good = false;
+                    break;
+                }
+            }
+
+            if (good)
+                selected[count++] = sorted[i];
+        }
+        return count == selected.length ? selected : Arrays.copyOf(selected, count);
+    }
+
+    /**
+     * Greedy walk towards the query on a single layer
+     *
+     * @return closest node id in upper 32 bits, and its distance bits in lower 32 bits
+     */
+    protected long greedy(float[] query, int ep, float epDistance, int level) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int n : node(ep).links[level]) {
+                float d = distance(query, node(n).vector);
+                if (d < epDistance) {
+                    epDistance = d;
+                    ep = n;
+                    changed = true;
+                }
+            }
+        }
+        return ((long) ep << 32) | (Float.floatToRawIntBits(epDistance) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Beam search on a single layer (algorithm 2 in the paper)
+     *
+     * @return max-heap with up to ef closest nodes found
+     */
+    protected DistanceHeap searchLayer(float[] query, int ep, float epDistance, int ef, int level, boolean skipDeleted) {
+        VisitedMarks marks = visited.get();
+        if (marks == null) {
+            marks = new VisitedMarks();
+            visited.set(marks);
+        }
+        marks.reset(nextId.get());
+
+        DistanceHeap candidates = new DistanceHeap(ef, false);
+        DistanceHeap results = new DistanceHeap(ef + 1, true);
+
+        marks.visit(ep);
+        candidates.push(ep, epDistance);
+        if (!skipDeleted || !node(ep).deleted)
+            results.push(ep, epDistance);
+
+        while (!candidates.isEmpty()) {
+            if (results.size() >= ef && candidates.topDistance() > results.topDistance())
+                break;
+
+            int current = candidates.topId();
+            candidates.pop();
+
+            for (int n : node(current).links[level]) {
+                if (!marks.visit(n))
+                    continue;
+
+                Node neighbour = node(n);
+                float d = distance(query, neighbour.vector);
+                if (results.size() < ef || d < results.topDistance()) {
+                    candidates.push(n, d);
+                    if (!skipDeleted || !neighbour.deleted) {
+                        results.push(n, d);
+                        if (results.size() > ef)
+                            results.pop();
+                    }
+                }
+            }
+        }
+
+        return results;
+    }
+
+    protected static int[] drainAscending(DistanceHeap maxHeap) {
+        int[] sorted = new int[maxHeap.size()];
+        for (int i = sorted.length - 1; i >= 0; i--) {
+            sorted[i] = maxHeap.topId();
+            maxHeap.pop();
+        }
+        return sorted;
+    }
+
+    /**
+     * Distance used for graph construction and ranking. For euclidean it's squared distance, see {@link #reportedDistance(float)}
+     */
+    protected float distance(float[] a, float[] b) {
+        float sum = 0.0f;
+        switch (distanceFunction) {
+            case EUCLIDEAN:
+                for (int i = 0; i < a.length; i++) {
+                    float d = a[i] - b[i];
+                    sum += d * d;
+                }
+                return sum;
+            case MANHATTAN:
+                for (int i = 0; i < a.length; i++)
+                    sum += Math.abs(a[i] - b[i]);
+                return sum;
+            case COSINE_DISTANCE:
+                for (int i = 0; i < a.length; i++)
+                    sum += a[i] * b[i];
+                return 1.0f - sum;
+            default:
+                for (int i = 0; i < a.length; i++)
+                    sum += a[i] * b[i];
+                return -sum;
+        }
+    }
+
+    protected float reportedDistance(float distance) {
+        return EUCLIDEAN.equals(distanceFunction) ? (float) Math.sqrt(distance) : distance;
+    }
+
+    protected float[] prepare(float[] vector, boolean copy) {
+        if (!COSINE_DISTANCE.equals(distanceFunction))
+            return copy ? vector.clone() : vector;
+
+        double norm = 0.0;
+        for (float v : vector)
+            norm += v * v;
+        norm = Math.sqrt(norm);
+
+        float[] result = copy ? new float[vector.length] : vector;
+        for (int i = 0; i < vector.length; i++)
+            result[i] = norm > 0 ? (float) (vector[i] / norm) : 0.0f;
+        return result;
+    }
+
+    protected Node node(int id) {
+        Node[] page = pages[id >>> PAGE_BITS];
+        return page == null ? null : page[id & PAGE_MASK];
+    }
+
+    protected void store(int id, Node node) {
+        int p = id >>> PAGE_BITS;
+        if (pages[p] == null) {
+            synchronized (pages) {
+                if (pages[p] == null)
+                    pages[p] = new Node[PAGE_SIZE];
+            }
+        }
+        pages[p][id & PAGE_MASK] = node;
+    }
+
+    protected static class Node {
+        protected final float[] vector;
+        protected final int level;
+        // neighbours per level. arrays are never modified in place, but replaced under node lock, so readers don't need locks
+        protected volatile int[][] links;
+        protected volatile boolean deleted;
+
+        protected Node(float[] vector, int level) {
+            this.vector = vector;
+            this.level = level;
+            this.links = new int[level + 1][];
+            Arrays.fill(this.links, NO_LINKS);
+        }
+
+        protected void setLinks(int level, int[] ids) {
+            int[][] updated = links.clone();
+            updated[level] = ids;
+            links = updated;
+        }
+    }
+
+    /**
+     * Per-thread visited set. Uses an epoch counter, so it never has to be cleared between searches
+     */
+    protected static class VisitedMarks {
+        private int[] marks = new int[0];
+        private int epoch = 0;
+
+        protected void reset(int capacity) {
+            if (marks.length < capacity)
+                marks = new int[Math.max(capacity, marks.length + (marks.length >> 1))];
+
+            if (++epoch == 0) {
+                Arrays.fill(marks, 0);
+                epoch = 1;
+            }
+        }
+
+        protected boolean visit(int id) {
+            if (id >= marks.length)
+                marks = Arrays.copyOf(marks, Math.max(id + 1, marks.length + (marks.length >> 1)));
+
+            if (marks[id] == epoch)
+                return false;
+            marks[id] = epoch;
+            return true;
+        }
+    }
+
+    public static class Builder {
+        private final int dimensions;
+        private String distanceFunction = EUCLIDEAN;
+        private int m = 16;
+        private int efConstruction = 200;
+        private int efSearch = 64;
+        private Long seed;
+
+        /**
+         * @param dimensions Length of the vectors to be indexed
+         */
+        public Builder(int dimensions) {
+            if (dimensions < 1)
+                throw new IllegalArgumentException("Dimensions should be positive value");
+            this.dimensions = dimensions;
+        }
+
+        /**
+         * Distance function to use. One of {@link #EUCLIDEAN}, {@link #MANHATTAN}, {@link #COSINE_DISTANCE}, {@link #DOT}.
+         * Default: euclidean
+         */
+        public Builder distanceFunction(@NonNull String distanceFunction) {
+            this.distanceFunction = distanceFunction;
+            return this;
+        }
+
+        /**
+         * Max number of links per node on upper layers (2x that on the bottom layer). Default: 16
+         */
+        public Builder m(int m) {
+            if (m < 2)
+                throw new IllegalArgumentException("M should be >= 2");
+            this.m = m;
+            return this;
+        }
+
+        /**
+         * Size of the dynamic candidate list used during inserts. Larger values give better graph quality, at the
+         * cost of slower build. Default: 200
+         */
+        public Builder efConstruction(int efConstruction) {
+            if (efConstruction < 1)
+                throw new IllegalArgumentException("efConstruction should be positive value");
+            this.efConstruction = efConstruction;
+            return this;
+        }
+
+        /**
+         * Size of the dynamic candidate list used during search. See {@link HNSWIndex#setEfSearch(int)}. Default: 64
+         */
+        public Builder efSearch(int efSearch) {
+            if (efSearch < 1)
+                throw new IllegalArgumentException("efSearch should be positive value");
+            this.efSearch = efSearch;
+            return this;
+        }
+
+        /**
+         * Seed for the level generator. Note that multi-threaded builds aren't deterministic anyway
+         */
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public HNSWIndex build() {
+            return new HNSWIndex(dimensions, distanceFunction, m, efConstruction, efSearch,
+                    seed == null ? new Random() : new Random(seed));
+        }
+    }
+}
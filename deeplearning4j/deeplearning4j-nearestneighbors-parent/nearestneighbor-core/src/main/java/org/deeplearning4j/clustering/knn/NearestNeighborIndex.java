@@ -0,0 +1,39 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.clustering.knn;
+
+import org.deeplearning4j.clustering.sptree.DataPoint;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.List;
+
+/**
+ * Common interface for k-nearest neighbour search structures,
+ * such as {@link org.deeplearning4j.clustering.vptree.VPTree} and {@link org.deeplearning4j.clustering.hnsw.HNSWIndex}
+ */
+public interface NearestNeighborIndex {
+
+    /**
+     * Search for the nearest neighbours of the target point
+     *
+     * @param target    Point to search neighbours for
+     * @param k         Number of neighbours to return
+     * @param results   Output list for the neighbours, ordered from closest to farthest. Cleared before use
+     * @param distances Output list for the distances to the neighbours. Cleared before use
+     */
+    void search(INDArray target, int k, List<DataPoint> results, List<Double> distances);
+}
@@ -0,0 +1,521 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.clustering.vptree;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.clustering.knn.NearestNeighborIndex;
+import org.deeplearning4j.clustering.sptree.DataPoint;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.exception.ND4JIllegalStateException;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.Closeable;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Vantage point tree over primitive float storage.<br>
+ * <br>
+ * Unlike {@link VPTree}, which keeps an INDArray view per node and computes every distance with a separate op,
+ * this variant keeps all points in a single contiguous off-heap float block (the data buffer of a c-order FLOAT
+ * INDArray), stores the tree itself as flat int/float arrays, and computes distances in a primitive loop.
+ * Single queries via {@link #search(float[], int, int[], float[])} don't allocate anything after the first call
+ * on a given thread, and don't invoke any ND4J ops. Batches of queries are processed in parallel,
+ * see {@link #search(INDArray, int, int[][], float[][])}.<br>
+ * <br>
+ * Supported similarity functions: euclidean, manhattan, cosinedistance, cosinesimilarity and dot, with the same
+ * meaning of {@code invert} as in {@link VPTree}. Note that, unlike {@link VPTree}, exact matches of the query are
+ * not filtered out of results. As for any vantage point tree, results are exact only for true metrics
+ * (euclidean, manhattan): for other functions pruning may skip some of the true neighbours.<br>
+ * Number of points is limited by 2^29 floats (size of a single NIO buffer) in total.<br>
+ * Batched queries with more than one worker use a thread pool owned by the tree: call {@link #close()} once the tree
+ * is no longer used to release its threads.
+ */
+@Slf4j
+public class FloatVPTree implements NearestNeighborIndex, Closeable {
+    private static final int NONE = -1;
+
+    @Getter
+    private final INDArray items;
+    @Getter
+    private final String similarityFunction;
+    @Getter
+    private final boolean invert;
+    @Getter
+    private final int workers;
+    private final int rows;
+    private final int columns;
+    private final int function;
+
+    // all points, row by row. backed by the buffer of items, so no copy is made for c-order float input
+    private final FloatBuffer storage;
+
+    // tree layout: node i lives at position i of these arrays, and covers the range [i, end) of order.
+    // left child (if any) is i + 1 and covers [i + 1, split[i]), right child (if any) covers [split[i], end)
+    private final int[] order;
+    private final float[] thresholds;
+    private final int[] splits;
+
+    private final ThreadLocal<SearchState> state = new ThreadLocal<>();
+    private transient ExecutorService executorService;
+
+    /**
+     * @param items the points, one per row
+     */
+    public FloatVPTree(@NonNull INDArray items) {
+        this(items, VPTree.EUCLIDEAN, false, 1);
+    }
+
+    /**
+     * @param items              the points, one per row
+     * @param similarityFunction the similarity function to use
+     * @param invert             whether to invert the distance (similarity functions have different min/max objectives)
+     * @param workers            number of threads used for batched queries
+     */
+    public FloatVPTree(@NonNull INDArray items, @NonNull String similarityFunction, boolean invert, int workers) {
+        if (items.rank() != 2)
+            throw new ND4JIllegalStateException("Points should be a matrix, but got array with shape " + Arrays.toString(items.shape()));
+        if (items.length() > Integer.MAX_VALUE / 4)
+            throw new ND4JIllegalStateException("Too many points for FloatVPTree: " + items.length() + " values");
+
+        this.function = functionId(similarityFunction);
+        this.similarityFunction = similarityFunction;
+        this.invert = invert;
+        this.workers = Math.max(1, workers);
+
+        // single contiguous float block is required
+        if (items.dataType() != DataType.FLOAT || items.ordering() != 'c' || items.isView())
+            items = items.castTo(DataType.FLOAT).dup('c');
+
+        this.items = items;
+        this.rows = items.rows();
+        this.columns = items.columns();
+        this.storage = items.data().asNioFloat().slice();
+
+        this.order = new int[rows];
+        this.thresholds = new float[rows];
+        this.splits = new int[rows];
+        for (int i = 0; i < rows; i++)
+            order[i] = i;
+
+        build();
+    }
+
+    private static int functionId(String similarityFunction) {
+        switch (similarityFunction) {
+            case "euclidean":
+                return 0;
+            case "manhattan":
+                return 1;
+            case "cosinedistance":
+                return 2;
+            case "cosinesimilarity":
+                return 3;
+            case "dot":
+                return 4;
+            default:
+                throw new IllegalArgumentException("Unsupported similarity function: [" + similarityFunction + "]");
+        }
+    }
+
+    /**
+     * @return number of points in the tree
+     */
+    public int size() {
+        return rows;
+    }
+
+    private void build() {
+        float[] scratch = new float[rows];
+        float[] base = new float[columns];
+
+        // explicit stack of ranges, so degenerate data can't overflow the call stack
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = rows;
+
+        while (top > 0) {
+            int end = stack[--top];
+            int start = stack[--top];
+
+            // random vantage point goes to the front of the range
+            int vp = start + Nd4j.getRandom().nextInt(end - start);
+            swap(order, scratch, start, vp);
+            splits[start] = end;
+
+            if (end - start == 1)
+                continue;
+
+            row(order[start], base);
+            for (int i = start + 1; i < end; i++)
+                scratch[i] = distance(base, order[i]);
+
+            // median split: left child gets points with distance <= threshold
+            int median = start + 1 + (end - start - 1) / 2;
+            select(scratch, start + 1, end - 1, median);
+            thresholds[start] = scratch[median];
+            splits[start] = median;
+
+            if (top + 4 > stack.length)
+                stack = Arrays.copyOf(stack, stack.length * 2);
+
+            if (median < end) {
+                stack[top++] = median;
+                stack[top++] = end;
+            }
+
+            if (start + 1 < median) {
+                stack[top++] = start + 1;
+                stack[top++] = median;
+            }
+        }
+    }
+
+    /**
+     * Quickselect on scratch[lo..hi], moving order along, so that position k holds the k-th smallest distance
+     */
+    private void select(float[] scratch, int lo, int hi, int k) {
+        while (lo < hi) {
+            float pivot = scratch[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (scratch[i] < pivot)
+                    i++;
+                while (scratch[j] > pivot)
+                    j--;
+                if (i <= j)
+                    swap(order, scratch, i++, j--);
+            }
+
+            if (k <= j)
+                hi = j;
+            else if (k >= i)
+                lo = i;
+            else
+                return;
+        }
+    }
+
+    private static void swap(int[] order, float[] scratch, int a, int b) {
+        int t = order[a];
+        order[a] = order[b];
+        order[b] = t;
+        float d = scratch[a];
+        scratch[a] = scratch[b];
+        scratch[b] = d;
+    }
+
+    private void row(int index, float[] target) {
+        int offset = index * columns;
+        for (int i = 0; i < columns; i++)
+            target[i] = storage.get(offset + i);
+    }
+
+    /**
+     * Distance between the query and the stored point
+     */
+    protected float distance(float[] query, int index) {
+        int offset = index * columns;
+        float result;
+        switch (function) {
+            case 0: {
+                float sum = 0.0f;
+                for (int i = 0; i < columns; i++) {
+                    float d = query[i] - storage.get(offset + i);
+                    sum += d * d;
+                }
+                result = (float) Math.sqrt(sum);
+                break;
+            }
+            case 1: {
+                float sum = 0.0f;
+                for (int i = 0; i < columns; i++)
+                    sum += Math.abs(query[i] - storage.get(offset + i));
+                result = sum;
+                break;
+            }
+            case 2:
+            case 3: {
+                float dot = 0.0f, nq = 0.0f, np = 0.0f;
+                for (int i = 0; i < columns; i++) {
+                    float p = storage.get(offset + i);
+                    dot += query[i] * p;
+                    nq += query[i] * query[i];
+                    np += p * p;
+                }
+                float cos = nq == 0.0f || np == 0.0f ? 0.0f : (float) (dot / (Math.sqrt(nq) * Math.sqrt(np)));
+                result = function == 2 ? 1.0f - cos : cos;
+                break;
+            }
+            default: {
+                float sum = 0.0f;
+                for (int i = 0; i < columns; i++)
+                    sum += query[i] * storage.get(offset + i);
+                result = sum;
+            }
+        }
+        return invert ? -result : result;
+    }
+
+    @Override
+    public void search(@NonNull INDArray target, int k, List<DataPoint> results, List<Double> distances) {
+        if (!target.isVectorOrScalar() || target.length() != columns)
+            throw new ND4JIllegalStateException("Target for search should have shape of [1, " + columns + "] but got "
+                    + Arrays.toString(target.shape()) + " instead");
+
+        results.clear();
+        distances.clear();
+
+        int[] ids = new int[Math.min(k, rows)];
+        float[] dist = new float[ids.length];
+        int found = search(target.toFloatVector(), k, ids, dist);
+        for (int i = 0; i < found; i++) {
+            results.add(new DataPoint(ids[i], items.getRow(ids[i], true)));
+            distances.add((double) dist[i]);
+        }
+    }
+
+    /**
+     * Search for the k nearest neighbours of the query
+     *
+     * @param query     query vector
+     * @param k         number of neighbours to look for
+     * @param ids       output array for neighbour indices, ordered from closest to farthest. Length should be at least min(k, size())
+     * @param distances output array for neighbour distances. Length should be at least min(k, size())
+     * @return number of neighbours found, min(k, size())
+     */
+    public int search(@NonNull float[] query, int k, @NonNull int[] ids, @NonNull float[] distances) {
+        if (query.length != columns)
+            throw new ND4JIllegalStateException("Query should have length " + columns + " but got " + query.length);
+
+        k = Math.min(k, rows);
+        if (k < 1)
+            return 0;
+
+        SearchState s = state.get();
+        if (s == null) {
+            s = new SearchState();
+            state.set(s);
+        }
+        s.reset(k);
+
+        search(0, rows, query, s);
+
+        // heap holds the farthest result on top
+        for (int i = s.size - 1; i >= 0; i--) {
+            ids[i] = s.ids[0];
+            distances[i] = s.distances[0];
+            s.pop();
+        }
+        return k;
+    }
+
+    private void search(int node, int end, float[] query, SearchState s) {
+        while (node != NONE) {
+            float d = distance(query, order[node]);
+            if (s.size < s.k || d < s.distances[0])
+                s.push(order[node], d);
+
+            int split = splits[node];
+            int leftEnd = split;
+            boolean hasLeft = node + 1 < leftEnd;
+            boolean hasRight = split < end;
+            if (!hasLeft && !hasRight)
+                return;
+
+            float threshold = thresholds[node];
+            // near side first, then the far side if it still can contain anything closer than current k-th result
+            if (d <= threshold) {
+                if (hasLeft)
+                    search(node + 1, leftEnd, query, s);
+                if (hasRight && d + tau(s) >= threshold) {
+                    node = split;
+                    continue;
+                }
+            } else {
+                if (hasRight)
+                    search(split, end, query, s);
+                if (hasLeft && d - tau(s) <= threshold) {
+                    end = leftEnd;
+                    node = node + 1;
+                    continue;
+                }
+            }
+            return;
+        }
+    }
+
+    private static float tau(SearchState s) {
+        return s.size < s.k ? Float.MAX_VALUE : s.distances[0];
+    }
+
+    /**
+     * Search for the k nearest neighbours of each row of queries, using {@link #getWorkers()} threads
+     *
+     * @param queries   queries, one per row
+     * @param k         number of neighbours to look for
+     * @param ids       output: ids[i] is filled with neighbour indices for query i. Arrays are allocated if null or too short
+     * @param distances output: distances[i] is filled with neighbour distances for query i
+     */
+    public void search(@NonNull INDArray queries, int k, @NonNull int[][] ids, @NonNull float[][] distances) {
+        if (queries.rank() != 2 || queries.columns() != columns)
+            throw new ND4JIllegalStateException("Queries should have shape [N, " + columns + "] but got "
+                    + Arrays.toString(queries.shape()) + " instead");
+
+        search(queries.toFloatMatrix(), k, ids, distances);
+    }
+
+    /**
+     * @see #search(INDArray, int, int[][], float[][])
+     */
+    public void search(@NonNull final float[][] queries, int k, @NonNull final int[][] ids, @NonNull final float[][] distances) {
+        if (ids.length < queries.length || distances.length < queries.length)
+            throw new ND4JIllegalStateException("Output arrays should have at least " + queries.length + " rows");
+
+        final int kk = Math.min(k, rows);
+        for (int i = 0; i < queries.length; i++) {
+            if (ids[i] == null || ids[i].length < kk)
+                ids[i] = new int[kk];
+            if (distances[i] == null || distances[i].length < kk)
+                distances[i] = new float[kk];
+        }
+
+        if (workers == 1 || queries.length == 1) {
+            for (int i = 0; i < queries.length; i++)
+                search(queries[i], kk, ids[i], distances[i]);
+            return;
+        }
+
+        final AtomicInteger position = new AtomicInteger(0);
+        List<Future<?>> futures = new ArrayList<>(workers);
+        ExecutorService executor = executor();
+        for (int w = 0; w < workers; w++) {
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    int i;
+                    while ((i = position.getAndIncrement()) < queries.length)
+                        search(queries[i], kk, ids[i], distances[i]);
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> f : futures)
+                f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executorService == null) {
+            executorService = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+                private final AtomicInteger counter = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "FloatVPTree search thread " + counter.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executorService;
+    }
+
+    /**
+     * Shut down the threads used for batched queries. The tree remains usable: a new pool is created by the next
+     * batched query
+     */
+    @Override
+    public synchronized void close() {
+        if (executorService != null) {
+            executorService.shutdown();
+            executorService = null;
+        }
+    }
+
+    /**
+     * Per-thread k-bounded max-heap of results, reused across queries
+     */
+    private static class SearchState {
+        private int[] ids = new int[0];
+        private float[] distances = new float[0];
+        private int size;
+        private int k;
+
+        private void reset(int k) {
+            if (ids.length < k) {
+                ids = new int[k];
+                distances = new float[k];
+            }
+            this.k = k;
+            this.size = 0;
+        }
+
+        private void push(int id, float distance) {
+            if (size == k)
+                pop();
+
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (distances[parent] >= distance)
+                    break;
+                ids[i] = ids[parent];
+                distances[i] = distances[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            distances[i] = distance;
+        }
+
+        private void pop() {
+            int id = ids[--size];
+            float distance = distances[size];
+            int i = 0;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && distances[child + 1] > distances[child])
+                    child++;
+                if (distances[child] <= distance)
+                    break;
+                ids[i] = ids[child];
+                distances[i] = distances[child];
+                i = child;
+            }
+            if (size > 0) {
+                ids[i] = id;
+                distances[i] = distance;
+            }
+        }
+    }
+}
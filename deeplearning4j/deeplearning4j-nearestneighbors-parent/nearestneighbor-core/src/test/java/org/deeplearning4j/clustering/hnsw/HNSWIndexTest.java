@@ -0,0 +1,201 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.clustering.hnsw;
+
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.clustering.sptree.DataPoint;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HNSWIndexTest extends BaseDL4JTest {
+
+    @Rule
+    public TemporaryFolder testDir = new TemporaryFolder();
+
+    private static float[][] randomPoints(int n, int dims, long seed) {
+        Random r = new Random(seed);
+        float[][] points = new float[n][dims];
+        for (int i = 0; i < n; i++)
+            for (int j = 0; j < dims; j++)
+                points[i][j] = r.nextFloat();
+        return points;
+    }
+
+    private static int[] bruteForce(float[][] points, float[] query, int k) {
+        final float[] dist = new float[points.length];
+        Integer[] order = new Integer[points.length];
+        for (int i = 0; i < points.length; i++) {
+            float sum = 0;
+            for (int j = 0; j < query.length; j++)
+                sum += (points[i][j] - query[j]) * (points[i][j] - query[j]);
+            dist[i] = sum;
+            order[i] = i;
+        }
+        Arrays.sort(order, new java.util.Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Float.compare(dist[a], dist[b]);
+            }
+        });
+
+        int[] result = new int[k];
+        for (int i = 0; i < k; i++)
+            result[i] = order[i];
+        return result;
+    }
+
+    private static double recall(HNSWIndex index, float[][] points, float[][] queries, int k) {
+        int[] ids = new int[k];
+        float[] distances = new float[k];
+        int hits = 0;
+        for (float[] q : queries) {
+            int found = index.search(q, k, ids, distances);
+            assertEquals(k, found);
+            for (int i = 1; i < found; i++)
+                assertTrue(distances[i - 1] <= distances[i]);
+
+            int[] exact = bruteForce(points, q, k);
+            for (int e : exact)
+                for (int i = 0; i < found; i++)
+                    if (ids[i] == e)
+                        hits++;
+        }
+        return hits / (double) (queries.length * k);
+    }
+
+    @Test
+    public void testRecall() {
+        float[][] points = randomPoints(2000, 16, 12345);
+        float[][] queries = randomPoints(50, 16, 54321);
+
+        HNSWIndex index = new HNSWIndex.Builder(16).m(16).efConstruction(100).efSearch(100).seed(42).build();
+        for (float[] p : points)
+            index.add(p);
+
+        assertEquals(points.length, index.size());
+        double recall = recall(index, points, queries, 10);
+        assertTrue("Recall: " + recall, recall > 0.9);
+    }
+
+    @Test
+    public void testMultiThreadedBuild() {
+        float[][] points = randomPoints(3000, 8, 123);
+        float[][] queries = randomPoints(50, 8, 321);
+
+        HNSWIndex index = new HNSWIndex.Builder(8).seed(42).build();
+        int first = index.addAll(Nd4j.createFromArray(points), 4);
+
+        assertEquals(0, first);
+        assertEquals(points.length, index.size());
+        for (int i = 0; i < points.length; i += 100)
+            assertArrayEquals(points[i], index.getVector(i), 0.0f);
+
+        double recall = recall(index, points, queries, 10);
+        assertTrue("Recall: " + recall, recall > 0.9);
+    }
+
+    @Test
+    public void testSearchNDArray() {
+        float[][] points = randomPoints(500, 4, 1);
+        HNSWIndex index = new HNSWIndex.Builder(4).seed(42).build();
+        index.addAll(Nd4j.createFromArray(points), 1);
+
+        INDArray target = Nd4j.createFromArray(points[17]).castTo(DataType.DOUBLE);
+        List<DataPoint> results = new ArrayList<>();
+        List<Double> distances = new ArrayList<>();
+        index.search(target, 5, results, distances);
+
+        assertEquals(5, results.size());
+        assertEquals(5, distances.size());
+        assertEquals(17, results.get(0).getIndex());
+        assertEquals(0.0, distances.get(0), 1e-6);
+        assertEquals(Nd4j.createFromArray(points[17]), results.get(0).getPoint());
+    }
+
+    @Test
+    public void testDelete() {
+        float[][] points = randomPoints(1000, 8, 7);
+        HNSWIndex index = new HNSWIndex.Builder(8).seed(42).build();
+        for (float[] p : points)
+            index.add(p);
+
+        int[] ids = new int[5];
+        float[] distances = new float[5];
+        index.search(points[10], 5, ids, distances);
+        assertEquals(10, ids[0]);
+
+        assertTrue(index.delete(10));
+        assertFalse(index.delete(10));
+        assertTrue(index.isDeleted(10));
+        assertEquals(999, index.size());
+
+        assertEquals(5, index.search(points[10], 5, ids, distances));
+        for (int id : ids)
+            assertNotEquals(10, id);
+
+        // new points should be reachable after delete
+        int added = index.add(points[10]);
+        assertEquals(1000, added);
+        index.search(points[10], 1, ids, distances);
+        assertEquals(added, ids[0]);
+    }
+
+    @Test
+    public void testSaveLoad() throws Exception {
+        float[][] points = randomPoints(1000, 8, 11);
+        HNSWIndex index = new HNSWIndex.Builder(8).distanceFunction(HNSWIndex.COSINE_DISTANCE).efSearch(50).seed(42).build();
+        index.addAll(Nd4j.createFromArray(points), 2);
+        index.delete(3);
+
+        File f = new File(testDir.newFolder(), "index.bin");
+        index.save(f);
+        HNSWIndex restored = HNSWIndex.load(f);
+
+        assertEquals(index.size(), restored.size());
+        assertEquals(index.getDistanceFunction(), restored.getDistanceFunction());
+        assertEquals(index.getEfSearch(), restored.getEfSearch());
+        assertTrue(restored.isDeleted(3));
+
+        int[] idsA = new int[10];
+        int[] idsB = new int[10];
+        float[] distA = new float[10];
+        float[] distB = new float[10];
+        for (int i = 0; i < 20; i++) {
+            index.search(points[i], 10, idsA, distA);
+            restored.search(points[i], 10, idsB, distB);
+            assertArrayEquals(idsA, idsB);
+            assertArrayEquals(distA, distB, 0.0f);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownDistance() {
+        new HNSWIndex.Builder(8).distanceFunction("unknown").build();
+    }
+}
@@ -0,0 +1,140 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.clustering.vptree;
+
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.clustering.sptree.DataPoint;
+import org.junit.Test;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FloatVPTreeTest extends BaseDL4JTest {
+
+    private static int[] bruteForce(float[][] points, float[] query, int k, String function) {
+        final double[] dist = new double[points.length];
+        Integer[] order = new Integer[points.length];
+        INDArray q = Nd4j.createFromArray(query);
+        for (int i = 0; i < points.length; i++) {
+            INDArray p = Nd4j.createFromArray(points[i]);
+            dist[i] = "manhattan".equals(function) ? p.distance1(q) : p.distance2(q);
+            order[i] = i;
+        }
+        Arrays.sort(order, new java.util.Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(dist[a], dist[b]);
+            }
+        });
+
+        int[] result = new int[k];
+        for (int i = 0; i < k; i++)
+            result[i] = order[i];
+        return result;
+    }
+
+    @Test
+    public void testExactResults() {
+        Nd4j.getRandom().setSeed(12345);
+        // results are exact for metrics only
+        for (String function : new String[] {"euclidean", "manhattan"}) {
+            INDArray data = Nd4j.rand(DataType.FLOAT, 300, 8);
+            float[][] points = data.toFloatMatrix();
+            FloatVPTree tree = new FloatVPTree(data, function, false, 1);
+            assertEquals(300, tree.size());
+
+            int[] ids = new int[7];
+            float[] distances = new float[7];
+            for (int i = 0; i < 20; i++) {
+                float[] query = Nd4j.rand(DataType.FLOAT, 8).toFloatVector();
+                assertEquals(7, tree.search(query, 7, ids, distances));
+
+                int[] exact = bruteForce(points, query, 7, function);
+                assertArrayEquals(function, exact, ids);
+                for (int j = 1; j < 7; j++)
+                    assertTrue(distances[j - 1] <= distances[j]);
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesVPTree() {
+        Nd4j.getRandom().setSeed(12345);
+        INDArray data = Nd4j.rand(DataType.DOUBLE, 200, 5);
+        VPTree vpTree = new VPTree(data, "euclidean", 1, false);
+        FloatVPTree floatTree = new FloatVPTree(data, "euclidean", false, 1);
+
+        INDArray query = Nd4j.rand(DataType.DOUBLE, 1, 5);
+        List<DataPoint> expected = new ArrayList<>();
+        List<Double> expectedDistances = new ArrayList<>();
+        vpTree.search(query, 5, expected, expectedDistances);
+
+        List<DataPoint> actual = new ArrayList<>();
+        List<Double> actualDistances = new ArrayList<>();
+        floatTree.search(query, 5, actual, actualDistances);
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getIndex(), actual.get(i).getIndex());
+            assertEquals(expectedDistances.get(i), actualDistances.get(i), 1e-5);
+        }
+    }
+
+    @Test
+    public void testBatchSearch() {
+        Nd4j.getRandom().setSeed(12345);
+        INDArray data = Nd4j.rand(DataType.FLOAT, 1000, 16);
+        try (FloatVPTree tree = new FloatVPTree(data, "euclidean", false, 4)) {
+            INDArray queries = Nd4j.rand(DataType.FLOAT, 64, 16);
+            int[][] ids = new int[64][];
+            float[][] distances = new float[64][];
+            tree.search(queries, 10, ids, distances);
+
+            int[] single = new int[10];
+            float[] singleDistances = new float[10];
+            for (int i = 0; i < 64; i++) {
+                tree.search(queries.getRow(i).toFloatVector(), 10, single, singleDistances);
+                assertArrayEquals(single, ids[i]);
+                assertArrayEquals(singleDistances, distances[i], 0.0f);
+            }
+
+            //Pool is recreated after close
+            tree.close();
+            int[][] ids2 = new int[64][];
+            tree.search(queries, 10, ids2, new float[64][]);
+            assertArrayEquals(ids, ids2);
+        }
+    }
+
+    @Test
+    public void testMoreNeighboursThanPoints() {
+        INDArray data = Nd4j.create(new float[][] {{0, 0}, {1, 0}, {3, 0}});
+        FloatVPTree tree = new FloatVPTree(data);
+
+        int[] ids = new int[3];
+        float[] distances = new float[3];
+        assertEquals(3, tree.search(new float[] {0.9f, 0}, 10, ids, distances));
+        assertArrayEquals(new int[] {1, 0, 2}, ids);
+        assertArrayEquals(new float[] {0.1f, 0.9f, 2.1f}, distances, 1e-5f);
+    }
+}
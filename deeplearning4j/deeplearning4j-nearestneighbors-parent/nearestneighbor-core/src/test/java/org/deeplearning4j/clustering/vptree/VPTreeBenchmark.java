@@ -0,0 +1,110 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.clustering.vptree;
+
+import org.deeplearning4j.clustering.sptree.DataPoint;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark comparing query throughput of {@link VPTree} and {@link FloatVPTree}.<br>
+ * Not a unit test: run it via {@link #main(String[])} from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VPTreeBenchmark {
+
+    @Param({"10000", "100000"})
+    public int points;
+
+    @Param({"32", "128"})
+    public int dimensions;
+
+    @Param({"10"})
+    public int k;
+
+    private static final int QUERIES = 256;
+
+    private VPTree vpTree;
+    private FloatVPTree floatTree;
+    private INDArray queries;
+    private float[][] floatQueries;
+    private int[][] ids;
+    private float[][] distances;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Nd4j.getRandom().setSeed(12345);
+        INDArray data = Nd4j.rand(DataType.FLOAT, points, dimensions);
+        queries = Nd4j.rand(DataType.FLOAT, QUERIES, dimensions);
+        floatQueries = queries.toFloatMatrix();
+        ids = new int[QUERIES][k];
+        distances = new float[QUERIES][k];
+
+        vpTree = new VPTree(data, VPTree.EUCLIDEAN, 1, false);
+        floatTree = new FloatVPTree(data, VPTree.EUCLIDEAN, false, Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        floatTree.close();
+    }
+
+    @Benchmark
+    public List<DataPoint> vpTreeSingle() {
+        List<DataPoint> results = new ArrayList<>();
+        List<Double> dist = new ArrayList<>();
+        vpTree.search(queries.getRow(next++ % QUERIES, true), k, results, dist);
+        return results;
+    }
+
+    @Benchmark
+    public int[] floatTreeSingle() {
+        int[] out = ids[0];
+        floatTree.search(floatQueries[next++ % QUERIES], k, out, distances[0]);
+        return out;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public int[][] floatTreeBatch() {
+        floatTree.search(floatQueries, k, ids, distances);
+        return ids;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(VPTreeBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
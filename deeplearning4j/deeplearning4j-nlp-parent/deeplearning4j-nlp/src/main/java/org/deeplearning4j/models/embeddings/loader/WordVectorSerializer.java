@@ -28,6 +28,7 @@ import org.deeplearning4j.exception.DL4JInvalidInputException;
 import org.deeplearning4j.models.embeddings.WeightLookupTable;
 import org.deeplearning4j.models.embeddings.inmemory.InMemoryLookupTable;
 import org.deeplearning4j.models.embeddings.learning.impl.elements.SkipGram;
+import org.deeplearning4j.models.embeddings.quantization.ProductQuantizer;
 import org.deeplearning4j.models.embeddings.reader.impl.BasicModelUtils;
 import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
 import org.deeplearning4j.models.embeddings.wordvectors.WordVectorsImpl;
@@ -38,6 +39,8 @@ import org.deeplearning4j.models.sequencevectors.SequenceVectors;
 import org.deeplearning4j.models.sequencevectors.interfaces.SequenceElementFactory;
 import org.deeplearning4j.models.sequencevectors.sequence.SequenceElement;
 import org.deeplearning4j.models.sequencevectors.serialization.VocabWordFactory;
+import org.deeplearning4j.models.word2vec.MappedWordVectors;
+import org.deeplearning4j.models.word2vec.QuantizedWord2Vec;
 import org.deeplearning4j.models.word2vec.StaticWord2Vec;
 import org.deeplearning4j.models.word2vec.VocabWord;
 import org.deeplearning4j.models.word2vec.Word2Vec;
@@ -65,6 +68,7 @@ import org.nd4j.storage.CompressedRamStorage;
 import org.nd4j.util.OneTimeLogger;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
@@ -146,6 +150,21 @@ import java.util.zip.*;
  * {@link #readLookupTable(File)}
  * {@link #readLookupTable(InputStream)}
  *
+ * <li>Product-quantized word vectors serializers:</li>
+ * {@link #writeQuantizedWordVectors(QuantizedWord2Vec, File)}
+ * {@link #writeQuantizedWordVectors(QuantizedWord2Vec, OutputStream)}
+ *
+ * <li>Product-quantized word vectors deserializers:</li>
+ * {@link #readQuantizedWordVectors(File)}
+ * {@link #readQuantizedWordVectors(InputStream)}
+ *
+ * <li>Memory-mapped word vectors serializers:</li>
+ * {@link #writeMappedWordVectors(WordVectors, File)}
+ * {@link #convertToMappedWordVectors(File, File)}
+ *
+ * <li>Memory-mapped word vectors deserializers:</li>
+ * {@link #readMappedWordVectors(File)}
+ *
  * </ul>
  *
  * @author Adam Gibson
@@ -156,6 +175,8 @@ import java.util.zip.*;
 public class WordVectorSerializer {
     private static final int MAX_SIZE = 50;
     private static final String WHITESPACE_REPLACEMENT = "_Az92_";
+    private static final int QUANTIZED_MAGIC = 0x44515056;
+    private static final int QUANTIZED_VERSION = 1;
 
     private WordVectorSerializer() {
     }
@@ -2741,6 +2762,7 @@ public class WordVectorSerializer {
      * 1) Binary model, either compressed or not. Like well-known Google Model
      * 2) Popular CSV word2vec text format
      * 3) DL4j compressed format
+     * 4) Memory-mapped format, see {@link MappedWordVectors}. In this case MappedWordVectors is returned
      *
      * In return you get StaticWord2Vec model, which might be used as lookup table only in multi-gpu environment.
      *
@@ -2752,6 +2774,14 @@ public class WordVectorSerializer {
             throw new RuntimeException(
                     new FileNotFoundException("File [" + file.getAbsolutePath() + "] was not found"));
 
+        if (MappedWordVectors.isMappedWordVectors(file)) {
+            try {
+                return new MappedWordVectors(file);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
         int originalFreq = Nd4j.getMemoryManager().getOccasionalGcFrequency();
         boolean originalPeriodic = Nd4j.getMemoryManager().isPeriodicGcActive();
 
@@ -3210,6 +3240,211 @@ public class WordVectorSerializer {
         return result;
     }
 
+    /**
+     * This method saves product-quantized word vectors to file
+     *
+     * @param vectors QuantizedWord2Vec
+     * @param file File
+     */
+    public static void writeQuantizedWordVectors(@NonNull QuantizedWord2Vec vectors, @NonNull File file) throws IOException {
+        try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(file))) {
+            writeQuantizedWordVectors(vectors, bos);
+        }
+    }
+
+    /**
+     * This method saves product-quantized word vectors to output stream.
+     * Please note: exact vectors used for re-ranking (if any) are not saved
+     *
+     * @param vectors QuantizedWord2Vec
+     * @param stream OutputStream
+     */
+    public static void writeQuantizedWordVectors(@NonNull QuantizedWord2Vec vectors, @NonNull OutputStream stream) throws IOException {
+        DataOutputStream dos = new DataOutputStream(stream);
+        ProductQuantizer quantizer = vectors.getQuantizer();
+        VocabCache<VocabWord> vocab = vectors.getVocabCache();
+        int numWords = (int) vectors.vocabSize();
+
+        dos.writeInt(QUANTIZED_MAGIC);
+        dos.writeInt(QUANTIZED_VERSION);
+        dos.writeInt(numWords);
+        dos.writeInt(quantizer.getDimensions());
+        dos.writeInt(quantizer.getSubspaces());
+        dos.writeInt(quantizer.getCentroids());
+
+        for (int i = 0; i < numWords; i++) {
+            VocabWord word = vocab.elementAtIndex(i);
+            dos.writeDouble(word.getElementFrequency());
+            dos.writeUTF(word.getLabel());
+        }
+
+        float[] rotation = quantizer.getRotation();
+        dos.writeBoolean(rotation != null);
+        if (rotation != null)
+            writeFloats(dos, rotation);
+
+        for (float[] codebook : quantizer.getCodebooks())
+            writeFloats(dos, codebook);
+
+        writeFloats(dos, vectors.getNorms());
+        dos.write(vectors.getCodes());
+        dos.flush();
+    }
+
+    /**
+     * This method restores product-quantized word vectors, previously saved with writeQuantizedWordVectors()
+     *
+     * @param file File
+     * @return QuantizedWord2Vec
+     */
+    public static QuantizedWord2Vec readQuantizedWordVectors(@NonNull File file) throws IOException {
+        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(file))) {
+            return readQuantizedWordVectors(bis);
+        }
+    }
+
+    /**
+     * This method restores product-quantized word vectors, previously saved with writeQuantizedWordVectors()
+     *
+     * @param stream InputStream
+     * @return QuantizedWord2Vec
+     */
+    public static QuantizedWord2Vec readQuantizedWordVectors(@NonNull InputStream stream) throws IOException {
+        DataInputStream dis = new DataInputStream(stream);
+        if (dis.readInt() != QUANTIZED_MAGIC)
+            throw new DL4JInvalidInputException("Stream doesn't contain quantized word vectors");
+        int version = dis.readInt();
+        if (version != QUANTIZED_VERSION)
+            throw new DL4JInvalidInputException("Unsupported quantized word vectors version: " + version);
+
+        int numWords = dis.readInt();
+        int dimensions = dis.readInt();
+        int subspaces = dis.readInt();
+        int centroids = dis.readInt();
+
+        VocabCache<VocabWord> vocabCache = new AbstractCache.Builder<VocabWord>().build();
+        for (int i = 0; i < numWords; i++) {
+            double frequency = dis.readDouble();
+            VocabWord word = new VocabWord(frequency, dis.readUTF());
+            word.setIndex(i);
+            vocabCache.addToken(word);
+            vocabCache.addWordToIndex(i, word.getLabel());
+        }
+
+        float[] rotation = dis.readBoolean() ? readFloats(dis, dimensions * dimensions) : null;
+        float[][] codebooks = new float[subspaces][];
+        for (int m = 0; m < subspaces; m++)
+            codebooks[m] = readFloats(dis, centroids * (int) ((long) (m + 1) * dimensions / subspaces - (long) m * dimensions / subspaces));
+
+        ProductQuantizer quantizer = new ProductQuantizer(dimensions, subspaces, centroids, rotation, codebooks);
+        float[] norms = readFloats(dis, numWords);
+        if ((long) numWords * subspaces > Integer.MAX_VALUE)
+            throw new DL4JInvalidInputException("Too many codes for quantized word vectors: " + numWords + " words x "
+                    + subspaces + " subspaces exceeds the maximum array size");
+        byte[] codes = new byte[numWords * subspaces];
+        dis.readFully(codes);
+
+        return new QuantizedWord2Vec(vocabCache, quantizer, codes, norms);
+    }
+
+    private static void writeFloats(DataOutputStream dos, float[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * 8192);
+        for (int i = 0; i < data.length; i += 8192) {
+            int len = Math.min(8192, data.length - i);
+            buffer.clear();
+            buffer.asFloatBuffer().put(data, i, len);
+            dos.write(buffer.array(), 0, 4 * len);
+        }
+    }
+
+    private static float[] readFloats(DataInputStream dis, int length) throws IOException {
+        float[] result = new float[length];
+        byte[] bytes = new byte[4 * 8192];
+        for (int i = 0; i < length; i += 8192) {
+            int len = Math.min(8192, length - i);
+            dis.readFully(bytes, 0, 4 * len);
+            ByteBuffer.wrap(bytes, 0, 4 * len).asFloatBuffer().get(result, i, len);
+        }
+        return result;
+    }
+
+    /**
+     * This method saves word vectors in memory-mapped format, see {@link MappedWordVectors}
+     *
+     * @param vectors WordVectors
+     * @param file File
+     */
+    public static void writeMappedWordVectors(@NonNull WordVectors vectors, @NonNull File file) throws IOException {
+        VocabCache<?> vocab = vectors.vocab();
+        int numWords = (int) vectors.vocabSize();
+        try (MappedWordVectors.Writer writer = new MappedWordVectors.Writer(file)) {
+            for (int i = 0; i < numWords; i++) {
+                String label = vocab.wordAtIndex(i);
+                writer.add(label, vectors.getWordVectorMatrix(label).toFloatVector());
+            }
+        }
+    }
+
+    /**
+     * This method converts model file into memory-mapped word vectors format without loading the whole model
+     * into memory. Input file can be in one of the formats supported by {@link #loadStaticModel(File)}:
+     * DL4j compressed format, CSV word2vec text format or binary Google format, compressed or not.
+     *
+     * @param input model file
+     * @param output destination file
+     */
+    public static void convertToMappedWordVectors(@NonNull File input, @NonNull File output) throws IOException {
+        if (!input.exists() || input.isDirectory())
+            throw new FileNotFoundException("File [" + input.getAbsolutePath() + "] was not found");
+
+        try {
+            log.debug("Trying DL4j format...");
+            File tmpFileSyn0 = DL4JFileUtils.createTempFile("word2vec", "syn");
+            tmpFileSyn0.deleteOnExit();
+            try (ZipFile zipFile = new ZipFile(input)) {
+                ZipEntry syn0 = zipFile.getEntry("syn0.txt");
+                try (InputStream stream = zipFile.getInputStream(syn0)) {
+                    FileUtils.copyInputStreamToFile(stream, tmpFileSyn0);
+                }
+                writeMapped(new CSVReader(tmpFileSyn0), output);
+            } finally {
+                tmpFileSyn0.delete();
+            }
+        } catch (Exception e) {
+            try {
+                log.debug("Trying CSVReader...");
+                writeMapped(new CSVReader(input), output);
+            } catch (Exception ex) {
+                log.debug("Trying BinaryReader...");
+                try {
+                    writeMapped(new BinaryReader(input), output);
+                } catch (Exception ez) {
+                    throw new DL4JInvalidInputException("Unable to guess input file format", ez);
+                }
+            }
+        }
+    }
+
+    private static void writeMapped(Reader reader, File output) throws Exception {
+        try (Reader r = reader; MappedWordVectors.Writer writer = new MappedWordVectors.Writer(output)) {
+            while (r.hasNext()) {
+                Pair<VocabWord, float[]> pair = r.next();
+                writer.add(pair.getFirst().getLabel(), pair.getSecond());
+            }
+        }
+    }
+
+    /**
+     * This method opens word vectors saved in memory-mapped format. No data is read besides file header:
+     * vectors and vocabulary are accessed directly from the mapped file.
+     *
+     * @param file File
+     * @return MappedWordVectors
+     */
+    public static MappedWordVectors readMappedWordVectors(@NonNull File file) throws IOException {
+        return new MappedWordVectors(file);
+    }
+
     /**
      * This method prints memory usage to log
      *
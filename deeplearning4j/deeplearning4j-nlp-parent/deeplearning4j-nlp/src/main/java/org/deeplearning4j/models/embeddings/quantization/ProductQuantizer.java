@@ -0,0 +1,348 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.models.embeddings.quantization;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.nd4j.base.Preconditions;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.eigen.Eigen;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+
+/**
+ * Product quantizer: splits vectors into M subspaces, and encodes every subvector as the index of its closest
+ * centroid (one byte per subspace), so a vector of D floats takes M bytes.<br>
+ * Optionally, vectors are rotated before quantization (OPQ, parametric solution from Ge et al., "Optimized Product
+ * Quantization"): principal directions are allocated to subspaces so that variance is balanced between them, which
+ * noticeably lowers quantization error for embeddings with a few dominant directions.<br>
+ * <br>
+ * Similarity between a full precision query and encoded vectors is computed via asymmetric distance computation:
+ * see {@link #innerProductTable(float[], float[])} and {@link #innerProduct(float[], byte[], int)}.
+ */
+@Slf4j
+public class ProductQuantizer {
+    @Getter
+    private final int dimensions;
+    @Getter
+    private final int subspaces;
+    @Getter
+    private final int centroids;
+    // subspace m covers dimensions [offsets[m], offsets[m + 1])
+    private final int[] offsets;
+    // row-major [dimensions x dimensions] rotation, or null
+    @Getter
+    private final float[] rotation;
+    // codebooks[m] holds centroids * subspaceSize(m) floats
+    @Getter
+    private final float[][] codebooks;
+
+    /**
+     * Restore previously trained quantizer
+     *
+     * @param dimensions vector length
+     * @param subspaces  number of subspaces (bytes per encoded vector)
+     * @param centroids  number of centroids per subspace, at most 256
+     * @param rotation   row-major rotation matrix, or null
+     * @param codebooks  codebooks, one per subspace
+     */
+    public ProductQuantizer(int dimensions, int subspaces, int centroids, float[] rotation, @NonNull float[][] codebooks) {
+        Preconditions.checkArgument(subspaces > 0 && subspaces <= dimensions, "Number of subspaces should be in range [1, %s], got %s", dimensions, subspaces);
+        Preconditions.checkArgument(centroids > 1 && centroids <= 256, "Number of centroids should be in range [2, 256], got %s", centroids);
+        Preconditions.checkArgument(rotation == null || rotation.length == dimensions * dimensions, "Rotation matrix should have %s elements", dimensions * dimensions);
+        Preconditions.checkArgument(codebooks.length == subspaces, "Expected %s codebooks, got %s", subspaces, codebooks.length);
+
+        this.dimensions = dimensions;
+        this.subspaces = subspaces;
+        this.centroids = centroids;
+        this.rotation = rotation;
+        this.codebooks = codebooks;
+        this.offsets = new int[subspaces + 1];
+        for (int m = 0; m <= subspaces; m++)
+            offsets[m] = subspaceOffset(m, dimensions, subspaces);
+
+        for (int m = 0; m < subspaces; m++)
+            Preconditions.checkArgument(codebooks[m].length == centroids * subspaceSize(m), "Codebook %s has wrong length", m);
+    }
+
+    /**
+     * @return number of dimensions in subspace m
+     */
+    public int subspaceSize(int m) {
+        return offsets[m + 1] - offsets[m];
+    }
+
+    /**
+     * Train quantizer on the given vectors
+     *
+     * @param data       training vectors, they're not modified
+     * @param subspaces  number of subspaces, i.e. bytes per encoded vector. Larger values give better recall
+     * @param centroids  number of centroids per subspace, at most 256
+     * @param rotate     if true, OPQ rotation is learned first
+     * @param iterations number of k-means iterations
+     * @param seed       random seed
+     * @param workers    number of threads used for training
+     */
+    public static ProductQuantizer train(@NonNull float[][] data, int subspaces, int centroids, boolean rotate,
+                                         int iterations, long seed, int workers) {
+        Preconditions.checkArgument(data.length >= centroids, "Need at least %s training vectors, got %s", centroids, data.length);
+        final int dimensions = data[0].length;
+
+        float[] rotation = rotate ? learnRotation(data, subspaces) : null;
+        final float[][] rotated = rotation == null ? data : new float[data.length][];
+        if (rotation != null)
+            for (int i = 0; i < data.length; i++)
+                rotated[i] = rotate(rotation, data[i], new float[dimensions]);
+
+        // codebooks are trained independently, so subspaces are processed in parallel
+        final float[][] codebooks = new float[subspaces][];
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(workers, subspaces)));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int m = 0; m < subspaces; m++) {
+                final int subspace = m;
+                final int offset = subspaceOffset(m, dimensions, subspaces);
+                final int size = subspaceOffset(m + 1, dimensions, subspaces) - offset;
+                final int k = centroids;
+                final int iters = iterations;
+                final long s = seed + m;
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        codebooks[subspace] = kMeans(rotated, offset, size, k, iters, new Random(s));
+                    }
+                }));
+            }
+
+            for (Future<?> f : futures)
+                f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        return new ProductQuantizer(dimensions, subspaces, centroids, rotation, codebooks);
+    }
+
+    private static int subspaceOffset(int m, int dimensions, int subspaces) {
+        return (int) ((long) m * dimensions / subspaces);
+    }
+
+    /**
+     * OPQ_P: eigenvalue allocation. Principal directions are sorted by variance, and greedily assigned to the
+     * subspace with the smallest product of assigned eigenvalues that still has free dimensions
+     */
+    private static float[] learnRotation(float[][] data, int subspaces) {
+        int d = data[0].length;
+        double[] mean = new double[d];
+        for (float[] v : data)
+            for (int i = 0; i < d; i++)
+                mean[i] += v[i];
+        for (int i = 0; i < d; i++)
+            mean[i] /= data.length;
+
+        INDArray centered = Nd4j.create(DataType.DOUBLE, data.length, d);
+        for (int r = 0; r < data.length; r++)
+            for (int i = 0; i < d; i++)
+                centered.putScalar(r, i, data[r][i] - mean[i]);
+
+        INDArray covariance = centered.transpose().mmul(centered).divi(data.length);
+        // eigenvectors are columns of the covariance matrix after this call, eigenvalues are in ascending order
+        INDArray eigenvalues = Eigen.symmetricGeneralizedEigenvalues(covariance, true);
+
+        int[] capacity = new int[subspaces];
+        double[] logProduct = new double[subspaces];
+        int[] filled = new int[subspaces];
+        for (int m = 0; m < subspaces; m++)
+            capacity[m] = subspaceOffset(m + 1, d, subspaces) - subspaceOffset(m, d, subspaces);
+
+        float[] rotation = new float[d * d];
+        for (int e = d - 1; e >= 0; e--) {
+            int best = -1;
+            for (int m = 0; m < subspaces; m++)
+                if (filled[m] < capacity[m] && (best < 0 || logProduct[m] < logProduct[best]))
+                    best = m;
+
+            int row = subspaceOffset(best, d, subspaces) + filled[best]++;
+            logProduct[best] += Math.log(Math.max(eigenvalues.getDouble(e), 1e-12));
+            for (int i = 0; i < d; i++)
+                rotation[row * d + i] = covariance.getFloat(i, e);
+        }
+        return rotation;
+    }
+
+    private static float[] rotate(float[] rotation, float[] vector, float[] out) {
+        int d = vector.length;
+        for (int r = 0; r < d; r++) {
+            float sum = 0.0f;
+            int base = r * d;
+            for (int i = 0; i < d; i++)
+                sum += rotation[base + i] * vector[i];
+            out[r] = sum;
+        }
+        return out;
+    }
+
+    private static float[] kMeans(float[][] data, int offset, int size, int k, int iterations, Random random) {
+        float[] centroids = new float[k * size];
+
+        // random distinct training vectors as initial centroids
+        int[] perm = new int[data.length];
+        for (int i = 0; i < perm.length; i++)
+            perm[i] = i;
+        for (int c = 0; c < k; c++) {
+            int j = c + random.nextInt(perm.length - c);
+            int t = perm[c];
+            perm[c] = perm[j];
+            perm[j] = t;
+            System.arraycopy(data[perm[c]], offset, centroids, c * size, size);
+        }
+
+        int[] assignment = new int[data.length];
+        double[] sums = new double[k * size];
+        int[] counts = new int[k];
+        for (int iter = 0; iter < iterations; iter++) {
+            Arrays.fill(sums, 0.0);
+            Arrays.fill(counts, 0);
+            int changed = 0;
+            for (int i = 0; i < data.length; i++) {
+                int c = nearest(centroids, k, size, data[i], offset);
+                if (c != assignment[i] || iter == 0)
+                    changed++;
+                assignment[i] = c;
+                counts[c]++;
+                for (int j = 0; j < size; j++)
+                    sums[c * size + j] += data[i][offset + j];
+            }
+
+            for (int c = 0; c < k; c++) {
+                if (counts[c] == 0) {
+                    // empty cluster: restart it from a random training vector
+                    System.arraycopy(data[random.nextInt(data.length)], offset, centroids, c * size, size);
+                    continue;
+                }
+                for (int j = 0; j < size; j++)
+                    centroids[c * size + j] = (float) (sums[c * size + j] / counts[c]);
+            }
+
+            if (changed == 0)
+                break;
+        }
+        return centroids;
+    }
+
+    private static int nearest(float[] centroids, int k, int size, float[] vector, int offset) {
+        int best = 0;
+        float bestDistance = Float.MAX_VALUE;
+        for (int c = 0; c < k; c++) {
+            float dist = 0.0f;
+            int base = c * size;
+            for (int j = 0; j < size; j++) {
+                float d = vector[offset + j] - centroids[base + j];
+                dist += d * d;
+            }
+            if (dist < bestDistance) {
+                bestDistance = dist;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Encode vector into M bytes
+     *
+     * @param vector vector to encode
+     * @param codes  output array
+     * @param offset position in the output array
+     */
+    public void encode(@NonNull float[] vector, @NonNull byte[] codes, int offset) {
+        float[] v = rotation == null ? vector : rotate(rotation, vector, new float[dimensions]);
+        for (int m = 0; m < subspaces; m++)
+            codes[offset + m] = (byte) nearest(codebooks[m], centroids, subspaceSize(m), v, offsets[m]);
+    }
+
+    /**
+     * Reconstruct approximate vector from its codes
+     *
+     * @param codes  encoded vectors
+     * @param offset position of the vector in codes array
+     * @param out    output array, length should be equal to {@link #getDimensions()}
+     */
+    public float[] decode(@NonNull byte[] codes, int offset, @NonNull float[] out) {
+        float[] v = rotation == null ? out : new float[dimensions];
+        for (int m = 0; m < subspaces; m++) {
+            int size = subspaceSize(m);
+            System.arraycopy(codebooks[m], (codes[offset + m] & 0xFF) * size, v, offsets[m], size);
+        }
+
+        if (rotation != null) {
+            // inverse of orthogonal rotation is its transpose
+            Arrays.fill(out, 0.0f);
+            for (int r = 0; r < dimensions; r++) {
+                float x = v[r];
+                int base = r * dimensions;
+                for (int i = 0; i < dimensions; i++)
+                    out[i] += rotation[base + i] * x;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Precompute inner products between query subvectors and all centroids.
+     *
+     * @param query query vector
+     * @param table output array of length subspaces * centroids, reused between queries
+     */
+    public float[] innerProductTable(@NonNull float[] query, @NonNull float[] table) {
+        float[] q = rotation == null ? query : rotate(rotation, query, new float[dimensions]);
+        for (int m = 0; m < subspaces; m++) {
+            int size = subspaceSize(m);
+            float[] codebook = codebooks[m];
+            for (int c = 0; c < centroids; c++) {
+                float sum = 0.0f;
+                int base = c * size;
+                for (int j = 0; j < size; j++)
+                    sum += q[offsets[m] + j] * codebook[base + j];
+                table[m * centroids + c] = sum;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Approximate inner product between the query and an encoded vector, using table from {@link #innerProductTable(float[], float[])}
+     */
+    public float innerProduct(@NonNull float[] table, @NonNull byte[] codes, int offset) {
+        float sum = 0.0f;
+        for (int m = 0; m < subspaces; m++)
+            sum += table[m * centroids + (codes[offset + m] & 0xFF)];
+        return sum;
+    }
+}
@@ -16,7 +16,6 @@
 
 package org.deeplearning4j.models.embeddings.reader.impl;
 
-import org.nd4j.shade.guava.collect.Lists;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NonNull;
@@ -28,13 +27,19 @@ import org.deeplearning4j.models.embeddings.reader.ModelUtils;
 import org.deeplearning4j.models.sequencevectors.sequence.SequenceElement;
 import org.deeplearning4j.models.word2vec.wordstore.VocabCache;
 import org.nd4j.linalg.util.MathUtils;
+import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.indexing.BooleanIndexing;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.nd4j.linalg.indexing.conditions.Conditions;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.ops.transforms.Transforms;
 import org.nd4j.linalg.primitives.Counter;
 import org.nd4j.util.SetUtils;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Basic implementation for ModelUtils interface, suited for standalone use.
@@ -53,6 +58,13 @@ public class BasicModelUtils<T extends SequenceElement> implements ModelUtils<T>
 
     protected volatile boolean normalized = false;
 
+    /**
+     * Number of syn0 rows processed at once by nearest words scan
+     */
+    protected static final int BLOCK_SIZE = 4096;
+
+    private static volatile ForkJoinPool pool;
+
 
     public BasicModelUtils() {
 
@@ -258,38 +270,10 @@ public class BasicModelUtils<T extends SequenceElement> implements ModelUtils<T>
         words = adjustRank(words);
 
         if (lookupTable instanceof InMemoryLookupTable) {
-            InMemoryLookupTable l = (InMemoryLookupTable) lookupTable;
-
-            INDArray syn0 = l.getSyn0();
-
-            if (!normalized) {
-                synchronized (this) {
-                    if (!normalized) {
-                        syn0.diviColumnVector(syn0.norm2(1));
-                        normalized = true;
-                    }
-                }
-            }
-
-            INDArray similarity = Transforms.unitVec(words).mmul(syn0.transpose());
-
-            List<Double> highToLowSimList = getTopN(similarity, top + 20);
+            if (words.rows() > 1)
+                words = words.mean(0).reshape(1, -1);
 
-            List<WordSimilarity> result = new ArrayList<>();
-
-            for (int i = 0; i < highToLowSimList.size(); i++) {
-                String word = vocabCache.wordAtIndex(highToLowSimList.get(i).intValue());
-                if (word != null && !word.equals("UNK") && !word.equals("STOP")) {
-                    INDArray otherVec = lookupTable.vector(word);
-                    double sim = Transforms.cosineSim(words, otherVec);
-
-                    result.add(new WordSimilarity(word, sim));
-                }
-            }
-
-            Collections.sort(result, new SimilarityComparator());
-
-            return getLabels(result, top);
+            return wordsNearestBatch(words, top).get(0);
         }
 
         Counter<String> distances = new Counter<>();
@@ -308,36 +292,156 @@ public class BasicModelUtils<T extends SequenceElement> implements ModelUtils<T>
     }
 
     /**
-     * Get top N elements
+     * Nearest words for many query vectors at once. Similarities are computed as matrix-matrix products
+     * against blocks of {@link #BLOCK_SIZE} rows of syn0, and only top elements for each query are kept in
+     * bounded heaps, so whole vocabulary is never sorted. Blocks are processed in parallel on a ForkJoin pool.
      *
-     * @param vec the vec to extract the top elements from
-     * @param N the number of elements to extract
-     * @return the indices and the sorted top N elements
+     * PLEASE NOTE: This method is available only for InMemoryLookupTable
+     *
+     * @param words query vectors, one per row
+     * @param top the top n words
+     * @return nearest words for each query vector, sorted by similarity
      */
-    private List<Double> getTopN(INDArray vec, int N) {
-        ArrayComparator comparator = new ArrayComparator();
-        PriorityQueue<Double[]> queue = new PriorityQueue<>(vec.rows(), comparator);
-
-        for (int j = 0; j < vec.length(); j++) {
-            final Double[] pair = new Double[] {vec.getDouble(j), (double) j};
-            if (queue.size() < N) {
-                queue.add(pair);
-            } else {
-                Double[] head = queue.peek();
-                if (comparator.compare(pair, head) > 0) {
-                    queue.poll();
-                    queue.add(pair);
+    public List<List<String>> wordsNearestBatch(@NonNull INDArray words, int top) {
+        if (!(lookupTable instanceof InMemoryLookupTable))
+            throw new UnsupportedOperationException("Batched wordsNearest is available only for InMemoryLookupTable");
+
+        INDArray syn0 = ((InMemoryLookupTable) lookupTable).getSyn0();
+        normalize(syn0);
+
+        // special tokens are never returned, so heaps need some extra room for them
+        int extra = 0;
+        for (String special : new String[] {"UNK", "STOP"})
+            if (vocabCache.containsWord(special))
+                extra++;
+
+        int[][] indices = nearestIndices(syn0, adjustRank(words), top + extra);
+
+        List<List<String>> result = new ArrayList<>(indices.length);
+        for (int[] row : indices) {
+            List<String> labels = new ArrayList<>(top);
+            for (int i = 0; i < row.length && labels.size() < top; i++) {
+                String word = vocabCache.wordAtIndex(row[i]);
+                if (word != null && !word.equals("UNK") && !word.equals("STOP"))
+                    labels.add(word);
+            }
+            result.add(labels);
+        }
+        return result;
+    }
+
+    protected void normalize(INDArray syn0) {
+        if (!normalized) {
+            synchronized (this) {
+                if (!normalized) {
+                    syn0.diviColumnVector(syn0.norm2(1));
+                    normalized = true;
                 }
             }
         }
+    }
 
-        List<Double> lowToHighSimLst = new ArrayList<>();
+    /**
+     * Top-k scan over unit-length rows of syn0
+     *
+     * @param syn0 normalized lookup table
+     * @param words query vectors, one per row
+     * @param top number of indices to return per query
+     * @return indices of the most similar rows for each query, sorted by similarity
+     */
+    protected static int[][] nearestIndices(@NonNull INDArray syn0, @NonNull INDArray words, int top) {
+        INDArray queries = words.castTo(syn0.dataType());
+        INDArray norms = queries.norm2(1);
+        // zero queries would give NaN similarities
+        BooleanIndexing.replaceWhere(norms, 1.0, Conditions.equals(0.0));
+        queries = queries.divColumnVector(norms);
+
+        int numQueries = (int) queries.rows();
+        top = (int) Math.min(top, syn0.rows());
+        if (top <= 0)
+            return new int[numQueries][0];
+
+        BlockScanTask task = new BlockScanTask(syn0, queries, top, 0, syn0.rows());
+        TopKHeap[] heaps = syn0.rows() <= BLOCK_SIZE ? task.scan() : getPool().invoke(task);
+
+        int[][] result = new int[numQueries][];
+        for (int q = 0; q < numQueries; q++)
+            result[q] = heaps[q].drain();
+        return result;
+    }
 
-        while (!queue.isEmpty()) {
-            double ind = queue.poll()[1];
-            lowToHighSimLst.add(ind);
+    private static ForkJoinPool getPool() {
+        if (pool == null) {
+            synchronized (BasicModelUtils.class) {
+                if (pool == null)
+                    pool = new ForkJoinPool();
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Computes similarities of all queries against a range of syn0 rows, keeping top elements per query.
+     * Ranges larger than {@link #BLOCK_SIZE} are split in halves, and heaps of both halves are merged.
+     */
+    private static class BlockScanTask extends RecursiveTask<TopKHeap[]> {
+        private final INDArray syn0;
+        private final INDArray queries;
+        private final int top;
+        private final long from;
+        private final long to;
+
+        private BlockScanTask(INDArray syn0, INDArray queries, int top, long from, long to) {
+            this.syn0 = syn0;
+            this.queries = queries;
+            this.top = top;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected TopKHeap[] compute() {
+            if (to - from <= BLOCK_SIZE)
+                return scan();
+
+            long middle = from + (to - from) / 2;
+            BlockScanTask left = new BlockScanTask(syn0, queries, top, from, middle);
+            BlockScanTask right = new BlockScanTask(syn0, queries, top, middle, to);
+            right.fork();
+            TopKHeap[] result = left.compute();
+            TopKHeap[] other = right.join();
+
+            float[] similarities = new float[top];
+            for (int q = 0; q < result.length; q++) {
+                int size = other[q].size();
+                int[] ids = other[q].drain(similarities);
+                for (int i = 0; i < size && result[q].accepts(similarities[i]); i++)
+                    result[q].push(ids[i], similarities[i]);
+            }
+            return result;
+        }
+
+        private TopKHeap[] scan() {
+            int numQueries = (int) queries.rows();
+            TopKHeap[] heaps = new TopKHeap[numQueries];
+            for (int q = 0; q < numQueries; q++)
+                heaps[q] = new TopKHeap(top);
+
+            int rows = (int) (to - from);
+            INDArray block = syn0.get(NDArrayIndex.interval(from, to), NDArrayIndex.all());
+            INDArray similarity = queries.mmul(block.transpose());
+            float[] flat = Nd4j.toFlattened('c', similarity.castTo(DataType.FLOAT)).toFloatVector();
+
+            for (int q = 0, offset = 0; q < numQueries; q++, offset += rows) {
+                TopKHeap heap = heaps[q];
+                for (int r = 0; r < rows; r++) {
+                    float sim = flat[offset + r];
+                    if (heap.accepts(sim))
+                        heap.push((int) from + r, sim);
+                }
+            }
+            return heaps;
         }
-        return Lists.reverse(lowToHighSimLst);
     }
 
     /**
@@ -0,0 +1,132 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.models.embeddings.reader.impl;
+
+/**
+ * Bounded min-heap over (index, similarity) pairs, backed by primitive arrays: keeps the k largest similarities
+ * seen so far. Used for top-k nearest word queries, where sorting whole vocabulary isn't required.
+ */
+public class TopKHeap {
+    private final int[] ids;
+    private final float[] values;
+    private int size;
+
+    /**
+     * @param k number of elements to keep
+     */
+    public TopKHeap(int k) {
+        ids = new int[k];
+        values = new float[k];
+    }
+
+    /**
+     * @return number of elements currently in the heap
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Drop all elements, so heap can be reused
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return true if value would be kept by {@link #push(int, float)}
+     */
+    public boolean accepts(float value) {
+        return size < ids.length || value > values[0];
+    }
+
+    /**
+     * @return smallest similarity kept, or -Float.MAX_VALUE if heap isn't full yet
+     */
+    public float threshold() {
+        return size < ids.length ? -Float.MAX_VALUE : values[0];
+    }
+
+    public void push(int id, float value) {
+        if (size == ids.length) {
+            if (value > values[0])
+                siftDown(id, value, size - 1);
+            return;
+        }
+
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (values[parent] <= value)
+                break;
+            ids[i] = ids[parent];
+            values[i] = values[parent];
+            i = parent;
+        }
+        ids[i] = id;
+        values[i] = value;
+    }
+
+    // replaces the root with (id, value), within heap elements [0, last]
+    private void siftDown(int id, float value, int last) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child > last)
+                break;
+            if (child + 1 <= last && values[child + 1] < values[child])
+                child++;
+            if (values[child] >= value)
+                break;
+            ids[i] = ids[child];
+            values[i] = values[child];
+            i = child;
+        }
+        ids[i] = id;
+        values[i] = value;
+    }
+
+    /**
+     * Empty the heap
+     *
+     * @return indices sorted by similarity, descending
+     */
+    public int[] drain() {
+        return drain(null);
+    }
+
+    /**
+     * Empty the heap
+     *
+     * @param similarities optional output for similarities, sorted descending. Length should be at least {@link #size()}
+     * @return indices sorted by similarity, descending
+     */
+    public int[] drain(float[] similarities) {
+        int[] result = new int[size];
+        while (size > 0) {
+            result[size - 1] = ids[0];
+            if (similarities != null)
+                similarities[size - 1] = values[0];
+            int lastId = ids[size - 1];
+            float lastValue = values[size - 1];
+            size--;
+            if (size > 0)
+                siftDown(lastId, lastValue, size - 1);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,596 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.models.word2vec;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.models.embeddings.WeightLookupTable;
+import org.deeplearning4j.models.embeddings.reader.ModelUtils;
+import org.deeplearning4j.models.embeddings.reader.impl.TopKHeap;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.models.word2vec.wordstore.VocabCache;
+import org.deeplearning4j.models.word2vec.wordstore.inmemory.AbstractCache;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+import org.nd4j.linalg.util.MathUtils;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Read-only word vectors, backed by a memory-mapped file. Opening the file doesn't parse anything: vocabulary
+ * index (open addressing hash table over labels) is stored in the file itself, and vectors are read lazily on each
+ * {@link #getWordVectorMatrix(String)} call. Since mappings are read-only, multiple processes using the same file
+ * share the OS page cache.<br>
+ * <br>
+ * Files are created by {@link Writer}, usually via
+ * {@link org.deeplearning4j.models.embeddings.loader.WordVectorSerializer#writeMappedWordVectors(WordVectors, File)} or
+ * {@link org.deeplearning4j.models.embeddings.loader.WordVectorSerializer#convertToMappedWordVectors(File, File)}.
+ * File layout, all values little endian:
+ * <pre>
+ * header     magic, version, numWords, vectorLength, tableSize, section offsets
+ * vectors    numWords x vectorLength floats, 4096-aligned
+ * norms      numWords floats
+ * offsets    numWords + 1 longs, position of each label in labels section
+ * labels     UTF-8 bytes of all labels
+ * table      tableSize ints, word index or -1
+ * </pre>
+ * Nearest word queries do a full scan over mapped vectors. For frequent nearest word queries over large vocabularies,
+ * consider {@link QuantizedWord2Vec} with this class as re-ranking source.<br>
+ * This implementation DOES NOT provide some of original Word2Vec methods, such as wordsNearestSum or accuracy.
+ */
+@Slf4j
+public class MappedWordVectors implements WordVectors {
+    private static final long MAGIC = 0x444C344A57564D4DL;   // DL4JWVMM
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4096;
+    private static final int EMPTY = -1;
+    // max bytes per single vectors mapping
+    private static final long CHUNK_BYTES = 1L << 30;
+
+    @Getter
+    private final File file;
+    private String unk = null;
+
+    private transient int numWords;
+    private transient int vectorLength;
+    private transient int rowsPerChunk;
+    private transient FloatBuffer[] vectors;
+    private transient FloatBuffer norms;
+    private transient LongBuffer offsets;
+    private transient ByteBuffer labels;
+    private transient IntBuffer table;
+    private transient int tableMask;
+    private transient volatile VocabCache<VocabWord> vocabCache;
+
+    /**
+     * Open previously written file
+     *
+     * @param file file created by {@link Writer}
+     */
+    public MappedWordVectors(@NonNull File file) throws IOException {
+        this.file = file;
+        map();
+    }
+
+    /**
+     * @return true if file starts with the header of this format
+     */
+    public static boolean isMappedWordVectors(@NonNull File file) {
+        if (!file.isFile() || file.length() < HEADER_SIZE)
+            return false;
+
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+            return Long.reverseBytes(dis.readLong()) == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void map() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getLong() != MAGIC)
+                throw new IOException("File [" + file.getAbsolutePath() + "] doesn't contain mapped word vectors");
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported mapped word vectors version: " + version);
+
+            numWords = header.getInt();
+            vectorLength = header.getInt();
+            int tableSize = header.getInt();
+            long vectorsOffset = header.getLong();
+            long normsOffset = header.getLong();
+            long offsetsOffset = header.getLong();
+            long labelsOffset = header.getLong();
+            long tableOffset = header.getLong();
+            long end = header.getLong();
+            if (end != channel.size())
+                throw new IOException("File [" + file.getAbsolutePath() + "] is truncated or corrupted");
+
+            long rowBytes = 4L * Math.max(1, vectorLength);
+            rowsPerChunk = (int) Math.max(1, Math.min(Integer.MAX_VALUE, CHUNK_BYTES / rowBytes));
+            int chunks = numWords == 0 ? 0 : (numWords - 1) / rowsPerChunk + 1;
+            vectors = new FloatBuffer[chunks];
+            for (int c = 0; c < chunks; c++) {
+                long rows = Math.min(rowsPerChunk, numWords - (long) c * rowsPerChunk);
+                vectors[c] = map(channel, vectorsOffset + c * rowsPerChunk * rowBytes, rows * rowBytes).asFloatBuffer();
+            }
+
+            norms = map(channel, normsOffset, 4L * numWords).asFloatBuffer();
+            offsets = map(channel, offsetsOffset, 8L * (numWords + 1)).asLongBuffer();
+            labels = map(channel, labelsOffset, tableOffset - labelsOffset);
+            table = map(channel, tableOffset, 4L * tableSize).asIntBuffer();
+            tableMask = tableSize - 1;
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        map();
+    }
+
+    private static int hash(String label) {
+        // murmur3 finalizer over String.hashCode, which is stable across JVMs
+        int h = label.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private String label(int index) {
+        long start = offsets.get(index);
+        int length = (int) (offsets.get(index + 1) - start);
+        byte[] bytes = new byte[length];
+        ByteBuffer view = labels.duplicate();
+        view.position((int) start);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean labelEquals(int index, byte[] bytes) {
+        int start = (int) offsets.get(index);
+        int length = (int) (offsets.get(index + 1) - start);
+        if (length != bytes.length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (labels.get(start + i) != bytes[i])
+                return false;
+        return true;
+    }
+
+    @Override
+    public int indexOf(String word) {
+        if (word == null)
+            return -1;
+
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        int pos = hash(word) & tableMask;
+        while (true) {
+            int idx = table.get(pos);
+            if (idx == EMPTY)
+                return -1;
+            if (labelEquals(idx, bytes))
+                return idx;
+            pos = (pos + 1) & tableMask;
+        }
+    }
+
+    @Override
+    public boolean hasWord(String word) {
+        return indexOf(word) >= 0;
+    }
+
+    /**
+     * Read vector of the word with given index from the mapped file
+     */
+    protected float[] vector(int index, float[] out) {
+        FloatBuffer chunk = vectors[index / rowsPerChunk];
+        int offset = (index % rowsPerChunk) * vectorLength;
+        for (int i = 0; i < vectorLength; i++)
+            out[i] = chunk.get(offset + i);
+        return out;
+    }
+
+    @Override
+    public String getUNK() {
+        return unk;
+    }
+
+    @Override
+    public void setUNK(String newUNK) {
+        this.unk = newUNK;
+    }
+
+    @Override
+    public INDArray getWordVectorMatrix(String word) {
+        int idx = indexOf(word);
+        if (idx < 0 && getUNK() != null)
+            idx = indexOf(getUNK());
+        if (idx < 0)
+            return null;
+
+        return Nd4j.createFromArray(vector(idx, new float[vectorLength]));
+    }
+
+    @Override
+    public double[] getWordVector(String word) {
+        INDArray array = getWordVectorMatrix(word);
+        return array == null ? null : array.toDoubleVector();
+    }
+
+    @Override
+    public INDArray getWordVectorMatrixNormalized(String word) {
+        INDArray array = getWordVectorMatrix(word);
+        return array == null ? null : Transforms.unitVec(array);
+    }
+
+    @Override
+    public INDArray getWordVectors(Collection<String> labels) {
+        List<INDArray> words = new ArrayList<>();
+        for (String label : labels) {
+            INDArray array = getWordVectorMatrix(label);
+            if (array != null)
+                words.add(array.reshape(1, -1));
+        }
+
+        return Nd4j.vstack(words);
+    }
+
+    @Override
+    public INDArray getWordVectorsMean(Collection<String> labels) {
+        return getWordVectors(labels).mean(0);
+    }
+
+    @Override
+    public Collection<String> wordsNearest(@NonNull INDArray words, int top) {
+        return labels(nearest(words.toFloatVector(), top, Collections.<Integer>emptySet()));
+    }
+
+    @Override
+    public Collection<String> wordsNearest(String word, int n) {
+        int idx = indexOf(word);
+        if (idx < 0)
+            return new ArrayList<>();
+
+        return labels(nearest(vector(idx, new float[vectorLength]), n, Collections.singleton(idx)));
+    }
+
+    @Override
+    public Collection<String> wordsNearest(@NonNull Collection<String> positive, @NonNull Collection<String> negative, int top) {
+        Set<Integer> exclude = new HashSet<>();
+        float[] mean = new float[vectorLength];
+        float[] buffer = new float[vectorLength];
+        for (String s : positive) {
+            int idx = indexOf(s);
+            if (idx < 0)
+                return new ArrayList<>();
+            exclude.add(idx);
+            vector(idx, buffer);
+            for (int i = 0; i < vectorLength; i++)
+                mean[i] += buffer[i];
+        }
+        for (String s : negative) {
+            int idx = indexOf(s);
+            if (idx < 0)
+                return new ArrayList<>();
+            exclude.add(idx);
+            vector(idx, buffer);
+            for (int i = 0; i < vectorLength; i++)
+                mean[i] -= buffer[i];
+        }
+
+        return labels(nearest(mean, top, exclude));
+    }
+
+    /**
+     * Full scan by cosine similarity
+     *
+     * @return indices of the nearest words, from the most similar one
+     */
+    protected int[] nearest(float[] query, int top, Set<Integer> exclude) {
+        top = Math.min(top, numWords - exclude.size());
+        if (top <= 0)
+            return new int[0];
+
+        double qNorm = 0.0;
+        for (float x : query)
+            qNorm += x * x;
+        qNorm = Math.sqrt(qNorm);
+
+        TopKHeap heap = new TopKHeap(top);
+        for (int c = 0; c < vectors.length; c++) {
+            FloatBuffer chunk = vectors[c];
+            int first = c * rowsPerChunk;
+            int rows = Math.min(rowsPerChunk, numWords - first);
+            for (int r = 0, offset = 0; r < rows; r++, offset += vectorLength) {
+                float dot = 0.0f;
+                for (int i = 0; i < vectorLength; i++)
+                    dot += query[i] * chunk.get(offset + i);
+
+                float norm = norms.get(first + r);
+                float sim = norm == 0.0f || qNorm == 0.0 ? 0.0f : (float) (dot / (norm * qNorm));
+                if (heap.accepts(sim) && !exclude.contains(first + r))
+                    heap.push(first + r, sim);
+            }
+        }
+        return heap.drain();
+    }
+
+    private List<String> labels(int[] indices) {
+        List<String> result = new ArrayList<>(indices.length);
+        for (int i : indices)
+            result.add(label(i));
+        return result;
+    }
+
+    @Override
+    public double similarity(String label1, String label2) {
+        int i1 = indexOf(label1);
+        int i2 = indexOf(label2);
+        if (i1 < 0 || i2 < 0) {
+            log.debug("Unknown labels: [{}], [{}]", label1, label2);
+            return Double.NaN;
+        }
+
+        if (i1 == i2)
+            return 1.0;
+
+        float[] v1 = vector(i1, new float[vectorLength]);
+        float[] v2 = vector(i2, new float[vectorLength]);
+        double dot = 0.0;
+        for (int i = 0; i < vectorLength; i++)
+            dot += v1[i] * v2[i];
+        return dot / ((double) norms.get(i1) * norms.get(i2));
+    }
+
+    @Override
+    public List<String> similarWordsInVocabTo(String word, double accuracy) {
+        List<String> ret = new ArrayList<>();
+        for (int i = 0; i < numWords; i++) {
+            String s = label(i);
+            if (MathUtils.stringSimilarity(word, s) >= accuracy)
+                ret.add(s);
+        }
+        return ret;
+    }
+
+    @Override
+    public Collection<String> wordsNearestSum(INDArray words, int top) {
+        throw new UnsupportedOperationException("Method isn't implemented. Please use usual Word2Vec implementation");
+    }
+
+    @Override
+    public Collection<String> wordsNearestSum(String word, int n) {
+        throw new UnsupportedOperationException("Method isn't implemented. Please use usual Word2Vec implementation");
+    }
+
+    @Override
+    public Collection<String> wordsNearestSum(Collection<String> positive, Collection<String> negative, int top) {
+        throw new UnsupportedOperationException("Method isn't implemented. Please use usual Word2Vec implementation");
+    }
+
+    @Override
+    public Map<String, Double> accuracy(List<String> questions) {
+        throw new UnsupportedOperationException("Method isn't implemented. Please use usual Word2Vec implementation");
+    }
+
+    /**
+     * Vocab for the vectors. PLEASE NOTE: it's built from the file on first call, which takes time for large vocabularies
+     */
+    @Override
+    public VocabCache vocab() {
+        if (vocabCache == null) {
+            synchronized (this) {
+                if (vocabCache == null) {
+                    VocabCache<VocabWord> cache = new AbstractCache.Builder<VocabWord>().build();
+                    for (int i = 0; i < numWords; i++) {
+                        VocabWord word = new VocabWord(1.0, label(i));
+                        word.setIndex(i);
+                        cache.addToken(word);
+                        cache.addWordToIndex(i, word.getLabel());
+                    }
+                    vocabCache = cache;
+                }
+            }
+        }
+        return vocabCache;
+    }
+
+    /**
+     * PLEASE NOTE: This method is not available in this implementation.
+     */
+    @Override
+    public WeightLookupTable lookupTable() {
+        throw new UnsupportedOperationException("Method isn't implemented. Please use usual Word2Vec implementation");
+    }
+
+    /**
+     * PLEASE NOTE: This method has no effect in this implementation.
+     */
+    @Override
+    public void setModelUtils(ModelUtils utils) {
+        // no-op
+    }
+
+    @Override
+    public void loadWeightsInto(INDArray array) {
+        float[] buffer = new float[vectorLength];
+        for (int i = 0; i < numWords; i++)
+            array.putRow(i, Nd4j.createFromArray(vector(i, buffer)).castTo(array.dataType()));
+    }
+
+    @Override
+    public long vocabSize() {
+        return numWords;
+    }
+
+    @Override
+    public int vectorSize() {
+        return vectorLength;
+    }
+
+    @Override
+    public boolean jsonSerializable() {
+        return false;
+    }
+
+    @Override
+    public boolean outOfVocabularySupported() {
+        return false;
+    }
+
+    /**
+     * Streaming writer for the mapped word vectors format. Vectors are written to disk as they come,
+     * only labels and norms are kept in memory until {@link #close()}
+     */
+    public static class Writer implements Closeable {
+        private final RandomAccessFile raf;
+        private final DataOutputStream out;
+        private final List<byte[]> labels = new ArrayList<>();
+        private float[] norms = new float[1024];
+        private ByteBuffer buffer;
+        private int vectorLength = -1;
+        private boolean closed = false;
+
+        public Writer(@NonNull File file) throws IOException {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+            raf.seek(HEADER_SIZE);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(raf.getFD()), 1 << 20));
+        }
+
+        /**
+         * Append word vector. Index of the word is equal to number of words added before it
+         */
+        public void add(@NonNull String label, @NonNull float[] vector) throws IOException {
+            if (vectorLength < 0) {
+                vectorLength = vector.length;
+                buffer = ByteBuffer.allocate(4 * vectorLength).order(ByteOrder.LITTLE_ENDIAN);
+            } else if (vector.length != vectorLength) {
+                throw new IllegalArgumentException("Vector for [" + label + "] has length " + vector.length + ", expected " + vectorLength);
+            }
+
+            double norm = 0.0;
+            buffer.clear();
+            for (float v : vector) {
+                buffer.putFloat(v);
+                norm += v * v;
+            }
+            out.write(buffer.array());
+
+            int idx = labels.size();
+            if (idx == norms.length)
+                norms = Arrays.copyOf(norms, norms.length * 2);
+            norms[idx] = (float) Math.sqrt(norm);
+            labels.add(label.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+
+            try {
+                int numWords = labels.size();
+                long vectorsOffset = HEADER_SIZE;
+                long normsOffset = vectorsOffset + 4L * numWords * Math.max(0, vectorLength);
+
+                ByteBuffer b = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                for (int i = 0; i < numWords; i++) {
+                    b.clear();
+                    b.putFloat(norms[i]);
+                    out.write(b.array(), 0, 4);
+                }
+
+                long offsetsOffset = normsOffset + 4L * numWords;
+                long position = 0;
+                for (int i = 0; i <= numWords; i++) {
+                    b.clear();
+                    b.putLong(position);
+                    out.write(b.array(), 0, 8);
+                    if (i < numWords)
+                        position += labels.get(i).length;
+                }
+
+                long labelsOffset = offsetsOffset + 8L * (numWords + 1);
+                for (byte[] label : labels)
+                    out.write(label);
+
+                // open addressing table with load factor <= 0.5
+                int tableSize = Integer.highestOneBit(Math.max(2, numWords) * 2 - 1) << 1;
+                int[] table = new int[tableSize];
+                Arrays.fill(table, EMPTY);
+                for (int i = 0; i < numWords; i++) {
+                    String label = new String(labels.get(i), StandardCharsets.UTF_8);
+                    int pos = hash(label) & (tableSize - 1);
+                    boolean duplicate = false;
+                    while (table[pos] != EMPTY) {
+                        if (Arrays.equals(labels.get(table[pos]), labels.get(i))) {
+                            duplicate = true;
+                            break;
+                        }
+                        pos = (pos + 1) & (tableSize - 1);
+                    }
+                    if (duplicate)
+                        log.warn("Duplicate word [{}] at index {}: only first occurrence will be accessible", label, i);
+                    else
+                        table[pos] = i;
+                }
+
+                long tableOffset = labelsOffset + position;
+                for (int v : table) {
+                    b.clear();
+                    b.putInt(v);
+                    out.write(b.array(), 0, 4);
+                }
+                long end = tableOffset + 4L * tableSize;
+                out.flush();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putLong(MAGIC);
+                header.putInt(VERSION);
+                header.putInt(numWords);
+                header.putInt(Math.max(0, vectorLength));
+                header.putInt(tableSize);
+                header.putLong(vectorsOffset);
+                header.putLong(normsOffset);
+                header.putLong(offsetsOffset);
+                header.putLong(labelsOffset);
+                header.putLong(tableOffset);
+                header.putLong(end);
+                raf.seek(0);
+                raf.write(header.array());
+            } finally {
+                raf.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,528 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.models.word2vec;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.models.embeddings.WeightLookupTable;
+import org.deeplearning4j.models.embeddings.quantization.ProductQuantizer;
+import org.deeplearning4j.models.embeddings.reader.ModelUtils;
+import org.deeplearning4j.models.embeddings.reader.impl.TopKHeap;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.models.word2vec.wordstore.VocabCache;
+import org.nd4j.base.Preconditions;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+import org.nd4j.linalg.util.MathUtils;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Word vectors compressed with product quantization, suited for serving nearest word queries for large vocabularies.
+ * Each word vector is stored as {@link ProductQuantizer#getSubspaces()} bytes plus its norm, instead of
+ * vectorLength floats, so e.g. 300-dimensional vectors with 75 subspaces take 16x less memory.<br>
+ * <br>
+ * Nearest word queries use asymmetric distance computation: the query stays in full precision, and cosine
+ * similarity to every word is approximated via lookup tables, without decompressing any vectors.
+ * Optionally, top candidates can be re-ranked with exact vectors from another {@link WordVectors} instance,
+ * see {@link #setRerankSource(WordVectors, int)}.<br>
+ * <br>
+ * Vectors returned by {@link #getWordVectorMatrix(String)} are reconstructed from codes, so they're approximate.
+ * This implementation DOES NOT provide some of original Word2Vec methods, such as wordsNearestSum or accuracy.
+ * Use {@link org.deeplearning4j.models.embeddings.loader.WordVectorSerializer#writeQuantizedWordVectors(QuantizedWord2Vec, java.io.File)}
+ * to save it.
+ */
+@Slf4j
+public class QuantizedWord2Vec implements WordVectors {
+    @Getter
+    private final VocabCache<VocabWord> vocabCache;
+    @Getter
+    private final ProductQuantizer quantizer;
+    // codes for word i are at [i * subspaces, (i + 1) * subspaces)
+    @Getter
+    private final byte[] codes;
+    @Getter
+    private final float[] norms;
+    private String unk = null;
+
+    private transient WordVectors rerankSource;
+    @Getter
+    private transient int rerankCandidates;
+
+    /**
+     * @param vocabCache vocabulary. Word indices should match positions of vectors in codes
+     * @param quantizer  trained quantizer
+     * @param codes      encoded normalized vectors, {@link ProductQuantizer#getSubspaces()} bytes per word
+     * @param norms      original norms of the vectors
+     */
+    public QuantizedWord2Vec(@NonNull VocabCache<VocabWord> vocabCache, @NonNull ProductQuantizer quantizer,
+                             @NonNull byte[] codes, @NonNull float[] norms) {
+        Preconditions.checkArgument(codes.length == (long) norms.length * quantizer.getSubspaces(),
+                "Codes length %s doesn't match number of words %s", codes.length, norms.length);
+        Preconditions.checkArgument(vocabCache.numWords() == norms.length,
+                "Number of words in vocab [%s] doesn't match number of stored vectors [%s]", vocabCache.numWords(), norms.length);
+        this.vocabCache = vocabCache;
+        this.quantizer = quantizer;
+        this.codes = codes;
+        this.norms = norms;
+    }
+
+    /**
+     * Enables exact re-ranking: top candidates found with quantized vectors are re-scored with exact vectors
+     * taken from the given source. Source should contain the same words.
+     *
+     * @param source     exact vectors, or null to disable re-ranking
+     * @param candidates number of candidates to re-rank. Larger values improve recall. Never less than requested number of results
+     */
+    public void setRerankSource(WordVectors source, int candidates) {
+        this.rerankSource = source;
+        this.rerankCandidates = candidates;
+    }
+
+    @Override
+    public String getUNK() {
+        return unk;
+    }
+
+    @Override
+    public void setUNK(String newUNK) {
+        this.unk = newUNK;
+    }
+
+    @Override
+    public boolean hasWord(String word) {
+        return vocabCache.containsWord(word);
+    }
+
+    @Override
+    public int indexOf(String word) {
+        return vocabCache.indexOf(word);
+    }
+
+    /**
+     * Words nearest to the given vector, by cosine similarity
+     *
+     * @param words vector, or matrix with a single row
+     * @param top   number of words to return
+     * @return words, from the most similar one
+     */
+    @Override
+    public Collection<String> wordsNearest(@NonNull INDArray words, int top) {
+        return labels(nearest(words.toFloatVector(), top, Collections.<Integer>emptySet()));
+    }
+
+    @Override
+    public Collection<String> wordsNearest(String word, int n) {
+        if (!hasWord(word))
+            return new ArrayList<>();
+
+        int idx = vocabCache.indexOf(word);
+        return labels(nearest(vector(idx, new float[quantizer.getDimensions()]), n, Collections.singleton(idx)));
+    }
+
+    @Override
+    public Collection<String> wordsNearest(@NonNull Collection<String> positive, @NonNull Collection<String> negative, int top) {
+        Set<Integer> exclude = new HashSet<>();
+        for (String s : positive) {
+            if (!hasWord(s))
+                return new ArrayList<>();
+            exclude.add(vocabCache.indexOf(s));
+        }
+        for (String s : negative) {
+            if (!hasWord(s))
+                return new ArrayList<>();
+            exclude.add(vocabCache.indexOf(s));
+        }
+
+        int d = quantizer.getDimensions();
+        float[] mean = new float[d];
+        float[] buffer = new float[d];
+        for (String s : positive) {
+            vector(vocabCache.indexOf(s), buffer);
+            for (int i = 0; i < d; i++)
+                mean[i] += buffer[i];
+        }
+        for (String s : negative) {
+            vector(vocabCache.indexOf(s), buffer);
+            for (int i = 0; i < d; i++)
+                mean[i] -= buffer[i];
+        }
+
+        return labels(nearest(mean, top, exclude));
+    }
+
+    /**
+     * Nearest words by cosine similarity
+     *
+     * @return indices of the nearest words, from the most similar one
+     */
+    protected int[] nearest(float[] query, int top, Set<Integer> exclude) {
+        int n = norms.length;
+        top = Math.min(top, n - exclude.size());
+        if (top <= 0)
+            return new int[0];
+
+        float[] q = normalize(query.clone());
+        boolean rerank = rerankSource != null;
+        int candidates = rerank ? Math.min(n - exclude.size(), Math.max(top, rerankCandidates)) : top;
+
+        int subspaces = quantizer.getSubspaces();
+        float[] table = quantizer.innerProductTable(q, new float[subspaces * quantizer.getCentroids()]);
+        TopKHeap heap = new TopKHeap(candidates);
+        for (int i = 0, offset = 0; i < n; i++, offset += subspaces) {
+            float sim = quantizer.innerProduct(table, codes, offset);
+            if (heap.accepts(sim) && !exclude.contains(i))
+                heap.push(i, sim);
+        }
+
+        int[] result = heap.drain();
+        if (!rerank)
+            return result;
+
+        INDArray target = Nd4j.createFromArray(q);
+        TopKHeap exact = new TopKHeap(top);
+        for (int i : result) {
+            INDArray v = rerankSource.getWordVectorMatrix(vocabCache.wordAtIndex(i));
+            if (v != null)
+                exact.push(i, (float) Transforms.cosineSim(target, v.reshape(target.shape()).castTo(target.dataType())));
+        }
+        return exact.drain();
+    }
+
+    private List<String> labels(int[] indices) {
+        List<String> result = new ArrayList<>(indices.length);
+        for (int i : indices)
+            result.add(vocabCache.wordAtIndex(i));
+        return result;
+    }
+
+    private static float[] normalize(float[] v) {
+        double norm = 0.0;
+        for (float x : v)
+            norm += x * x;
+        norm = Math.sqrt(norm);
+        if (norm > 0)
+            for (int i = 0; i < v.length; i++)
+                v[i] /= norm;
+        return v;
+    }
+
+    /**
+     * Reconstruct vector of the word with given index
+     */
+    protected float[] vector(int index, float[] out) {
+        quantizer.decode(codes, index * quantizer.getSubspaces(), out);
+        float norm = norms[index];
+        for (int i = 0; i < out.length; i++)
+            out[i] *= norm;
+        return out;
+    }
+
+    @Override
+    public Collection<String> wordsNearestSum(INDArray words, int top) {
+        throw new UnsupportedOperationException("Method isn't implemented. Please use usual Word2Vec implementation");
+    }
+
+    @Override
+    public Collection<String> wordsNearestSum(String word, int n) {
+        throw new UnsupportedOperationException("Method isn't implemented. Please use usual Word2Vec implementation");
+    }
+
+    @Override
+    public Collection<String> wordsNearestSum(Collection<String> positive, Collection<String> negative, int top) {
+        throw new UnsupportedOperationException("Method isn't implemented. Please use usual Word2Vec implementation");
+    }
+
+    @Override
+    public Map<String, Double> accuracy(List<String> questions) {
+        throw new UnsupportedOperationException("Method isn't implemented. Please use usual Word2Vec implementation");
+    }
+
+    @Override
+    public List<String> similarWordsInVocabTo(String word, double accuracy) {
+        List<String> ret = new ArrayList<>();
+        for (String s : vocabCache.words()) {
+            if (MathUtils.stringSimilarity(word, s) >= accuracy)
+                ret.add(s);
+        }
+        return ret;
+    }
+
+    @Override
+    public double[] getWordVector(String word) {
+        INDArray array = getWordVectorMatrix(word);
+        return array == null ? null : array.toDoubleVector();
+    }
+
+    @Override
+    public INDArray getWordVectorMatrixNormalized(String word) {
+        INDArray array = getWordVectorMatrix(word);
+        return array == null ? null : Transforms.unitVec(array);
+    }
+
+    /**
+     * Get the (approximate) word vector, reconstructed from its codes
+     *
+     * @param word the word to get the matrix for
+     * @return the ndarray for this word, or null if word is unknown and UNK isn't set
+     */
+    @Override
+    public INDArray getWordVectorMatrix(String word) {
+        int idx;
+        if (hasWord(word))
+            idx = vocabCache.indexOf(word);
+        else if (getUNK() != null && hasWord(getUNK()))
+            idx = vocabCache.indexOf(getUNK());
+        else
+            return null;
+
+        return Nd4j.createFromArray(vector(idx, new float[quantizer.getDimensions()]));
+    }
+
+    @Override
+    public INDArray getWordVectors(Collection<String> labels) {
+        List<INDArray> words = new ArrayList<>();
+        for (String label : labels) {
+            INDArray array = getWordVectorMatrix(label);
+            if (array != null)
+                words.add(array.reshape(1, -1));
+        }
+
+        return Nd4j.vstack(words);
+    }
+
+    @Override
+    public INDArray getWordVectorsMean(Collection<String> labels) {
+        return getWordVectors(labels).mean(0);
+    }
+
+    @Override
+    public double similarity(String label1, String label2) {
+        if (label1 == null || label2 == null || !hasWord(label1) || !hasWord(label2)) {
+            log.debug("Unknown labels: [{}], [{}]", label1, label2);
+            return Double.NaN;
+        }
+
+        if (label1.equals(label2))
+            return 1.0;
+
+        return Transforms.cosineSim(getWordVectorMatrix(label1), getWordVectorMatrix(label2));
+    }
+
+    @Override
+    public VocabCache vocab() {
+        return vocabCache;
+    }
+
+    /**
+     * PLEASE NOTE: This method is not available in this implementation.
+     */
+    @Override
+    public WeightLookupTable lookupTable() {
+        throw new UnsupportedOperationException("Method isn't implemented. Please use usual Word2Vec implementation");
+    }
+
+    /**
+     * PLEASE NOTE: This method has no effect in this implementation.
+     */
+    @Override
+    public void setModelUtils(ModelUtils utils) {
+        // no-op
+    }
+
+    @Override
+    public void loadWeightsInto(INDArray array) {
+        float[] buffer = new float[quantizer.getDimensions()];
+        for (int i = 0; i < norms.length; i++)
+            array.putRow(i, Nd4j.createFromArray(vector(i, buffer)).castTo(array.dataType()));
+    }
+
+    @Override
+    public long vocabSize() {
+        return norms.length;
+    }
+
+    @Override
+    public int vectorSize() {
+        return quantizer.getDimensions();
+    }
+
+    @Override
+    public boolean jsonSerializable() {
+        return false;
+    }
+
+    @Override
+    public boolean outOfVocabularySupported() {
+        return false;
+    }
+
+    public static class Builder {
+        private final WordVectors source;
+        private int subspaces = -1;
+        private int centroids = 256;
+        private boolean rotation = true;
+        private int iterations = 20;
+        private int trainingSamples = 65536;
+        private long seed = 12345L;
+        private int workers = Runtime.getRuntime().availableProcessors();
+        private int rerankCandidates = 0;
+
+        /**
+         * @param source full precision word vectors to be quantized
+         */
+        public Builder(@NonNull WordVectors source) {
+            this.source = source;
+        }
+
+        /**
+         * Number of subspaces, i.e. bytes per word vector. This is the main size/recall tradeoff.
+         * Default: vectorLength / 4
+         */
+        public Builder subspaces(int subspaces) {
+            this.subspaces = subspaces;
+            return this;
+        }
+
+        /**
+         * Number of centroids per subspace, in range [2, 256]. Default: 256
+         */
+        public Builder centroids(int centroids) {
+            this.centroids = centroids;
+            return this;
+        }
+
+        /**
+         * If true, OPQ rotation is learned before quantization, which usually improves recall. Default: true
+         */
+        public Builder rotation(boolean rotation) {
+            this.rotation = rotation;
+            return this;
+        }
+
+        /**
+         * Number of k-means iterations. Default: 20
+         */
+        public Builder iterations(int iterations) {
+            this.iterations = iterations;
+            return this;
+        }
+
+        /**
+         * Max number of vectors used to train codebooks. Default: 65536
+         */
+        public Builder trainingSamples(int trainingSamples) {
+            this.trainingSamples = trainingSamples;
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * Number of threads used for training and encoding
+         */
+        public Builder workers(int workers) {
+            this.workers = workers;
+            return this;
+        }
+
+        /**
+         * If positive, source vectors are kept for exact re-ranking of given number of top candidates.
+         * See {@link QuantizedWord2Vec#setRerankSource(WordVectors, int)}. Default: 0, no re-ranking
+         */
+        public Builder rerankCandidates(int rerankCandidates) {
+            this.rerankCandidates = rerankCandidates;
+            return this;
+        }
+
+        public QuantizedWord2Vec build() {
+            final VocabCache<VocabWord> vocab = source.vocab();
+            final int n = vocab.numWords();
+            final int d = source.vectorSize();
+            int m = subspaces > 0 ? subspaces : Math.max(1, d / 4);
+            // codes for all words are kept in a single array, indexed with int offsets
+            Preconditions.checkState((long) n * m <= Integer.MAX_VALUE,
+                    "Too many codes: %s words x %s subspaces exceeds the maximum array size, use fewer subspaces", n, m);
+
+            // training sample
+            Random random = new Random(seed);
+            int samples = Math.min(n, trainingSamples);
+            int[] perm = new int[n];
+            for (int i = 0; i < n; i++)
+                perm[i] = i;
+            float[][] training = new float[samples][];
+            for (int i = 0; i < samples; i++) {
+                int j = i + random.nextInt(n - i);
+                int t = perm[i];
+                perm[i] = perm[j];
+                perm[j] = t;
+                training[i] = normalize(source.getWordVectorMatrix(vocab.wordAtIndex(perm[i])).toFloatVector());
+            }
+
+            long time = System.currentTimeMillis();
+            final ProductQuantizer quantizer = ProductQuantizer.train(training, m, centroids, rotation, iterations, seed, workers);
+            log.info("Trained product quantizer with {} subspaces in {} ms", m, System.currentTimeMillis() - time);
+
+            final byte[] codes = new byte[n * m];
+            final float[] norms = new float[n];
+            final int chunk = Math.max(1, (n + workers - 1) / workers);
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, workers));
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int start = 0; start < n; start += chunk) {
+                    final int from = start;
+                    final int to = Math.min(n, start + chunk);
+                    futures.add(executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            int subspaces = quantizer.getSubspaces();
+                            for (int i = from; i < to; i++) {
+                                float[] v = source.getWordVectorMatrix(vocab.wordAtIndex(i)).toFloatVector();
+                                double norm = 0.0;
+                                for (float x : v)
+                                    norm += x * x;
+                                norms[i] = (float) Math.sqrt(norm);
+                                quantizer.encode(normalize(v), codes, i * subspaces);
+                            }
+                        }
+                    }));
+                }
+
+                for (Future<?> f : futures)
+                    f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } finally {
+                executor.shutdown();
+            }
+
+            QuantizedWord2Vec result = new QuantizedWord2Vec(vocab, quantizer, codes, norms);
+            if (rerankCandidates > 0)
+                result.setRerankSource(source, rerankCandidates);
+            return result;
+        }
+    }
+}
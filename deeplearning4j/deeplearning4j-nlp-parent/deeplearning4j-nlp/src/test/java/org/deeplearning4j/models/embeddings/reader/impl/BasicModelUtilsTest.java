@@ -0,0 +1,123 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.deeplearning4j.models.embeddings.reader.impl;
+
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.models.embeddings.inmemory.InMemoryLookupTable;
+import org.deeplearning4j.models.word2vec.VocabWord;
+import org.deeplearning4j.models.word2vec.wordstore.inmemory.AbstractCache;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class BasicModelUtilsTest extends BaseDL4JTest {
+    // more than BasicModelUtils.BLOCK_SIZE, so scan is split between ForkJoin tasks
+    private static final int WORDS = 10000;
+    private static final int DIMS = 24;
+
+    private float[][] vectors;
+    private BasicModelUtils<VocabWord> utils;
+
+    @Before
+    public void setUp() {
+        Random r = new Random(12345);
+        vectors = new float[WORDS][DIMS];
+        AbstractCache<VocabWord> cache = new AbstractCache.Builder<VocabWord>().build();
+        for (int w = 0; w < WORDS; w++) {
+            for (int i = 0; i < DIMS; i++)
+                vectors[w][i] = (float) r.nextGaussian();
+
+            VocabWord word = new VocabWord(1.0, w == 3 ? "UNK" : "word" + w);
+            word.setIndex(w);
+            cache.addToken(word);
+            cache.addWordToIndex(w, word.getLabel());
+        }
+
+        InMemoryLookupTable<VocabWord> table = (InMemoryLookupTable<VocabWord>) new InMemoryLookupTable.Builder<VocabWord>()
+                .cache(cache).vectorLength(DIMS).build();
+        table.setSyn0(Nd4j.createFromArray(vectors));
+
+        utils = new BasicModelUtils<>();
+        utils.init(table);
+    }
+
+    private List<String> exactNearest(float[] query, int top) {
+        final double[] sims = new double[WORDS];
+        Integer[] order = new Integer[WORDS];
+        for (int i = 0; i < WORDS; i++) {
+            double dot = 0, n1 = 0, n2 = 0;
+            for (int j = 0; j < DIMS; j++) {
+                dot += query[j] * vectors[i][j];
+                n1 += query[j] * query[j];
+                n2 += vectors[i][j] * vectors[i][j];
+            }
+            sims[i] = dot / Math.sqrt(n1 * n2);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(sims[b], sims[a]);
+            }
+        });
+
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < WORDS && result.size() < top; i++)
+            if (order[i] != 3)
+                result.add("word" + order[i]);
+        return result;
+    }
+
+    @Test
+    public void testWordsNearestMatchesFullSort() {
+        Random r = new Random(42);
+        for (int q = 0; q < 20; q++) {
+            float[] query = new float[DIMS];
+            for (int i = 0; i < DIMS; i++)
+                query[i] = (float) r.nextGaussian();
+
+            assertEquals(exactNearest(query, 10), new ArrayList<>(utils.wordsNearest(Nd4j.createFromArray(query), 10)));
+        }
+
+        // special tokens are never returned, even for their own vectors
+        assertFalse(utils.wordsNearest(Nd4j.createFromArray(vectors[3]), 5).contains("UNK"));
+        assertEquals("word7", utils.wordsNearest(Nd4j.createFromArray(vectors[7]), 1).iterator().next());
+    }
+
+    @Test
+    public void testBatchEqualsSingleQueries() {
+        float[][] queries = new float[32][];
+        for (int q = 0; q < queries.length; q++)
+            queries[q] = vectors[q * 97 + 5];
+
+        List<List<String>> batch = utils.wordsNearestBatch(Nd4j.createFromArray(queries), 15);
+        assertEquals(queries.length, batch.size());
+        for (int q = 0; q < queries.length; q++) {
+            assertEquals(15, batch.get(q).size());
+            assertEquals(new ArrayList<>(utils.wordsNearest(Nd4j.createFromArray(queries[q]), 15)), batch.get(q));
+            assertEquals("word" + (q * 97 + 5), batch.get(q).get(0));
+        }
+
+        // top larger than vocabulary
+        assertEquals(WORDS - 1, utils.wordsNearestBatch(Nd4j.createFromArray(queries[0]), WORDS + 10).get(0).size());
+    }
+}
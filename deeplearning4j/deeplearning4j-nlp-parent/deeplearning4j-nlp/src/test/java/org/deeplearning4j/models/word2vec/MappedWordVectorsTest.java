@@ -0,0 +1,163 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.deeplearning4j.models.word2vec;
+
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class MappedWordVectorsTest extends BaseDL4JTest {
+    private static final int WORDS = 1000;
+    private static final int DIMS = 16;
+
+    @Rule
+    public TemporaryFolder testDir = new TemporaryFolder();
+
+    private float[][] vectors;
+    private String[] labels;
+
+    @Before
+    public void setUp() {
+        Random r = new Random(12345);
+        vectors = new float[WORDS][DIMS];
+        labels = new String[WORDS];
+        for (int w = 0; w < WORDS; w++) {
+            for (int i = 0; i < DIMS; i++)
+                vectors[w][i] = (float) r.nextGaussian();
+            // a few non-ascii labels, to check utf-8 handling
+            labels[w] = (w % 100 == 0 ? "слово" : "word") + w;
+        }
+    }
+
+    private File write() throws IOException {
+        File f = new File(testDir.newFolder(), "vectors.mmap");
+        try (MappedWordVectors.Writer writer = new MappedWordVectors.Writer(f)) {
+            for (int w = 0; w < WORDS; w++)
+                writer.add(labels[w], vectors[w]);
+        }
+        return f;
+    }
+
+    private List<String> exactNearest(int word, int top) {
+        final double[] sims = new double[WORDS];
+        Integer[] order = new Integer[WORDS];
+        for (int i = 0; i < WORDS; i++) {
+            double dot = 0, n1 = 0, n2 = 0;
+            for (int j = 0; j < DIMS; j++) {
+                dot += vectors[word][j] * vectors[i][j];
+                n1 += vectors[word][j] * vectors[word][j];
+                n2 += vectors[i][j] * vectors[i][j];
+            }
+            sims[i] = dot / Math.sqrt(n1 * n2);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(sims[b], sims[a]);
+            }
+        });
+
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < WORDS && result.size() < top; i++)
+            if (order[i] != word)
+                result.add(labels[order[i]]);
+        return result;
+    }
+
+    @Test
+    public void testLookups() throws Exception {
+        MappedWordVectors mapped = WordVectorSerializer.readMappedWordVectors(write());
+        assertEquals(WORDS, mapped.vocabSize());
+        assertEquals(DIMS, mapped.vectorSize());
+
+        for (int w = 0; w < WORDS; w++) {
+            assertEquals(w, mapped.indexOf(labels[w]));
+            assertArrayEquals(vectors[w], mapped.getWordVectorMatrix(labels[w]).toFloatVector(), 0.0f);
+        }
+
+        assertFalse(mapped.hasWord("unknown"));
+        assertEquals(-1, mapped.indexOf("word100"));
+        assertNull(mapped.getWordVectorMatrix("unknown"));
+
+        mapped.setUNK(labels[5]);
+        assertArrayEquals(vectors[5], mapped.getWordVectorMatrix("unknown").toFloatVector(), 0.0f);
+
+        assertEquals(labels[7], mapped.vocab().wordAtIndex(7));
+        assertEquals(1.0, mapped.similarity(labels[3], labels[3]), 1e-6);
+        assertTrue(Double.isNaN(mapped.similarity(labels[3], "unknown")));
+    }
+
+    @Test
+    public void testWordsNearest() throws Exception {
+        MappedWordVectors mapped = WordVectorSerializer.readMappedWordVectors(write());
+        for (int w = 0; w < 50; w++)
+            assertEquals(exactNearest(w, 10), new ArrayList<>(mapped.wordsNearest(labels[w], 10)));
+
+        Collection<String> found = mapped.wordsNearest(Arrays.asList(labels[1], labels[2]), Arrays.asList(labels[3]), 5);
+        assertEquals(5, found.size());
+        assertFalse(found.contains(labels[1]));
+        assertFalse(found.contains(labels[3]));
+    }
+
+    @Test
+    public void testConversionAndStaticLoading() throws Exception {
+        File dir = testDir.newFolder();
+        File txt = new File(dir, "vectors.txt");
+        try (PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(txt), StandardCharsets.UTF_8))) {
+            pw.println(WORDS + " " + DIMS);
+            for (int w = 0; w < WORDS; w++) {
+                StringBuilder sb = new StringBuilder(labels[w]);
+                for (float v : vectors[w])
+                    sb.append(' ').append(v);
+                pw.println(sb);
+            }
+        }
+
+        File f = new File(dir, "vectors.mmap");
+        WordVectorSerializer.convertToMappedWordVectors(txt, f);
+        assertTrue(MappedWordVectors.isMappedWordVectors(f));
+        assertFalse(MappedWordVectors.isMappedWordVectors(txt));
+
+        WordVectors loaded = WordVectorSerializer.loadStaticModel(f);
+        assertTrue(loaded instanceof MappedWordVectors);
+        assertEquals(WORDS, loaded.vocabSize());
+        assertEquals(labels[10], loaded.vocab().wordAtIndex(10));
+        assertArrayEquals(vectors[10], loaded.getWordVectorMatrix(labels[10]).toFloatVector(), 0.0f);
+
+        // java serialization re-maps the same file
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(loaded);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+            MappedWordVectors restored = (MappedWordVectors) ois.readObject();
+            assertEquals(loaded.wordsNearest(labels[10], 5), restored.wordsNearest(labels[10], 5));
+        }
+    }
+}
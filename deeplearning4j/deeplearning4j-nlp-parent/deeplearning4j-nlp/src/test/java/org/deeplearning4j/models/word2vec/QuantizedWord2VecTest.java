@@ -0,0 +1,169 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.models.word2vec;
+
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.models.embeddings.inmemory.InMemoryLookupTable;
+import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.models.word2vec.wordstore.inmemory.AbstractCache;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class QuantizedWord2VecTest extends BaseDL4JTest {
+    private static final int WORDS = 2000;
+    private static final int DIMS = 32;
+
+    @Rule
+    public TemporaryFolder testDir = new TemporaryFolder();
+
+    private float[][] vectors;
+    private WordVectors source;
+
+    @Before
+    public void setUp() {
+        // clustered random vectors, so nearest neighbours are meaningful
+        Random r = new Random(12345);
+        float[][] centers = new float[50][DIMS];
+        for (float[] c : centers)
+            for (int i = 0; i < DIMS; i++)
+                c[i] = (float) r.nextGaussian();
+
+        vectors = new float[WORDS][DIMS];
+        AbstractCache<VocabWord> cache = new AbstractCache.Builder<VocabWord>().build();
+        for (int w = 0; w < WORDS; w++) {
+            float[] c = centers[r.nextInt(centers.length)];
+            for (int i = 0; i < DIMS; i++)
+                vectors[w][i] = c[i] + 0.3f * (float) r.nextGaussian();
+
+            VocabWord word = new VocabWord(1.0, "word" + w);
+            word.setIndex(w);
+            cache.addToken(word);
+            cache.addWordToIndex(w, word.getLabel());
+        }
+
+        InMemoryLookupTable<VocabWord> table = (InMemoryLookupTable<VocabWord>) new InMemoryLookupTable.Builder<VocabWord>()
+                .cache(cache).vectorLength(DIMS).build();
+        table.setSyn0(Nd4j.createFromArray(vectors));
+        source = WordVectorSerializer.fromTableAndVocab(table, cache);
+    }
+
+    private List<String> exactNearest(int word, int top) {
+        final double[] sims = new double[WORDS];
+        Integer[] order = new Integer[WORDS];
+        for (int i = 0; i < WORDS; i++) {
+            double dot = 0, n1 = 0, n2 = 0;
+            for (int j = 0; j < DIMS; j++) {
+                dot += vectors[word][j] * vectors[i][j];
+                n1 += vectors[word][j] * vectors[word][j];
+                n2 += vectors[i][j] * vectors[i][j];
+            }
+            sims[i] = dot / Math.sqrt(n1 * n2);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(sims[b], sims[a]);
+            }
+        });
+
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < WORDS && result.size() < top; i++)
+            if (order[i] != word)
+                result.add("word" + order[i]);
+        return result;
+    }
+
+    private double recall(QuantizedWord2Vec quantized, int top) {
+        int hits = 0;
+        int total = 0;
+        for (int w = 0; w < 100; w++) {
+            Collection<String> found = quantized.wordsNearest("word" + w, top);
+            assertEquals(top, found.size());
+            assertFalse(found.contains("word" + w));
+            for (String s : exactNearest(w, top))
+                if (found.contains(s))
+                    hits++;
+            total += top;
+        }
+        return hits / (double) total;
+    }
+
+    @Test
+    public void testRecallAndRerank() {
+        QuantizedWord2Vec quantized = new QuantizedWord2Vec.Builder(source).subspaces(16).seed(42).build();
+        assertEquals(WORDS, quantized.vocabSize());
+        assertEquals(DIMS, quantized.vectorSize());
+        assertEquals(WORDS * 16, quantized.getCodes().length);
+
+        double approximate = recall(quantized, 10);
+        assertTrue("Recall: " + approximate, approximate > 0.5);
+
+        quantized.setRerankSource(source, 100);
+        double reranked = recall(quantized, 10);
+        assertTrue("Recall with re-ranking: " + reranked + ", without: " + approximate, reranked >= approximate);
+        assertTrue("Recall with re-ranking: " + reranked, reranked > 0.85);
+    }
+
+    @Test
+    public void testReconstruction() {
+        QuantizedWord2Vec quantized = new QuantizedWord2Vec.Builder(source).subspaces(16).centroids(64).seed(42).build();
+        for (int w = 0; w < 20; w++) {
+            float[] restored = quantized.getWordVectorMatrix("word" + w).toFloatVector();
+            double err = 0, norm = 0;
+            for (int i = 0; i < DIMS; i++) {
+                err += (restored[i] - vectors[w][i]) * (restored[i] - vectors[w][i]);
+                norm += vectors[w][i] * vectors[w][i];
+            }
+            assertTrue("Relative error: " + Math.sqrt(err / norm), Math.sqrt(err / norm) < 0.3);
+        }
+
+        assertTrue(quantized.similarity("word1", "word2") <= 1.0);
+        assertEquals(1.0, quantized.similarity("word1", "word1"), 1e-6);
+        assertNull(quantized.getWordVectorMatrix("unknown"));
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        QuantizedWord2Vec quantized = new QuantizedWord2Vec.Builder(source).subspaces(8).centroids(32).seed(42).build();
+
+        File f = new File(testDir.newFolder(), "quantized.bin");
+        WordVectorSerializer.writeQuantizedWordVectors(quantized, f);
+        QuantizedWord2Vec restored = WordVectorSerializer.readQuantizedWordVectors(f);
+
+        assertEquals(quantized.vocabSize(), restored.vocabSize());
+        assertArrayEquals(quantized.getCodes(), restored.getCodes());
+        assertArrayEquals(quantized.getNorms(), restored.getNorms(), 0.0f);
+        for (int w = 0; w < 20; w++) {
+            assertEquals("word" + w, restored.vocab().wordAtIndex(w));
+            assertEquals(quantized.getWordVectorMatrix("word" + w), restored.getWordVectorMatrix("word" + w));
+            assertEquals(quantized.wordsNearest("word" + w, 5), restored.wordsNearest("word" + w, 5));
+        }
+
+        assertEquals(quantized.wordsNearest(Arrays.asList("word1", "word2"), Arrays.asList("word3"), 5),
+                restored.wordsNearest(Arrays.asList("word1", "word2"), Arrays.asList("word3"), 5));
+    }
+}
@@ -105,6 +105,12 @@ public class ComputationGraphConfiguration implements Serializable, Cloneable {
 
     protected NeuralNetConfiguration defaultConfiguration;
 
+    //Vertices whose activations are kept when activation recomputation is used. Null: activation recomputation not used
+    protected List<String> activationCheckpoints;
+
+    //Mixed precision training configuration. Null: mixed precision training not used
+    protected MixedPrecision mixedPrecision;
+
     //Counter for the number of parameter updates so far
     // This is important for learning rate schedules, for example, and is stored here to ensure it is persisted
     // for Spark and model serialization
@@ -343,6 +349,8 @@ public class ComputationGraphConfiguration implements Serializable, Cloneable {
         conf.defaultConfiguration.cacheMode = this.cacheMode;
         conf.validateOutputLayerConfig = this.validateOutputLayerConfig;
         conf.dataType = this.dataType;
+        conf.activationCheckpoints = (this.activationCheckpoints == null ? null : new ArrayList<>(this.activationCheckpoints));
+        conf.mixedPrecision = (this.mixedPrecision == null ? null : this.mixedPrecision.toBuilder().build());
 
         return conf;
     }
@@ -690,6 +698,7 @@ public class ComputationGraphConfiguration implements Serializable, Cloneable {
         protected boolean allowNoOutput = false;
         protected boolean validateOutputConfig = true;
         protected boolean validateTbpttConfig = true;
+        protected List<String> activationCheckpoints;
 
         protected String lastAdded = null;
 
@@ -1100,6 +1109,24 @@ public class ComputationGraphConfiguration implements Serializable, Cloneable {
             return this;
         }
 
+        /**
+         * Enable activation recomputation (also known as gradient checkpointing) during training, to reduce the memory
+         * required for storing activations for backprop.<br>
+         * The specified vertices are used as checkpoints, and divide the topological order of the graph into segments,
+         * each ending at a checkpoint. After the forward pass, only the activations of the checkpoints (and of any other
+         * vertices that are used outside of their segment) are kept in memory; the other activations are discarded and
+         * recomputed during backprop, just before the gradients for the segment are calculated. Vertices after the last
+         * checkpoint are not recomputed.<br>
+         * For example, for a ResNet the outputs of the residual blocks are suitable checkpoints.<br>
+         * See {@link MultiLayerConfiguration.Builder#activationCheckpoints(int...)} for further details.
+         *
+         * @param vertexNames Names of the checkpoint vertices
+         */
+        public GraphBuilder activationCheckpoints(String... vertexNames){
+            this.activationCheckpoints = (vertexNames == null || vertexNames.length == 0 ? null : Arrays.asList(vertexNames));
+            return this;
+        }
+
         /**
          * For the (perhaps partially constructed) network configuration, return a map of activation sizes for each
          * layer and vertex in the graph.<br>
@@ -1158,6 +1185,8 @@ public class ComputationGraphConfiguration implements Serializable, Cloneable {
             conf.cacheMode = globalConfiguration.cacheMode;
             conf.validateOutputLayerConfig = validateOutputConfig;
             conf.dataType = globalConfiguration.dataType;
+            conf.activationCheckpoints = (activationCheckpoints == null ? null : new ArrayList<>(activationCheckpoints));
+            conf.mixedPrecision = globalConfiguration.mixedPrecision;
 
             conf.defaultConfiguration = globalConfiguration.build();
 
@@ -1212,6 +1241,26 @@ public class ComputationGraphConfiguration implements Serializable, Cloneable {
                 }
             }
 
+            if(activationCheckpoints != null){
+                for(String s : activationCheckpoints){
+                    if(!vertices.containsKey(s)){
+                        throw new IllegalStateException("Invalid activation checkpoint: no vertex with name \"" + s + "\" exists");
+                    }
+                }
+                if(backpropType == BackpropType.TruncatedBPTT){
+                    log.warn("Activation checkpoints have been configured, but backprop type is set to truncated BPTT:" +
+                            " activations will not be recomputed");
+                }
+            }
+
+            if(conf.mixedPrecision != null){
+                if(conf.dataType != DataType.HALF){
+                    throw new IllegalStateException("Mixed precision training requires the network data type to be set to " +
+                            "HALF, got data type " + conf.dataType);
+                }
+                conf.mixedPrecision.validate();
+            }
+
             if(backpropType == BackpropType.TruncatedBPTT && validateTbpttConfig){
                 //Check for invalid combination - tbptt plus LastTimeStepLayer or
                 for(Map.Entry<String,GraphVertex> e : vertices.entrySet()){
@@ -0,0 +1,104 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+
+package org.deeplearning4j.nn.conf;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * Configuration for mixed precision training of MultiLayerNetwork and ComputationGraph.<br>
+ * When used, the network data type (see {@link NeuralNetConfiguration.Builder#dataType(org.nd4j.linalg.api.buffer.DataType)})
+ * is used for the forward and backward passes only, and must be {@code HALF}.
+ * A FLOAT (32-bit) copy of the parameters ("master parameters"), along with FLOAT updater state, is kept by the updater:
+ * gradients are converted to FLOAT, the updater is applied to the FLOAT gradients and the parameter update is applied to
+ * the master parameters, which are then converted back to the network data type.<br>
+ * <br>
+ * Dynamic loss scaling is used to avoid underflow of small gradients in half precision: the gradients of the output
+ * layers are multiplied by the current loss scale, and all gradients are divided by the loss scale (in FLOAT) before the
+ * updater is applied. If a gradient contains NaN or infinite values (i.e., an overflow occurred), the parameter update
+ * for the iteration is skipped and the loss scale is multiplied by {@link #getBackoffFactor()}. After
+ * {@link #getGrowthInterval()} consecutive iterations without an overflow, the loss scale is multiplied by
+ * {@link #getGrowthFactor()}.<br>
+ * <br>
+ * Note that the master parameters are not persisted when the network is saved: they are recreated from the (half
+ * precision) network parameters when training is resumed. Similarly, the loss scale restarts at
+ * {@link #getInitialLossScale()}.
+ */
+@Data
+@Builder(toBuilder = true)
+@AllArgsConstructor
+public class MixedPrecision implements Serializable {
+
+    public static final double DEFAULT_INITIAL_LOSS_SCALE = 1024.0;
+    public static final double DEFAULT_GROWTH_FACTOR = 2.0;
+    public static final double DEFAULT_BACKOFF_FACTOR = 0.5;
+    public static final int DEFAULT_GROWTH_INTERVAL = 2000;
+
+    /**
+     * Initial value for the loss scale. Default: 1024 (2^10).<br>
+     * Note that gradients are summed (not averaged) over the minibatch until the updater is applied, hence the default is
+     * lower than is typical for frameworks where the loss is averaged over the minibatch before backprop
+     */
+    @Builder.Default private double initialLossScale = DEFAULT_INITIAL_LOSS_SCALE;
+    /**
+     * Factor to multiply the loss scale by after {@link #getGrowthInterval()} iterations without overflow. Must be >= 1.
+     * Use 1.0 for a fixed (static) loss scale. Default: 2.0
+     */
+    @Builder.Default private double growthFactor = DEFAULT_GROWTH_FACTOR;
+    /**
+     * Factor to multiply the loss scale by when an overflow is detected. Must be in range (0, 1]. Default: 0.5
+     */
+    @Builder.Default private double backoffFactor = DEFAULT_BACKOFF_FACTOR;
+    /**
+     * Number of consecutive iterations without overflow, after which the loss scale is increased. Default: 2000
+     */
+    @Builder.Default private int growthInterval = DEFAULT_GROWTH_INTERVAL;
+    /**
+     * Minimum value for the loss scale. Default: 1.0
+     */
+    @Builder.Default private double minLossScale = 1.0;
+
+    /**
+     * Create a mixed precision configuration with the default (dynamic) loss scaling settings
+     */
+    public MixedPrecision() {
+        this(DEFAULT_INITIAL_LOSS_SCALE, DEFAULT_GROWTH_FACTOR, DEFAULT_BACKOFF_FACTOR, DEFAULT_GROWTH_INTERVAL, 1.0);
+    }
+
+    /**
+     * Validate the configuration
+     *
+     * @throws IllegalStateException If any of the values are invalid
+     */
+    public void validate() {
+        if (!(initialLossScale > 0) || !(minLossScale > 0) || minLossScale > initialLossScale) {
+            throw new IllegalStateException("Invalid mixed precision configuration: initial and minimum loss scale must be" +
+                    " positive, with minLossScale <= initialLossScale. Got initialLossScale=" + initialLossScale +
+                    ", minLossScale=" + minLossScale);
+        }
+        if (growthFactor < 1.0 || !(backoffFactor > 0) || backoffFactor > 1.0 || growthInterval <= 0) {
+            throw new IllegalStateException("Invalid mixed precision configuration: growthFactor must be >= 1, backoffFactor" +
+                    " must be in range (0,1] and growthInterval must be positive. Got growthFactor=" + growthFactor +
+                    ", backoffFactor=" + backoffFactor + ", growthInterval=" + growthInterval);
+        }
+    }
+}
@@ -82,6 +82,12 @@ public class MultiLayerConfiguration implements Serializable, Cloneable {
     @Setter
     protected DataType dataType = DataType.FLOAT;   //Default to float for deserialization of beta3 and earlier nets
 
+    //Layers whose activations are kept when activation recomputation is used. Null: activation recomputation not used
+    protected int[] activationCheckpoints;
+
+    //Mixed precision training configuration. Null: mixed precision training not used
+    protected MixedPrecision mixedPrecision;
+
     //Counter for the number of parameter updates so far
     // This is important for learning rate schedules, for example, and is stored here to ensure it is persisted
     // for Spark and model serialization
@@ -393,6 +399,8 @@ public class MultiLayerConfiguration implements Serializable, Cloneable {
             clone.cacheMode = this.cacheMode;
             clone.validateOutputLayerConfig = this.validateOutputLayerConfig;
             clone.dataType = this.dataType;
+            clone.activationCheckpoints = (this.activationCheckpoints == null ? null : this.activationCheckpoints.clone());
+            clone.mixedPrecision = (this.mixedPrecision == null ? null : this.mixedPrecision.toBuilder().build());
 
             return clone;
 
@@ -479,6 +487,8 @@ public class MultiLayerConfiguration implements Serializable, Cloneable {
         protected boolean validateOutputConfig = true;
         protected boolean validateTbpttConfig = true;
         protected DataType dataType;
+        protected int[] activationCheckpoints;
+        protected MixedPrecision mixedPrecision;
 
         /**
          * Specify the processors.
@@ -629,6 +639,42 @@ public class MultiLayerConfiguration implements Serializable, Cloneable {
             return this;
         }
 
+        /**
+         * Enable activation recomputation (also known as gradient checkpointing) during training, to reduce the memory
+         * required for storing layer activations for backprop.<br>
+         * The specified layers are used as checkpoints, and divide the network into segments: layers 0 to c<sub>0</sub>
+         * (inclusive), c<sub>0</sub>+1 to c<sub>1</sub> and so on, for checkpoints c<sub>0</sub> &lt; c<sub>1</sub> &lt; ...
+         * After the forward pass, only the output activations of the last layer in each segment are kept in memory;
+         * the other activations of the segment are discarded and then recomputed during backprop, just before the
+         * gradients for the segment are calculated. The layers after the last checkpoint (including the output layer)
+         * are not recomputed.<br>
+         * With checkpoints every sqrt(n) layers, activation memory for an n layer network is O(sqrt(n)) instead of O(n),
+         * at the cost of (up to) one additional forward pass per iteration.<br>
+         * Notes:<br>
+         * - Dropout masks and weight noise are the same for the forward pass and the recomputed forward pass<br>
+         * - Activations are not recomputed when using truncated BPTT<br>
+         * - The activations passed to TrainingListener.onForwardPass are null for the discarded activations
+         *
+         * @param layerIndices Indices of the checkpoint layers. Must be less than the index of the output layer
+         */
+        public Builder activationCheckpoints(int... layerIndices){
+            this.activationCheckpoints = layerIndices;
+            return this;
+        }
+
+        /**
+         * Enable mixed precision training: the forward and backward passes are performed in the network data type
+         * (which must be HALF), whereas the updater state and a copy of the parameters are kept in FLOAT
+         * precision. Dynamic loss scaling is used to avoid underflow of gradients in half precision.
+         * See {@link MixedPrecision} for further details.
+         *
+         * @param mixedPrecision Mixed precision configuration. May be null (mixed precision training not used)
+         */
+        public Builder mixedPrecision(MixedPrecision mixedPrecision){
+            this.mixedPrecision = mixedPrecision;
+            return this;
+        }
+
 
         public MultiLayerConfiguration build() {
             //Validate BackpropType setting
@@ -652,6 +698,31 @@ public class MultiLayerConfiguration implements Serializable, Cloneable {
             }
 
 
+            int[] checkpoints = null;
+            if (activationCheckpoints != null && activationCheckpoints.length > 0) {
+                checkpoints = activationCheckpoints.clone();
+                Arrays.sort(checkpoints);
+                for (int c : checkpoints) {
+                    if (c < 0 || c >= confs.size() - 1) {
+                        throw new IllegalStateException("Invalid activation checkpoint: layer index " + c + " is not valid" +
+                                " for a network with " + confs.size() + " layers. Checkpoints must be between 0 and the " +
+                                "index of the output layer (exclusive)");
+                    }
+                }
+                if (backpropType == BackpropType.TruncatedBPTT) {
+                    log.warn("Activation checkpoints have been configured, but backprop type is set to truncated BPTT:" +
+                            " activations will not be recomputed");
+                }
+            }
+
+            if (mixedPrecision != null) {
+                if (dataType != DataType.HALF) {
+                    throw new IllegalStateException("Mixed precision training requires the network data type to be set to " +
+                            "HALF, got data type " + dataType);
+                }
+                mixedPrecision.validate();
+            }
+
             if (inputType == null && inputPreProcessors.get(0) == null) {
                 //User hasn't set the InputType. Sometimes we can infer it...
                 // For example, Dense/RNN layers, where preprocessor isn't set -> user is *probably* going to feed in
@@ -715,6 +786,8 @@ public class MultiLayerConfiguration implements Serializable, Cloneable {
             conf.inferenceWorkspaceMode = inferenceWorkspaceMode;
             conf.cacheMode = cacheMode;
             conf.dataType = dataType;
+            conf.activationCheckpoints = checkpoints;
+            conf.mixedPrecision = mixedPrecision;
 
             Nd4j.getRandom().setSeed(conf.getConf(0).getSeed());
 
@@ -254,7 +254,8 @@ public class NeuralNetConfiguration implements Serializable, Cloneable {
                             .tBPTTBackwardLength(tbpttBackLength).setInputType(this.inputType)
                             .trainingWorkspaceMode(wsmTrain).cacheMode(globalConfig.cacheMode)
                             .inferenceWorkspaceMode(wsmTest).confs(list).validateOutputLayerConfig(validateOutputConfig)
-                            .dataType(globalConfig.dataType)
+                            .dataType(globalConfig.dataType).activationCheckpoints(activationCheckpoints)
+                            .mixedPrecision(globalConfig.mixedPrecision)
                             .build();
         }
 
@@ -409,6 +410,7 @@ public class NeuralNetConfiguration implements Serializable, Cloneable {
         protected boolean setIWM = false;
         protected CacheMode cacheMode = CacheMode.NONE;
         protected DataType dataType = DataType.FLOAT;
+        protected MixedPrecision mixedPrecision;
 
         protected ConvolutionMode convolutionMode = ConvolutionMode.Truncate;
         protected ConvolutionLayer.AlgoMode cudnnAlgoMode = ConvolutionLayer.AlgoMode.PREFER_FASTEST;
@@ -1069,6 +1071,7 @@ public class NeuralNetConfiguration implements Serializable, Cloneable {
         /**
          * Set the DataType for the network parameters and activations. Must be a floating point type: {@link DataType#DOUBLE},
          * {@link DataType#FLOAT} or {@link DataType#HALF}.<br>
+         * For training with HALF, see also {@link #mixedPrecision(MixedPrecision)}
          */
         public Builder dataType(@NonNull DataType dataType){
             Preconditions.checkState(dataType == DataType.DOUBLE || dataType == DataType.FLOAT || dataType == DataType.HALF,
@@ -1077,6 +1080,27 @@ public class NeuralNetConfiguration implements Serializable, Cloneable {
             return this;
         }
 
+        /**
+         * Enable mixed precision training, using the default loss scaling configuration. Equivalent to
+         * {@code mixedPrecision(new MixedPrecision())}
+         */
+        public Builder mixedPrecision() {
+            return mixedPrecision(new MixedPrecision());
+        }
+
+        /**
+         * Enable mixed precision training: the forward and backward passes are performed in the network data type (set via
+         * {@link #dataType(DataType)}, which must be HALF), whereas the updater state and a copy of the parameters are
+         * kept in FLOAT precision. Dynamic loss scaling is used to avoid underflow of gradients in half precision.
+         * See {@link MixedPrecision} for further details.
+         *
+         * @param mixedPrecision Mixed precision configuration. May be null (mixed precision training not used)
+         */
+        public Builder mixedPrecision(MixedPrecision mixedPrecision) {
+            this.mixedPrecision = mixedPrecision;
+            return this;
+        }
+
         /**
          * Return a configuration based on this builder
          *
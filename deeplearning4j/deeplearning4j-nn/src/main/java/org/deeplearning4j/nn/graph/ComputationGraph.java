@@ -74,6 +74,7 @@ import org.nd4j.linalg.api.memory.enums.LearningPolicy;
 import org.nd4j.linalg.api.memory.enums.ResetPolicy;
 import org.nd4j.linalg.api.memory.enums.SpillPolicy;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.rng.Random;
 import org.nd4j.linalg.dataset.api.DataSet;
 import org.nd4j.linalg.dataset.api.DataSetUtil;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
@@ -126,6 +127,12 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
 
     private transient final AtomicLong occupiedBy = new AtomicLong(-1);
 
+    //Activation recomputation: the segments, kept activations and mask arrays for the last forward pass. Null if not used
+    protected transient List<RecomputeSegment> recomputeSegments;
+    protected transient Map<String,INDArray> recomputeActivations;
+    protected transient INDArray[] recomputeFMasks;
+    protected transient INDArray[] recomputeLMasks;
+
     /**
      * Workspace for working memory for a single layer: forward pass and backward pass
      * Note that this is opened/closed once per op (activate/backpropGradient call)
@@ -146,6 +153,13 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
      */
     protected static final String WS_OUTPUT_MEM = "WS_OUTPUT_MEM";
 
+    /**
+     * Workspace for the activations of a single segment of vertices, when using activation recomputation (see
+     * {@link ComputationGraphConfiguration.GraphBuilder#activationCheckpoints(String...)}). Opened and closed once per
+     * segment, for both the forward pass and the recomputation during backprop
+     */
+    protected static final String WS_RECOMPUTE_ACT = "WS_RECOMPUTE_ACT";
+
     protected final WorkspaceConfiguration WS_LAYER_WORKING_MEM_CONFIG;
 
     protected static final WorkspaceConfiguration WS_ALL_LAYERS_ACT_CONFIG = WorkspaceConfiguration.builder()
@@ -709,6 +723,17 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
             }
         }
 
+        //With activation recomputation, activations used outside of their segment are used again when recomputing
+        // later segments
+        int[] checkpointPositions = null;
+        if(configuration.getActivationCheckpoints() != null){
+            checkpointPositions = new int[configuration.getActivationCheckpoints().size()];
+            for( int j=0; j<checkpointPositions.length; j++ ){
+                int idx = indices.getNameToIdx().get(configuration.getActivationCheckpoints().get(j));
+                checkpointPositions[j] = ArrayUtils.indexOf(indices.getTopologicalSortOrder(), idx);
+            }
+        }
+
         for(Layer l : layers){
             String layerName = l.conf().getLayer().getLayerName();
             List<String> inputs = configuration.getVertexInputs().get(layerName);
@@ -720,6 +745,21 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                 continue;
             }
 
+            if(checkpointPositions != null){
+                int inPos = ArrayUtils.indexOf(indices.getTopologicalSortOrder(), indices.getNameToIdx().get(in));
+                int thisPos = ArrayUtils.indexOf(indices.getTopologicalSortOrder(), indices.getNameToIdx().get(layerName));
+                boolean sameSegment = true;
+                for(int p : checkpointPositions){
+                    if(inPos <= p && thisPos > p){
+                        sameSegment = false;
+                        break;
+                    }
+                }
+                if(!sameSegment){
+                    continue;
+                }
+            }
+
             List<String> seen = seenAsInputTo.get(in);
             if(seen.size() == 1){
                 l.allowInputModification(true);
@@ -1379,6 +1419,9 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                     }
                 }
             }
+            for (int idx : getOutputLayerIndices()) {
+                onVertexActivation(idx);
+            }
             calcBackpropGradients(false,false);
 
             workspaceMgr.assertCurrentWorkspace(ArrayType.ACTIVATIONS, null);
@@ -2104,6 +2147,18 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
         boolean traceLog = log.isTraceEnabled();
 
         Map<String, INDArray> activations = new HashMap<>();
+
+        //Activation recomputation: only the activations used outside of each segment are kept, the segment is
+        // recomputed during backprop
+        List<RecomputeSegment> segments = (train && fwdPassType == FwdPassType.STANDARD && layerIndex == -1 ?
+                getRecomputeSegments(excludeIdxs) : null);
+        LayerWorkspaceMgr recomputeMgr = (segments == null ? null : getRecomputeWorkspaceMgr(input));
+        recomputeSegments = segments;
+        recomputeActivations = (segments == null ? null : activations);
+        recomputeFMasks = fMask;
+        recomputeLMasks = lMask;
+        int nextSegment = 0;
+
         //Do forward pass according to the topological ordering of the network
         int stopIndex;
         if (layerIndex > 0) {
@@ -2124,6 +2179,24 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                 continue;
             }
 
+            if(segments != null && nextSegment < segments.size() && segments.get(nextSegment).firstPos == i){
+                RecomputeSegment s = segments.get(nextSegment++);
+                for(int idx : s.vertexIdxs){
+                    onVertexActivation(idx);
+                }
+                s.rngRootState = Nd4j.getRandom().rootState();
+                s.rngNodeState = Nd4j.getRandom().nodeState();
+                try(MemoryWorkspace wsRecompute = recomputeMgr.notifyScopeEntered(ArrayType.ACTIVATIONS)){
+                    activateSegment(s, recomputeMgr, workspaceMgr, activations);
+                }
+                for(int idx : s.vertexIdxs){
+                    vertices[idx].clear();
+                }
+                //Other vertices up to the end of the segment are input vertices or excluded vertices
+                i = s.lastPos;
+                continue;
+            }
+
             try(MemoryWorkspace wsFFWorking = workspaceMgr.notifyScopeEntered(ArrayType.FF_WORKING_MEM)){
                 VertexIndices[] inputsTo = current.getOutputVertices();
 
@@ -2131,6 +2204,9 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                 if(current.isInputVertex()){
                     out = inputs[vIdx];
                 } else {
+                    if(train){
+                        onVertexActivation(vIdx);
+                    }
 
                     if(fwdPassType == FwdPassType.STANDARD){
                         out = current.doForward(train, workspaceMgr);
@@ -2185,6 +2261,151 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
         return activations;
     }
 
+    /**
+     * Notify the optimizer (if any) that the specified vertex is about to be activated during training - for example, so
+     * that pending parameter updates for the vertex can be applied first. See {@link ConvexOptimizer#onLayerActivation(Trainable)}
+     */
+    protected void onVertexActivation(int vertexIdx) {
+        if (solver != null) {
+            solver.getOptimizer().onLayerActivation(vertices[vertexIdx]);
+        }
+    }
+
+    /**
+     * @param excludeIdxs Vertices excluded from the forward pass. May be null
+     * @return The segments of vertices to recompute during backprop, or null if activation recomputation is not used.
+     * See {@link ComputationGraphConfiguration.GraphBuilder#activationCheckpoints(String...)}
+     */
+    protected List<RecomputeSegment> getRecomputeSegments(int[] excludeIdxs) {
+        List<String> checkpoints = configuration.getActivationCheckpoints();
+        if (checkpoints == null || checkpoints.isEmpty()) {
+            return null;
+        }
+        int[] positions = new int[checkpoints.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = ArrayUtils.indexOf(topologicalOrder, verticesMap.get(checkpoints.get(i)).getVertexIndex());
+        }
+        Arrays.sort(positions);
+
+        //Segments: (previous checkpoint, checkpoint] in topological order. Input vertices and excluded vertices (i.e.,
+        // output layers) are never part of a segment
+        List<RecomputeSegment> out = new ArrayList<>();
+        int first = 0;
+        for (int p : positions) {
+            if (p < first) {
+                continue;
+            }
+            List<Integer> members = new ArrayList<>();
+            int firstPos = -1;
+            for (int i = first; i <= p; i++) {
+                GraphVertex gv = vertices[topologicalOrder[i]];
+                if (!gv.isInputVertex() && (excludeIdxs == null || !ArrayUtils.contains(excludeIdxs, gv.getVertexIndex()))) {
+                    members.add(gv.getVertexIndex());
+                    if (firstPos < 0) {
+                        firstPos = i;
+                    }
+                }
+            }
+            if (!members.isEmpty()) {
+                out.add(new RecomputeSegment(ArrayUtils.toPrimitive(members.toArray(new Integer[0])), firstPos, p,
+                        vertices.length));
+            }
+            first = p + 1;
+        }
+        return out.isEmpty() ? null : out;
+    }
+
+    /**
+     * Workspace manager for the forward pass of a segment of vertices, when using activation recomputation. Activations
+     * are placed in the WS_RECOMPUTE_ACT workspace, except for the inputs to the segment, which are not moved
+     */
+    protected LayerWorkspaceMgr getRecomputeWorkspaceMgr(INDArray[] input) {
+        if (configuration.getTrainingWorkspaceMode() == WorkspaceMode.NONE) {
+            return LayerWorkspaceMgr.noWorkspaces(helperWorkspaces);
+        }
+
+        LayerWorkspaceMgr mgr = LayerWorkspaceMgr.builder()
+                .with(ArrayType.INPUT, WS_RECOMPUTE_ACT, WS_ALL_LAYERS_ACT_CONFIG)
+                .with(ArrayType.ACTIVATIONS, WS_RECOMPUTE_ACT, WS_ALL_LAYERS_ACT_CONFIG)
+                .with(ArrayType.FF_WORKING_MEM, WS_LAYER_WORKING_MEM, WS_LAYER_WORKING_MEM_CONFIG)
+                .with(ArrayType.RNN_FF_LOOP_WORKING_MEM, WS_RNN_LOOP_WORKING_MEM, WS_RNN_LOOP_WORKING_MEM_CONFIG)
+                .build();
+        mgr.setNoLeverageOverride(WS_ALL_LAYERS_ACT);
+        if (input != null && input[0] != null && input[0].isAttached()) {
+            //Don't leverage out of async DataMultiSetIterator workspaces
+            mgr.setNoLeverageOverride(input[0].data().getParentWorkspace().getId());
+        }
+        if (configuration.getCacheMode() != CacheMode.NONE) {
+            mgr.setWorkspace(ArrayType.FF_CACHE, WS_RECOMPUTE_ACT, WS_ALL_LAYERS_ACT_CONFIG);
+        }
+        mgr.setHelperWorkspacePointers(helperWorkspaces);
+        return mgr;
+    }
+
+    /**
+     * Training mode forward pass for the vertices in the specified segment
+     *
+     * @param segment      Segment to do the forward pass for
+     * @param workspaceMgr Workspace manager for the segment's activations
+     * @param keepMgr      Forward pass: activations that are used outside of the segment are moved to the ACTIVATIONS
+     *                     workspace of this manager, set as input for the vertices that use them, and added to the
+     *                     activations map. Null for recomputation during backprop: in that case, the inputs from
+     *                     outside of the segment are set from the activations map instead
+     * @param activations  Activations of the vertices outside of the segment
+     */
+    protected void activateSegment(RecomputeSegment segment, LayerWorkspaceMgr workspaceMgr, LayerWorkspaceMgr keepMgr,
+                                   Map<String, INDArray> activations) {
+        for (int j = 0; j < segment.vertexIdxs.length; j++) {
+            GraphVertex current = vertices[segment.vertexIdxs[j]];
+            if (keepMgr == null) {
+                VertexIndices[] inputsFrom = current.getInputVertices();
+                for (int k = 0; k < inputsFrom.length; k++) {
+                    int from = inputsFrom[k].getVertexIndex();
+                    if (!segment.isMember[from]) {
+                        current.setInput(k, activations.get(vertices[from].getVertexName()), workspaceMgr);
+                    }
+                }
+            }
+
+            try (MemoryWorkspace wsFFWorking = workspaceMgr.notifyScopeEntered(ArrayType.FF_WORKING_MEM)) {
+                INDArray out = current.doForward(true, workspaceMgr);
+                INDArray kept = null;
+                VertexIndices[] inputsTo = current.getOutputVertices();
+                if (inputsTo != null) {
+                    for (VertexIndices v : inputsTo) {
+                        int inputToIndex = v.getVertexIndex();
+                        if (segment.isMember[inputToIndex]) {
+                            vertices[inputToIndex].setInput(v.getVertexEdgeNumber(), out, workspaceMgr);
+                        } else if (keepMgr != null) {
+                            if (kept == null) {
+                                kept = keepMgr.leverageTo(ArrayType.ACTIVATIONS, out);
+                                activations.put(current.getVertexName(), kept);
+                            }
+                            vertices[inputToIndex].setInput(v.getVertexEdgeNumber(), kept, keepMgr);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Recompute the activations for the specified segment during backprop. The random number generator state is reset
+     * to the state at the start of the segment in the forward pass (so that dropout, weight noise etc are the same as
+     * in the forward pass) and restored afterwards
+     */
+    protected void recomputeSegment(RecomputeSegment segment, LayerWorkspaceMgr workspaceMgr) {
+        Random rng = Nd4j.getRandom();
+        long rootState = rng.rootState();
+        long nodeState = rng.nodeState();
+        rng.setStates(segment.rngRootState, segment.rngNodeState);
+        try {
+            activateSegment(segment, workspaceMgr, null, recomputeActivations);
+        } finally {
+            rng.setStates(rootState, nodeState);
+        }
+    }
+
 
     /**
      * Provide the output of the specified layers, detached from any workspace. This is most commonly used at inference/test
@@ -2593,11 +2814,22 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
         Map<MemoryWorkspace, LayerWorkspaceMgr> openActivationsWorkspaces = new IdentityHashMap<>();
         List<MemoryWorkspace>[] closeAtEndIteraton = (List<MemoryWorkspace>[])new List[topologicalOrder.length];
 
+        //Mixed precision training: the output layer gradients (and hence all gradients) are multiplied by the loss scale
+        double lossScale = (externalEpsilons == null || externalEpsilons.length == 0 ? getLossScale() : 1.0);
+
         //Do backprop, in reverse topological order
         LinkedList<Triple<String, INDArray, Character>> gradients = new LinkedList<>();
         boolean[] setVertexEpsilon = new boolean[topologicalOrder.length]; //If true: already set epsilon for this vertex; later epsilons should be *added* to the existing one, not set
         MemoryWorkspace initialWorkspace = Nd4j.getMemoryManager().getCurrentWorkspace();
 
+        //Activation recomputation: segments are recomputed just before backprop reaches them, and released afterwards
+        List<RecomputeSegment> segments = (truncatedBPTT ? null : recomputeSegments);
+        LayerWorkspaceMgr recomputeMgr = (segments == null ? null : getRecomputeWorkspaceMgr(inputs));
+        int nextSegment = (segments == null ? -1 : segments.size() - 1);
+        RecomputeSegment currSegment = null;
+        MemoryWorkspace wsRecompute = null;
+        recomputeSegments = null;
+
         boolean traceLog = log.isTraceEnabled();
 
         Throwable t = null;
@@ -2608,6 +2840,25 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                 int vIdx = current.getVertexIndex();
                 String vertexName = current.getVertexName();
 
+                if (currSegment != null && i < currSegment.firstPos) {
+                    for (int idx : currSegment.vertexIdxs) {
+                        vertices[idx].clear();
+                    }
+                    wsRecompute.close();
+                    wsRecompute = null;
+                    currSegment = null;
+                }
+
+                if (nextSegment >= 0 && segments.get(nextSegment).lastPos == i) {
+                    currSegment = segments.get(nextSegment--);
+                    if (recomputeFMasks != null || recomputeLMasks != null) {
+                        setLayerMaskArrays(recomputeFMasks, recomputeLMasks);
+                    }
+                    wsRecompute = recomputeMgr.notifyScopeEntered(ArrayType.ACTIVATIONS);
+                    wsRecompute.setPreviousWorkspace(initialWorkspace);
+                    recomputeSegment(currSegment, recomputeMgr);
+                }
+
                 if (traceLog) {
                     log.trace("About backprop: {} (\"{}\") - {}", i, vertexName, current.getClass().getSimpleName());
                 }
@@ -2659,6 +2910,7 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                 }
                 workspaceMgr.setHelperWorkspacePointers(helperWorkspaces);
 
+                boolean scaleGradients = false;
                 if (current.isOutputVertex()) {
                     //Two reasons for a vertex to be an output vertex:
                     //(a) it's an output layer (i.e., instanceof IOutputLayer), or
@@ -2674,6 +2926,7 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
 
                         INDArray currLabels = labels[thisOutputNumber];
                         outputLayer.setLabels(currLabels);
+                        scaleGradients = lossScale != 1.0;
                     } else {
                         if ((externalEpsilons == null || externalEpsilons.length == 0)
                                 && labels[thisOutputNumber] != null) {
@@ -2713,6 +2966,19 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                     pair = current.doBackward(truncatedBPTT, workspaceMgr);
                     epsilons = pair.getSecond();
 
+                    if (scaleGradients) {
+                        if (pair.getFirst() != null) {
+                            for (INDArray g : pair.getFirst().gradientForVariable().values()) {
+                                g.muli(lossScale);
+                            }
+                        }
+                        for (INDArray epsilon : epsilons) {
+                            if (epsilon != null) {
+                                epsilon.muli(lossScale);
+                            }
+                        }
+                    }
+
                     //Validate workspace location for the activation gradients:
                     //validateArrayWorkspaces(LayerWorkspaceMgr mgr, INDArray array, ArrayType arrayType, String vertexName, boolean isInputVertex, String op){
                     for (INDArray epsilon : epsilons) {
@@ -2759,6 +3025,12 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                     }
                     for (Triple<String, INDArray, Character> triple : tempList)
                         gradients.addFirst(triple);
+
+                    if (!truncatedBPTT && (externalEpsilons == null || externalEpsilons.length == 0) && solver != null) {
+                        //Gradients for this vertex are final: allow the optimizer to start processing them (for
+                        // example, to share the updates while backprop continues for the remaining vertices)
+                        solver.getOptimizer().onLayerGradients(current);
+                    }
                 }
 
                 //Close any activation gradient workspaces that we no longer require
@@ -2792,6 +3064,21 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                     }
                 }
             }
+            if(wsRecompute != null){
+                //Non-null on exception, or when the first vertex of the segment is the first vertex in the network
+                try{
+                    wsRecompute.close();
+                } catch (Throwable t2){
+                    if(t != null){
+                        log.error("Encountered second exception while trying to close workspace after initial exception");
+                        log.error("Original exception:", t);
+                        throw t2;
+                    }
+                }
+            }
+            recomputeActivations = null;
+            recomputeFMasks = null;
+            recomputeLMasks = null;
             Nd4j.getMemoryManager().setCurrentWorkspace(initialWorkspace);
 
             if(t != null){
@@ -2943,6 +3230,19 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
         return null;
     }
 
+    /**
+     * @return The current loss scale, if mixed precision training is used (see {@link org.deeplearning4j.nn.conf.MixedPrecision}).
+     * 1.0 otherwise
+     */
+    protected double getLossScale() {
+        if (configuration.getMixedPrecision() == null) {
+            return 1.0;
+        }
+        //Updater may not have been created yet (first iteration): it will be created with the initial loss scale
+        ComputationGraphUpdater u = getUpdater(false);
+        return (u == null ? configuration.getMixedPrecision().getInitialLossScale() : u.getLossScale());
+    }
+
     /**
      * Set the computationGraphUpdater for the network
      */
@@ -3270,6 +3570,9 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
 
         if (this.flattenedParams != null && this.flattenedParams.length() == params.length()) {
             this.flattenedParams.assign(params);
+            if (configuration.getMixedPrecision() != null && getUpdater(false) != null) {
+                getUpdater(false).resetMasterParams();
+            }
             return;
         }
 
@@ -4824,4 +5127,27 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
         if (cg.getUpdater() != null && cg.getUpdater(false).getStateViewArray() != null)
             this.getUpdater(true).getStateViewArray().assign(cg.getUpdater(false).getStateViewArray());
     }
+
+    /**
+     * A segment of vertices whose activations are discarded after the forward pass (other than those used outside of
+     * the segment) and recomputed during backprop
+     */
+    protected static class RecomputeSegment {
+        private final int[] vertexIdxs;     //In topological order
+        private final boolean[] isMember;   //Indexed by vertex index
+        private final int firstPos;         //Position of the first/last vertices in the topological order
+        private final int lastPos;
+        private long rngRootState;          //Random number generator state at the start of the segment in the forward pass
+        private long rngNodeState;
+
+        protected RecomputeSegment(int[] vertexIdxs, int firstPos, int lastPos, int numVertices) {
+            this.vertexIdxs = vertexIdxs;
+            this.firstPos = firstPos;
+            this.lastPos = lastPos;
+            this.isMember = new boolean[numVertices];
+            for (int idx : vertexIdxs) {
+                isMember[idx] = true;
+            }
+        }
+    }
 }
@@ -44,6 +44,7 @@ import org.deeplearning4j.nn.layers.FrozenLayerWithBackprop;
 import org.deeplearning4j.nn.layers.LayerHelper;
 import org.deeplearning4j.nn.layers.recurrent.BidirectionalLayer;
 import org.deeplearning4j.nn.layers.wrapper.BaseWrapperLayer;
+import org.deeplearning4j.nn.updater.BaseMultiLayerUpdater;
 import org.deeplearning4j.nn.updater.UpdaterCreator;
 import org.deeplearning4j.nn.workspace.ArrayType;
 import org.deeplearning4j.nn.workspace.LayerWorkspaceMgr;
@@ -71,6 +72,7 @@ import org.nd4j.linalg.api.memory.enums.LearningPolicy;
 import org.nd4j.linalg.api.memory.enums.ResetPolicy;
 import org.nd4j.linalg.api.memory.enums.SpillPolicy;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.rng.Random;
 import org.nd4j.linalg.dataset.AsyncDataSetIterator;
 import org.nd4j.linalg.dataset.DataSet;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
@@ -141,6 +143,10 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
     @Getter
     protected transient Map<String,Pointer> helperWorkspaces = new HashMap<>();
 
+    //Activation recomputation: the segments (and features mask) for the last forward pass. Null if not used
+    protected transient List<RecomputeSegment> recomputeSegments;
+    protected transient INDArray recomputeMask;
+
 
     /**
      * Workspace for working memory for a single layer: forward pass and backward pass
@@ -171,6 +177,13 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
      */
     protected static final String WS_RNN_LOOP_WORKING_MEM = "WS_RNN_LOOP_WORKING_MEM";
 
+    /**
+     * Workspace for the activations of a single segment of layers, when using activation recomputation (see
+     * {@link MultiLayerConfiguration.Builder#activationCheckpoints(int...)}). Opened and closed once per segment, for
+     * both the forward pass and the recomputation during backprop
+     */
+    protected static final String WS_RECOMPUTE_ACT = "WS_RECOMPUTE_ACT";
+
 
     protected WorkspaceConfiguration WS_LAYER_WORKING_MEM_CONFIG;
 
@@ -748,7 +761,12 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
         //Mark that input modification is allowed.
         //TODO When is it safe to NOT skip the very first layer? It's not always safe...
         // For example dropout + iterating over List<DataSet> that is used for multiple epochs...
+        //With activation recomputation, the output of a checkpoint layer is used again when recomputing the next segment
+        int[] checkpoints = layerWiseConfigurations.getActivationCheckpoints();
         for( int i=1; i<layers.length; i++ ){
+            if(checkpoints != null && ArrayUtils.contains(checkpoints, i-1)){
+                continue;
+            }
             layers[i].allowInputModification(true);
         }
 
@@ -1118,7 +1136,33 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
 
         boolean traceLog = log.isTraceEnabled();
 
+        //Activation recomputation: only the output of each segment is kept, the segment is recomputed during backprop
+        List<RecomputeSegment> segments = (fwdPassType == FwdPassType.STANDARD ? getRecomputeSegments(layerIndex) : null);
+        LayerWorkspaceMgr recomputeMgr = (segments == null ? null : getRecomputeWorkspaceMgr(input));
+        recomputeSegments = segments;
+        recomputeMask = fMask;
+        int nextSegment = 0;
+
         for( int i=0; i<=layerIndex; i++ ){
+            if(segments != null && nextSegment < segments.size() && segments.get(nextSegment).first == i){
+                RecomputeSegment s = segments.get(nextSegment++);
+                for( int j=s.first; j<=s.last; j++ ){
+                    onLayerActivation(j);
+                }
+                s.input = input;
+                s.rngRootState = Nd4j.getRandom().rootState();
+                s.rngNodeState = Nd4j.getRandom().nodeState();
+                try(MemoryWorkspace wsRecompute = recomputeMgr.notifyScopeEntered(ArrayType.ACTIVATIONS)){
+                    input = workspaceMgr.leverageTo(ArrayType.ACTIVATIONS, activateSegment(s, recomputeMgr));
+                }
+                for( int j=s.first; j<=s.last; j++ ){
+                    layers[j].clear();
+                    out.add(j == s.last ? input : null);
+                }
+                i = s.last;
+                continue;
+            }
+
             try(MemoryWorkspace wsFFWorking = workspaceMgr.notifyScopeEntered(ArrayType.FF_WORKING_MEM)){
                 if (getLayerWiseConfigurations().getInputPreProcess(i) != null) {
                     input = getLayerWiseConfigurations().getInputPreProcess(i).preProcess(input, getInputMiniBatchSize(), workspaceMgr);
@@ -1130,6 +1174,7 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
                     log.trace("About to forward pass: {} - {}", i, layers[i].getClass().getSimpleName());
                 }
 
+                onLayerActivation(i);
                 if(fwdPassType == FwdPassType.STANDARD){
                     input = layers[i].activate(input, true, workspaceMgr);
                 } else if(fwdPassType == FwdPassType.RNN_ACTIVATE_WITH_STORED_STATE){
@@ -1167,6 +1212,107 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
         return out;
     }
 
+    /**
+     * Notify the optimizer (if any) that the specified layer is about to be activated during training - for example, so
+     * that pending parameter updates for the layer can be applied first. See {@link ConvexOptimizer#onLayerActivation(Trainable)}
+     */
+    protected void onLayerActivation(int layerIndex) {
+        if (solver != null) {
+            solver.getOptimizer().onLayerActivation(layers[layerIndex]);
+        }
+    }
+
+    /**
+     * @param layerIndex Index (inclusive) of the last layer in the forward pass
+     * @return The segments of layers to recompute during backprop, for a forward pass up to the specified layer, or
+     * null if activation recomputation is not used. See {@link MultiLayerConfiguration.Builder#activationCheckpoints(int...)}
+     */
+    protected List<RecomputeSegment> getRecomputeSegments(int layerIndex) {
+        int[] checkpoints = layerWiseConfigurations.getActivationCheckpoints();
+        if (checkpoints == null || checkpoints.length == 0) {
+            return null;
+        }
+        checkpoints = checkpoints.clone();
+        Arrays.sort(checkpoints);
+        List<RecomputeSegment> out = new ArrayList<>();
+        int first = 0;
+        for (int c : checkpoints) {
+            if (c > layerIndex || c >= layers.length - 1) {
+                break;
+            }
+            if (c >= first) {
+                out.add(new RecomputeSegment(first, c));
+                first = c + 1;
+            }
+        }
+        return out.isEmpty() ? null : out;
+    }
+
+    /**
+     * Workspace manager for the forward pass of a segment of layers, when using activation recomputation. Activations
+     * are placed in the WS_RECOMPUTE_ACT workspace, except for the segment input, which is not moved
+     */
+    protected LayerWorkspaceMgr getRecomputeWorkspaceMgr(INDArray input) {
+        if (layerWiseConfigurations.getTrainingWorkspaceMode() == WorkspaceMode.NONE) {
+            return LayerWorkspaceMgr.noWorkspaces(helperWorkspaces);
+        }
+
+        LayerWorkspaceMgr mgr = LayerWorkspaceMgr.builder()
+                .with(ArrayType.INPUT, WS_RECOMPUTE_ACT, WS_ALL_LAYERS_ACT_CONFIG)
+                .with(ArrayType.ACTIVATIONS, WS_RECOMPUTE_ACT, WS_ALL_LAYERS_ACT_CONFIG)
+                .with(ArrayType.FF_WORKING_MEM, WS_LAYER_WORKING_MEM, WS_LAYER_WORKING_MEM_CONFIG)
+                .with(ArrayType.RNN_FF_LOOP_WORKING_MEM, WS_RNN_LOOP_WORKING_MEM, WS_RNN_LOOP_WORKING_MEM_CONFIG)
+                .build();
+        mgr.setNoLeverageOverride(WS_ALL_LAYERS_ACT);
+        if (input != null && input.isAttached()) {
+            //Don't leverage out of async DataSetIterator workspaces
+            mgr.setNoLeverageOverride(input.data().getParentWorkspace().getId());
+        }
+        if (layerWiseConfigurations.getCacheMode() != CacheMode.NONE) {
+            mgr.setWorkspace(ArrayType.FF_CACHE, WS_RECOMPUTE_ACT, WS_ALL_LAYERS_ACT_CONFIG);
+        }
+        mgr.setHelperWorkspacePointers(helperWorkspaces);
+        return mgr;
+    }
+
+    /**
+     * Training mode forward pass for the layers in the specified segment
+     *
+     * @return Output activations of the last layer in the segment
+     */
+    protected INDArray activateSegment(RecomputeSegment segment, LayerWorkspaceMgr workspaceMgr) {
+        INDArray input = segment.input;
+        for (int i = segment.first; i <= segment.last; i++) {
+            try (MemoryWorkspace wsFFWorking = workspaceMgr.notifyScopeEntered(ArrayType.FF_WORKING_MEM)) {
+                if (getLayerWiseConfigurations().getInputPreProcess(i) != null) {
+                    input = getLayerWiseConfigurations().getInputPreProcess(i).preProcess(input, getInputMiniBatchSize(), workspaceMgr);
+                }
+                input = layers[i].activate(input, true, workspaceMgr);
+                if (input == null) {
+                    throw new IllegalStateException("Layer " + i + " returned null activations");
+                }
+            }
+        }
+        return input;
+    }
+
+    /**
+     * Recompute the activations for the specified segment during backprop. The random number generator state is reset
+     * to the state at the start of the segment in the forward pass (so that dropout, weight noise etc are the same as
+     * in the forward pass) and restored afterwards
+     */
+    protected void recomputeSegment(RecomputeSegment segment, LayerWorkspaceMgr workspaceMgr) {
+        Random rng = Nd4j.getRandom();
+        long rootState = rng.rootState();
+        long nodeState = rng.nodeState();
+        rng.setStates(segment.rngRootState, segment.rngNodeState);
+        try {
+            activateSegment(segment, workspaceMgr);
+        } finally {
+            rng.setStates(rootState, nodeState);
+        }
+    }
+
     /**
      * Provide the output of the specified layer, detached from any workspace. This is most commonly used at inference/test
      * time, and is more memory efficient than {@link #ffToLayerActivationsDetached(boolean, FwdPassType, boolean, int, INDArray, INDArray, INDArray, boolean)}
@@ -1524,6 +1670,7 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
         if (flattenedParams != null && params.length() == flattenedParams.length()) {
             if (params != flattenedParams) {
                 flattenedParams.assign(params);
+                resetMixedPrecisionParams();
             }
         } else {
             if (flattenedParams == null)
@@ -1902,6 +2049,17 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
         MemoryWorkspace wsActGradTemp = null;
         MemoryWorkspace initialWorkspace = Nd4j.getMemoryManager().getCurrentWorkspace();
 
+        //Activation recomputation: segments are recomputed just before backprop reaches them, and released afterwards
+        List<RecomputeSegment> segments = (withOutputLayer && !tbptt ? recomputeSegments : null);
+        LayerWorkspaceMgr recomputeMgr = (segments == null ? null : getRecomputeWorkspaceMgr(input));
+        int nextSegment = (segments == null ? -1 : segments.size() - 1);
+        RecomputeSegment currSegment = null;
+        MemoryWorkspace wsRecompute = null;
+        recomputeSegments = null;
+
+        //Mixed precision training: the output layer gradients (and hence all gradients) are multiplied by the loss scale
+        double lossScale = (withOutputLayer && epsilon == null ? getLossScale() : 1.0);
+
         boolean traceLog = log.isTraceEnabled();
 
         Throwable t = null;
@@ -1911,6 +2069,16 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
                     break;
                 }
 
+                if (nextSegment >= 0 && segments.get(nextSegment).last == i) {
+                    currSegment = segments.get(nextSegment--);
+                    if (recomputeMask != null) {
+                        setLayerMaskArrays(recomputeMask, null);
+                    }
+                    wsRecompute = recomputeMgr.notifyScopeEntered(ArrayType.ACTIVATIONS);
+                    wsRecompute.setPreviousWorkspace(initialWorkspace);
+                    recomputeSegment(currSegment, recomputeMgr);
+                }
+
                 if (traceLog) {
                     log.trace("About to backprop: {} - {}", i, layers[i].getClass().getSimpleName());
                 }
@@ -1954,6 +2122,15 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
                         }
                     }
 
+                    if (lossScale != 1.0 && i == layers.length - 1) {
+                        for (INDArray g : currPair.getFirst().gradientForVariable().values()) {
+                            g.muli(lossScale);
+                        }
+                        if (currPair.getSecond() != null) {
+                            currPair.getSecond().muli(lossScale);
+                        }
+                    }
+
                     if (currPair.getSecond() != null) {
                         //Edge case: may be null for Embedding layer, for example
                         validateArrayWorkspaces(workspaceMgr, currPair.getSecond(), ArrayType.ACTIVATION_GRAD, i,
@@ -1991,6 +2168,21 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
                     wsActGradTemp = null;
                 }
 
+                if (withOutputLayer && !tbptt && solver != null) {
+                    //Gradients for this layer are final: allow the optimizer to start processing them (for example, to
+                    // share the updates while backprop continues for the remaining layers)
+                    solver.getOptimizer().onLayerGradients(layers[i]);
+                }
+
+                if (currSegment != null && i == currSegment.first) {
+                    for (int j = currSegment.first; j <= currSegment.last; j++) {
+                        layers[j].clear();
+                    }
+                    wsRecompute.close();
+                    wsRecompute = null;
+                    currSegment = null;
+                }
+
                 if (traceLog) {
                     log.trace("Completed backprop: {} - {}", i, layers[i].getClass().getSimpleName());
                 }
@@ -2021,6 +2213,19 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
                     }
                 }
             }
+            if(wsRecompute != null) {
+                //Non-null on exception, or when backprop stopped at a frozen layer
+                try {
+                    wsRecompute.close();
+                } catch (Throwable t2) {
+                    if (t != null) {
+                        log.error("Encountered second exception while trying to close workspace after initial exception");
+                        log.error("Original exception:", t);
+                        throw t2;
+                    }
+                }
+            }
+            recomputeMask = null;
             Nd4j.getMemoryManager().setCurrentWorkspace(initialWorkspace);
 
             if(t != null){
@@ -2763,6 +2968,7 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
                 //Validate activations location
             }
             getOutputLayer().setInput(inputToOutputLayer, mgr);
+            onLayerActivation(layers.length - 1);
             //Then: compute gradients
             Pair<Gradient, INDArray> pair = calcBackpropGradients(null, true, false, false);
             this.gradient = (pair == null ? null : pair.getFirst());
@@ -3230,6 +3436,31 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
         return getUpdater(true);
     }
 
+    /**
+     * @return The current loss scale, if mixed precision training is used (see {@link org.deeplearning4j.nn.conf.MixedPrecision}).
+     * 1.0 otherwise
+     */
+    protected double getLossScale() {
+        if (layerWiseConfigurations.getMixedPrecision() == null) {
+            return 1.0;
+        }
+        //Updater may not have been created yet (first iteration): it will be created with the initial loss scale
+        Updater u = getUpdater(false);
+        if (u == null) {
+            return layerWiseConfigurations.getMixedPrecision().getInitialLossScale();
+        }
+        return (u instanceof BaseMultiLayerUpdater ? ((BaseMultiLayerUpdater<?>) u).getLossScale() : 1.0);
+    }
+
+    protected void resetMixedPrecisionParams() {
+        if (layerWiseConfigurations.getMixedPrecision() != null) {
+            Updater u = getUpdater(false);
+            if (u instanceof BaseMultiLayerUpdater) {
+                ((BaseMultiLayerUpdater<?>) u).resetMasterParams();
+            }
+        }
+    }
+
     public Updater getUpdater(boolean initializeIfReq) {
         if (solver == null && initializeIfReq) {
             synchronized(this){
@@ -4091,4 +4322,21 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
             this.getUpdater(true).getStateViewArray().assign(mln.getUpdater(false).getStateViewArray());
     }
 
+
+    /**
+     * A segment of layers (first to last, inclusive) whose activations are discarded after the forward pass and
+     * recomputed during backprop
+     */
+    protected static class RecomputeSegment {
+        private final int first;
+        private final int last;
+        private INDArray input;     //Input to the first layer in the segment (before any preprocessor)
+        private long rngRootState;  //Random number generator state at the start of the segment in the forward pass
+        private long rngNodeState;
+
+        protected RecomputeSegment(int first, int last) {
+            this.first = first;
+            this.last = last;
+        }
+    }
 }
@@ -17,25 +17,32 @@
 package org.deeplearning4j.nn.updater;
 
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 import org.deeplearning4j.nn.api.Model;
 import org.deeplearning4j.nn.api.Trainable;
 import org.deeplearning4j.nn.api.Updater;
 import org.deeplearning4j.nn.conf.GradientNormalization;
+import org.deeplearning4j.nn.conf.MixedPrecision;
 import org.deeplearning4j.nn.gradient.DefaultGradient;
 import org.deeplearning4j.nn.gradient.Gradient;
 import org.nd4j.base.Preconditions;
+import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.memory.MemoryWorkspace;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.api.ops.CustomOp;
 import org.nd4j.linalg.api.ops.DynamicCustomOp;
 
 import org.nd4j.linalg.api.ops.impl.reduce.floating.Norm2;
+import org.nd4j.linalg.api.ops.impl.reduce.longer.MatchCondition;
 import org.nd4j.linalg.exception.ND4JArraySizeException;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.nd4j.linalg.indexing.conditions.Conditions;
 import org.deeplearning4j.nn.workspace.ArrayType;
 import org.deeplearning4j.nn.workspace.LayerWorkspaceMgr;
 import org.nd4j.linalg.learning.config.IUpdater;
+import org.nd4j.linalg.primitives.Pair;
+import org.deeplearning4j.optimize.api.StepFunction;
 
 import java.util.*;
 
@@ -48,10 +55,20 @@ import java.util.*;
  *     however)<br>
  * are combined into a single {@link org.nd4j.linalg.learning.GradientUpdater} operation, instead of having a set of
  * smaller operations. A smaller number of larger operations improves performance, especially for GPUs.
+ * <p>
+ * When mixed precision training is used (see {@link MixedPrecision}), the updater state and the updater blocks use
+ * FLOAT copies of the parameters and gradients (the "master" parameters and gradients) instead of the network's
+ * (half precision) views. The half precision gradients are checked for overflow, unscaled and converted to FLOAT,
+ * and the parameter update is applied to the master parameters via {@link #applyMixedPrecisionUpdate(StepFunction, INDArray)}.
+ * <p>
+ * The updater may also be applied one layer at a time, as soon as the gradients for each layer are available, via
+ * {@link #updateLayer(Trainable, int, int, int, LayerWorkspaceMgr)}. This allows the final updates for some layers to
+ * be used (for example, communicated to other workers) while backprop is still in progress for the remaining layers.
  *
  * @author Alex Black
  */
 @Getter
+@Slf4j
 public abstract class BaseMultiLayerUpdater<T extends Model> implements Updater {
 
     protected final T network;
@@ -61,6 +78,22 @@ public abstract class BaseMultiLayerUpdater<T extends Model> implements Updater
     protected boolean initializedMinibatchDivision;
     protected List<INDArray> gradientsForMinibatchDivision;
 
+    //Mixed precision training only: FLOAT copies of the parameters and gradients, and the dynamic loss scaling state
+    protected final MixedPrecision mixedPrecision;
+    protected INDArray masterParams;
+    protected INDArray masterGradients;
+    protected List<INDArray> masterGradientsForDivision;
+    protected List<Pair<Trainable, Gradient>> masterLayerGradients;
+    protected double lossScale = 1.0;
+    protected int stepsSinceLossScaleChange;
+    protected boolean lastUpdateSkipped;
+
+    //Layerwise updates only: the layers and (whole) updater blocks that have been updated so far in the current iteration
+    protected Map<Trainable, List<UpdaterBlock.ParamState>> paramStatesByLayer;
+    protected Set<Trainable> layersUpdated;
+    protected Set<UpdaterBlock> blocksUpdated;
+    protected int layersUpdatedIteration;
+
     public BaseMultiLayerUpdater(T network) {
         this(network, null);
     }
@@ -72,6 +105,7 @@ public abstract class BaseMultiLayerUpdater<T extends Model> implements Updater
      */
     public BaseMultiLayerUpdater(T network, INDArray updaterState) {
         this.network = network;
+        this.mixedPrecision = getMixedPrecisionConfig();
         Trainable[] layers = getOrderedLayers();    //May also include vertices
 
         int updaterStateSize = 0;
@@ -86,6 +120,17 @@ public abstract class BaseMultiLayerUpdater<T extends Model> implements Updater
 
         INDArray paramsView = network.params();
         INDArray gradientView = getFlattenedGradientsView();
+        if (mixedPrecision != null) {
+            //Updater blocks operate on the FLOAT master parameters and gradients instead of the network's views
+            try (MemoryWorkspace ws = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+                masterParams = Nd4j.createUninitialized(DataType.FLOAT, paramsView.shape(), paramsView.ordering());
+                masterParams.assign(paramsView);
+                masterGradients = Nd4j.create(DataType.FLOAT, gradientView.shape(), gradientView.ordering());
+            }
+            paramsView = masterParams;
+            gradientView = masterGradients;
+            lossScale = mixedPrecision.getInitialLossScale();
+        }
         int paramsViewSoFar = 0;
         int currentUpdaterOffset = 0;
         for (int i = 0; i < layers.length; i++) {
@@ -153,7 +198,8 @@ public abstract class BaseMultiLayerUpdater<T extends Model> implements Updater
             updaterRequiresInit = false;
         } else if (updaterStateSize > 0) {
             //May be 0 if all SGD or NONE updaters, for example
-            updaterStateViewArray = Nd4j.createUninitialized(network.params().dataType(), new long[] {1, updaterStateSize}, Nd4j.order());
+            DataType stateType = (mixedPrecision != null ? DataType.FLOAT : network.params().dataType());
+            updaterStateViewArray = Nd4j.createUninitialized(stateType, new long[] {1, updaterStateSize}, Nd4j.order());
             updaterRequiresInit = true;
         }
 
@@ -177,6 +223,8 @@ public abstract class BaseMultiLayerUpdater<T extends Model> implements Updater
                 INDArray gradientViewSubset = gradientView.get(NDArrayIndex.interval(0, 0, true),
                                 NDArrayIndex.interval(paramsViewSoFar, paramsViewSoFar + gradSize));
                 ub.setGradientView(gradientViewSubset);
+                ub.setParamsView(paramsView.get(NDArrayIndex.interval(0, 0, true),
+                                NDArrayIndex.interval(paramsViewSoFar, paramsViewSoFar + gradSize)));
             }
 
             ub.init();
@@ -208,6 +256,24 @@ public abstract class BaseMultiLayerUpdater<T extends Model> implements Updater
      */
     protected abstract boolean isMiniBatch();
 
+    /**
+     * @return The mixed precision training configuration for the model, or null if mixed precision training is not used
+     */
+    protected MixedPrecision getMixedPrecisionConfig() {
+        return null;
+    }
+
+    /**
+     * Reset the FLOAT master parameters used for mixed precision training to the current network parameters.
+     * This should be called if the network parameters are modified other than via the updater (for example, by
+     * setting the parameters directly). No-op if mixed precision training is not used.
+     */
+    public void resetMasterParams() {
+        if (masterParams != null) {
+            masterParams.assign(getParams());
+        }
+    }
+
     /**
      * Set the view array. Note that this does an assign operation - the provided array is not stored internally.
      *
@@ -265,6 +331,10 @@ public abstract class BaseMultiLayerUpdater<T extends Model> implements Updater
      * @param batchSize The current minibatch size (number of examples)
      */
     public synchronized void update(Gradient gradient, int iteration, int epoch, int batchSize, LayerWorkspaceMgr workspaceMgr) {
+        if (mixedPrecision != null) {
+            updateMixedPrecision(gradient, iteration, epoch, batchSize, workspaceMgr);
+            return;
+        }
 
         //First: check if gradient is standard or external...
         //In a MultiLayerNetwork, the INDArray returned by .gradient() is always the standard full view array
@@ -297,6 +367,22 @@ public abstract class BaseMultiLayerUpdater<T extends Model> implements Updater
             }
         }
 
+        if (layersUpdated != null) {
+            if (!isExternal && layersUpdatedIteration == iteration) {
+                //Some layers have already been updated via updateLayer: only update the remaining layers
+                for (Trainable layer : layers) {
+                    boolean preApply = layerGradients.containsKey(layer.getConfig().getLayerName());
+                    updateLayer(layer, iteration, epoch, batchSize, preApply, new ArrayList<long[]>(), workspaceMgr);
+                }
+                layersUpdated = null;
+                blocksUpdated = null;
+                return;
+            }
+            //Layerwise updates from an earlier iteration that was not completed: discard
+            layersUpdated = null;
+            blocksUpdated = null;
+        }
+
         if(isMiniBatch()){
             divideByMinibatch(isExternal, gradient, batchSize);
         }
@@ -332,6 +418,243 @@ public abstract class BaseMultiLayerUpdater<T extends Model> implements Updater
         }
     }
 
+    /**
+     * Apply the updater to the gradients of the specified layer only. This should be called as soon as the gradients for
+     * the layer have been calculated, but before backprop for the network has completed - i.e., before
+     * {@link #update(Gradient, int, int, int, LayerWorkspaceMgr)} is called for the iteration. That call then only
+     * updates the gradients for the layers that have not yet been updated via this method.<br>
+     * Updater blocks that use one of the built-in (element-wise) updaters are updated one layer at a time; other updater
+     * blocks are updated once all of the layers in the block have been updated via this method.
+     * Not supported for mixed precision training or external gradients.
+     *
+     * @param layer     Layer to update the gradients for
+     * @param iteration The current iteration (i.e., number of parameter updates so far)
+     * @param batchSize The current minibatch size (number of examples)
+     * @return Ranges [start, end) of the flattened gradient view array that contain the final updates as a result of
+     * this call. May be empty, for example if the layer does not have any parameters
+     */
+    public synchronized List<long[]> updateLayer(Trainable layer, int iteration, int epoch, int batchSize, LayerWorkspaceMgr workspaceMgr) {
+        Preconditions.checkState(mixedPrecision == null, "Layerwise updates are not supported for mixed precision training");
+        if (layersUpdated == null || layersUpdatedIteration != iteration) {
+            layersUpdated = Collections.newSetFromMap(new IdentityHashMap<Trainable, Boolean>());
+            blocksUpdated = Collections.newSetFromMap(new IdentityHashMap<UpdaterBlock, Boolean>());
+            layersUpdatedIteration = iteration;
+        }
+
+        List<long[]> out = new ArrayList<>();
+        updateLayer(layer, iteration, epoch, batchSize, true, out, workspaceMgr);
+        return out;
+    }
+
+    protected void updateLayer(Trainable layer, int iteration, int epoch, int batchSize, boolean preApply,
+                               List<long[]> completed, LayerWorkspaceMgr workspaceMgr) {
+        List<UpdaterBlock.ParamState> params = getParamStatesByLayer().get(layer);
+        if (params == null || !layersUpdated.add(layer)) {
+            //No parameters, or already updated
+            return;
+        }
+
+        if (isMiniBatch()) {
+            for (UpdaterBlock.ParamState ps : params) {
+                if (ps.getGradView() != null && layer.updaterDivideByMinibatch(ps.getParamName())) {
+                    ps.getGradView().divi(batchSize);
+                }
+            }
+        }
+
+        if (preApply) {
+            Gradient g = new DefaultGradient();
+            for (UpdaterBlock.ParamState ps : params) {
+                if (ps.getGradView() != null) {
+                    g.setGradientFor(ps.getParamName(), ps.getGradView());
+                }
+            }
+            preApply(layer, g, iteration);
+        }
+
+        int layerStart = params.get(0).getParamOffsetStart();
+        int layerEnd = params.get(params.size() - 1).getParamOffsetEnd();
+        for (UpdaterBlock ub : updaterBlocks) {
+            int start = Math.max(layerStart, ub.getParamOffsetStart());
+            int end = Math.min(layerEnd, ub.getParamOffsetEnd());
+            if (start >= end) {
+                continue;
+            }
+
+            if (ub.skipDueToPretrainConfig(this instanceof LayerUpdater)) {
+                addRange(completed, start, end);
+            } else if (ub.isSubsetUpdateSupported()) {
+                try (MemoryWorkspace ws = workspaceMgr.notifyScopeEntered(ArrayType.UPDATER_WORKING_MEM)) {
+                    ub.update(iteration, epoch, start, end);
+                }
+                addRange(completed, start, end);
+            } else if (allLayersUpdated(ub) && blocksUpdated.add(ub)) {
+                try (MemoryWorkspace ws = workspaceMgr.notifyScopeEntered(ArrayType.UPDATER_WORKING_MEM)) {
+                    ub.update(iteration, epoch);
+                }
+                addRange(completed, ub.getParamOffsetStart(), ub.getParamOffsetEnd());
+            }
+        }
+    }
+
+    private boolean allLayersUpdated(UpdaterBlock ub) {
+        for (UpdaterBlock.ParamState ps : ub.getLayersAndVariablesInBlock()) {
+            if (!layersUpdated.contains(ps.getLayer()))
+                return false;
+        }
+        return true;
+    }
+
+    private static void addRange(List<long[]> ranges, long start, long end) {
+        if (!ranges.isEmpty() && ranges.get(ranges.size() - 1)[1] == start) {
+            ranges.get(ranges.size() - 1)[1] = end;
+        } else {
+            ranges.add(new long[]{start, end});
+        }
+    }
+
+    /**
+     * @return The range [start, end) of the flattened parameters (and gradient view) array that contains the parameters
+     * of the specified layer, or null if the layer does not have any parameters
+     */
+    public synchronized long[] getLayerParamRange(Trainable layer) {
+        List<UpdaterBlock.ParamState> params = getParamStatesByLayer().get(layer);
+        if (params == null)
+            return null;
+        return new long[]{params.get(0).getParamOffsetStart(), params.get(params.size() - 1).getParamOffsetEnd()};
+    }
+
+    protected Map<Trainable, List<UpdaterBlock.ParamState>> getParamStatesByLayer() {
+        if (paramStatesByLayer == null) {
+            Map<Trainable, List<UpdaterBlock.ParamState>> m = new IdentityHashMap<>();
+            for (UpdaterBlock ub : updaterBlocks) {
+                for (UpdaterBlock.ParamState ps : ub.getLayersAndVariablesInBlock()) {
+                    List<UpdaterBlock.ParamState> l = m.get(ps.getLayer());
+                    if (l == null) {
+                        l = new ArrayList<>();
+                        m.put(ps.getLayer(), l);
+                    }
+                    l.add(ps);
+                }
+            }
+            paramStatesByLayer = m;
+        }
+        return paramStatesByLayer;
+    }
+
+    /**
+     * Update for mixed precision training. Differs from the standard case in the following ways:<br>
+     * 1. If the (scaled, half precision) gradients contain NaN or infinite values, the update is skipped: the gradient
+     *    is set to zero and the loss scale is reduced<br>
+     * 2. The gradients are converted to FLOAT, divided by the loss scale (and minibatch size) and the updater is applied
+     *    to the FLOAT gradients, using the FLOAT master parameters for regularization<br>
+     * 3. The (FLOAT) update is copied back to the provided gradient array, so that it contains the update as in the
+     *    standard case. Note however that the update should be applied via {@link #applyMixedPrecisionUpdate(StepFunction, INDArray)}
+     */
+    protected void updateMixedPrecision(Gradient gradient, int iteration, int epoch, int batchSize, LayerWorkspaceMgr workspaceMgr) {
+        INDArray grad = gradient.gradient();
+        if (hasOverflow(grad)) {
+            lastUpdateSkipped = true;
+            grad.assign(0);
+            lossScale = Math.max(mixedPrecision.getMinLossScale(), lossScale * mixedPrecision.getBackoffFactor());
+            stepsSinceLossScaleChange = 0;
+            log.debug("Mixed precision: overflow in gradients at iteration {}, skipping update. Loss scale reduced to {}", iteration, lossScale);
+            return;
+        }
+        lastUpdateSkipped = false;
+
+        masterGradients.assign(grad);
+        if (masterGradientsForDivision == null) {
+            masterGradientsForDivision = getMinibatchDivisionSubsets(masterGradients);
+        }
+        //Only the actual gradients are scaled - not the 'gradients' that are actually updates, like BatchNorm mean/variance
+        double divisor = (isMiniBatch() ? batchSize * lossScale : lossScale);
+        for (INDArray arr : masterGradientsForDivision) {
+            arr.divi(divisor);
+        }
+
+        //PRE apply (gradient clipping, etc) on the unscaled FLOAT gradients
+        for (Pair<Trainable, Gradient> p : getMasterLayerGradients()) {
+            preApply(p.getFirst(), p.getSecond(), p.getSecond().gradient(), iteration);
+        }
+
+        workspaceMgr.assertNotOpen(ArrayType.UPDATER_WORKING_MEM, "Updater working memory");
+        for (UpdaterBlock ub : updaterBlocks) {
+            if (ub.skipDueToPretrainConfig(this instanceof LayerUpdater)) {
+                continue;
+            }
+            try (MemoryWorkspace ws = workspaceMgr.notifyScopeEntered(ArrayType.UPDATER_WORKING_MEM)) {
+                ub.update(iteration, epoch);
+            }
+        }
+        grad.assign(masterGradients);
+
+        if (++stepsSinceLossScaleChange >= mixedPrecision.getGrowthInterval()) {
+            lossScale *= mixedPrecision.getGrowthFactor();
+            stepsSinceLossScaleChange = 0;
+        }
+    }
+
+    /**
+     * Apply the parameter update calculated by the last call to {@link #update(Gradient, int, int, int, LayerWorkspaceMgr)}
+     * for mixed precision training: the update is applied to the FLOAT master parameters, which are then copied to
+     * the network parameters. No-op if the last update was skipped due to overflow.
+     *
+     * @param stepFunction Step function to use to apply the update
+     * @param params       Network parameters to update
+     */
+    public void applyMixedPrecisionUpdate(StepFunction stepFunction, INDArray params) {
+        Preconditions.checkState(mixedPrecision != null, "Mixed precision training is not enabled for this network");
+        if (lastUpdateSkipped) {
+            return;
+        }
+        stepFunction.step(masterParams, masterGradients);
+        params.assign(masterParams);
+    }
+
+    protected List<Pair<Trainable, Gradient>> getMasterLayerGradients() {
+        if (masterLayerGradients == null) {
+            //Per-layer FLOAT gradients for gradient normalization. Parameters for each layer are contiguous in the view
+            masterLayerGradients = new ArrayList<>();
+            Trainable current = null;
+            Gradient g = null;
+            int start = 0;
+            int end = 0;
+            for (UpdaterBlock ub : updaterBlocks) {
+                for (UpdaterBlock.ParamState ps : ub.getLayersAndVariablesInBlock()) {
+                    if (ps.getLayer() != current) {
+                        if (current != null) {
+                            masterLayerGradients.add(new Pair<>(current, masterLayerGradient(g, start, end)));
+                        }
+                        current = ps.getLayer();
+                        g = new DefaultGradient();
+                        start = ps.getParamOffsetStart();
+                    }
+                    end = ps.getParamOffsetEnd();
+                    if (ps.getGradView() != null) {
+                        g.setGradientFor(ps.getParamName(), ps.getGradView());
+                    }
+                }
+            }
+            if (current != null) {
+                masterLayerGradients.add(new Pair<>(current, masterLayerGradient(g, start, end)));
+            }
+        }
+        return masterLayerGradients;
+    }
+
+    private Gradient masterLayerGradient(Gradient g, int start, int end) {
+        Gradient out = new DefaultGradient(masterGradients.get(NDArrayIndex.interval(0, 0, true), NDArrayIndex.interval(start, end)));
+        for (Map.Entry<String, INDArray> e : g.gradientForVariable().entrySet()) {
+            out.setGradientFor(e.getKey(), e.getValue());
+        }
+        return out;
+    }
+
+    protected static boolean hasOverflow(INDArray gradient) {
+        return Nd4j.getExecutioner().exec(new MatchCondition(gradient, Conditions.notFinite())).getInt(0) > 0;
+    }
+
     protected void divideByMinibatch(boolean isExternal, Gradient gradient, int batchSize){
         //Challenge here: most gradients are actual gradients, and should be divided by the minibatch to get the average
         //However, some 'gradients' are actually updates - an example being BatchNorm mean/variance estimates... these
@@ -398,6 +721,16 @@ public abstract class BaseMultiLayerUpdater<T extends Model> implements Updater
      * @param iteration The current iteration (i.e., number of parameter updates so far)
      */
     public void preApply(Trainable layer, Gradient gradient, int iteration) {
+        preApply(layer, gradient, layer.getGradientsViewArray(), iteration);
+    }
+
+    /**
+     * As per {@link #preApply(Trainable, Gradient, int)}, but using the specified gradient view array for the layer,
+     * instead of the layer's own gradient view array
+     *
+     * @param layerGradientView Gradient view array for all parameters of the layer
+     */
+    protected void preApply(Trainable layer, Gradient gradient, INDArray layerGradientView, int iteration) {
 
         if (layer.getConfig() == null || layer.numParams() == 0) {
             //Layer does not have parameters -> no gradient
@@ -409,7 +742,6 @@ public abstract class BaseMultiLayerUpdater<T extends Model> implements Updater
             return; //no op
 
         final double threshold = layer.getConfig().getGradientNormalizationThreshold();
-        INDArray layerGradientView = layer.getGradientsViewArray();
 
         switch (normalization) {
             case RenormalizeL2PerLayer:
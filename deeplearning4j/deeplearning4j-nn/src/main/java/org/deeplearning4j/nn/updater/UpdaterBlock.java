@@ -28,11 +28,14 @@ import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.indexing.NDArrayIndex;
 import org.nd4j.linalg.learning.GradientUpdater;
+import org.nd4j.linalg.learning.config.*;
+import org.nd4j.linalg.learning.regularization.L1Regularization;
+import org.nd4j.linalg.learning.regularization.L2Regularization;
 import org.nd4j.linalg.learning.regularization.Regularization;
+import org.nd4j.linalg.learning.regularization.WeightDecay;
 import org.nd4j.linalg.ops.transforms.Transforms;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 /**
  * UpdaterBlock: used in {@link BaseMultiLayerUpdater}, this class implements updating (i.e., Adam, RMSProp, Momentum,
@@ -50,9 +53,16 @@ public class UpdaterBlock {
 
     private INDArray updaterView;
     private INDArray gradientView;
+    private INDArray paramsView;
     private boolean updaterViewRequiresInitialization;
 
     private GradientUpdater gradientUpdater;
+    private List<RegularizationRange> regularizationRanges;
+
+    //Updaters for subsets of this block (see update(int, int, int, int)), keyed by start offset. These use views of the
+    // state arrays of gradientUpdater, hence are recreated if gradientUpdater is replaced
+    private Map<Integer, GradientUpdater> subsetUpdaters;
+    private GradientUpdater subsetUpdatersSource;
 
 
     @AllArgsConstructor
@@ -66,6 +76,20 @@ public class UpdaterBlock {
         private final INDArray gradView;
     }
 
+    /**
+     * A contiguous range of parameters in this block that have the same (non-empty) regularization configuration.
+     * Regularization for a range of more than one parameter is applied with one op per regularization type, over the
+     * whole range, instead of one op per parameter
+     */
+    @AllArgsConstructor
+    @Data
+    public static class RegularizationRange {
+        private final List<ParamState> params;
+        private final List<Regularization> regularization;
+        private final int paramOffsetStart;
+        private final int paramOffsetEnd;
+    }
+
     /**
      * @param paramOffsetStart          Start offset of the parameters in this block (relative to overall net params
      *                                  view array)
@@ -94,6 +118,9 @@ public class UpdaterBlock {
             gradientUpdater = varState.getLayer().getConfig().getUpdaterByParam(varName).instantiate(updaterView,
                             updaterViewRequiresInitialization); //UpdaterUtils.getGradientUpdater(varState.getLayer(), varState.getParamName());
         }
+        if (regularizationRanges == null) {
+            regularizationRanges = computeRegularizationRanges();
+        }
     }
 
     public boolean isPretrainUpdaterBlock() {
@@ -166,26 +193,210 @@ public class UpdaterBlock {
         applyRegularizationAllVariables(Regularization.ApplyStep.POST_UPDATER, iteration, epoch, externalGradient, fullNetworkGradientView, fullNetworkParamsArray);
     }
 
+    /**
+     * @return True if the updater can be applied to a subset of the parameters in this block independently of the other
+     * parameters in the block - i.e., if {@link #update(int, int, int, int)} can be used. This is the case for the
+     * built-in updaters, which are all element-wise, and have state arrays with one value per parameter
+     */
+    public boolean isSubsetUpdateSupported() {
+        GradientUpdater u = getGradientUpdater();
+        Class<?> c = u.getConfig().getClass();
+        if (c != Sgd.class && c != NoOp.class && c != Adam.class && c != AdaMax.class && c != AMSGrad.class
+                && c != Nadam.class && c != Nesterovs.class && c != RmsProp.class && c != AdaGrad.class
+                && c != AdaDelta.class) {
+            return false;
+        }
+        long length = paramOffsetEnd - paramOffsetStart;
+        Map<String, INDArray> stateMap = u.getState();
+        for (INDArray state : stateMap.values()) {
+            if (state == null || state.length() != length || state.elementWiseStride() != 1)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Update the gradient for a subset of this block only, as per {@link #update(int, int)}. The subset should consist
+     * of whole parameters, and must only be updated once per iteration. Should only be used if
+     * {@link #isSubsetUpdateSupported()} returns true.
+     *
+     * @param iteration  The current iteration (i.e., total number of parameter updates so far)
+     * @param subsetStart Start offset of the subset (relative to overall net params view array)
+     * @param subsetEnd   End offset of the subset (relative to overall net params view array)
+     */
+    public void update(int iteration, int epoch, int subsetStart, int subsetEnd) {
+        if (subsetStart == paramOffsetStart && subsetEnd == paramOffsetEnd) {
+            update(iteration, epoch);
+            return;
+        }
+        if (gradientUpdater == null) {
+            init();
+        }
+        if (subsetUpdaters == null || subsetUpdatersSource != gradientUpdater) {
+            subsetUpdaters = new HashMap<>();
+            subsetUpdatersSource = gradientUpdater;
+        }
+
+        int start = subsetStart - paramOffsetStart;
+        int end = subsetEnd - paramOffsetStart;
+        GradientUpdater u = subsetUpdaters.get(subsetStart);
+        if (u == null) {
+            //Element-wise updater: the updater for the subset uses views of the state of the block updater
+            Map<String, INDArray> blockState = gradientUpdater.getState();
+            Map<String, INDArray> state = new HashMap<>();
+            for (Map.Entry<String, INDArray> e : blockState.entrySet()) {
+                state.put(e.getKey(), subset(e.getValue(), start, end));
+            }
+            u = gradientUpdater.getConfig().instantiate(state, false);
+            subsetUpdaters.put(subsetStart, u);
+        }
+
+        applyRegularizationAllVariables(Regularization.ApplyStep.BEFORE_UPDATER, iteration, epoch, subsetStart, subsetEnd);
+        u.applyUpdater(subset(gradientView, start, end), iteration, epoch);
+        applyRegularizationAllVariables(Regularization.ApplyStep.POST_UPDATER, iteration, epoch, subsetStart, subsetEnd);
+    }
+
+    private static INDArray subset(INDArray arr, int start, int end) {
+        if (arr.rank() == 1)
+            return arr.get(NDArrayIndex.interval(start, end));
+        return arr.reshape(arr.ordering(), 1, arr.length()).get(NDArrayIndex.interval(0, 0, true), NDArrayIndex.interval(start, end));
+    }
+
+    /**
+     * As per {@link #applyRegularizationAllVariables(Regularization.ApplyStep, int, int, boolean, INDArray, INDArray)},
+     * for the parameters in the specified subset of this block only
+     */
+    protected void applyRegularizationAllVariables(Regularization.ApplyStep applyStep, int iteration, int epoch,
+                                                   int subsetStart, int subsetEnd) {
+        if (regularizationRanges.isEmpty()) {
+            return;
+        }
+
+        boolean hasLR = gradientUpdater.getConfig().hasLearningRate();
+        double lr = (hasLR ? gradientUpdater.getConfig().getLearningRate(iteration, epoch) : 1.0);
+        for (RegularizationRange range : regularizationRanges) {
+            int rangeStart = Math.max(subsetStart, range.getParamOffsetStart());
+            int rangeEnd = Math.min(subsetEnd, range.getParamOffsetEnd());
+            if (rangeStart >= rangeEnd) {
+                continue;
+            }
+            if (range.getParams().size() == 1) {
+                ParamState p = range.getParams().get(0);
+                applyRegularization(applyStep, p.getLayer(), p.getParamName(), p.getGradView(), p.getParamView(), iteration, epoch, lr);
+                continue;
+            }
+
+            //Ranges of multiple parameters are element-wise regularization only, hence can be applied to part of the range
+            int start = rangeStart - paramOffsetStart;
+            int end = rangeEnd - paramOffsetStart;
+            INDArray paramView = paramsView.get(NDArrayIndex.point(0), NDArrayIndex.interval(start, end));
+            INDArray gradView = gradientView.get(NDArrayIndex.point(0), NDArrayIndex.interval(start, end));
+            for (Regularization r : range.getRegularization()) {
+                if (r.applyStep() == applyStep) {
+                    r.apply(paramView, gradView, lr, iteration, epoch);
+                }
+            }
+        }
+    }
+
     protected void applyRegularizationAllVariables(Regularization.ApplyStep applyStep, int iteration, int epoch, boolean externalGradient, INDArray fullNetworkGradientView,
                                                    INDArray fullNetworkParamsArray) {
-        for (ParamState p : layersAndVariablesInBlock) {
+        if (regularizationRanges.isEmpty()) {
+            return;
+        }
+
+        boolean hasLR = gradientUpdater.getConfig().hasLearningRate();
+        double lr = (hasLR ? gradientUpdater.getConfig().getLearningRate(iteration, epoch) : 1.0);
+        for (RegularizationRange range : regularizationRanges) {
+            if (range.getParams().size() == 1) {
+                ParamState p = range.getParams().get(0);
+                INDArray paramView;
+                INDArray gradView;
+                if (externalGradient) {
+                    paramView = fullNetworkParamsArray.get(NDArrayIndex.point(0),
+                            NDArrayIndex.interval(p.getParamOffsetStart(), p.getParamOffsetEnd()));
+                    gradView = fullNetworkGradientView.get(NDArrayIndex.point(0),
+                            NDArrayIndex.interval(p.getParamOffsetStart(), p.getParamOffsetEnd()));
+                } else {
+                    //Standard case
+                    paramView = p.getParamView();
+                    gradView = p.getGradView();
+                }
+                applyRegularization(applyStep, p.getLayer(), p.getParamName(), gradView, paramView, iteration, epoch, lr);
+                continue;
+            }
+
+            //Multiple contiguous parameters: apply over the whole range
             INDArray paramView;
             INDArray gradView;
             if (externalGradient) {
                 paramView = fullNetworkParamsArray.get(NDArrayIndex.point(0),
-                        NDArrayIndex.interval(p.getParamOffsetStart(), p.getParamOffsetEnd()));
+                        NDArrayIndex.interval(range.getParamOffsetStart(), range.getParamOffsetEnd()));
                 gradView = fullNetworkGradientView.get(NDArrayIndex.point(0),
-                        NDArrayIndex.interval(p.getParamOffsetStart(), p.getParamOffsetEnd()));
+                        NDArrayIndex.interval(range.getParamOffsetStart(), range.getParamOffsetEnd()));
+            } else {
+                int start = range.getParamOffsetStart() - paramOffsetStart;
+                int end = range.getParamOffsetEnd() - paramOffsetStart;
+                paramView = paramsView.get(NDArrayIndex.point(0), NDArrayIndex.interval(start, end));
+                gradView = gradientView.get(NDArrayIndex.point(0), NDArrayIndex.interval(start, end));
+            }
+            for (Regularization r : range.getRegularization()) {
+                if (r.applyStep() == applyStep) {
+                    r.apply(paramView, gradView, lr, iteration, epoch);
+                }
+            }
+        }
+    }
+
+    /**
+     * Group the parameters in this block that have regularization into contiguous ranges of parameters with the same
+     * regularization configuration. Parameters are only grouped if all of their regularization types are element-wise
+     * (L1, L2 and weight decay) - these give the same result when applied to a range of parameters as when applied to
+     * each parameter separately. Parameters without any regularization are not included in any range.
+     *
+     * @return Regularization ranges for this block
+     */
+    protected List<RegularizationRange> computeRegularizationRanges() {
+        List<List<ParamState>> groups = new ArrayList<>();
+        List<List<Regularization>> groupRegularization = new ArrayList<>();
+        List<ParamState> current = null;
+        for (ParamState p : layersAndVariablesInBlock) {
+            if (p.getParamView() == null) {
+                //Zero length parameter
+                continue;
+            }
+            List<Regularization> l = p.getLayer().getConfig().getRegularizationByParam(p.getParamName());
+            if (l == null || l.isEmpty()) {
+                current = null;
+                continue;
+            }
+
+            if (current != null && isElementWise(l) && l.equals(groupRegularization.get(groupRegularization.size() - 1))) {
+                current.add(p);
             } else {
-                //Standard case
-                paramView = p.getParamView();
-                gradView = p.getGradView();
+                current = new ArrayList<>();
+                current.add(p);
+                groups.add(current);
+                groupRegularization.add(l);
             }
+        }
 
-            boolean hasLR = gradientUpdater.getConfig().hasLearningRate();
-            double lr = (hasLR ? gradientUpdater.getConfig().getLearningRate(iteration, epoch) : 1.0);
-            applyRegularization(applyStep, p.getLayer(), p.getParamName(), gradView, paramView, iteration, epoch, lr);
+        List<RegularizationRange> out = new ArrayList<>(groups.size());
+        for (int i = 0; i < groups.size(); i++) {
+            List<ParamState> g = groups.get(i);
+            out.add(new RegularizationRange(g, groupRegularization.get(i), g.get(0).getParamOffsetStart(),
+                    g.get(g.size() - 1).getParamOffsetEnd()));
         }
+        return out;
+    }
+
+    private static boolean isElementWise(List<Regularization> l) {
+        for (Regularization r : l) {
+            Class<?> c = r.getClass();
+            if (c != L1Regularization.class && c != L2Regularization.class && c != WeightDecay.class)
+                return false;
+        }
+        return true;
     }
 
     /**
@@ -197,8 +408,6 @@ public class UpdaterBlock {
      * @param paramsView   Parameter view array for the layer + param
      */
     protected void applyRegularization(Regularization.ApplyStep step, Trainable layer, String paramName, INDArray gradientView, INDArray paramsView, int iter, int epoch, double lr) {
-        //TODO: do this for multiple contiguous params/layers (fewer, larger ops)
-
         List<Regularization> l = layer.getConfig().getRegularizationByParam(paramName);
         if(l != null && !l.isEmpty()){
             for(Regularization r : l){
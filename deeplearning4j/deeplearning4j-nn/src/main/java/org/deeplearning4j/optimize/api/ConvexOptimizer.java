@@ -17,6 +17,7 @@
 package org.deeplearning4j.optimize.api;
 
 import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.api.Trainable;
 import org.deeplearning4j.nn.api.Updater;
 import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
 import org.deeplearning4j.nn.gradient.Gradient;
@@ -130,4 +131,22 @@ public interface ConvexOptimizer extends Serializable {
      */
     void updateGradientAccordingToParams(Gradient gradient, Model model, int batchSize, LayerWorkspaceMgr workspaceMgr);
 
+    /**
+     * Called during backprop, as soon as the gradients for the specified layer (or vertex) have been calculated.
+     * May be used to start processing the gradients for the layer before backprop has completed - for example, to
+     * share the updates for the layer with other workers while backprop continues.
+     *
+     * @param layer Layer (or vertex) that the gradients have been calculated for
+     */
+    void onLayerGradients(Trainable layer);
+
+    /**
+     * Called during the forward pass when training, right before the specified layer (or vertex) is activated.
+     * May be used to delay the forward pass for the layer until its parameters are up to date - for example, until
+     * the updates for the layer from other workers have arrived and have been applied.
+     *
+     * @param layer Layer (or vertex) that is about to be activated
+     */
+    void onLayerActivation(Trainable layer);
+
 }
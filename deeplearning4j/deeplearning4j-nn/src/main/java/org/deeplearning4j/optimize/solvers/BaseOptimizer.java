@@ -20,6 +20,7 @@ import lombok.Getter;
 import org.deeplearning4j.exception.InvalidStepException;
 import org.deeplearning4j.nn.api.Layer;
 import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.api.Trainable;
 import org.deeplearning4j.nn.api.Updater;
 import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
 import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
@@ -27,6 +28,7 @@ import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
 import org.deeplearning4j.nn.gradient.Gradient;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.nn.updater.BaseMultiLayerUpdater;
 import org.deeplearning4j.nn.updater.UpdaterCreator;
 import org.deeplearning4j.nn.updater.graph.ComputationGraphUpdater;
 import org.deeplearning4j.nn.workspace.LayerWorkspaceMgr;
@@ -151,6 +153,17 @@ public abstract class BaseOptimizer implements ConvexOptimizer {
         this.computationGraphUpdater = updater;
     }
 
+    /**
+     * @return The updater for the model if mixed precision training is used, or null otherwise
+     */
+    protected BaseMultiLayerUpdater<?> getMixedPrecisionUpdater() {
+        Object u = (model instanceof ComputationGraph ? computationGraphUpdater : updater);
+        if (u instanceof BaseMultiLayerUpdater && ((BaseMultiLayerUpdater<?>) u).getMixedPrecision() != null) {
+            return (BaseMultiLayerUpdater<?>) u;
+        }
+        return null;
+    }
+
     @Override
     public void setListeners(Collection<TrainingListener> listeners) {
         if (listeners == null)
@@ -195,6 +208,10 @@ public abstract class BaseOptimizer implements ConvexOptimizer {
         INDArray searchDirection;
         INDArray parameters;
         Pair<Gradient, Double> pair = gradientAndScore(workspaceMgr);
+        if (getMixedPrecisionUpdater() != null) {
+            throw new UnsupportedOperationException("Mixed precision training is only supported with optimization " +
+                    "algorithm STOCHASTIC_GRADIENT_DESCENT");
+        }
         if (searchState.isEmpty()) {
             searchState.put(GRADIENT_KEY, pair.getFirst().gradient());
             try(MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
@@ -306,6 +323,16 @@ public abstract class BaseOptimizer implements ConvexOptimizer {
         }
     }
 
+    @Override
+    public void onLayerGradients(Trainable layer) {
+        //No op by default
+    }
+
+    @Override
+    public void onLayerActivation(Trainable layer) {
+        //No op by default
+    }
+
     /**
      * Setup the initial search state
      * @param pair
@@ -18,19 +18,25 @@ package org.deeplearning4j.optimize.solvers;
 
 import lombok.extern.slf4j.Slf4j;
 import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.api.Trainable;
 import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
 import org.deeplearning4j.nn.gradient.Gradient;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.nn.updater.BaseMultiLayerUpdater;
+import org.deeplearning4j.nn.updater.UpdaterCreator;
+import org.deeplearning4j.nn.updater.graph.ComputationGraphUpdater;
 import org.deeplearning4j.nn.workspace.LayerWorkspaceMgr;
 import org.deeplearning4j.optimize.api.StepFunction;
 import org.deeplearning4j.optimize.api.TrainingListener;
+import org.deeplearning4j.optimize.solvers.accumulation.BucketedGradientsAccumulator;
 import org.nd4j.linalg.api.memory.MemoryWorkspace;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.primitives.Pair;
 
 import java.util.Collection;
+import java.util.List;
 
 /**
  * Stochastic Gradient Descent
@@ -65,9 +71,14 @@ public class StochasticGradientDescent extends BaseOptimizer {
         Gradient gradient = pair.getFirst();
 
         INDArray params = model.params();
+        BaseMultiLayerUpdater<?> mixedPrecisionUpdater = getMixedPrecisionUpdater();
 
         // if optimizer has GradientsAccumulator defined - go for it
         if (accumulator != null) {
+            if (mixedPrecisionUpdater != null) {
+                throw new UnsupportedOperationException("Mixed precision training is not supported when training with a" +
+                        " GradientsAccumulator");
+            }
             // we're propagating current update
             int epochNum = 0;
             int iterationNum = 0;
@@ -80,14 +91,24 @@ public class StochasticGradientDescent extends BaseOptimizer {
                 epochNum = ((ComputationGraph) model).getEpochCount();
             }
 
-            accumulator.storeUpdate(gradient.gradient(), iterationNum, epochNum);
-
-            // and getting (possible) pending update from accumulator
-            //INDArray pendingUpdate = accumulator.getUpdate();
-            //stepFunction.step(params, pendingUpdate);
-            accumulator.applyUpdate(stepFunction, params, gradient.gradient(), true);
+            if (isBucketed()) {
+                // updates from the previous iteration are usually applied layer by layer during the forward pass (see
+                // onLayerActivation), but any that weren't have to be applied before the next updates are stored
+                ((BucketedGradientsAccumulator) accumulator).applyRemainingUpdates(stepFunction, params);
+                accumulator.storeUpdate(gradient.gradient(), iterationNum, epochNum);
+            } else {
+                accumulator.storeUpdate(gradient.gradient(), iterationNum, epochNum);
+
+                // and getting (possible) pending update from accumulator
+                //INDArray pendingUpdate = accumulator.getUpdate();
+                //stepFunction.step(params, pendingUpdate);
+                accumulator.applyUpdate(stepFunction, params, gradient.gradient(), true);
+            }
 
             // if there's no update available - just go on then
+        } else if (mixedPrecisionUpdater != null) {
+            // mixed precision: update is applied to the FLOAT master params, which are then copied to the network params
+            mixedPrecisionUpdater.applyMixedPrecisionUpdate(stepFunction, params);
         } else {
             // if accumulator isn't used - we just to for direct updates application
             stepFunction.step(params, gradient.gradient());
@@ -110,6 +131,73 @@ public class StochasticGradientDescent extends BaseOptimizer {
         return true;
     }
 
+    /**
+     * When training with a bucketed GradientsAccumulator: apply the updater to the gradients of the layer, and store
+     * the resulting updates in the accumulator straight away, so that they are shared while backprop continues for the
+     * remaining layers. The updates for any remaining layers are stored as usual, once backprop has completed
+     */
+    @Override
+    public void onLayerGradients(Trainable layer) {
+        if (!isBucketed())
+            return;
+
+        try (MemoryWorkspace workspace = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+            BaseMultiLayerUpdater<?> u = getLayerwiseUpdater();
+            if (u == null)
+                return;
+
+            int iterationNum = BaseOptimizer.getIterationCount(model);
+            int epochNum = BaseOptimizer.getEpochCount(model);
+            List<long[]> ranges = u.updateLayer(layer, iterationNum, epochNum, model.batchSize(), LayerWorkspaceMgr.noWorkspaces());
+            INDArray updates = model.getGradientsViewArray();
+            for (long[] r : ranges) {
+                ((BucketedGradientsAccumulator) accumulator).storeUpdate(updates, r[0], r[1], iterationNum, epochNum);
+            }
+        }
+    }
+
+    /**
+     * When training with a bucketed GradientsAccumulator: apply the updates from the previous iteration for the
+     * parameters of the layer, waiting for the updates of all workers to arrive if required. Thus the forward pass for
+     * the first layers doesn't have to wait for the updates for the remaining layers
+     */
+    @Override
+    public void onLayerActivation(Trainable layer) {
+        if (!isBucketed())
+            return;
+
+        try (MemoryWorkspace workspace = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+            BaseMultiLayerUpdater<?> u = getLayerwiseUpdater();
+            long[] range = (u == null ? null : u.getLayerParamRange(layer));
+            if (range == null)
+                return;
+
+            ((BucketedGradientsAccumulator) accumulator).applyUpdate(stepFunction, model.params(), range[0], range[1]);
+        }
+    }
+
+    protected boolean isBucketed() {
+        return accumulator instanceof BucketedGradientsAccumulator && ((BucketedGradientsAccumulator) accumulator).isBucketed()
+                && (model instanceof MultiLayerNetwork || model instanceof ComputationGraph);
+    }
+
+    /**
+     * @return The updater to apply one layer at a time, or null if layerwise updates aren't supported (mixed precision)
+     */
+    protected BaseMultiLayerUpdater<?> getLayerwiseUpdater() {
+        BaseMultiLayerUpdater<?> u;
+        if (model instanceof ComputationGraph) {
+            if (computationGraphUpdater == null)
+                computationGraphUpdater = new ComputationGraphUpdater((ComputationGraph) model);
+            u = computationGraphUpdater;
+        } else {
+            if (updater == null)
+                updater = UpdaterCreator.getUpdater(model);
+            u = (BaseMultiLayerUpdater<?>) updater;
+        }
+        return u.getMixedPrecision() != null ? null : u;
+    }
+
     @Override
     public void preProcessLine() {}
 
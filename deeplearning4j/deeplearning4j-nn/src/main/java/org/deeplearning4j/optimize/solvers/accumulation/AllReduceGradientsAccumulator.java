@@ -0,0 +1,223 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+
+package org.deeplearning4j.optimize.solvers.accumulation;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.optimize.api.StepFunction;
+import org.deeplearning4j.optimize.solvers.accumulation.allreduce.AllReduceTransport;
+import org.deeplearning4j.optimize.solvers.accumulation.allreduce.AllReducer;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * GradientsAccumulator that synchronously sums (or averages) dense updates across all local workers and all members
+ * of an {@link AllReduceTransport} group, using a bandwidth-optimal allreduce (see {@link AllReducer}).<br>
+ * Unlike {@link EncodedGradientsAccumulator}, updates are not relayed through any central node: the traffic per
+ * member is constant with the number of members. Updates of the local workers (i.e. ParallelWrapper workers) are first
+ * added locally, hence one allreduce is performed per iteration per member.<br>
+ * <br>
+ * PLEASE NOTE: every member must perform the same number of iterations, and start from the same parameters.
+ * Use with ParallelWrapper via TrainingMode.CUSTOM and {@code gradientsAccumulator(...)}
+ */
+@Slf4j
+public class AllReduceGradientsAccumulator implements GradientsAccumulator, Registerable {
+
+    protected final int parties;
+    @Getter
+    protected final transient AllReducer reducer;
+    @Getter
+    protected final boolean averaging;
+
+    // reduced updates, plus the number of workers that contributed to them as the last element
+    protected transient INDArray storage;
+    protected transient List<INDArray> candidates = new CopyOnWriteArrayList<>();
+    protected transient volatile CyclicBarrier barrier;
+    protected AtomicBoolean bypassMode = new AtomicBoolean(false);
+
+    /**
+     * Create an accumulator that averages updates using ring allreduce with the default bucket and chunk sizes
+     *
+     * @param parties   Number of local workers
+     * @param transport Transport connecting this member to the other members of the group
+     */
+    public AllReduceGradientsAccumulator(int parties, @NonNull AllReduceTransport transport) {
+        this(parties, new AllReducer(transport), true);
+    }
+
+    /**
+     * @param parties   Number of local workers
+     * @param reducer   AllReducer to use for exchanging updates with the other members of the group
+     * @param averaging If true: apply the average of the updates of all workers. If false: apply the sum
+     */
+    public AllReduceGradientsAccumulator(int parties, @NonNull AllReducer reducer, boolean averaging) {
+        if (parties < 1)
+            throw new IllegalArgumentException("Number of parties must be positive, got " + parties);
+        this.parties = parties;
+        this.reducer = reducer;
+        this.averaging = averaging;
+        this.barrier = newBarrier(parties);
+    }
+
+    protected CyclicBarrier newBarrier(int consumers) {
+        return new CyclicBarrier(consumers, new Runnable() {
+            @Override
+            public void run() {
+                reduce();
+            }
+        });
+    }
+
+    /**
+     * Executed by the last local worker to arrive at the barrier: adds the updates of all local workers, and reduces
+     * them across the group
+     */
+    protected void reduce() {
+        INDArray first = candidates.get(0);
+        long length = first.length();
+        if (storage == null || storage.length() != length + 1 || storage.dataType() != first.dataType()) {
+            try (MemoryWorkspace workspace = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+                storage = Nd4j.create(first.dataType(), length + 1);
+            }
+        }
+
+        INDArray updates = storage.get(NDArrayIndex.interval(0, length));
+        updates.assign(0.0);
+        INDArray[] arrays = new INDArray[candidates.size()];
+        for (int i = 0; i < arrays.length; i++)
+            arrays[i] = candidates.get(i).reshape(candidates.get(i).ordering(), new long[]{length});
+        Nd4j.accumulate(updates, arrays);
+        storage.putScalar(length, arrays.length);
+        candidates.clear();
+
+        reducer.sum(storage);
+
+        if (averaging)
+            updates.divi(storage.getDouble(length));
+        Nd4j.getExecutioner().commit();
+    }
+
+    @Override
+    public void registerConsumers(int numConsumers) {
+        if (bypassMode.get())
+            numConsumers = 1;
+        if (barrier.getParties() != numConsumers)
+            barrier = newBarrier(numConsumers);
+    }
+
+    @Override
+    public void fallbackToSingleConsumerMode(boolean reallyFallback) {
+        bypassMode.set(reallyFallback);
+        barrier = newBarrier(reallyFallback ? 1 : parties);
+    }
+
+    @Override
+    public void setExternalSource(IndexedTail source) {
+        throw new UnsupportedOperationException("AllReduceGradientsAccumulator exchanges updates through its transport only");
+    }
+
+    @Override
+    public IndexedTail getExternalSource() {
+        return null;
+    }
+
+    /**
+     * This method replaces the given updates with the reduced updates of all workers, and applies them via the given
+     * StepFunction
+     */
+    @Override
+    public void applyUpdate(StepFunction function, INDArray params, INDArray updates, boolean isFinalStep) {
+        if (storage == null)
+            return;
+        updates.assign(reduced(updates));
+        function.step(params, updates);
+    }
+
+    /**
+     * This method replaces the given updates with the reduced updates of all workers, and applies them via the given
+     * StepFunction
+     */
+    @Override
+    public void applyUpdate(StepFunction function, INDArray params, INDArray updates, double alpha) {
+        if (storage == null)
+            return;
+        updates.assign(reduced(updates));
+        function.step(params, updates, alpha);
+    }
+
+    protected INDArray reduced(INDArray like) {
+        return storage.get(NDArrayIndex.interval(0, like.length())).reshape(like.ordering(), like.shape());
+    }
+
+    /**
+     * This method blocks until all local workers have stored their updates for the current iteration, after which the
+     * reduced updates of all workers are available to {@link #applyUpdate(StepFunction, INDArray, INDArray, boolean)}
+     */
+    @Override
+    public void storeUpdate(INDArray array, int iterationNumber, int epochNumber) {
+        Nd4j.getExecutioner().commit();
+        candidates.add(array);
+        try {
+            barrier.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (BrokenBarrierException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void receiveUpdate(INDArray array) {
+        throw new UnsupportedOperationException("AllReduceGradientsAccumulator exchanges updates through its transport only");
+    }
+
+    @Override
+    public void markExternalUpdates(boolean updatesAvailable) {
+        // no-op
+    }
+
+    @Override
+    public void reset() {
+        candidates.clear();
+        if (storage != null)
+            storage.assign(0.0);
+        if (barrier.isBroken())
+            barrier.reset();
+    }
+
+    @Override
+    public void touch() {
+        // no-op
+    }
+
+    @Override
+    public boolean hasAnything() {
+        return false;
+    }
+}
@@ -0,0 +1,74 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+
+package org.deeplearning4j.optimize.solvers.accumulation;
+
+import org.deeplearning4j.optimize.api.StepFunction;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * A GradientsAccumulator that can accept the updates for a network in parts (buckets), as soon as the final updates
+ * for each part are available - i.e., during backprop, layer by layer in reverse order. Encoding and sharing of the
+ * updates for the first buckets is overlapped with backprop for the remaining layers.<br>
+ * The final {@link #storeUpdate(INDArray, int, int)} call for the iteration stores the parts of the updates that have
+ * not been stored yet. It does not wait for the updates of the other workers: instead, the updates for the iteration
+ * are applied one part at a time during the forward pass of the next iteration, via
+ * {@link #applyUpdate(StepFunction, INDArray, long, long)}, right before each layer is activated. Thus the forward pass
+ * for the first layers can start as soon as the updates of all workers for those layers have arrived.
+ */
+public interface BucketedGradientsAccumulator extends GradientsAccumulator {
+
+    /**
+     * @return True if updates should be stored in parts via {@link #storeUpdate(INDArray, long, long, int, int)}
+     */
+    boolean isBucketed();
+
+    /**
+     * Store the final updates for the specified range of the updates array. Each range may only be stored once per
+     * iteration. The updates array is not modified, and is not used after this method returns.
+     *
+     * @param updates         Updates for the full network
+     * @param start           Start of the range (inclusive)
+     * @param end             End of the range (exclusive)
+     */
+    void storeUpdate(INDArray updates, long start, long end, int iterationNumber, int epochNumber);
+
+    /**
+     * Apply the updates from the last iteration stored by the current worker for the specified range of the parameters,
+     * blocking until the updates of all workers (that took part in the iteration) for the range have arrived. Updates
+     * that have already been applied are not applied again, hence this method can be called before each layer is
+     * activated. Does nothing if there are no pending updates for the range.
+     *
+     * @param function Step function used to apply the updates
+     * @param params   Parameters for the full network
+     * @param start    Start of the range (inclusive)
+     * @param end      End of the range (exclusive)
+     */
+    void applyUpdate(StepFunction function, INDArray params, long start, long end);
+
+    /**
+     * Apply all pending updates from the last iteration stored by the current worker (blocking until the updates of all
+     * workers have arrived), as well as any external updates.
+     * This should be called at the end of training, as the updates for the last iteration are otherwise only applied
+     * during the forward pass of the next iteration.
+     *
+     * @param function Step function used to apply the updates
+     * @param params   Parameters for the full network
+     */
+    void applyRemainingUpdates(StepFunction function, INDArray params);
+}
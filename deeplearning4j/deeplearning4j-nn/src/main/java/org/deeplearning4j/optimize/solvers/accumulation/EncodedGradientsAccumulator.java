@@ -25,6 +25,8 @@ import org.deeplearning4j.nn.api.Model;
 import org.deeplearning4j.optimize.api.StepFunction;
 import org.deeplearning4j.optimize.solvers.accumulation.encoding.ResidualPostProcessor;
 import org.deeplearning4j.optimize.solvers.accumulation.encoding.ThresholdAlgorithm;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.UpdateDecoder;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.UpdateEncoder;
 import org.deeplearning4j.optimize.solvers.accumulation.encoding.residual.ResidualClippingPostProcessor;
 import org.deeplearning4j.optimize.solvers.accumulation.encoding.threshold.AdaptiveThresholdAlgorithm;
 import org.deeplearning4j.util.ThreadUtils;
@@ -34,17 +36,13 @@ import org.nd4j.linalg.api.memory.MemoryWorkspace;
 import org.nd4j.linalg.api.memory.conf.WorkspaceConfiguration;
 import org.nd4j.linalg.api.memory.enums.*;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.compression.ThresholdCompression;
 import org.nd4j.linalg.exception.ND4JIllegalStateException;
 import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
 import org.nd4j.linalg.util.AtomicThrowable;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.Queue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -52,11 +50,19 @@ import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This GradientsAccumulator is suited for CUDA backend.
+ * <p>
+ * If a bucket size is set (see {@link Builder#bucketSize(long)}), updates are accepted in parts during backprop (see
+ * {@link BucketedGradientsAccumulator}): the updates are split into buckets of (approximately) the specified size, and
+ * each bucket is encoded and shared by a separate thread as soon as it is complete, while backprop continues.
+ * Each bucket has its own residual and encoding state. There is no barrier at the end of the iteration: the received
+ * updates are applied bucket by bucket during the forward pass of the next iteration, and the forward pass for each
+ * layer only waits for the updates of all workers for the buckets containing its parameters
+ * (see {@link #applyUpdate(StepFunction, INDArray, long, long)}).
  *
  * @author raver119@gmail.com
  */
 @Slf4j
-public class EncodedGradientsAccumulator implements GradientsAccumulator, Registerable {
+public class EncodedGradientsAccumulator implements BucketedGradientsAccumulator, Registerable {
     public static final long DEFAULT_INITIAL_MEMORY = 100 * 1024 * 1024L;
     protected ThreadLocal<INDArray> accumulator = new ThreadLocal<>();
 
@@ -95,6 +101,17 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
 
     protected AtomicBoolean externalUpdatesAvailable = new AtomicBoolean(false);
 
+    // bucketed mode only: minimal size of the buckets, per-thread bucket state, and one handler per bucket
+    protected final long bucketSize;
+    protected ThreadLocal<BucketState> bucketState = new ThreadLocal<>();
+    protected final List<BucketState> allBucketStates = new CopyOnWriteArrayList<>();
+    protected final ConcurrentMap<Long, EncodingHandler> bucketHandlers = new ConcurrentHashMap<>();
+    // bucketed mode only: the current round (registerConsumers call), the total number of consumers in all rounds so
+    // far, and the number of consumers that have stored their updates in the current round
+    protected final AtomicLong currentRound = new AtomicLong(0);
+    protected final AtomicLong totalConsumers = new AtomicLong(0);
+    protected final AtomicInteger storedConsumers = new AtomicInteger(0);
+
     protected WorkspaceConfiguration appliedConfiguration = WorkspaceConfiguration.builder().minSize(5 * 1024 * 1024L)
                     .overallocationLimit(0.3).policyMirroring(MirroringPolicy.FULL).policySpill(SpillPolicy.REALLOCATE)
                     .policyLearning(LearningPolicy.FIRST_LOOP).policyReset(ResetPolicy.BLOCK_LEFT).build();
@@ -109,12 +126,27 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
 
     public EncodedGradientsAccumulator(int parties, @NonNull MessageHandler handler, long initialMemory,
                     int queueSize, Double boundary, boolean encodingDebugMode) {
+        this(parties, handler, initialMemory, queueSize, boundary, encodingDebugMode, 0);
+    }
+
+    /**
+     * @param bucketSize Minimal number of values per bucket, for bucketed mode. 0 to disable bucketed mode. Bucketed mode
+     *                   requires an {@link EncodingHandler}
+     */
+    public EncodedGradientsAccumulator(int parties, @NonNull MessageHandler handler, long initialMemory,
+                    int queueSize, Double boundary, boolean encodingDebugMode, long bucketSize) {
+        if (bucketSize < 0)
+            throw new DL4JInvalidConfigException("Bucket size must not be negative, got " + bucketSize);
+        if (bucketSize > 0 && !(handler instanceof EncodingHandler))
+            throw new DL4JInvalidConfigException("Bucketed mode requires an EncodingHandler, got " + handler.getClass().getSimpleName());
+
         this.parties = parties;
         this.handler = handler;
         this.initialMemory = initialMemory;
         this.queueSize = queueSize;
         this.boundary = boundary;
         this.encodingDebugMode = encodingDebugMode;
+        this.bucketSize = bucketSize;
 
         // maybe not the best idea in the world, but we'll use cyclic workspace of 25MB to receive updates
         WorkspaceConfiguration configuration = WorkspaceConfiguration.builder().initialSize(initialMemory)
@@ -137,7 +169,9 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
         int curDev = Nd4j.getAffinityManager().getDeviceForCurrentThread();
 
         for (int i = 0; i < parties; i++) {
-            messages.add(new LinkedBlockingQueue<INDArray>(queueSize));
+            // in bucketed mode there are multiple messages per worker per iteration, which are only consumed once all
+            // workers have stored their updates. Memory use is still bounded, by the per-iteration synchronization
+            messages.add(bucketSize > 0 ? new LinkedBlockingQueue<INDArray>() : new LinkedBlockingQueue<INDArray>(queueSize));
 
             // we don't want device index to step out of boundaries here
             int cDevice = numDevices > 1 ? i % numDevices : 0;
@@ -212,6 +246,12 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
         }
 
         currentConsumers.set(numConsumers);
+
+        // bucketed mode: consumers of the previous round have already recorded the number of updates they'll wait for
+        currentRound.incrementAndGet();
+        totalConsumers.addAndGet(numConsumers);
+        storedConsumers.set(0);
+
         registered.set(true);
     }
 
@@ -285,6 +325,12 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
      */
     @Override
     public void applyUpdate(StepFunction function, INDArray params, INDArray updates, boolean isFinalStep) {
+        if (isBucketed()) {
+            // messages have to be consumed bucket by bucket, so that we know when all updates for a bucket have arrived
+            applyRemainingUpdates(function, params);
+            return;
+        }
+
         if (updatesApplied.get() == null)
             updatesApplied.set(new AtomicLong(0));
         try {
@@ -296,13 +342,7 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
             while (!messages.get(index.get()).isEmpty()) {
                 INDArray compressed = messages.get(index.get()).poll();
 
-                int encoding = compressed.data().getInt(3);
-                if (encoding == ThresholdCompression.FLEXIBLE_ENCODING)
-                    Nd4j.getExecutioner().thresholdDecode(compressed, updates);
-                else if (encoding == ThresholdCompression.BITMAP_ENCODING)
-                    Nd4j.getExecutioner().bitmapDecode(compressed, updates);
-                else
-                    throw new DL4JInvalidConfigException("Unknown compression header received: " + encoding);
+                UpdateDecoder.decode(compressed, updates);
 
                 cnt++;
             }
@@ -352,6 +392,7 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
      */
     @Override
     public void applyUpdate(StepFunction function, INDArray params, INDArray updates, double alpha) {
+        Preconditions.checkState(!isBucketed(), "Applying updates with a step size is not supported in bucketed mode");
         try {
             // nullify given updates first
             Nd4j.getMemoryManager().memset(updates);
@@ -361,13 +402,7 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
             while (!messages.get(index.get()).isEmpty()) {
                 INDArray compressed = messages.get(index.get()).poll();
 
-                int encoding = compressed.data().getInt(3);
-                if (encoding == ThresholdCompression.FLEXIBLE_ENCODING)
-                    Nd4j.getExecutioner().thresholdDecode(compressed, updates);
-                else if (encoding == ThresholdCompression.BITMAP_ENCODING)
-                    Nd4j.getExecutioner().bitmapDecode(compressed, updates);
-                else
-                    throw new DL4JInvalidConfigException("Unknown compression header received: " + encoding);
+                UpdateDecoder.decode(compressed, updates);
 
                 cnt++;
             }
@@ -440,6 +475,11 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
      */
     @Override
     public void storeUpdate(INDArray array, int iterationNumber, int epochNumber) {
+        if (isBucketed()) {
+            storeRemainingBuckets(array, iterationNumber, epochNumber);
+            return;
+        }
+
         try {
             if (accumulator.get() == null) {
                 // we don't want accumulator to be attached to workspaces
@@ -476,6 +516,343 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
         }
     }
 
+    @Override
+    public boolean isBucketed() {
+        return bucketSize > 0;
+    }
+
+    /**
+     * This method accepts the final updates for the specified range. Adjacent ranges are merged into buckets of at least
+     * bucketSize values, which are encoded and propagated by a separate thread.
+     * <p>
+     * PLEASE NOTE: the updates array must not be modified until the {@link #storeUpdate(INDArray, int, int)} call for
+     * the current iteration has returned
+     */
+    @Override
+    public void storeUpdate(INDArray updates, long start, long end, int iterationNumber, int epochNumber) {
+        Preconditions.checkState(isBucketed(), "Bucket size is not set: updates can only be stored for all parameters at once");
+        Preconditions.checkArgument(start >= 0 && start < end && end <= updates.length(), "Invalid range [%s, %s) for updates of length %s",
+                start, end, updates.length());
+        try {
+            BucketState state = getBucketState();
+            startRound(state);
+            state.stored.add(new long[]{start, end});
+            addToBucket(state, updates, start, end, iterationNumber, epochNumber);
+        } catch (Exception e) {
+            throwable.setIfFirst(e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    protected void storeRemainingBuckets(INDArray array, int iterationNumber, int epochNumber) {
+        try {
+            BucketState state = getBucketState();
+            startRound(state);
+
+            // store the parts that weren't stored during backprop, in reverse order (same as backprop)
+            Collections.sort(state.stored, new Comparator<long[]>() {
+                @Override
+                public int compare(long[] o1, long[] o2) {
+                    return Long.compare(o2[0], o1[0]);
+                }
+            });
+            long end = array.length();
+            for (long[] range : state.stored) {
+                if (range[1] < end)
+                    addToBucket(state, array, range[1], end, iterationNumber, epochNumber);
+                end = Math.min(end, range[0]);
+            }
+            if (end > 0)
+                addToBucket(state, array, 0, end, iterationNumber, epochNumber);
+            flushBucket(state, array, iterationNumber, epochNumber);
+            state.stored.clear();
+
+            // wait till our own buckets are propagated. We don't wait for the other workers here: their updates are
+            // applied during the forward pass of the next iteration, see applyUpdate(StepFunction, INDArray, long, long)
+            for (Future<?> f : state.pending) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+            state.pending.clear();
+
+            // one message per bucket is expected from every consumer in every round so far
+            for (long[] bucket : state.flushed)
+                state.unapplied.put(bucket[0], bucket[1]);
+            state.flushed.clear();
+            state.applyRound = state.storeRound;
+            state.expected = bypassMode.get() ? -1 : totalConsumers.get();
+            state.storeRound = -1;
+
+            // last consumer to store its updates ends the round, so that the next round can be registered
+            if (!bypassMode.get() && storedConsumers.incrementAndGet() == currentConsumers.get())
+                registered.set(false);
+        } catch (Exception e) {
+            throwable.setIfFirst(e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Bucketed mode: block until ParallelWrapper sends us message about number of threads in this cycle, and record the
+     * current round for the updates of this iteration
+     */
+    protected void startRound(BucketState state) {
+        if (state.storeRound >= 0)
+            return;
+
+        if (!bypassMode.get())
+            while (!registered.get()) {
+                ThreadUtils.uncheckedSleep(1);
+                if (throwable.isTriggered())
+                    throw new RuntimeException(throwable.get());
+            }
+
+        state.storeRound = currentRound.get();
+    }
+
+    /**
+     * Apply the updates stored in the last iteration by all workers, for the buckets overlapping the specified range.
+     * Blocks until all updates for these buckets have arrived - i.e., one message per bucket from each of the consumers
+     * registered in all rounds so far. In bypass mode, only the updates that have arrived already are applied.
+     */
+    @Override
+    public void applyUpdate(StepFunction function, INDArray params, long start, long end) {
+        BucketState state = getBucketState();
+        if (state.unapplied.isEmpty())
+            return;
+
+        try {
+            Long first = state.unapplied.floorKey(start);
+            List<Long> overlapping = new ArrayList<>();
+            for (Map.Entry<Long, Long> e : state.unapplied.tailMap(first == null ? start : first, true).entrySet()) {
+                if (e.getKey() >= end)
+                    break;
+                if (e.getValue() > start)
+                    overlapping.add(e.getKey());
+            }
+
+            for (Long bucketStart : overlapping)
+                applyBucket(state, function, params, bucketStart);
+        } catch (Exception e) {
+            throwable.setIfFirst(e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void applyRemainingUpdates(StepFunction function, INDArray params) {
+        BucketState state = getBucketState();
+        try {
+            while (!state.unapplied.isEmpty())
+                applyBucket(state, function, params, state.unapplied.firstKey());
+
+            // anything that was received for buckets that were already applied, and external updates
+            INDArray updates = getBucketUpdates(state, params);
+            drainMessages(state, updates);
+            if (externalSource != null && externalSource.hasAnything()) {
+                externalSource.drainTo(updates);
+                state.outOfBucket = true;
+            }
+
+            if (state.outOfBucket) {
+                function.step(UpdateDecoder.flat(params), updates);
+                Nd4j.getMemoryManager().memset(updates);
+                state.outOfBucket = false;
+            }
+        } catch (Exception e) {
+            throwable.setIfFirst(e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    protected void applyBucket(BucketState state, StepFunction function, INDArray params, long start) throws InterruptedException {
+        long end = state.unapplied.get(start);
+        INDArray updates = getBucketUpdates(state, params);
+        BlockingQueue<INDArray> queue = messages.get(index.get());
+
+        // messages of earlier rounds first
+        Iterator<INDArray> iter = state.deferred.iterator();
+        while (iter.hasNext()) {
+            INDArray message = iter.next();
+            if (UpdateDecoder.getBucketRound(message) <= state.applyRound) {
+                iter.remove();
+                receiveMessage(state, message, updates);
+            }
+        }
+
+        while (state.expected >= 0 && getReceived(state, start) < state.expected) {
+            INDArray message = queue.poll(1, TimeUnit.MILLISECONDS);
+            if (message != null)
+                receiveMessage(state, message, updates);
+            else if (throwable.isTriggered())
+                throw new RuntimeException(throwable.get());
+        }
+        drainMessages(state, updates);
+
+        INDArray bucketUpdates = updates.get(NDArrayIndex.interval(start, end));
+        function.step(UpdateDecoder.flat(params).get(NDArrayIndex.interval(start, end)), bucketUpdates);
+        bucketUpdates.assign(0.0);
+        state.unapplied.remove(start);
+
+        if (updatesApplied.get() == null)
+            updatesApplied.set(new AtomicLong(0));
+        updatesApplied.get().incrementAndGet();
+    }
+
+    protected void drainMessages(BucketState state, INDArray updates) {
+        BlockingQueue<INDArray> queue = messages.get(index.get());
+        INDArray message;
+        while ((message = queue.poll()) != null)
+            receiveMessage(state, message, updates);
+    }
+
+    protected void receiveMessage(BucketState state, INDArray message, INDArray updates) {
+        if (message.data().getInt(3) != UpdateDecoder.BUCKET_ENCODING) {
+            UpdateDecoder.decode(message, updates);
+            state.outOfBucket = true;
+            return;
+        }
+
+        // updates of later rounds are kept until the updates of the round stored last have been applied
+        if (UpdateDecoder.getBucketRound(message) > state.applyRound) {
+            state.deferred.add(message);
+            return;
+        }
+
+        long offset = UpdateDecoder.getBucketOffset(message);
+        UpdateDecoder.decode(message, updates);
+        state.received.put(offset, getReceived(state, offset) + 1);
+        if (!state.unapplied.containsKey(offset))
+            state.outOfBucket = true;
+    }
+
+    protected static long getReceived(BucketState state, long bucketStart) {
+        Long received = state.received.get(bucketStart);
+        return received == null ? 0 : received;
+    }
+
+    protected INDArray getBucketUpdates(BucketState state, INDArray params) {
+        if (state.updates == null || state.updates.length() != params.length()) {
+            // we don't want updates to be attached to workspaces
+            try (MemoryWorkspace workspace = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+                state.updates = Nd4j.create(params.dataType(), params.length());
+            }
+        }
+        return state.updates;
+    }
+
+    protected BucketState getBucketState() {
+        if (bucketState.get() == null) {
+            BucketState state = new BucketState(Nd4j.getAffinityManager().getDeviceForCurrentThread(), allBucketStates.size());
+            bucketState.set(state);
+            allBucketStates.add(state);
+        }
+        return bucketState.get();
+    }
+
+    protected void addToBucket(BucketState state, INDArray updates, long start, long end, int iterationNumber, int epochNumber) {
+        // ranges are expected in reverse order, but anything that isn't adjacent to the current bucket starts a new one
+        if (state.bucketStart >= 0 && state.bucketStart != end && state.bucketEnd != start)
+            flushBucket(state, updates, iterationNumber, epochNumber);
+
+        if (state.bucketStart < 0) {
+            state.bucketStart = start;
+            state.bucketEnd = end;
+        } else {
+            state.bucketStart = Math.min(state.bucketStart, start);
+            state.bucketEnd = Math.max(state.bucketEnd, end);
+        }
+
+        if (state.bucketEnd - state.bucketStart >= bucketSize)
+            flushBucket(state, updates, iterationNumber, epochNumber);
+    }
+
+    protected void flushBucket(BucketState state, INDArray updates, final int iterationNumber, final int epochNumber) {
+        if (state.bucketStart < 0)
+            return;
+
+        long start = state.bucketStart;
+        long end = state.bucketEnd;
+        state.bucketStart = -1;
+        state.bucketEnd = -1;
+        state.flushed.add(new long[]{start, end});
+
+        INDArray residual = state.residuals.get(start);
+        if (residual == null || residual.length() != end - start) {
+            // we don't want residuals to be attached to workspaces
+            try (MemoryWorkspace workspace = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+                residual = Nd4j.create(updates.dataType(), end - start);
+            }
+            state.residuals.put(start, residual);
+        }
+        residual.addi(UpdateDecoder.flat(updates).get(NDArrayIndex.interval(start, end)));
+
+        EncodingHandler h = bucketHandlers.get(start);
+        if (h == null) {
+            h = ((EncodingHandler) handler).newBucketHandler(start);
+            EncodingHandler existing = bucketHandlers.putIfAbsent(start, h);
+            if (existing != null)
+                h = existing;
+        }
+
+        final EncodingHandler bucketHandler = h;
+        final INDArray bucketResidual = residual;
+        final long round = state.storeRound;
+        state.pending.add(state.executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                // propagate changes & modify residual
+                bucketHandler.broadcastBucketUpdates(bucketResidual, round, iterationNumber, epochNumber);
+                return null;
+            }
+        }));
+    }
+
+    /**
+     * Per-thread state for bucketed mode: the bucket being formed, the ranges stored so far in the current iteration,
+     * the residuals for all buckets, and the thread used to encode and propagate the buckets.<br>
+     * Also the state for applying the updates of the last iteration: the buckets that haven't been applied yet, the number
+     * of messages required and received per bucket, and messages from later rounds
+     */
+    protected static class BucketState {
+        protected final ExecutorService executor;
+        protected final List<Future<?>> pending = new ArrayList<>();
+        protected final List<long[]> stored = new ArrayList<>();
+        protected final List<long[]> flushed = new ArrayList<>();
+        protected final Map<Long, INDArray> residuals = new HashMap<>();
+        protected long bucketStart = -1;
+        protected long bucketEnd = -1;
+        protected long storeRound = -1;
+
+        protected final TreeMap<Long, Long> unapplied = new TreeMap<>();
+        protected final Map<Long, Long> received = new HashMap<>();
+        protected final List<INDArray> deferred = new ArrayList<>();
+        protected long applyRound = -1;
+        protected long expected = -1;
+        protected boolean outOfBucket;
+        protected INDArray updates;
+
+        protected BucketState(final int deviceId, final int index) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    Thread t = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Nd4j.getAffinityManager().unsafeSetDevice(deviceId);
+                            r.run();
+                        }
+                    }, "EncodedGradientsAccumulator-bucket-" + index);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+    }
+
     /**
      * This method accepts updates suitable for StepFunction and puts them to the queue, which is used in backpropagation loop
      * <p>
@@ -540,6 +917,14 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
         for (int i = 0; i < parties; i++) {
             messages.get(i).clear();
         }
+
+        // and bucket residuals and threads, if any
+        for (BucketState state : allBucketStates)
+            state.executor.shutdown();
+        allBucketStates.clear();
+        bucketState = new ThreadLocal<>();
+        totalConsumers.set(0);
+        storedConsumers.set(0);
     }
 
     @Override
@@ -551,11 +936,13 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
         protected int parties;
         protected ThresholdAlgorithm thresholdAlgorithm;
         protected ResidualPostProcessor residualPostProcessor;
+        protected UpdateEncoder updateEncoder;
         protected long initialMemory = DEFAULT_INITIAL_MEMORY;
         protected int queueSize = 5;
         protected MessageHandler handler;
         protected Double boundary = null;
         protected boolean encodingDebugMode;
+        protected long bucketSize;
 
         /**
          * This
@@ -598,6 +985,15 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
             return this;
         }
 
+        /**
+         * Set the UpdateEncoder to use instead of threshold encoding (top-k, sign or low rank encoding, for example).
+         * If set, the threshold algorithm and residual post processor are not used
+         */
+        public Builder updateEncoder(UpdateEncoder updateEncoder) {
+            this.updateEncoder = updateEncoder;
+            return this;
+        }
+
         /**
          * This method enables optional limit for max number of updates per message
          *
@@ -636,13 +1032,32 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
             return this;
         }
 
+        /**
+         * This method enables bucketed mode: the updates for each layer are accepted as soon as they are available during
+         * backprop, and are encoded and propagated in buckets of at least the specified number of values, overlapping
+         * communication with backprop for the remaining layers. See {@link BucketedGradientsAccumulator}.
+         * Note that in bucketed mode, messages are buffered until the forward pass of the next iteration (and messages
+         * for the next iteration may arrive before that), hence memory parameters should allow for two (encoded) updates
+         * per worker.
+         *
+         * Default value: 0 (disabled)
+         * @param bucketSize Minimal number of values per bucket. 0 to disable
+         * @return
+         */
+        public Builder bucketSize(long bucketSize) {
+            this.bucketSize = bucketSize;
+            return this;
+        }
+
         public EncodedGradientsAccumulator build() {
-            if (handler == null) {
-                Preconditions.checkNotNull(thresholdAlgorithm, "Both threshold algorithm and handler are null - one or the other must be set");
+            if (handler == null && updateEncoder != null) {
+                handler = new EncodingHandler(updateEncoder, encodingDebugMode);
+            } else if (handler == null) {
+                Preconditions.checkNotNull(thresholdAlgorithm, "Threshold algorithm, update encoder and handler are all null - one of them must be set");
                 handler = new EncodingHandler(thresholdAlgorithm, residualPostProcessor, boundary, encodingDebugMode);
             }
 
-            EncodedGradientsAccumulator accumulator = new EncodedGradientsAccumulator(parties, handler, initialMemory, queueSize, boundary, encodingDebugMode);
+            EncodedGradientsAccumulator accumulator = new EncodedGradientsAccumulator(parties, handler, initialMemory, queueSize, boundary, encodingDebugMode, bucketSize);
 
             return accumulator;
         }
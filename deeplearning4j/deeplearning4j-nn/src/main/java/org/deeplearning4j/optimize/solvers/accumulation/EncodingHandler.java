@@ -22,6 +22,9 @@ import lombok.extern.slf4j.Slf4j;
 import org.deeplearning4j.optimize.solvers.accumulation.encoding.ResidualPostProcessor;
 import org.deeplearning4j.optimize.solvers.accumulation.encoding.ThresholdAlgorithm;
 import org.deeplearning4j.optimize.solvers.accumulation.encoding.ThresholdAlgorithmReducer;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.UpdateDecoder;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.UpdateEncoder;
+import org.nd4j.base.Preconditions;
 import org.nd4j.linalg.api.buffer.DataBuffer;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.compression.NDArrayCompressor;
@@ -53,6 +56,7 @@ public class EncodingHandler implements MessageHandler {
     protected transient GradientsAccumulator accumulator;
     protected ThresholdAlgorithm initialThresholdAlgorithm;
     protected ResidualPostProcessor initialResidualPostProcessor;
+    protected UpdateEncoder initialUpdateEncoder;
 
     protected Double boundary;
     protected boolean encodingDebugMode;
@@ -62,6 +66,7 @@ public class EncodingHandler implements MessageHandler {
     protected ThreadLocal<ThresholdAlgorithm> thresholdAlgorithm = new ThreadLocal<>();
     protected Map<Long,ThresholdAlgorithm> allThreadThresholdAlgorithms = new ConcurrentHashMap<>();    //All instances - we need to average them at the end once training is complete
     protected ThreadLocal<ResidualPostProcessor> residualPostProcessor = new ThreadLocal<>();
+    protected ThreadLocal<UpdateEncoder> updateEncoder = new ThreadLocal<>();
     protected ThreadLocal<AtomicLong> iterations = new ThreadLocal<>();
     protected ThreadLocal<AtomicLong> lastStep = new ThreadLocal<>();
     protected ThreadLocal<AtomicDouble> lastThreshold = new ThreadLocal<>();
@@ -72,6 +77,16 @@ public class EncodingHandler implements MessageHandler {
 
     protected final AtomicLong lastThresholdLogTime = new AtomicLong();
 
+    // bytes on wire statistics: number of encode calls, messages produced, and encoded vs. dense size of the updates
+    protected final AtomicLong updatesEncoded = new AtomicLong();
+    protected final AtomicLong messagesEncoded = new AtomicLong();
+    protected final AtomicLong encodedBytes = new AtomicLong();
+    protected final AtomicLong originalBytes = new AtomicLong();
+
+    // bucket handlers only (see newBucketHandler): the handler that created this handler, and the offset of the bucket
+    protected EncodingHandler parent;
+    protected long bucketOffset = -1;
+
     public EncodingHandler(final ThresholdAlgorithm thresholdAlgorithm, final ResidualPostProcessor residualPostProcessor,
                            Double boundary, boolean encodingDebugMode){
         this.initialThresholdAlgorithm = thresholdAlgorithm;
@@ -80,6 +95,17 @@ public class EncodingHandler implements MessageHandler {
         this.encodingDebugMode = encodingDebugMode;
     }
 
+    /**
+     * Create an EncodingHandler that encodes updates with the given UpdateEncoder instead of threshold encoding
+     *
+     * @param updateEncoder     Encoder to use. Each thread uses its own copy
+     * @param encodingDebugMode If true: log encoding statistics more frequently
+     */
+    public EncodingHandler(@NonNull UpdateEncoder updateEncoder, boolean encodingDebugMode) {
+        this.initialUpdateEncoder = updateEncoder;
+        this.encodingDebugMode = encodingDebugMode;
+    }
+
     @Override
     public void initialize(@NonNull GradientsAccumulator accumulator) {
         this.accumulator = accumulator;
@@ -89,7 +115,61 @@ public class EncodingHandler implements MessageHandler {
             throw new ND4JIllegalStateException("Can't find Threshold compressor implementation!");
     }
 
+    /**
+     * Create a handler for a subset (bucket) of the updates, starting at the specified offset. The bucket handler has
+     * the same configuration as this handler, but its own encoding state (threshold, residual post processor or
+     * update encoder, see {@link UpdateEncoder#forBucket(long)}), as the updates in different buckets may have very
+     * different magnitudes.<br>
+     * Messages produced by the bucket handler are wrapped so that they can be decoded into the full updates array (see
+     * {@link UpdateDecoder#wrapBucket(INDArray, long, long, long)}), and are sent via this handler - see
+     * {@link #broadcastBucketUpdates(INDArray, long, int, int)}. Encoding statistics are recorded in this handler.
+     *
+     * @param offset Offset of the bucket in the updates array
+     */
+    public EncodingHandler newBucketHandler(long offset) {
+        EncodingHandler h;
+        if (initialUpdateEncoder != null) {
+            h = new EncodingHandler(initialUpdateEncoder.forBucket(offset), encodingDebugMode);
+        } else {
+            h = new EncodingHandler(initialThresholdAlgorithm, initialResidualPostProcessor, boundary, encodingDebugMode);
+        }
+        h.accumulator = accumulator;
+        h.compressor = compressor;
+        h.parent = (parent == null ? this : parent);
+        h.bucketOffset = offset;
+        return h;
+    }
+
     public INDArray encodeUpdates(int iteration, int epoch, INDArray updates) {
+        return encodeUpdates(iteration, epoch, updates, 0);
+    }
+
+    protected INDArray encodeUpdates(int iteration, int epoch, INDArray updates, long round) {
+        INDArray encoded;
+        if (initialUpdateEncoder != null) {
+            if (updateEncoder.get() == null)
+                updateEncoder.set(initialUpdateEncoder.clone());
+            encoded = updateEncoder.get().encode(iteration, epoch, updates);
+        } else {
+            encoded = thresholdEncodeUpdates(iteration, epoch, updates);
+        }
+
+        if (encoded != null && bucketOffset >= 0)
+            encoded = UpdateDecoder.wrapBucket(encoded, bucketOffset, updates.length(), round);
+
+        EncodingHandler stats = (parent == null ? this : parent);
+        stats.updatesEncoded.incrementAndGet();
+        stats.originalBytes.addAndGet(updates.length() * Nd4j.sizeOfDataType(updates.dataType()));
+        if (encoded != null) {
+            stats.messagesEncoded.incrementAndGet();
+            stats.encodedBytes.addAndGet(encoded.data().length() * Nd4j.sizeOfDataType(encoded.data().dataType()));
+        }
+        if (initialUpdateEncoder != null)
+            stats.logStatisticsIfReq(iteration, epoch);
+        return encoded;
+    }
+
+    protected INDArray thresholdEncodeUpdates(int iteration, int epoch, INDArray updates) {
         if(thresholdAlgorithm.get() == null){
             synchronized (this){
                 //Synchronized in case threshold algorithm has INDArrays and we're running on GPU - don't want race condition for shifting devices
@@ -233,6 +313,10 @@ public class EncodingHandler implements MessageHandler {
      */
     protected void sendMessage(INDArray message, int iterationNumber, int epochNumber) {
         //INDArray update = decodeUpdates(message);
+        if (parent != null) {
+            parent.sendMessage(message, iterationNumber, epochNumber);
+            return;
+        }
         accumulator.receiveUpdate(message);
     }
 
@@ -251,7 +335,25 @@ public class EncodingHandler implements MessageHandler {
             return false;
     }
 
+    /**
+     * Bucket handlers only (see {@link #newBucketHandler(long)}): encode the updates for the bucket, and send them
+     * tagged with the specified training round. Unlike {@link #broadcastUpdates(INDArray, int, int)}, a (header only)
+     * message is sent even if there is nothing to share, so that consumers can tell when the updates of all workers
+     * for the bucket are complete
+     *
+     * @param updates Updates (residual) for the bucket
+     * @param round   Training round that the updates belong to
+     */
+    public void broadcastBucketUpdates(INDArray updates, long round, int iterationNumber, int epochNumber) {
+        Preconditions.checkState(bucketOffset >= 0, "Only bucket handlers can broadcast bucket updates - see newBucketHandler(long)");
+        INDArray message = encodeUpdates(iterationNumber, epochNumber, updates, round);
+        if (message == null)
+            message = UpdateDecoder.wrapBucket(null, bucketOffset, updates.length(), round);
+        sendMessage(message, iterationNumber, epochNumber);
+    }
+
     protected void logThresholdIfReq(boolean denseUpdates, int iter, int epoch){
+        AtomicLong lastThresholdLogTime = (parent == null ? this.lastThresholdLogTime : parent.lastThresholdLogTime);
         long now = System.currentTimeMillis();
         long lastLog = lastThresholdLogTime.get();
         if(lastLog + THRESHOLD_LOG_FREQ_MS <= now ){
@@ -274,6 +376,53 @@ public class EncodingHandler implements MessageHandler {
         }
     }
 
+    protected void logStatisticsIfReq(int iter, int epoch) {
+        long now = System.currentTimeMillis();
+        long lastLog = lastThresholdLogTime.get();
+        if ((encodingDebugMode || lastLog + THRESHOLD_LOG_FREQ_MS <= now) && lastThresholdLogTime.compareAndSet(lastLog, now)) {
+            log.info("Encoding at iter {}, epoch {} [{}]: {} messages for {} updates, {} bytes on wire, compression ratio {}",
+                    iter, epoch, initialUpdateEncoder, messagesEncoded.get(), updatesEncoded.get(), encodedBytes.get(),
+                    format(getCompressionRatio()));
+        }
+    }
+
+    /**
+     * @return Number of times updates were encoded, by all threads
+     */
+    public long getUpdatesEncoded() {
+        return updatesEncoded.get();
+    }
+
+    /**
+     * @return Number of encoded messages produced, by all threads. May be less than {@link #getUpdatesEncoded()}, when
+     * there was nothing to share
+     */
+    public long getMessagesEncoded() {
+        return messagesEncoded.get();
+    }
+
+    /**
+     * @return Total size of the encoded messages in bytes (i.e. bytes on wire per recipient), by all threads
+     */
+    public long getEncodedBytes() {
+        return encodedBytes.get();
+    }
+
+    /**
+     * @return Total size of the updates before encoding in bytes, by all threads
+     */
+    public long getOriginalBytes() {
+        return originalBytes.get();
+    }
+
+    /**
+     * @return Ratio of encoded bytes vs. bytes before encoding. 0.0 if nothing has been encoded yet
+     */
+    public double getCompressionRatio() {
+        long original = originalBytes.get();
+        return original == 0 ? 0.0 : encodedBytes.get() / (double) original;
+    }
+
     protected void residualDebugOutputIfRequired(INDArray residual){
         if(!encodingDebugMode)
             return;
@@ -21,11 +21,9 @@ import EDU.oswego.cs.dl.util.concurrent.ReaderPreferenceReadWriteLock;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.UpdateDecoder;
 import org.nd4j.linalg.api.buffer.DataBuffer;
-import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.compression.ThresholdCompression;
-import org.nd4j.linalg.exception.ND4JIllegalStateException;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.primitives.AtomicBoolean;
 
@@ -67,14 +65,8 @@ public class SmartFancyBlockingQueue extends FancyBlockingQueue<INDArray> {
     protected INDArray smartDecompress(INDArray encoded, INDArray target) {
         INDArray result = target == null ? Nd4j.create(paramsShape, paramsOrder) : target;
 
-        if (encoded.isCompressed() || encoded.data().dataType() == DataType.INT) {
-            int encoding = encoded.data().getInt(3);
-            if (encoding == ThresholdCompression.FLEXIBLE_ENCODING) {
-                Nd4j.getExecutioner().thresholdDecode(encoded, result);
-            } else if (encoding == ThresholdCompression.BITMAP_ENCODING) {
-                Nd4j.getExecutioner().bitmapDecode(encoded, result);
-            } else
-                throw new ND4JIllegalStateException("Unknown encoding mode: [" + encoding + "]");
+        if (UpdateDecoder.isEncoded(encoded)) {
+            UpdateDecoder.decode(encoded, result);
         } else {
             result.addi(encoded);
         }
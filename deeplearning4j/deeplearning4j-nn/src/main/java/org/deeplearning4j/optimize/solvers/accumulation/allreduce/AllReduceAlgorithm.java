@@ -0,0 +1,36 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+
+package org.deeplearning4j.optimize.solvers.accumulation.allreduce;
+
+/**
+ * Allreduce algorithm used by {@link AllReducer}. Both algorithms are bandwidth optimal: each member sends and receives
+ * 2 * (n-1)/n times the array size, independent of the number of members n.
+ */
+public enum AllReduceAlgorithm {
+    /**
+     * Ring allreduce: reduce-scatter followed by allgather around a ring, in 2 * (n-1) steps. Each member only exchanges
+     * data with its two neighbours
+     */
+    RING,
+    /**
+     * Recursive halving (reduce-scatter) followed by recursive doubling (allgather), in 2 * log2(n) steps. Requires the
+     * number of members to be a power of 2: {@link #RING} is used otherwise
+     */
+    RECURSIVE_HALVING
+}
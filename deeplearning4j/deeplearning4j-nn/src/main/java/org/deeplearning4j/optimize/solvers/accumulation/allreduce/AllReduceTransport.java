@@ -0,0 +1,71 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+
+package org.deeplearning4j.optimize.solvers.accumulation.allreduce;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Point-to-point transport used by {@link AllReducer} to exchange gradient chunks between the members of an allreduce
+ * group. Members are identified by their rank, 0 to {@link #getSize()} - 1.<br>
+ * Messages between any pair of members must be delivered in the order they were sent. {@link #send(int, ByteBuffer)}
+ * must not block until the message is received: members send several chunks before receiving any (pipelining).
+ *
+ * PLEASE NOTE: All implementations of this interface must be thread-safe.
+ */
+public interface AllReduceTransport extends Closeable {
+
+    /**
+     * @return Rank of this member, in the range 0 to size-1
+     */
+    int getRank();
+
+    /**
+     * @return Number of members in the allreduce group
+     */
+    int getSize();
+
+    /**
+     * Send the remaining bytes of the message to the specified peer
+     *
+     * @param peer    Rank of the peer
+     * @param message Message to send. Its position is not modified
+     */
+    void send(int peer, ByteBuffer message) throws IOException;
+
+    /**
+     * Receive the next message from the specified peer, blocking until it is available. The message length must be
+     * equal to the number of remaining bytes in the target buffer
+     *
+     * @param peer   Rank of the peer
+     * @param target Buffer to receive the message into. Its position is not modified
+     */
+    void receive(int peer, ByteBuffer target) throws IOException;
+
+    /**
+     * @return Total number of payload bytes sent by this member
+     */
+    long getBytesSent();
+
+    /**
+     * @return Total number of payload bytes received by this member
+     */
+    long getBytesReceived();
+}
@@ -0,0 +1,256 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+
+package org.deeplearning4j.optimize.solvers.accumulation.allreduce;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.nd4j.base.Preconditions;
+import org.nd4j.linalg.api.concurrency.AffinityManager;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sums an array across all members of an {@link AllReduceTransport} group, in place. After {@link #sum(INDArray)}
+ * returns, every member holds the elementwise sum of the arrays of all members.<br>
+ * The array is reduced in buckets of (at most) bucketSize elements. Within a bucket, data is exchanged in chunks of
+ * (at most) chunkSize elements, and each chunk is forwarded as soon as it has been reduced: transfer of the next
+ * chunks overlaps with reduction of the current one.<br>
+ * Each member sends and receives approximately 2 * (n-1)/n times the array size, regardless of the number of members n.
+ * <br>
+ * All members must call {@link #sum(INDArray)} (or {@link #sum(INDArray, long, long)}) with the same length, data type,
+ * bucket size and chunk size, in the same order.
+ */
+@Slf4j
+public class AllReducer {
+    public static final long DEFAULT_BUCKET_SIZE = 4 * 1024 * 1024L;
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    @Getter
+    private final AllReduceTransport transport;
+    @Getter
+    private final AllReduceAlgorithm algorithm;
+    @Getter
+    private final long bucketSize;
+    @Getter
+    private final int chunkSize;
+
+    private INDArray scratch;
+
+    public AllReducer(@NonNull AllReduceTransport transport) {
+        this(transport, AllReduceAlgorithm.RING, DEFAULT_BUCKET_SIZE, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param transport  Transport to use
+     * @param algorithm  Allreduce algorithm
+     * @param bucketSize Maximum number of elements reduced at once
+     * @param chunkSize  Maximum number of elements per message
+     */
+    public AllReducer(@NonNull AllReduceTransport transport, @NonNull AllReduceAlgorithm algorithm, long bucketSize, int chunkSize) {
+        Preconditions.checkArgument(bucketSize > 0, "Bucket size must be positive, got %s", bucketSize);
+        Preconditions.checkArgument(chunkSize > 0, "Chunk size must be positive, got %s", chunkSize);
+        int n = transport.getSize();
+        if (algorithm == AllReduceAlgorithm.RECURSIVE_HALVING && (n & (n - 1)) != 0) {
+            log.warn("Recursive halving allreduce requires a power of 2 members, got {} - using ring allreduce instead", n);
+            algorithm = AllReduceAlgorithm.RING;
+        }
+        this.transport = transport;
+        this.algorithm = algorithm;
+        this.bucketSize = bucketSize;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Sum the array across all members, in place
+     *
+     * @param data Array to sum. Must not be a view
+     */
+    public void sum(@NonNull INDArray data) {
+        sum(data, 0, data.length());
+    }
+
+    /**
+     * Sum a range of the array (in buffer order) across all members, in place. Elements outside of the range are not
+     * modified
+     *
+     * @param data   Array to sum. Must not be a view
+     * @param offset First element of the range
+     * @param length Number of elements in the range
+     */
+    public synchronized void sum(@NonNull INDArray data, long offset, long length) {
+        Preconditions.checkArgument(!data.isView(), "Allreduce can only be applied to arrays that are not views");
+        Preconditions.checkArgument(offset >= 0 && length >= 0 && offset + length <= data.length(),
+                "Invalid range: offset %s, length %s for array of length %s", offset, length, data.length());
+        if (transport.getSize() == 1 || length == 0)
+            return;
+
+        AffinityManager am = Nd4j.getAffinityManager();
+        am.ensureLocation(data, AffinityManager.Location.HOST);
+        Nd4j.getExecutioner().commit();
+
+        INDArray flat = data.reshape(data.ordering(), new long[]{data.length()});
+        ByteBuffer nio = data.data().asNio();
+        INDArray buffer = scratch(data);
+        try {
+            for (long start = offset; start < offset + length; start += bucketSize) {
+                long bucket = Math.min(bucketSize, offset + length - start);
+                if (algorithm == AllReduceAlgorithm.RING)
+                    ring(flat, nio, buffer, start, bucket);
+                else
+                    recursiveHalving(flat, nio, buffer, start, bucket);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Allreduce failed on rank " + transport.getRank(), e);
+        }
+
+        Nd4j.getExecutioner().commit();
+        am.tagLocation(data, AffinityManager.Location.HOST);
+    }
+
+    private void ring(INDArray flat, ByteBuffer nio, INDArray buffer, long offset, long length) throws IOException {
+        int n = transport.getSize();
+        int r = transport.getRank();
+        int right = (r + 1) % n;
+        int left = (r + n - 1) % n;
+
+        //Reduce-scatter: at step s, receive segment (r-s-1) from the left and add our values to it. That segment is
+        //what we send to the right at step s+1, so each chunk is forwarded as soon as it has been reduced
+        sendRange(right, nio, flat, segment(offset, length, r), segment(offset, length, r + 1));
+        for (int s = 0; s < n - 1; s++) {
+            int seg = (r + n - s - 1) % n;
+            long end = segment(offset, length, seg + 1);
+            for (long a = segment(offset, length, seg); a < end; a += chunkSize) {
+                int m = (int) Math.min(chunkSize, end - a);
+                receiveAdd(left, flat, buffer, a, m);
+                if (s < n - 2)
+                    send(right, nio, flat, a, m);
+            }
+        }
+
+        //Allgather: we now hold the fully reduced segment (r+1). At each step, forward the segment received from the left
+        int own = (r + 1) % n;
+        sendRange(right, nio, flat, segment(offset, length, own), segment(offset, length, own + 1));
+        for (int s = 0; s < n - 1; s++) {
+            int seg = (r + n - s) % n;
+            long end = segment(offset, length, seg + 1);
+            for (long a = segment(offset, length, seg); a < end; a += chunkSize) {
+                int m = (int) Math.min(chunkSize, end - a);
+                receive(left, nio, flat, a, m);
+                if (s < n - 2)
+                    send(right, nio, flat, a, m);
+            }
+        }
+    }
+
+    private void recursiveHalving(INDArray flat, ByteBuffer nio, INDArray buffer, long offset, long length) throws IOException {
+        int n = transport.getSize();
+        int r = transport.getRank();
+        int steps = Integer.numberOfTrailingZeros(n);
+        long[] parentLo = new long[steps];
+        long[] parentHi = new long[steps];
+
+        //Reduce-scatter: send half of the current range to the partner at distance d, and reduce the other half
+        long lo = offset;
+        long hi = offset + length;
+        int step = 0;
+        for (int d = n / 2; d >= 1; d /= 2, step++) {
+            int partner = r ^ d;
+            long mid = lo + (hi - lo) / 2;
+            parentLo[step] = lo;
+            parentHi[step] = hi;
+            if ((r & d) == 0) {
+                sendRange(partner, nio, flat, mid, hi);
+                hi = mid;
+            } else {
+                sendRange(partner, nio, flat, lo, mid);
+                lo = mid;
+            }
+            for (long a = lo; a < hi; a += chunkSize)
+                receiveAdd(partner, flat, buffer, a, (int) Math.min(chunkSize, hi - a));
+        }
+
+        //Allgather: in reverse order, exchange reduced ranges with the same partners, doubling the range at each step
+        for (int d = 1; d < n; d *= 2) {
+            step--;
+            int partner = r ^ d;
+            sendRange(partner, nio, flat, lo, hi);
+            boolean lower = lo == parentLo[step];
+            long pLo = lower ? hi : parentLo[step];
+            long pHi = lower ? parentHi[step] : lo;
+            for (long a = pLo; a < pHi; a += chunkSize)
+                receive(partner, nio, flat, a, (int) Math.min(chunkSize, pHi - a));
+            lo = parentLo[step];
+            hi = parentHi[step];
+        }
+    }
+
+    /**
+     * @return Start of the specified segment, when splitting the range into (group size) segments. Segment (group size)
+     * returns the end of the range
+     */
+    private long segment(long offset, long length, int segment) {
+        return offset + length * segment / transport.getSize();
+    }
+
+    private void sendRange(int peer, ByteBuffer nio, INDArray flat, long from, long to) throws IOException {
+        for (long a = from; a < to; a += chunkSize)
+            send(peer, nio, flat, a, (int) Math.min(chunkSize, to - a));
+    }
+
+    private void send(int peer, ByteBuffer nio, INDArray flat, long from, int length) throws IOException {
+        transport.send(peer, slice(nio, flat, from, length));
+    }
+
+    private void receive(int peer, ByteBuffer nio, INDArray flat, long from, int length) throws IOException {
+        transport.receive(peer, slice(nio, flat, from, length));
+    }
+
+    private void receiveAdd(int peer, INDArray flat, INDArray buffer, long from, int length) throws IOException {
+        AffinityManager am = Nd4j.getAffinityManager();
+        transport.receive(peer, slice(buffer.data().asNio(), buffer, 0, length));
+        am.tagLocation(buffer, AffinityManager.Location.HOST);
+        INDArray target = flat.get(NDArrayIndex.interval(from, from + length));
+        target.addi(buffer.get(NDArrayIndex.interval(0, length)));
+        //Reduced values are sent directly from host memory
+        am.ensureLocation(target, AffinityManager.Location.HOST);
+    }
+
+    private static ByteBuffer slice(ByteBuffer nio, INDArray flat, long from, int length) {
+        int es = flat.dataType().width();
+        ByteBuffer out = nio.duplicate();
+        out.limit((int) ((from + length) * es));
+        out.position((int) (from * es));
+        return out;
+    }
+
+    private INDArray scratch(INDArray data) {
+        if (scratch == null || scratch.dataType() != data.dataType()) {
+            try (MemoryWorkspace ws = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+                scratch = Nd4j.createUninitialized(data.dataType(), chunkSize);
+            }
+        }
+        return scratch;
+    }
+}
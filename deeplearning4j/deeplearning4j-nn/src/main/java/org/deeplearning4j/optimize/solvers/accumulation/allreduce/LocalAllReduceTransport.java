@@ -0,0 +1,132 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+
+package org.deeplearning4j.optimize.solvers.accumulation.allreduce;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process {@link AllReduceTransport}: members of the group exchange messages through shared queues.
+ * Use {@link #createGroup(int)} to create all members of a group.
+ */
+public class LocalAllReduceTransport implements AllReduceTransport {
+    public static final long DEFAULT_TIMEOUT_MS = 5 * 60 * 1000L;
+
+    @Getter
+    private final int rank;
+    private final BlockingQueue<byte[]>[][] queues;
+    private final long timeoutMs;
+    private final AtomicLong bytesSent = new AtomicLong(0);
+    private final AtomicLong bytesReceived = new AtomicLong(0);
+
+    private LocalAllReduceTransport(int rank, BlockingQueue<byte[]>[][] queues, long timeoutMs) {
+        this.rank = rank;
+        this.queues = queues;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Create all members of an in-process allreduce group
+     *
+     * @param size Number of members
+     * @return Transports, indexed by rank
+     */
+    public static List<AllReduceTransport> createGroup(int size) {
+        return createGroup(size, DEFAULT_TIMEOUT_MS);
+    }
+
+    /**
+     * Create all members of an in-process allreduce group
+     *
+     * @param size      Number of members
+     * @param timeoutMs Maximum time to wait for a message, in milliseconds
+     * @return Transports, indexed by rank
+     */
+    @SuppressWarnings("unchecked")
+    public static List<AllReduceTransport> createGroup(int size, long timeoutMs) {
+        if (size < 1)
+            throw new IllegalArgumentException("Group size must be positive, got " + size);
+
+        BlockingQueue<byte[]>[][] queues = new BlockingQueue[size][size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++)
+                queues[i][j] = new LinkedBlockingQueue<>();
+        }
+
+        List<AllReduceTransport> out = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            out.add(new LocalAllReduceTransport(i, queues, timeoutMs));
+        return out;
+    }
+
+    @Override
+    public int getSize() {
+        return queues.length;
+    }
+
+    @Override
+    public void send(int peer, ByteBuffer message) throws IOException {
+        byte[] bytes = new byte[message.remaining()];
+        message.duplicate().get(bytes);
+        queues[rank][peer].add(bytes);
+        bytesSent.addAndGet(bytes.length);
+    }
+
+    @Override
+    public void receive(int peer, ByteBuffer target) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = queues[peer][rank].poll(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for message from rank " + peer, e);
+        }
+        if (bytes == null)
+            throw new IOException("Timed out after " + timeoutMs + " ms waiting for message from rank " + peer);
+        if (bytes.length != target.remaining())
+            throw new IOException("Expected message of " + target.remaining() + " bytes from rank " + peer + ", got "
+                    + bytes.length + " bytes");
+
+        target.duplicate().put(bytes);
+        bytesReceived.addAndGet(bytes.length);
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    @Override
+    public void close() {
+        //No-op
+    }
+}
@@ -0,0 +1,260 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+
+package org.deeplearning4j.optimize.solvers.accumulation.allreduce;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TCP {@link AllReduceTransport}. Every member listens on its own address, and opens one connection to every other
+ * member of the group: higher ranks connect to lower ranks, so members may be started in any order.<br>
+ * Each connection has a reader thread that drains incoming messages, hence sends never block on the receiver.
+ * Payloads are written directly from the (off-heap) array memory.<br>
+ * Members may run in separate JVMs on a single machine, using loopback addresses with different ports.
+ */
+@Slf4j
+public class SocketAllReduceTransport implements AllReduceTransport {
+    public static final long DEFAULT_TIMEOUT_MS = 5 * 60 * 1000L;
+    private static final long CONNECT_RETRY_MS = 50;
+
+    @Getter
+    private final int rank;
+    private final int size;
+    private final long timeoutMs;
+    private final ServerSocketChannel server;
+    private final SocketChannel[] channels;
+    private final BlockingQueue<Object>[] inbox;
+    private final Thread[] readers;
+    private final AtomicLong bytesSent = new AtomicLong(0);
+    private final AtomicLong bytesReceived = new AtomicLong(0);
+    private volatile boolean closed;
+
+    /**
+     * @param rank      Rank of this member
+     * @param addresses Addresses of all members of the group, indexed by rank. This member listens on addresses[rank]
+     */
+    public SocketAllReduceTransport(int rank, @NonNull List<InetSocketAddress> addresses) throws IOException {
+        this(rank, addresses, DEFAULT_TIMEOUT_MS);
+    }
+
+    /**
+     * @param rank      Rank of this member
+     * @param addresses Addresses of all members of the group, indexed by rank. This member listens on addresses[rank]
+     * @param timeoutMs Maximum time to wait for the other members to connect, and for any single message, in milliseconds
+     */
+    @SuppressWarnings("unchecked")
+    public SocketAllReduceTransport(int rank, @NonNull List<InetSocketAddress> addresses, long timeoutMs) throws IOException {
+        if (rank < 0 || rank >= addresses.size())
+            throw new IllegalArgumentException("Rank must be in range 0 to " + (addresses.size() - 1) + ", got " + rank);
+
+        this.rank = rank;
+        this.size = addresses.size();
+        this.timeoutMs = timeoutMs;
+        this.channels = new SocketChannel[size];
+        this.inbox = new BlockingQueue[size];
+        this.readers = new Thread[size];
+
+        server = ServerSocketChannel.open();
+        try {
+            server.socket().setReuseAddress(true);
+            server.socket().bind(addresses.get(rank), size);
+            server.socket().setSoTimeout((int) Math.min(Integer.MAX_VALUE, timeoutMs));
+
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            for (int i = 0; i < rank; i++)
+                register(i, connect(addresses.get(i), deadline));
+
+            for (int i = rank + 1; i < size; i++) {
+                SocketChannel channel;
+                try {
+                    channel = server.socket().accept().getChannel();
+                } catch (SocketTimeoutException e) {
+                    throw new IOException("Timed out after " + timeoutMs + " ms waiting for other members to connect to rank " + rank, e);
+                }
+                ByteBuffer handshake = ByteBuffer.allocate(4);
+                readFully(channel, handshake);
+                int peer = handshake.getInt(0);
+                if (peer <= rank || peer >= size || channels[peer] != null) {
+                    channel.close();
+                    throw new IOException("Invalid handshake: rank " + rank + " received connection from rank " + peer);
+                }
+                register(peer, channel);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (readers[i] != null)
+                readers[i].start();
+        }
+        log.debug("Rank {} connected to {} other members", rank, size - 1);
+    }
+
+    private SocketChannel connect(InetSocketAddress address, long deadline) throws IOException {
+        while (true) {
+            SocketChannel channel = SocketChannel.open();
+            try {
+                channel.connect(address);
+                ByteBuffer handshake = ByteBuffer.allocate(4);
+                handshake.putInt(0, rank);
+                writeFully(channel, handshake);
+                return channel;
+            } catch (ConnectException e) {
+                //Peer has not started listening yet
+                channel.close();
+                if (System.currentTimeMillis() > deadline)
+                    throw new IOException("Timed out connecting from rank " + rank + " to " + address, e);
+                try {
+                    Thread.sleep(CONNECT_RETRY_MS);
+                } catch (InterruptedException e2) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while connecting to " + address, e2);
+                }
+            }
+        }
+    }
+
+    private void register(final int peer, final SocketChannel channel) throws IOException {
+        Socket socket = channel.socket();
+        socket.setTcpNoDelay(true);
+        socket.setKeepAlive(true);
+        channels[peer] = channel;
+        inbox[peer] = new LinkedBlockingQueue<>();
+
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ByteBuffer header = ByteBuffer.allocate(4);
+                try {
+                    while (!closed) {
+                        header.clear();
+                        readFully(channel, header);
+                        ByteBuffer message = ByteBuffer.allocate(header.getInt(0));
+                        readFully(channel, message);
+                        inbox[peer].add(message.array());
+                    }
+                } catch (Throwable t) {
+                    if (!closed)
+                        inbox[peer].add(t);
+                }
+            }
+        }, "AllReduceReader-" + rank + "-" + peer);
+        t.setDaemon(true);
+        readers[peer] = t;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public void send(int peer, ByteBuffer message) throws IOException {
+        checkPeer(peer);
+        ByteBuffer header = ByteBuffer.allocate(4);
+        header.putInt(0, message.remaining());
+        ByteBuffer[] buffers = {header, message.duplicate()};
+        SocketChannel channel = channels[peer];
+        synchronized (channel) {
+            while (buffers[1].hasRemaining() || header.hasRemaining())
+                channel.write(buffers);
+        }
+        bytesSent.addAndGet(message.remaining());
+    }
+
+    @Override
+    public void receive(int peer, ByteBuffer target) throws IOException {
+        checkPeer(peer);
+        Object o;
+        try {
+            o = inbox[peer].poll(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for message from rank " + peer, e);
+        }
+        if (o == null)
+            throw new IOException("Timed out after " + timeoutMs + " ms waiting for message from rank " + peer);
+        if (o instanceof Throwable)
+            throw new IOException("Connection from rank " + peer + " to rank " + rank + " failed", (Throwable) o);
+
+        byte[] bytes = (byte[]) o;
+        if (bytes.length != target.remaining())
+            throw new IOException("Expected message of " + target.remaining() + " bytes from rank " + peer + ", got "
+                    + bytes.length + " bytes");
+        target.duplicate().put(bytes);
+        bytesReceived.addAndGet(bytes.length);
+    }
+
+    private void checkPeer(int peer) {
+        if (peer < 0 || peer >= size || peer == rank)
+            throw new IllegalArgumentException("Invalid peer rank " + peer + " for rank " + rank + " in group of size " + size);
+        if (closed)
+            throw new IllegalStateException("Transport has been closed");
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        for (int i = 0; i < size; i++) {
+            if (channels[i] != null)
+                channels[i].close();
+        }
+        server.close();
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0)
+                throw new EOFException("Connection closed by peer");
+        }
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+}
@@ -0,0 +1,162 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+
+package org.deeplearning4j.optimize.solvers.accumulation.encoding;
+
+import lombok.NonNull;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.encoder.LowRankEncoder;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.encoder.SignEncoder;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.encoder.TopKEncoder;
+import org.nd4j.base.Preconditions;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.compression.ThresholdCompression;
+import org.nd4j.linalg.exception.ND4JIllegalStateException;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.util.Arrays;
+
+/**
+ * Decodes updates encoded by threshold encoding or by any of the {@link UpdateEncoder} implementations, based on the
+ * format id stored at index 3 of the encoded array. Encoded updates for a subset of the updates array (see
+ * {@link #wrapBucket(INDArray, long, long)}) are also supported
+ */
+public class UpdateDecoder {
+    public static final int TOP_K_ENCODING = 2;
+    public static final int SIGN_ENCODING = 3;
+    public static final int LOW_RANK_ENCODING = 4;
+    public static final int BUCKET_ENCODING = 5;
+
+    private UpdateDecoder() {
+    }
+
+    /**
+     * @return True if the array contains encoded updates (as opposed to dense updates)
+     */
+    public static boolean isEncoded(@NonNull INDArray array) {
+        return array.isCompressed() || array.data().dataType() == DataType.INT;
+    }
+
+    /**
+     * Decode the encoded updates, and add them to the target array
+     *
+     * @param encoded Encoded updates
+     * @param target  Target array. Must have the same length as the original (not encoded) updates
+     * @return The target array
+     */
+    public static INDArray decode(@NonNull INDArray encoded, @NonNull INDArray target) {
+        int encoding = encoded.data().getInt(3);
+        switch (encoding) {
+            case ThresholdCompression.FLEXIBLE_ENCODING:
+                return Nd4j.getExecutioner().thresholdDecode(encoded, target);
+            case ThresholdCompression.BITMAP_ENCODING:
+                return Nd4j.getExecutioner().bitmapDecode(encoded, target);
+            case TOP_K_ENCODING:
+                return TopKEncoder.decode(encoded, target);
+            case SIGN_ENCODING:
+                return SignEncoder.decode(encoded, target);
+            case LOW_RANK_ENCODING:
+                return LowRankEncoder.decode(encoded, target);
+            case BUCKET_ENCODING:
+                return decodeBucket(encoded, target);
+            default:
+                throw new ND4JIllegalStateException("Unknown encoding mode: [" + encoding + "]");
+        }
+    }
+
+    /**
+     * Wrap the encoded updates for a subset (bucket) of the updates array, so that they can be decoded into the full
+     * updates array.<br>
+     * Encoded format: [offset, length, round, format id, encoded updates for the bucket]
+     *
+     * @param encoded Encoded updates for the bucket
+     * @param offset  Offset of the bucket in the full updates array
+     * @param length  Length of the bucket
+     */
+    public static INDArray wrapBucket(@NonNull INDArray encoded, long offset, long length) {
+        return wrapBucket(encoded, offset, length, 0);
+    }
+
+    /**
+     * As per {@link #wrapBucket(INDArray, long, long)}, with the training round (see
+     * {@link org.deeplearning4j.optimize.solvers.accumulation.Registerable#registerConsumers(int)}) that the updates
+     * belong to.
+     *
+     * @param encoded Encoded updates for the bucket. May be null if there is nothing to share: the message then only
+     *                signals that the updates for the bucket in this round are complete
+     */
+    public static INDArray wrapBucket(INDArray encoded, long offset, long length, long round) {
+        int[] inner = (encoded == null ? new int[0] : encoded.data().asInt());
+        int[] out = new int[4 + inner.length];
+        out[0] = (int) offset;
+        out[1] = (int) length;
+        out[2] = (int) round;
+        out[3] = BUCKET_ENCODING;
+        System.arraycopy(inner, 0, out, 4, inner.length);
+        return Nd4j.createFromArray(out);
+    }
+
+    /**
+     * @return The training round stored in the header of the encoded updates for a bucket
+     */
+    public static long getBucketRound(@NonNull INDArray encoded) {
+        return encoded.data().getInt(2);
+    }
+
+    /**
+     * @return The offset stored in the header of the encoded updates for a bucket
+     */
+    public static long getBucketOffset(@NonNull INDArray encoded) {
+        return encoded.data().getInt(0);
+    }
+
+    protected static INDArray decodeBucket(INDArray encoded, INDArray target) {
+        int[] e = encoded.data().asInt();
+        long offset = e[0];
+        long length = e[1];
+        if (e.length == 4)
+            return target;      //Nothing to share for this bucket in this round
+        if (offset + length > target.length())
+            throw new ND4JIllegalStateException("Bucket [" + offset + ", " + (offset + length) + ") is out of bounds for target length [" + target.length() + "]");
+
+        //Decode into a separate array: threshold and bitmap decoding don't support offset views
+        INDArray inner = Nd4j.createFromArray(Arrays.copyOfRange(e, 4, e.length));
+        INDArray decoded = decode(inner, Nd4j.create(target.dataType(), length));
+        flat(target).get(NDArrayIndex.interval(offset, offset + length)).addi(decoded);
+        return target;
+    }
+
+    /**
+     * Validate the length stored in the header of encoded updates against the target array
+     */
+    public static void checkLength(INDArray encoded, INDArray target) {
+        long length = encoded.data().getInt(1);
+        if (target.length() != length)
+            throw new ND4JIllegalStateException("originalLength [" + length + "] stored in encoded array doesn't match target length [" + target.length() + "]");
+    }
+
+    /**
+     * @return The array as a rank 1 view. The array must be contiguous, so that in-place changes to the view are
+     * reflected in the array
+     */
+    public static INDArray flat(INDArray array) {
+        Preconditions.checkState(array.elementWiseStride() == 1, "Encoded updates require a contiguous array");
+        return array.reshape(array.ordering(), new long[]{array.length()});
+    }
+}
@@ -0,0 +1,62 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+
+package org.deeplearning4j.optimize.solvers.accumulation.encoding;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.io.Serializable;
+
+/**
+ * UpdateEncoder is an alternative to threshold encoding (see {@link ThresholdAlgorithm}) for compressing updates before
+ * they are shared in distributed training. See {@link org.deeplearning4j.optimize.solvers.accumulation.encoding.encoder}
+ * for the available implementations.<br>
+ * Encoders use error feedback: whatever is not encoded in the current iteration stays in the updates array (the
+ * residual), and is added to the updates of the next iteration.<br>
+ * Encoded updates are INT arrays with the same header layout as threshold encoded updates: the format id is stored at
+ * index 3, and the decoded length at index 1. They are decoded by {@link UpdateDecoder}.
+ */
+public interface UpdateEncoder extends Serializable {
+
+    /**
+     * Encode the updates. The updates array is modified in place: after this method returns, it contains the residual
+     * (the updates minus the decoded value of the returned message)
+     *
+     * @param iteration Current neural network training iteration
+     * @param epoch     Current neural network training epoch
+     * @param updates   Updates (plus residual from previous iterations) to encode
+     * @return Encoded updates, or null if there is nothing to share
+     */
+    INDArray encode(int iteration, int epoch, INDArray updates);
+
+    /**
+     * Create a copy of this encoder, including any state. Encoders are not thread safe: each thread uses its own copy
+     *
+     * @return Copy of this encoder
+     */
+    UpdateEncoder clone();
+
+    /**
+     * Create an encoder for a subset (bucket) of the updates, starting at the specified offset of the updates array.
+     * Encoders that don't depend on the parameter layout can simply return a copy of this encoder
+     *
+     * @param offset Offset of the bucket in the updates array
+     * @return Encoder for the bucket
+     */
+    UpdateEncoder forBucket(long offset);
+}
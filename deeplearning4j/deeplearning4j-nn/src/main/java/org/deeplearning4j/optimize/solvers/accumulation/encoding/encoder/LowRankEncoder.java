@@ -0,0 +1,347 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+
+package org.deeplearning4j.optimize.solvers.accumulation.encoding.encoder;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.nn.updater.BaseMultiLayerUpdater;
+import org.deeplearning4j.nn.updater.UpdaterBlock;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.UpdateDecoder;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.UpdateEncoder;
+import org.nd4j.base.Preconditions;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.custom.BitCast;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * PowerSGD-style low rank encoding: each weight matrix M of the updates (plus residual) is approximated by P * Q^T,
+ * with P and Q of rank r, using one step of power iteration per training iteration. Q is reused across iterations
+ * (warm start). The approximation error is kept in the residual.<br>
+ * Parameters with more than 2 dimensions (convolution weights, for example) are compressed as a matrix with one row
+ * per block of contiguous values: [shape[0], prod(shape[1..])] for 'c' order parameters. Parameters for which the
+ * approximation would not be smaller than the values themselves (biases and other 1d parameters, and small matrices)
+ * are sent dense, as float values.<br>
+ * The parameter layout (offsets and shapes, see {@link #forModel(int, Model)}) is required to compress each parameter
+ * separately. Without it, the flattened updates are reshaped to a single near-square matrix.
+ * <br>
+ * Encoded format: [r, length, number of segments, format id, segments], where each segment is
+ * [offset, rows, columns, rank, values]. Values are P (rows x rank floats, c order) then Q (columns x rank floats,
+ * c order), or rows x columns dense floats when rank is 0
+ */
+public class LowRankEncoder implements UpdateEncoder {
+    public static final int DEFAULT_RANK = 2;
+
+    @Getter
+    private final int rank;
+    @Getter
+    private final int[][] paramLayout;      //[offset, rows, columns] of each parameter with 2 or more dimensions, or null
+    private final long offset;              //Offset of the encoded updates in the full updates array (buckets)
+
+    private transient List<Segment> segments;
+    private transient long segmentsLength = -1;
+
+    /**
+     * Create a low rank encoder with rank {@link #DEFAULT_RANK}
+     */
+    public LowRankEncoder() {
+        this(DEFAULT_RANK);
+    }
+
+    /**
+     * Create a low rank encoder without the parameter layout: the updates are compressed as a single matrix
+     *
+     * @param rank Rank of the approximation. Larger values give a more accurate approximation, at the cost of larger
+     *             messages
+     */
+    public LowRankEncoder(int rank) {
+        this(rank, (int[][]) null, 0);
+    }
+
+    /**
+     * Create a low rank encoder that compresses each parameter separately
+     *
+     * @param rank   Rank of the approximation
+     * @param params Parameters of the network, as per {@link UpdaterBlock#getLayersAndVariablesInBlock()}
+     */
+    public LowRankEncoder(int rank, @NonNull List<UpdaterBlock.ParamState> params) {
+        this(rank, layout(params), 0);
+    }
+
+    private LowRankEncoder(int rank, int[][] paramLayout, long offset) {
+        Preconditions.checkArgument(rank > 0, "Rank must be positive, got %s", rank);
+        this.rank = rank;
+        this.paramLayout = paramLayout;
+        this.offset = offset;
+    }
+
+    /**
+     * Create a low rank encoder that compresses each parameter of the model separately
+     *
+     * @param rank  Rank of the approximation
+     * @param model MultiLayerNetwork or ComputationGraph. Must be initialized
+     */
+    public static LowRankEncoder forModel(int rank, @NonNull Model model) {
+        BaseMultiLayerUpdater<?> updater;
+        if (model instanceof MultiLayerNetwork) {
+            updater = (BaseMultiLayerUpdater<?>) ((MultiLayerNetwork) model).getUpdater();
+        } else if (model instanceof ComputationGraph) {
+            updater = ((ComputationGraph) model).getUpdater();
+        } else {
+            throw new IllegalArgumentException("Only MultiLayerNetwork and ComputationGraph are supported, got " + model.getClass().getName());
+        }
+
+        List<UpdaterBlock.ParamState> params = new ArrayList<>();
+        for (UpdaterBlock ub : updater.getUpdaterBlocks())
+            params.addAll(ub.getLayersAndVariablesInBlock());
+        return new LowRankEncoder(rank, params);
+    }
+
+    private static int[][] layout(List<UpdaterBlock.ParamState> params) {
+        List<int[]> out = new ArrayList<>();
+        for (UpdaterBlock.ParamState ps : params) {
+            INDArray v = ps.getParamView();
+            long length = ps.getParamOffsetEnd() - ps.getParamOffsetStart();
+            if (v.rank() < 2 || length == 0)
+                continue;
+            //Blocks of contiguous values: rows of 'c' order arrays, columns of 'f' order arrays (the matrix is then
+            // the transpose of the parameter, which has the same rank)
+            long rows = (v.ordering() == 'c' ? v.size(0) : v.size(v.rank() - 1));
+            out.add(new int[]{ps.getParamOffsetStart(), (int) rows, (int) (length / rows)});
+        }
+        Collections.sort(out, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] o1, int[] o2) {
+                return Integer.compare(o1[0], o2[0]);
+            }
+        });
+        return out.toArray(new int[out.size()][]);
+    }
+
+    /**
+     * Encoders for buckets need the offset of the bucket, to find the parameters in the updates
+     */
+    @Override
+    public LowRankEncoder forBucket(long offset) {
+        return new LowRankEncoder(rank, paramLayout, this.offset + offset);
+    }
+
+    @Override
+    public INDArray encode(int iteration, int epoch, INDArray updates) {
+        INDArray flat = UpdateDecoder.flat(updates);
+        long length = flat.length();
+        if (flat.amaxNumber().doubleValue() == 0.0)
+            return null;
+        if (segments == null || segmentsLength != length) {
+            segments = segments(length);
+            segmentsLength = length;
+        }
+
+        List<INDArray> parts = new ArrayList<>();
+        parts.add(null);        //Header, see below
+        for (Segment s : segments) {
+            INDArray m = flat.get(NDArrayIndex.interval(s.offset, s.offset + (long) s.rows * s.cols));
+            INDArray values;
+            if (s.rank == 0) {
+                values = Nd4j.createUninitialized(DataType.FLOAT, m.length()).assign(m);
+                m.subi(values.castTo(m.dataType()));
+            } else {
+                INDArray mat = m.reshape('c', s.rows, s.cols).castTo(DataType.FLOAT);
+                if (s.q == null) {
+                    try (MemoryWorkspace ws = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+                        s.q = Nd4j.randn(DataType.FLOAT, s.cols, s.rank);
+                    }
+                }
+
+                //One step of power iteration: P = orthonormalize(M * Q); Q = M^T * P
+                INDArray p = mat.mmul(s.q);
+                orthonormalize(p);
+                INDArray newQ = mat.transpose().mmul(p);
+                if (newQ.norm2Number().doubleValue() == 0.0)
+                    continue;       //Nothing to share for this parameter: keep Q for the next iteration
+                s.q.assign(newQ);
+
+                INDArray approx = p.mmul(s.q.transpose()).reshape('c', new long[]{(long) s.rows * s.cols});
+                m.subi(approx.castTo(m.dataType()));
+                values = Nd4j.toFlattened('c', p, s.q);
+            }
+            parts.add(Nd4j.createFromArray((int) s.offset, s.rows, s.cols, s.rank));
+            parts.add(Nd4j.exec(new BitCast(values.reshape(values.length()), DataType.INT))[0]);
+        }
+        if (parts.size() == 1)
+            return null;
+
+        parts.set(0, Nd4j.createFromArray(rank, (int) length, (parts.size() - 1) / 2, UpdateDecoder.LOW_RANK_ENCODING));
+        return Nd4j.concat(0, parts.toArray(new INDArray[0]));
+    }
+
+    /**
+     * Split the updates into segments: one per parameter matrix (or the part of it in this bucket), and dense segments
+     * for everything else
+     */
+    private List<Segment> segments(long length) {
+        List<Segment> out = new ArrayList<>();
+        if (paramLayout == null) {
+            int cols = (int) Math.ceil(Math.sqrt(length));
+            int rows = (int) (length / cols);
+            addMatrix(out, 0, rows, cols);
+            addDense(out, (long) rows * cols, length);
+            return out;
+        }
+
+        long start = offset;
+        long end = offset + length;
+        long pos = start;
+        for (int[] p : paramLayout) {
+            long pStart = p[0];
+            long rows = p[1];
+            long cols = p[2];
+            if (pStart + rows * cols <= start || pStart >= end)
+                continue;
+            //Only the rows that are completely within this bucket are compressed as a matrix
+            long firstRow = Math.max(0, (start - pStart + cols - 1) / cols);
+            long lastRow = Math.min(rows, (end - pStart) / cols);
+            if (lastRow <= firstRow)
+                continue;
+            long mStart = pStart + firstRow * cols;
+            addDense(out, pos - start, mStart - start);
+            addMatrix(out, mStart - start, (int) (lastRow - firstRow), (int) cols);
+            pos = mStart + (lastRow - firstRow) * cols;
+        }
+        addDense(out, pos - start, length);
+        return out;
+    }
+
+    private void addMatrix(List<Segment> out, long from, int rows, int cols) {
+        int r = Math.min(rank, Math.min(rows, cols));
+        if (rows > 1 && cols > 1 && (long) r * (rows + cols) < (long) rows * cols) {
+            out.add(new Segment(from, rows, cols, r));
+        } else {
+            addDense(out, from, from + (long) rows * cols);
+        }
+    }
+
+    private static void addDense(List<Segment> out, long from, long to) {
+        if (to <= from)
+            return;
+        Segment last = (out.isEmpty() ? null : out.get(out.size() - 1));
+        if (last != null && last.rank == 0 && last.offset + last.cols == from) {
+            last.cols += (int) (to - from);
+        } else {
+            out.add(new Segment(from, 1, (int) (to - from), 0));
+        }
+    }
+
+    /**
+     * Gram-Schmidt orthonormalization of the columns of the matrix, in place
+     */
+    private static void orthonormalize(INDArray p) {
+        for (int j = 0; j < p.columns(); j++) {
+            INDArray c = p.getColumn(j);
+            for (int i = 0; i < j; i++) {
+                INDArray prev = p.getColumn(i);
+                c.subi(prev.mul(prev.mul(c).sumNumber().doubleValue()));
+            }
+            double norm = c.norm2Number().doubleValue();
+            if (norm > 0)
+                c.divi(norm);
+        }
+    }
+
+    /**
+     * Add the decoded updates to the target array
+     */
+    public static INDArray decode(INDArray encoded, INDArray target) {
+        UpdateDecoder.checkLength(encoded, target);
+        INDArray flat = UpdateDecoder.flat(target);
+        int count = encoded.getInt(2);
+        int pos = 4;
+        for (int i = 0; i < count; i++) {
+            long offset = encoded.getInt(pos);
+            int rows = encoded.getInt(pos + 1);
+            int cols = encoded.getInt(pos + 2);
+            int r = encoded.getInt(pos + 3);
+            int n = (r == 0 ? rows * cols : r * (rows + cols));
+            pos += 4;
+            INDArray values = Nd4j.exec(new BitCast(encoded.get(NDArrayIndex.interval(pos, pos + n)).dup(), DataType.FLOAT))[0];
+            pos += n;
+
+            INDArray decoded;
+            if (r == 0) {
+                decoded = values;
+            } else {
+                INDArray p = values.get(NDArrayIndex.interval(0, rows * r)).reshape('c', rows, r);
+                INDArray q = values.get(NDArrayIndex.interval(rows * r, n)).reshape('c', cols, r);
+                decoded = p.mmul(q.transpose()).reshape('c', new long[]{(long) rows * cols});
+            }
+            flat.get(NDArrayIndex.interval(offset, offset + (long) rows * cols)).addi(decoded.castTo(flat.dataType()));
+        }
+        return target;
+    }
+
+    @Override
+    public LowRankEncoder clone() {
+        LowRankEncoder out = new LowRankEncoder(rank, paramLayout, offset);
+        if (segments != null) {
+            out.segments = new ArrayList<>();
+            for (Segment s : segments) {
+                Segment c = new Segment(s.offset, s.rows, s.cols, s.rank);
+                if (s.q != null)
+                    c.q = s.q.dup();
+                out.segments.add(c);
+            }
+            out.segmentsLength = segmentsLength;
+        }
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        return "LowRankEncoder(rank=" + rank + (paramLayout == null ? "" : ", numParams=" + paramLayout.length) + ")";
+    }
+
+    /**
+     * A range of the updates: a rows x columns matrix (c order) compressed with the given rank, or cols dense values
+     * (rows = 1) for rank 0
+     */
+    private static class Segment {
+        private final long offset;
+        private final int rows;
+        private int cols;
+        private final int rank;
+        private INDArray q;
+
+        private Segment(long offset, int rows, int cols, int rank) {
+            this.offset = offset;
+            this.rows = rows;
+            this.cols = cols;
+            this.rank = rank;
+        }
+    }
+}
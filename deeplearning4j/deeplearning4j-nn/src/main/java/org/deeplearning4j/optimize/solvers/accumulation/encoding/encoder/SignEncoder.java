@@ -0,0 +1,105 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+
+package org.deeplearning4j.optimize.solvers.accumulation.encoding.encoder;
+
+import lombok.EqualsAndHashCode;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.UpdateDecoder;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.UpdateEncoder;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.impl.transforms.custom.BitwiseAnd;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+/**
+ * 1-bit (sign) encoding with error feedback, as in EF-signSGD: each iteration, every update is shared as
+ * +/- scale, where scale is the mean absolute value of the updates (plus residual). The difference between the updates
+ * and the shared values is kept in the residual.<br>
+ * Messages are dense and have a fixed size of 1 bit per parameter.
+ * <br>
+ * Encoded format: [length, length, scale (float bits), format id, ceil(length/32) sign bits]. A set bit is +scale
+ */
+@EqualsAndHashCode
+public class SignEncoder implements UpdateEncoder {
+    //Value of bit i of an int: packing a row of 32 bits is then a sum. Bit 31 is negative, so the sum never overflows
+    private static final int[] BIT_VALUES = new int[32];
+
+    static {
+        for (int i = 0; i < 32; i++)
+            BIT_VALUES[i] = 1 << i;
+    }
+
+    @Override
+    public INDArray encode(int iteration, int epoch, INDArray updates) {
+        INDArray flat = UpdateDecoder.flat(updates);
+        long length = flat.length();
+        float scale = (float) (flat.norm1Number().doubleValue() / length);
+        if (scale == 0.0f)
+            return null;
+
+        //Sign bits: 1 for updates >= 0, padded with zeros to a multiple of 32
+        int words = (int) ((length + 31) / 32);
+        INDArray bits = Nd4j.create(DataType.INT, (long) words * 32);
+        INDArray signs = bits.get(NDArrayIndex.interval(0, length));
+        signs.assign(flat.gte(0.0).castTo(DataType.INT));
+
+        //Residual: updates minus the shared values, +scale for set bits and -scale otherwise
+        flat.subi(signs.castTo(flat.dataType()).muli(2.0 * scale).subi(scale));
+
+        INDArray packed = bits.reshape('c', words, 32).muliRowVector(Nd4j.createFromArray(BIT_VALUES)).sum(1);
+        INDArray header = Nd4j.createFromArray((int) length, (int) length, Float.floatToIntBits(scale), UpdateDecoder.SIGN_ENCODING);
+        return Nd4j.concat(0, header, packed);
+    }
+
+    /**
+     * Add the decoded updates to the target array
+     */
+    public static INDArray decode(INDArray encoded, INDArray target) {
+        UpdateDecoder.checkLength(encoded, target);
+        long length = encoded.getInt(1);
+        float scale = Float.intBitsToFloat(encoded.getInt(2));
+        int words = (int) ((length + 31) / 32);
+
+        //Unpack to one row of 32 bits per int
+        INDArray packed = encoded.get(NDArrayIndex.interval(4, 4 + words)).dup().reshape(words, 1);
+        INDArray bits = Nd4j.exec(new BitwiseAnd(packed, Nd4j.createFromArray(BIT_VALUES).reshape(1, 32),
+                Nd4j.createUninitialized(DataType.INT, words, 32)))[0];
+
+        INDArray flat = UpdateDecoder.flat(target);
+        INDArray values = bits.neq(0).castTo(flat.dataType()).reshape('c', (long) words * 32)
+                .get(NDArrayIndex.interval(0, length));
+        flat.addi(values.muli(2.0 * scale).subi(scale));
+        return target;
+    }
+
+    @Override
+    public SignEncoder clone() {
+        return new SignEncoder();
+    }
+
+    @Override
+    public SignEncoder forBucket(long offset) {
+        return clone();
+    }
+
+    @Override
+    public String toString() {
+        return "SignEncoder()";
+    }
+}
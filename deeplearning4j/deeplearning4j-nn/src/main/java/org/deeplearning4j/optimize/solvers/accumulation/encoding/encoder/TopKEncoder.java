@@ -0,0 +1,132 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+
+package org.deeplearning4j.optimize.solvers.accumulation.encoding.encoder;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.UpdateDecoder;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.UpdateEncoder;
+import org.nd4j.base.Preconditions;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.DynamicCustomOp;
+import org.nd4j.linalg.api.ops.custom.BitCast;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+/**
+ * Top-k sparsification: each iteration, only the k updates with the largest absolute values are shared, as
+ * (index, value) pairs. All other values are kept in the residual.<br>
+ * Unlike threshold encoding (which shares +/- threshold), the actual values are shared, hence heavy tailed updates are
+ * not truncated. The number of values is fixed, hence so is the message size: 8 bytes per value.<br>
+ * k is limited to 1/32 of the number of parameters, so that messages are never larger than the (worst case) threshold
+ * encoded messages that gradient accumulators size their buffers for.
+ * <br>
+ * Encoded format: [k, length, 0, format id, k indices, k float values]
+ */
+@EqualsAndHashCode
+public class TopKEncoder implements UpdateEncoder {
+    public static final double DEFAULT_FRACTION = 1e-3;
+
+    @Getter
+    private final double fraction;
+
+    /**
+     * Create a top-k encoder with a fraction of {@link #DEFAULT_FRACTION}
+     */
+    public TopKEncoder() {
+        this(DEFAULT_FRACTION);
+    }
+
+    /**
+     * @param fraction Fraction of the updates to share each iteration: k = fraction * numParams. Must be in range (0, 1/32]
+     */
+    public TopKEncoder(double fraction) {
+        Preconditions.checkArgument(fraction > 0 && fraction <= 1.0 / 32, "Fraction must be in range (0, 1/32], got %s", fraction);
+        this.fraction = fraction;
+    }
+
+    @Override
+    public INDArray encode(int iteration, int epoch, INDArray updates) {
+        INDArray flat = UpdateDecoder.flat(updates);
+        long length = flat.length();
+        int k = (int) Math.max(1, Math.min(Math.ceil(fraction * length), length / 32));
+
+        //Order of the selected values doesn't matter, so sorting is not requested (B_ARG(0)); the native
+        //implementation may sort anyway
+        DynamicCustomOp topK = DynamicCustomOp.builder("top_k")
+                .addInputs(Transforms.abs(flat, true))
+                .addIntegerArguments(k)
+                .addBooleanArguments(false)
+                .build();
+        INDArray[] out = Nd4j.exec(topK);
+        if (out[0].maxNumber().doubleValue() == 0.0)
+            return null;
+
+        INDArray indices = out[1].castTo(DataType.INT);
+        INDArray values = Nd4j.exec(DynamicCustomOp.builder("gather")
+                .addInputs(flat, indices)
+                .addIntegerArguments(0)
+                .build())[0].castTo(DataType.FLOAT);
+
+        //Only the float values are shared: keep the remainder (if any, for double updates) in the residual
+        Nd4j.exec(DynamicCustomOp.builder("scatter_sub")
+                .addInputs(flat, indices, values.castTo(flat.dataType()))
+                .addOutputs(flat)
+                .build());
+
+        INDArray encoded = Nd4j.createUninitialized(DataType.INT, 4 + 2L * k);
+        encoded.get(NDArrayIndex.interval(0, 4)).assign(Nd4j.createFromArray(k, (int) length, 0, UpdateDecoder.TOP_K_ENCODING));
+        encoded.get(NDArrayIndex.interval(4, 4 + k)).assign(indices);
+        encoded.get(NDArrayIndex.interval(4 + k, 4 + 2 * k)).assign(Nd4j.exec(new BitCast(values, DataType.INT))[0]);
+        return encoded;
+    }
+
+    /**
+     * Add the decoded updates to the target array
+     */
+    public static INDArray decode(INDArray encoded, INDArray target) {
+        UpdateDecoder.checkLength(encoded, target);
+        INDArray flat = UpdateDecoder.flat(target);
+        int k = encoded.getInt(0);
+        INDArray indices = encoded.get(NDArrayIndex.interval(4, 4 + k)).dup();
+        INDArray values = Nd4j.exec(new BitCast(encoded.get(NDArrayIndex.interval(4 + k, 4 + 2 * k)).dup(), DataType.FLOAT))[0];
+        Nd4j.exec(DynamicCustomOp.builder("scatter_add")
+                .addInputs(flat, indices, values.castTo(flat.dataType()))
+                .addOutputs(flat)
+                .build());
+        return target;
+    }
+
+    @Override
+    public TopKEncoder clone() {
+        return new TopKEncoder(fraction);
+    }
+
+    @Override
+    public TopKEncoder forBucket(long offset) {
+        return clone();
+    }
+
+    @Override
+    public String toString() {
+        return "TopKEncoder(fraction=" + fraction + ")";
+    }
+}
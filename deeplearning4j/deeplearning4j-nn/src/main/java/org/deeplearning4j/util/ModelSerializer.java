@@ -31,7 +31,19 @@ import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.deeplearning4j.nn.updater.graph.ComputationGraphUpdater;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.ShortPointer;
+import org.bytedeco.javacpp.indexer.Bfloat16Indexer;
+import org.bytedeco.javacpp.indexer.DoubleIndexer;
+import org.bytedeco.javacpp.indexer.FloatIndexer;
+import org.bytedeco.javacpp.indexer.HalfIndexer;
+import org.bytedeco.javacpp.indexer.Indexer;
 import org.nd4j.base.Preconditions;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
 import org.nd4j.linalg.dataset.api.preprocessor.DataNormalization;
@@ -42,7 +54,15 @@ import org.nd4j.linalg.heartbeat.reports.Task;
 import org.nd4j.linalg.primitives.Pair;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
@@ -67,6 +87,17 @@ public class ModelSerializer {
     public static final String NO_PARAMS_MARKER = "noParams.marker";
     public static final String PREPROCESSOR_BIN = "preprocessor.bin";
 
+    /**
+     * Alignment (in bytes) of the array blocks in the memory mapped model format - see {@link #writeModelMapped(Model, File, boolean)}
+     */
+    public static final int MAPPED_ALIGNMENT = 4096;
+    private static final byte[] MAPPED_MAGIC = {'D', 'L', '4', 'J', 'M', 'M', 'A', 'P'};
+    private static final int MAPPED_VERSION = 1;
+    private static final byte MAPPED_MLN = 0;
+    private static final byte MAPPED_CG = 1;
+    //Chunk size used when copying array blocks to/from the file channel
+    private static final int MAPPED_CHUNK = 1 << 26;
+
     private ModelSerializer() {}
 
     /**
@@ -219,6 +250,9 @@ public class ModelSerializer {
      */
     public static MultiLayerNetwork restoreMultiLayerNetwork(@NonNull File file, boolean loadUpdater)
             throws IOException {
+        if (isMappedModel(file))
+            return restoreMultiLayerNetworkMapped(file, loadUpdater);
+
         try(InputStream is = new BufferedInputStream(new FileInputStream(file))){
             return restoreMultiLayerNetwork(is, loadUpdater);
         }
@@ -646,9 +680,137 @@ public class ModelSerializer {
      * @throws IOException
      */
     public static ComputationGraph restoreComputationGraph(@NonNull File file, boolean loadUpdater) throws IOException {
+        if (isMappedModel(file))
+            return restoreComputationGraphMapped(file, loadUpdater);
+
     	return restoreComputationGraph(new FileInputStream(file), loadUpdater);
     }
 
+    /**
+     * Write a model to a file using the uncompressed, memory mappable format.<br>
+     * Unlike {@link #writeModel(Model, File, boolean)} this does not produce a zip file: the file is a small header
+     * (configuration JSON, array data types and offsets) followed by the raw parameters (and optionally the updater state)
+     * in native byte order, each block aligned to {@link #MAPPED_ALIGNMENT} bytes. Such a file can be restored with
+     * {@link #restoreMultiLayerNetworkMapped(File, boolean)} / {@link #restoreComputationGraphMapped(File, boolean)}
+     * (or the usual restore methods that accept a File), which map the parameter block straight into the network's
+     * flattened parameters array instead of inflating and copying it.<br>
+     * Note: normalizers and other objects added to the zip format are not supported by this format.
+     *
+     * @param model       the model to write. Must be a MultiLayerNetwork or ComputationGraph
+     * @param file        the file to write to
+     * @param saveUpdater whether to save the updater state or not
+     * @throws IOException
+     */
+    public static void writeModelMapped(@NonNull Model model, @NonNull File file, boolean saveUpdater) throws IOException {
+        byte type;
+        String json;
+        INDArray updaterState = null;
+        if (model instanceof MultiLayerNetwork) {
+            MultiLayerNetwork net = (MultiLayerNetwork) model;
+            type = MAPPED_MLN;
+            json = net.getLayerWiseConfigurations().toJson();
+            if (saveUpdater && net.getUpdater() != null)
+                updaterState = net.getUpdater().getStateViewArray();
+        } else if (model instanceof ComputationGraph) {
+            ComputationGraph cg = (ComputationGraph) model;
+            type = MAPPED_CG;
+            json = cg.getConfiguration().toJson();
+            if (saveUpdater && cg.getUpdater() != null)
+                updaterState = cg.getUpdater().getStateViewArray();
+        } else {
+            throw new IllegalArgumentException("Only MultiLayerNetwork and ComputationGraph models can be written in the " +
+                    "memory mapped format, got " + model.getClass().getName());
+        }
+
+        INDArray params = model.params();
+        if (params != null && params.isView())
+            params = params.dup('c');
+        if (updaterState != null && updaterState.length() == 0)
+            updaterState = null;
+        else if (updaterState != null && updaterState.isView())
+            updaterState = updaterState.dup('c');
+
+        byte[] jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+        //Header size does not depend on the offsets, so compute it once with placeholder offsets
+        int headerLength = mappedHeader(type, jsonBytes, params, 0, updaterState, 0).length;
+        long paramsOffset = alignMapped(headerLength);
+        long updaterOffset = alignMapped(paramsOffset + blockBytes(params));
+        byte[] header = mappedHeader(type, jsonBytes, params, paramsOffset, updaterState, updaterOffset);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            writeFully(channel, ByteBuffer.wrap(header), 0);
+            if (params != null)
+                writeBlock(channel, params, paramsOffset);
+            if (updaterState != null)
+                writeBlock(channel, updaterState, updaterOffset);
+        }
+    }
+
+    /**
+     * Restore a MultiLayerNetwork previously saved with {@link #writeModelMapped(Model, File, boolean)}.<br>
+     * The parameters are memory mapped (copy-on-write) rather than read: pages are loaded lazily by the OS and are shared
+     * between all processes mapping the same file, until they are modified (for example, by fitting the network).
+     *
+     * @param file        the file to restore from
+     * @param loadUpdater whether to load the updater state (if present) or not
+     * @return the loaded network
+     * @throws IOException
+     */
+    public static MultiLayerNetwork restoreMultiLayerNetworkMapped(@NonNull File file, boolean loadUpdater) throws IOException {
+        MappedModel m = readMapped(file, loadUpdater);
+        if (m.type != MAPPED_MLN)
+            throw new IllegalStateException("Saved model appears to be a ComputationGraph - use ModelSerializer.restoreComputationGraph instead");
+
+        MultiLayerConfiguration conf = MultiLayerConfiguration.fromJson(m.json);
+        if (m.params != null)
+            conf.setDataType(m.params.dataType());
+        MultiLayerNetwork network = new MultiLayerNetwork(conf);
+        network.init(m.params, false);
+        if (m.updaterState != null)
+            network.getUpdater().setStateViewArray(network, m.updaterState, false);
+        return network;
+    }
+
+    /**
+     * Restore a ComputationGraph previously saved with {@link #writeModelMapped(Model, File, boolean)}.
+     * See {@link #restoreMultiLayerNetworkMapped(File, boolean)} for details.
+     *
+     * @param file        the file to restore from
+     * @param loadUpdater whether to load the updater state (if present) or not
+     * @return the loaded computation graph
+     * @throws IOException
+     */
+    public static ComputationGraph restoreComputationGraphMapped(@NonNull File file, boolean loadUpdater) throws IOException {
+        MappedModel m = readMapped(file, loadUpdater);
+        if (m.type != MAPPED_CG)
+            throw new IllegalStateException("Saved model appears to be a MultiLayerNetwork - use ModelSerializer.restoreMultiLayerNetwork instead");
+
+        ComputationGraphConfiguration conf = ComputationGraphConfiguration.fromJson(m.json);
+        if (m.params != null)
+            conf.setDataType(m.params.dataType());
+        ComputationGraph cg = new ComputationGraph(conf);
+        cg.init(m.params, false);
+        if (m.updaterState != null)
+            cg.getUpdater().setStateViewArray(m.updaterState);
+        return cg;
+    }
+
+    /**
+     * @param file File to check
+     * @return True if the file was written with {@link #writeModelMapped(Model, File, boolean)}, false otherwise (for
+     * example, a zip file written with {@link #writeModel(Model, File, boolean)})
+     */
+    public static boolean isMappedModel(@NonNull File file) throws IOException {
+        if (!file.isFile() || file.length() < MAPPED_MAGIC.length)
+            return false;
+        byte[] magic = new byte[MAPPED_MAGIC.length];
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+            dis.readFully(magic);
+        }
+        return Arrays.equals(magic, MAPPED_MAGIC);
+    }
+
     /**
      *
      * @param model
@@ -971,6 +1133,154 @@ public class ModelSerializer {
         }
     }
 
+    private static class MappedModel {
+        private byte type;
+        private String json;
+        private INDArray params;
+        private INDArray updaterState;
+    }
+
+    private static long alignMapped(long position) {
+        return (position + MAPPED_ALIGNMENT - 1) / MAPPED_ALIGNMENT * MAPPED_ALIGNMENT;
+    }
+
+    private static long blockBytes(INDArray arr) {
+        return arr == null ? 0 : arr.length() * arr.dataType().width();
+    }
+
+    private static byte[] mappedHeader(byte type, byte[] json, INDArray params, long paramsOffset,
+                                       INDArray updaterState, long updaterOffset) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            dos.write(MAPPED_MAGIC);
+            dos.writeInt(MAPPED_VERSION);
+            dos.writeByte(type);
+            dos.writeBoolean(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN);
+            writeBlockHeader(dos, params, paramsOffset);
+            writeBlockHeader(dos, updaterState, updaterOffset);
+            dos.writeInt(json.length);
+            dos.write(json);
+        }
+        return baos.toByteArray();
+    }
+
+    private static void writeBlockHeader(DataOutputStream dos, INDArray arr, long offset) throws IOException {
+        dos.writeUTF(arr == null ? "" : arr.dataType().name());
+        dos.writeLong(arr == null ? 0 : arr.length());
+        dos.writeLong(offset);
+    }
+
+    private static void writeBlock(FileChannel channel, INDArray arr, long offset) throws IOException {
+        Pointer pointer = arr.data().pointer();
+        long bytes = blockBytes(arr);
+        for (long pos = 0; pos < bytes; pos += MAPPED_CHUNK) {
+            writeFully(channel, byteView(pointer, pos, Math.min(MAPPED_CHUNK, bytes - pos)), offset + pos);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static ByteBuffer byteView(Pointer pointer, long from, long length) {
+        BytePointer bp = new BytePointer(pointer);
+        bp.capacity(from + length);
+        bp.position(from).limit(from + length);
+        return bp.asByteBuffer();
+    }
+
+    private static MappedModel readMapped(File file, boolean loadUpdater) throws IOException {
+        MappedModel m = new MappedModel();
+        //Copy-on-write (private) mappings require a channel opened for writing, even though the file itself is never modified
+        boolean canMap = file.canWrite();
+        if (!canMap)
+            log.warn("Model file {} is not writable: parameters will be read instead of memory mapped", file.getAbsolutePath());
+        try (RandomAccessFile raf = new RandomAccessFile(file, canMap ? "rw" : "r"); FileChannel channel = raf.getChannel()) {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            byte[] magic = new byte[MAPPED_MAGIC.length];
+            dis.readFully(magic);
+            if (!Arrays.equals(magic, MAPPED_MAGIC))
+                throw new IllegalStateException("File " + file.getAbsolutePath() + " is not a memory mapped model file");
+            int version = dis.readInt();
+            if (version != MAPPED_VERSION)
+                throw new IllegalStateException("Unsupported memory mapped model version: " + version);
+            m.type = dis.readByte();
+            boolean littleEndian = dis.readBoolean();
+            if (littleEndian != (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN))
+                throw new IllegalStateException("Memory mapped model " + file.getAbsolutePath() + " was written on a " +
+                        "platform with a different byte order. Use ModelSerializer.writeModel to save portable models");
+            String paramsType = dis.readUTF();
+            long paramsLength = dis.readLong();
+            long paramsOffset = dis.readLong();
+            String updaterType = dis.readUTF();
+            long updaterLength = dis.readLong();
+            long updaterOffset = dis.readLong();
+            byte[] json = new byte[dis.readInt()];
+            dis.readFully(json);
+            m.json = new String(json, StandardCharsets.UTF_8);
+
+            if (!paramsType.isEmpty())
+                m.params = mapBlock(channel, DataType.valueOf(paramsType), paramsLength, paramsOffset, canMap);
+            if (loadUpdater && !updaterType.isEmpty())
+                m.updaterState = mapBlock(channel, DataType.valueOf(updaterType), updaterLength, updaterOffset, canMap);
+        }
+        return m;
+    }
+
+    private static INDArray mapBlock(FileChannel channel, DataType dataType, long length, long offset, boolean canMap) throws IOException {
+        long bytes = length * dataType.width();
+        if (!canMap || bytes > Integer.MAX_VALUE) {
+            //Can't map (or too large for a single mapping): read straight into an off-heap array instead - still no inflation or heap copy
+            INDArray arr = Nd4j.createUninitializedDetached(dataType, 1, length);
+            Pointer pointer = arr.data().pointer();
+            for (long pos = 0; pos < bytes; pos += MAPPED_CHUNK) {
+                ByteBuffer bb = byteView(pointer, pos, Math.min(MAPPED_CHUNK, bytes - pos));
+                while (bb.hasRemaining()) {
+                    if (channel.read(bb, offset + pos + bb.position()) < 0)
+                        throw new EOFException("Unexpected end of memory mapped model file");
+                }
+            }
+            return arr;
+        }
+
+        //Copy-on-write mapping: clean pages are shared between processes, writes (i.e., fitting) stay private
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.PRIVATE, offset, bytes);
+        mapped.order(ByteOrder.nativeOrder());
+
+        //Note the indexers are created from the NIO buffers so that they (and hence the DataBuffer) keep the mapping alive
+        Pointer pointer;
+        Indexer indexer;
+        switch (dataType) {
+            case DOUBLE:
+                java.nio.DoubleBuffer db = mapped.asDoubleBuffer();
+                pointer = new DoublePointer(db);
+                indexer = DoubleIndexer.create(db);
+                break;
+            case FLOAT:
+                java.nio.FloatBuffer fb = mapped.asFloatBuffer();
+                pointer = new FloatPointer(fb);
+                indexer = FloatIndexer.create(fb);
+                break;
+            case HALF:
+                ShortBuffer hb = mapped.asShortBuffer();
+                pointer = new ShortPointer(hb);
+                indexer = HalfIndexer.create(hb);
+                break;
+            case BFLOAT16:
+                ShortBuffer bb = mapped.asShortBuffer();
+                pointer = new ShortPointer(bb);
+                indexer = Bfloat16Indexer.create(bb);
+                break;
+            default:
+                throw new IllegalStateException("Unsupported data type for memory mapped model arrays: " + dataType);
+        }
+
+        DataBuffer buffer = Nd4j.createBuffer(pointer, dataType, length, indexer);
+        return Nd4j.create(buffer, 1, length);
+    }
+
     private static Map<String, byte[]> loadZipData(InputStream is) throws IOException {
     	Map<String, byte[]> result = new HashMap<>();
 		try (final ZipInputStream zis = new ZipInputStream(is)) {
@@ -26,9 +26,14 @@ import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
 import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.parallelism.inference.AdaptiveBatchScheduler;
+import org.deeplearning4j.parallelism.inference.DeadlineExceededException;
 import org.deeplearning4j.parallelism.inference.InferenceMode;
 import org.deeplearning4j.parallelism.inference.InferenceObservable;
+import org.deeplearning4j.parallelism.inference.InferencePriority;
+import org.deeplearning4j.parallelism.inference.LatencyHistogram;
 import org.deeplearning4j.parallelism.inference.LoadBalanceMode;
+import org.deeplearning4j.parallelism.inference.PriorityInferenceQueue;
 import org.deeplearning4j.parallelism.inference.observers.BasicInferenceObservable;
 import org.deeplearning4j.parallelism.inference.observers.BasicInferenceObserver;
 import org.deeplearning4j.parallelism.inference.observers.BatchedInferenceObservable;
@@ -39,13 +44,17 @@ import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.primitives.Pair;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Observer;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
@@ -63,6 +72,16 @@ public class ParallelInference {
     protected InferenceMode inferenceMode;
     protected int queueLimit;
     protected LoadBalanceMode loadBalanceMode = LoadBalanceMode.FIFO;
+    protected long maxLatencyNanos;
+    protected int[] sequenceBuckets;
+    protected boolean sharedParameters;
+
+    // per-request latency tracking
+    protected final LatencyHistogram queueLatency = new LatencyHistogram();
+    protected final LatencyHistogram computeLatency = new LatencyHistogram();
+
+    // number of requests shed due to deadline, per priority class
+    protected final AtomicLongArray shedCounts = new AtomicLongArray(InferencePriority.values().length);
 
     // this queue holds data for inference
     private BlockingQueue<InferenceObservable> observables;
@@ -71,6 +90,11 @@ public class ParallelInference {
 
     private InferenceWorker[] zoo;
     private ObservablesProvider provider;
+    private AdaptiveBatchScheduler scheduler;
+
+    // parameters shared by worker replicas, one copy per device. only used if sharedParameters is set
+    private Model sharedParamsSource;
+    private final Map<Integer, INDArray> sharedParams = new HashMap<>();
 
 
 
@@ -120,7 +144,12 @@ public class ParallelInference {
     }
 
     protected void init() {
-        observables = new LinkedBlockingQueue<>(queueLimit);
+        observables = new PriorityInferenceQueue(queueLimit);
+
+        if (inferenceMode == InferenceMode.BATCHED && maxLatencyNanos > 0) {
+            log.info("Initializing adaptive batching, target latency: {} us", maxLatencyNanos / 1000);
+            scheduler = new AdaptiveBatchScheduler(maxLatencyNanos, batchLimit, workers);
+        }
 
         int numDevices = Nd4j.getAffinityManager().getNumberOfDevices();
         int currentDevice = Nd4j.getAffinityManager().getDeviceForCurrentThread();
@@ -132,7 +161,7 @@ public class ParallelInference {
             boolean cRoot = !assignedRoot.get() && cDevice == currentDevice;
             assignedRoot.compareAndSet(false, cRoot);
 
-            zoo[i] = new InferenceWorker(i, model, observables, cRoot, cDevice);
+            zoo[i] = new InferenceWorker(i, model, observables, cRoot, cDevice, scheduler);
 
             zoo[i].setDaemon(true);
             zoo[i].start();
@@ -141,7 +170,41 @@ public class ParallelInference {
 
         if (inferenceMode == InferenceMode.BATCHED) {
             log.info("Initializing ObservablesProvider...");
-            provider = new ObservablesProvider(nanos, batchLimit, observables);
+            provider = new ObservablesProvider(nanos, batchLimit, observables, scheduler, sequenceBuckets);
+        }
+    }
+
+    /**
+     * This method returns flattened parameters of the given model, available on the specified device.
+     * Parameters are replicated at most once per device, and the copy is shared by all workers on that device
+     *
+     * @param source
+     * @param deviceId
+     * @return
+     */
+    protected INDArray getSharedParams(@NonNull Model source, int deviceId) {
+        synchronized (locker) {
+            if (sharedParamsSource != source) {
+                // model was updated, previous copies aren't valid anymore
+                sharedParams.clear();
+                sharedParamsSource = source;
+            }
+
+            INDArray params = sharedParams.get(deviceId);
+            if (params == null) {
+                val sourceParams = source.params();
+                if (Nd4j.getAffinityManager().getDeviceForArray(sourceParams) == deviceId) {
+                    params = sourceParams;
+                } else {
+                    params = sourceParams.unsafeDuplication(true);
+                    Nd4j.getAffinityManager().replicateToDevice(deviceId, params);
+                }
+
+                Nd4j.getExecutioner().commit();
+                sharedParams.put(deviceId, params);
+            }
+
+            return params;
         }
     }
 
@@ -149,6 +212,49 @@ public class ParallelInference {
         return zoo[workerIdx].getCounterValue();
     }
 
+    /**
+     * This method returns histogram of time spent by individual requests in queue, before worker started processing them
+     *
+     * @return queueing latency histogram, in nanoseconds
+     */
+    public LatencyHistogram getQueueLatencyHistogram() {
+        return queueLatency;
+    }
+
+    /**
+     * This method returns histogram of output() time observed by individual requests.
+     * PLEASE NOTE: in BATCHED mode, every request within a batch observes output() time of the whole batch
+     *
+     * @return compute latency histogram, in nanoseconds
+     */
+    public LatencyHistogram getComputeLatencyHistogram() {
+        return computeLatency;
+    }
+
+    /**
+     * This method returns number of requests that were shed, because their deadline passed before processing started
+     *
+     * @return total number of shed requests
+     */
+    public long getShedCount() {
+        long total = 0;
+        for (int i = 0; i < shedCounts.length(); i++)
+            total += shedCounts.get(i);
+
+        return total;
+    }
+
+    /**
+     * This method returns number of requests of given priority class that were shed, because their deadline passed
+     * before processing started
+     *
+     * @param priority priority class
+     * @return number of shed requests
+     */
+    public long getShedCount(@NonNull InferencePriority priority) {
+        return shedCounts.get(priority.ordinal());
+    }
+
     /**
      * This method gracefully shuts down ParallelInference instance
      */
@@ -203,6 +309,26 @@ public class ParallelInference {
         return out[0];
     }
 
+    /**
+     * Generate predictions/output from the network, using given priority class and deadline
+     *
+     * @param input    Input to the network
+     * @param priority Priority class of this request
+     * @param timeout  Max time to wait for the output. If exceeded, the request is cancelled and
+     *                 {@link DeadlineExceededException} is thrown. 0 means no deadline
+     * @param timeUnit Time unit of timeout
+     * @return Output from the network
+     */
+    public INDArray output(INDArray input, @NonNull InferencePriority priority, long timeout, @NonNull TimeUnit timeUnit) {
+        INDArray[] out = output(new INDArray[]{input}, null, priority, timeout, timeUnit);
+        if(out.length != 1){
+            throw new IllegalArgumentException("Network has multiple (" + out.length + ") output arrays, but only a" +
+                    " single output can be returned using this method. Use for output(INDArray[] input, INDArray[] " +
+                    "inputMasks, InferencePriority priority, long timeout, TimeUnit timeUnit) for multi-output nets");
+        }
+        return out[0];
+    }
+
     /**
      *
      * @param dataSet
@@ -230,6 +356,28 @@ public class ParallelInference {
      * @return Output from the network
      */
     public INDArray[] output(INDArray[] input, INDArray[] inputMasks){
+        return output(input, inputMasks, InferencePriority.NORMAL, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Generate predictions/outputs from the network, using given priority class and deadline.
+     * Queued requests of higher priority class are processed first. Requests that weren't picked up by a worker
+     * within given timeout are shed without using any compute. The caller waits for the output until the timeout only.
+     *
+     * @param input      Input to the network
+     * @param inputMasks Input masks for the network. May be null.
+     * @param priority   Priority class of this request
+     * @param timeout    Max time to wait for the output. If exceeded, the request is cancelled and
+     *                   {@link DeadlineExceededException} is thrown. 0 means no deadline
+     * @param timeUnit   Time unit of timeout
+     * @return Output from the network
+     */
+    public INDArray[] output(INDArray[] input, INDArray[] inputMasks, @NonNull InferencePriority priority, long timeout, @NonNull TimeUnit timeUnit) {
+        if (timeout < 0)
+            throw new IllegalArgumentException("Timeout should be non-negative value");
+
+        long deadline = timeout == 0 ? Long.MAX_VALUE : System.nanoTime() + timeUnit.toNanos(timeout);
+
         Nd4j.getExecutioner().commit(); //Commit before passing input to other thread
 
         // basically, depending on model type we either throw stuff to specific model, or wait for batch
@@ -237,7 +385,7 @@ public class ParallelInference {
         InferenceObservable observable;
 
         if (inferenceMode == InferenceMode.SEQUENTIAL) {
-            observable = new BasicInferenceObservable(input, inputMasks);
+            observable = new BasicInferenceObservable(input, inputMasks, priority, deadline);
             observable.addObserver(observer);
             try {
                 observables.put(observable);
@@ -246,19 +394,24 @@ public class ParallelInference {
                 throw new RuntimeException(e);
             }
         } else {
-            observable = provider.setInput(observer, input, inputMasks);
+            observable = provider.setInput(observer, input, inputMasks, priority, deadline);
         }
 
+        boolean done;
         try {
             // submit query to processing
-            // and block until Observable returns
-            //observer.wait();
-
-            observer.waitTillDone();
+            // and block until Observable returns, or until deadline passes
+            done = observer.waitTillDone(deadline);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
 
+        if (!done) {
+            // nobody is waiting for this input anymore, so workers may skip it
+            observable.cancel();
+            throw new DeadlineExceededException("Request deadline passed before output was available");
+        }
+
         return observable.getOutput();
     }
 
@@ -294,6 +447,9 @@ public class ParallelInference {
         private InferenceMode inferenceMode = DEFAULT_INFERENCE_MODE;
         private int queueLimit = DEFAULT_QUEUE_LIMIT;
         protected LoadBalanceMode loadBalanceMode = LoadBalanceMode.FIFO;
+        private long maxLatencyNanos = 0;
+        private int[] sequenceBuckets;
+        private boolean sharedParameters = false;
 
         public Builder(@NonNull Model model) {
             this.model = model;
@@ -379,6 +535,69 @@ public class ParallelInference {
             return this;
         }
 
+        /**
+         * This method enables adaptive batching: batch size and flush timing will be chosen per worker,
+         * based on current queue depth and measured output() time, trying to keep per-request latency below given value.
+         * batchLimit value is used as the upper bound for batch size in this case.
+         *
+         * PLEASE NOTE: This value has effect only in BATCHED inference mode
+         *
+         * @param maxLatency target max latency. 0 disables adaptive batching
+         * @param timeUnit   time unit of maxLatency
+         * @return
+         */
+        public Builder maxLatency(long maxLatency, @NonNull TimeUnit timeUnit) {
+            if (maxLatency < 0)
+                throw new IllegalStateException("Max latency should be non-negative value");
+
+            this.maxLatencyNanos = timeUnit.toNanos(maxLatency);
+            return this;
+        }
+
+        /**
+         * This method enables sequence length bucketing for time series inputs: instead of batching only inputs of
+         * exactly the same shape, queued requests are grouped by length bucket, and each group is padded (and masked)
+         * only up to its own max length. Time series outputs are trimmed back to the original input length of each request.
+         *
+         * For example, buckets (16, 64, 256) will produce groups for lengths [1..16], [17..64], [65..256] and [257..]
+         *
+         * PLEASE NOTE: This value has effect only in BATCHED inference mode
+         *
+         * @param boundaries ascending upper bounds of length buckets
+         * @return
+         */
+        public Builder sequenceBuckets(@NonNull int... boundaries) {
+            if (boundaries.length < 1)
+                throw new IllegalStateException("At least one bucket boundary should be specified");
+
+            for (int i = 0; i < boundaries.length; i++) {
+                if (boundaries[i] < 1 || (i > 0 && boundaries[i] <= boundaries[i - 1]))
+                    throw new IllegalStateException("Bucket boundaries should be positive and strictly ascending: "
+                            + Arrays.toString(boundaries));
+            }
+
+            this.sequenceBuckets = boundaries.clone();
+            return this;
+        }
+
+        /**
+         * This method enables sharing of model parameters between workers.
+         * When enabled, worker replicas on the same device use the single flattened parameters array of the
+         * original model (or one copy per device, for other devices) instead of a full copy each,
+         * so memory use grows with number of workers only for activations.
+         *
+         * PLEASE NOTE: parameters are shared, so the original model must not be trained while this
+         * ParallelInference instance is in use. Use updateModel() to swap the model instead.
+         * PLEASE NOTE: INPLACE inference mode always shares parameters within a device
+         *
+         * @param reallyShare
+         * @return
+         */
+        public Builder sharedParameters(boolean reallyShare) {
+            this.sharedParameters = reallyShare;
+            return this;
+        }
+
         /**
          * This method builds new ParallelInference instance
          *
@@ -403,6 +622,9 @@ public class ParallelInference {
                 inference.model = this.model;
                 inference.workers = this.workers;
                 inference.loadBalanceMode = this.loadBalanceMode;
+                inference.maxLatencyNanos = this.maxLatencyNanos;
+                inference.sequenceBuckets = this.sequenceBuckets;
+                inference.sharedParameters = this.sharedParameters;
 
                 inference.init();
 
@@ -425,14 +647,19 @@ public class ParallelInference {
         private AtomicLong counter = new AtomicLong(0);
         private boolean rootDevice;
         private int deviceId;
+        private int workerId;
+        private AdaptiveBatchScheduler scheduler;
 
         private ReentrantReadWriteLock modelLock = new ReentrantReadWriteLock();
 
-        private InferenceWorker(int id, @NonNull Model model, @NonNull BlockingQueue inputQueue, boolean rootDevice, int deviceId) {
+        private InferenceWorker(int id, @NonNull Model model, @NonNull BlockingQueue inputQueue, boolean rootDevice, int deviceId,
+                                AdaptiveBatchScheduler scheduler) {
             this.inputQueue = inputQueue;
             this.protoModel = model;
             this.rootDevice = rootDevice;
             this.deviceId = deviceId;
+            this.workerId = id;
+            this.scheduler = scheduler;
 
             this.setDaemon(true);
             this.setName("InferenceThread-" + id);
@@ -443,6 +670,44 @@ public class ParallelInference {
             return counter.get();
         }
 
+        /**
+         * This method holds partially filled batch until either batch limit is reached, backlog appears in queue,
+         * or latency budget of the oldest request in the batch runs out. The worker is woken up by the
+         * ObservablesProvider whenever an example is added to a batch, or a new batch is queued
+         */
+        protected void awaitFlush(BatchedInferenceObservable request) throws InterruptedException {
+            long[] timestamps = request.getInputTimestamps();
+            if (timestamps.length == 0)
+                return;
+
+            long deadline = scheduler.flushDeadline(workerId, timestamps[0], inputQueue.size());
+            int limit = scheduler.batchLimit();
+            Object signal = provider.getFlushSignal();
+            synchronized (signal) {
+                long remaining;
+                while (request.getCounter() < limit && inputQueue.isEmpty() && shouldWork.get()
+                                && (remaining = deadline - System.nanoTime()) > 0)
+                    TimeUnit.NANOSECONDS.timedWait(signal, remaining);
+            }
+        }
+
+        /**
+         * This method updates latency stats for all requests within given observable
+         */
+        protected void recordLatencies(InferenceObservable request, long computeStart, long computeNanos, int examples) {
+            for (long t : request.getInputTimestamps()) {
+                long waited = computeStart - t;
+                queueLatency.record(waited);
+                computeLatency.record(computeNanos);
+
+                if (scheduler != null)
+                    scheduler.recordQueueing(waited);
+            }
+
+            if (scheduler != null)
+                scheduler.recordCompute(workerId, examples, computeNanos);
+        }
+
         protected void updateModel(@NonNull Model model) {
             try {
                 modelLock.writeLock().lock();
@@ -460,7 +725,13 @@ public class ParallelInference {
          */
         protected void initializeReplicaModel() {
             if (protoModel instanceof ComputationGraph) {
-                if (!rootDevice) {
+                if (!rootDevice && sharedParameters) {
+                    // building configuration with shared parameters
+                    val cg = new ComputationGraph(ComputationGraphConfiguration
+                            .fromJson(((ComputationGraph) protoModel).getConfiguration().toJson()));
+                    cg.init(getSharedParams(protoModel, deviceId), false);
+                    this.replicatedModel = cg;
+                } else if (!rootDevice) {
                     this.replicatedModel = new ComputationGraph(ComputationGraphConfiguration
                             .fromJson(((ComputationGraph) protoModel).getConfiguration().toJson()));
                     this.replicatedModel.init();
@@ -474,7 +745,12 @@ public class ParallelInference {
                     this.replicatedModel = protoModel;
                 }
             } else if (protoModel instanceof MultiLayerNetwork) {
-                if (!rootDevice) {
+                if (!rootDevice && sharedParameters) {
+                    val net = new MultiLayerNetwork(MultiLayerConfiguration.fromJson(
+                            ((MultiLayerNetwork) protoModel).getLayerWiseConfigurations().toJson()));
+                    net.init(getSharedParams(protoModel, deviceId), false);
+                    this.replicatedModel = net;
+                } else if (!rootDevice) {
                     this.replicatedModel = new MultiLayerNetwork(MultiLayerConfiguration.fromJson(
                             ((MultiLayerNetwork) protoModel).getLayerWiseConfigurations().toJson()));
                     this.replicatedModel.init();
@@ -506,6 +782,21 @@ public class ParallelInference {
                     if (request != null) {
                         counter.incrementAndGet();
 
+                        if (scheduler != null && request instanceof BatchedInferenceObservable)
+                            awaitFlush((BatchedInferenceObservable) request);
+
+                        // requests that outlived their deadline are dropped before they get any compute
+                        int shed = request.shedExpired(System.nanoTime());
+                        if (shed > 0) {
+                            shedCounts.addAndGet(request.getPriority().ordinal(), shed);
+
+                            if (shed == request.getInputTimestamps().length)
+                                continue;
+                        }
+
+                        long computeStart = System.nanoTime();
+                        int examples = 0;
+
                         // FIXME: get rid of instanceof here, model won't change during runtime anyway
                         if (isCG) {
                             List<Pair<INDArray[],INDArray[]>> batches = request.getInputBatches();
@@ -517,12 +808,14 @@ public class ParallelInference {
 
                                         INDArray[] output = ((ComputationGraph) replicatedModel).output(false, inBatch.getFirst(), inBatch.getSecond());
                                         out.add(output);
+                                        examples += (int) inBatch.getFirst()[0].size(0);
                                     } finally {
                                         Nd4j.getExecutioner().commit();
                                         modelLock.readLock().unlock();
                                     }
 
                                 }
+                                recordLatencies(request, computeStart, System.nanoTime() - computeStart, examples);
                                 request.setOutputBatches(out);
                             } catch (Exception e){
                                 request.setOutputException(e);
@@ -539,11 +832,13 @@ public class ParallelInference {
 
                                         INDArray output = ((MultiLayerNetwork) replicatedModel).output(f, false, fm, null);
                                         out.add(new INDArray[]{output});
+                                        examples += (int) f.size(0);
                                     } finally {
                                         Nd4j.getExecutioner().commit();
                                         modelLock.readLock().unlock();
                                     }
                                 }
+                                recordLatencies(request, computeStart, System.nanoTime() - computeStart, examples);
                                 request.setOutputBatches(out);
                             } catch (Exception e){
                                 request.setOutputException(e);
@@ -578,14 +873,30 @@ public class ParallelInference {
         private BlockingQueue<InferenceObservable> targetQueue;
         private long nanos;
         private int batchLimit;
+        private AdaptiveBatchScheduler scheduler;
+        private int[] sequenceBuckets;
 
-        private volatile BatchedInferenceObservable currentObservable;
+        // one batch is being formed for each priority class
+        private final BatchedInferenceObservable[] currentObservables = new BatchedInferenceObservable[InferencePriority.values().length];
         private final Object locker = new Object();
+        private final Object flushSignal = new Object();
 
         protected ObservablesProvider(long nanos, int batchLimit, @NonNull BlockingQueue<InferenceObservable> queue) {
+            this(nanos, batchLimit, queue, null);
+        }
+
+        protected ObservablesProvider(long nanos, int batchLimit, @NonNull BlockingQueue<InferenceObservable> queue,
+                                      AdaptiveBatchScheduler scheduler) {
+            this(nanos, batchLimit, queue, scheduler, null);
+        }
+
+        protected ObservablesProvider(long nanos, int batchLimit, @NonNull BlockingQueue<InferenceObservable> queue,
+                                      AdaptiveBatchScheduler scheduler, int[] sequenceBuckets) {
             this.targetQueue = queue;
             this.nanos = nanos;
             this.batchLimit = batchLimit;
+            this.scheduler = scheduler;
+            this.sequenceBuckets = sequenceBuckets;
         }
 
         protected InferenceObservable setInput(@NonNull Observer observer, INDArray input){
@@ -597,15 +908,23 @@ public class ParallelInference {
         }
 
         protected InferenceObservable setInput(@NonNull Observer observer, INDArray[] input, INDArray[] inputMask) {
+            return setInput(observer, input, inputMask, InferencePriority.NORMAL, Long.MAX_VALUE);
+        }
+
+        protected InferenceObservable setInput(@NonNull Observer observer, INDArray[] input, INDArray[] inputMask,
+                                               @NonNull InferencePriority priority, long deadline) {
             synchronized (locker) {
                 boolean isNew = false;
-                if (currentObservable == null || currentObservable.getCounter() >= batchLimit
+                int limit = scheduler == null ? batchLimit : scheduler.batchLimit();
+                BatchedInferenceObservable currentObservable = currentObservables[priority.ordinal()];
+                if (currentObservable == null || currentObservable.getCounter() >= limit
                                 || currentObservable.isLocked()) {
                     isNew = true;
-                    currentObservable = new BatchedInferenceObservable();
+                    currentObservable = new BatchedInferenceObservable(priority, sequenceBuckets);
+                    currentObservables[priority.ordinal()] = currentObservable;
                 }
 
-                currentObservable.addInput(input, inputMask);
+                currentObservable.addInput(input, inputMask, deadline);
                 currentObservable.addObserver(observer);
 
                 try {
@@ -616,8 +935,20 @@ public class ParallelInference {
                     throw new RuntimeException(e);
                 }
 
+                // workers holding a partial batch re-check whether it can be flushed now
+                synchronized (flushSignal) {
+                    flushSignal.notifyAll();
+                }
+
                 return currentObservable;
             }
         }
+
+        /**
+         * @return Monitor that is notified whenever an example is added to a batch or a new batch is queued
+         */
+        protected Object getFlushSignal() {
+            return flushSignal;
+        }
     }
 }
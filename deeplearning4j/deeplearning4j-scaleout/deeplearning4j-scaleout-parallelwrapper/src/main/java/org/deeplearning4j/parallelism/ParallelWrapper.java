@@ -39,15 +39,20 @@ import org.deeplearning4j.optimize.solvers.accumulation.GradientsAccumulator;
 import org.deeplearning4j.optimize.solvers.accumulation.Registerable;
 import org.deeplearning4j.optimize.solvers.accumulation.encoding.ResidualPostProcessor;
 import org.deeplearning4j.optimize.solvers.accumulation.encoding.ThresholdAlgorithm;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.UpdateEncoder;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.encoder.LowRankEncoder;
 import org.deeplearning4j.parallelism.factory.DefaultTrainerContext;
 import org.deeplearning4j.parallelism.factory.SymmetricTrainerContext;
 import org.deeplearning4j.parallelism.factory.TrainerContext;
+import org.deeplearning4j.parallelism.prefetch.ShardedDataSetPrefetcher;
+import org.deeplearning4j.parallelism.trainer.DefaultTrainer;
 import org.deeplearning4j.parallelism.trainer.Trainer;
 import org.nd4j.base.Preconditions;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.api.DataSet;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
 import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIteratorFactory;
 import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
 import org.nd4j.linalg.exception.ND4JIllegalStateException;
 import org.nd4j.linalg.factory.Nd4j;
@@ -115,6 +120,7 @@ public class ParallelWrapper implements AutoCloseable {
     protected WorkspaceMode workspaceMode;
     protected Object[] trainerContextArgs;
     protected boolean debug = false;
+    protected List<WorkerStats> workerStats = new ArrayList<>();
 
     protected ThreadPoolExecutor executorService;
 
@@ -234,6 +240,8 @@ public class ParallelWrapper implements AutoCloseable {
         }
 
         val locker = new AtomicInteger(0);
+        val dataWaitTime = new long[workers];
+        val batches = new long[workers];
 
         val blockWrapper = new DummyBlockMultiDataSetIterator(iterator);
 
@@ -279,6 +287,8 @@ public class ParallelWrapper implements AutoCloseable {
 
             for (int pos = 0; pos < dataSets.length; pos++) {
                 zoo[pos].feedMultiDataSet(dataSets[pos], time2 - time1);
+                dataWaitTime[pos] += time2 - time1;
+                batches[pos]++;
             }
 
             iterationsCounter.incrementAndGet();
@@ -318,6 +328,8 @@ public class ParallelWrapper implements AutoCloseable {
         if (prefetchSize > 0 && source.asyncSupported())
             ((AsyncMultiDataSetIterator) iterator).shutdown();
 
+        collectWorkerStats(dataWaitTime, batches, null);
+
         /*
         // TODO: get rid of this code, 0 model is not replicated anyway
         // now we transfer models back from workers
@@ -523,6 +535,8 @@ public class ParallelWrapper implements AutoCloseable {
 
         val nanos = new ArrayList<Long>();
         val locker = new AtomicInteger(0);
+        val dataWaitTime = new long[workers];
+        val batches = new long[workers];
         var time1 = System.currentTimeMillis();
         log.info("Starting ParallelWrapper training round...");
         long intcnt = 0;
@@ -582,6 +596,8 @@ public class ParallelWrapper implements AutoCloseable {
                     log.info("Feeding dataset {} to worker {}", intcnt, pos);
 
                 zoo[pos].feedDataSet(dataSets[pos], lastEtlTime);
+                dataWaitTime[pos] += lastEtlTime;
+                batches[pos]++;
             }
 
             iterationsCounter.incrementAndGet();
@@ -634,6 +650,8 @@ public class ParallelWrapper implements AutoCloseable {
         if (prefetchSize > 0 && source.asyncSupported())
             ((AsyncDataSetIterator) iterator).shutdown();
 
+        collectWorkerStats(dataWaitTime, batches, null);
+
         try {
             close();
         } catch (Exception e) {
@@ -645,6 +663,161 @@ public class ParallelWrapper implements AutoCloseable {
     }
 
 
+    /**
+     * This method trains on sharded data: each worker has its own data shard, read by its own background thread into
+     * its own prefetch buffer (of prefetchBuffer size), instead of all DataSets being fetched from a single iterator.
+     * Use this when ETL is the bottleneck for training.<br>
+     * Shards are assigned to workers in round robin manner: i.e. shard i is used by worker (i % workers). Usually there
+     * should be one shard per worker. Work stealing is used between shards: if no DataSet is available yet for a worker
+     * (or its shards are exhausted), it is trained on a DataSet prefetched for another worker instead.
+     * See {@link ShardedDataSetPrefetcher} for details.<br>
+     * Time spent waiting for data vs. training is available (per worker) via {@link #getWorkerStats()}
+     *
+     * PLEASE NOTE: DataSets from different shards aren't used in a deterministic order
+     *
+     * @param shards Data shards: iterators over different parts of the data
+     */
+    public synchronized void fit(@NonNull List<? extends DataSetIterator> shards) {
+        Preconditions.checkArgument(!shards.isEmpty(), "At least one data shard is required");
+        List<List<DataSetIterator>> perWorker = new ArrayList<>();
+        for (int i = 0; i < workers; i++)
+            perWorker.add(new ArrayList<DataSetIterator>());
+        for (int i = 0; i < shards.size(); i++)
+            perWorker.get(i % workers).add(shards.get(i));
+
+        fit(new ShardedDataSetPrefetcher(perWorker, prefetchSize, workspaceMode != WorkspaceMode.NONE));
+    }
+
+    /**
+     * This method trains on sharded data, as per {@link #fit(List)}, with one shard per worker created by the
+     * specified factory. {@link DataSetIteratorFactory#create()} is called once for each worker, from the worker's
+     * prefetch thread, and should return an iterator over a different part of the data each time.
+     *
+     * @param factory Factory for the data shards
+     */
+    public synchronized void fit(@NonNull DataSetIteratorFactory factory) {
+        fit(new ShardedDataSetPrefetcher(factory, workers, prefetchSize, workspaceMode != WorkspaceMode.NONE));
+    }
+
+    protected void fit(@NonNull ShardedDataSetPrefetcher prefetcher) {
+        log.info("Using workspaceMode {} for training, with {} data shards", workspaceMode.name(), workers);
+        stopFit.set(false);
+
+        val locker = new AtomicInteger(0);
+        val dataWaitTime = new long[workers];
+        val batches = new long[workers];
+        try {
+            createZooIfNeccessary(false);
+            while (!stopFit.get()) {
+                if (modelParamsSupplier != null) {
+                    val params = modelParamsSupplier.get();
+                    if (params != null && zoo != null) {
+                        for (val z : zoo)
+                            z.updateModelParams(params);
+                    }
+                }
+
+                if (updaterParamsSupplier != null) {
+                    val params = updaterParamsSupplier.get();
+                    if (params != null && zoo != null) {
+                        for (val z : zoo)
+                            z.updateUpdaterParams(params);
+                    }
+                }
+
+                // all data is prefetched already, so we only wait here if ETL is slower than training
+                val dataSets = new ArrayList<DataSet>();
+                val waitTime = new long[workers];
+                for (int pos = 0; pos < workers; pos++) {
+                    long time1 = System.nanoTime();
+                    DataSet ds = prefetcher.next(pos);
+                    waitTime[pos] = (System.nanoTime() - time1) / 1000000L;
+                    if (ds == null)
+                        break;
+
+                    dataSets.add(ds);
+                }
+
+                if (dataSets.isEmpty())
+                    break;
+
+                if (zoo == null)
+                    throw new IllegalStateException(
+                                    "ParallelWrapper.shutdown() has been called too early and will fail from this point forward.");
+
+                locker.set(dataSets.size());
+
+                if (gradientsAccumulator != null && gradientsAccumulator instanceof Registerable) {
+                    ((Registerable) gradientsAccumulator).registerConsumers(dataSets.size());
+                }
+
+                for (int pos = 0; pos < dataSets.size(); pos++) {
+                    zoo[pos].feedDataSet(dataSets.get(pos), waitTime[pos]);
+                    dataWaitTime[pos] += waitTime[pos];
+                    batches[pos]++;
+                }
+
+                iterationsCounter.incrementAndGet();
+
+                for (int pos = 0; pos < dataSets.size(); pos++) {
+                    zoo[pos].waitTillRunning();
+                }
+
+                // optional averaging
+                if (iterationsCounter.get() % averagingFrequency == 0 && zoo[0].averagingRequired()) {
+                    double score = getScore(locker);
+                    averageUpdatersState(locker, score);
+                }
+
+                locker.set(0);
+            }
+
+            // ensure all threads stopped processing
+            for (int cnt = 0; cnt < workers; cnt++) {
+                zoo[cnt].waitTillRunning();
+            }
+
+            val stolen = new long[workers];
+            for (int i = 0; i < workers; i++)
+                stolen[i] = prefetcher.getStolenCount(i);
+            collectWorkerStats(dataWaitTime, batches, stolen);
+
+            for (val s : workerStats)
+                log.info("Worker {}: {} DataSets ({} stolen), data wait time {} ms, compute time {} ms", s.getWorker(),
+                                s.getBatches(), s.getStolenBatches(), s.getDataWaitTime(), s.getComputeTime());
+        } finally {
+            prefetcher.close();
+
+            try {
+                close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * This method returns per-worker statistics (number of DataSets, time spent waiting for data vs. training) for the
+     * last fit() call
+     *
+     * @return Statistics, one entry per worker
+     */
+    public List<WorkerStats> getWorkerStats() {
+        return workerStats;
+    }
+
+    protected void collectWorkerStats(long[] dataWaitTime, long[] batches, long[] stolen) {
+        if (zoo == null)
+            return;
+
+        List<WorkerStats> stats = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            long computeTime = zoo[i] instanceof DefaultTrainer ? ((DefaultTrainer) zoo[i]).getComputeTime() : 0;
+            stats.add(new WorkerStats(i, batches[i], stolen == null ? 0 : stolen[i], dataWaitTime[i], computeTime));
+        }
+        workerStats = stats;
+    }
+
     private void createZooIfNeccessary(boolean useMDS) {
         if (zoo == null) {
             trainerContext.init(model, trainerContextArgs);
@@ -690,6 +863,8 @@ public class ParallelWrapper implements AutoCloseable {
         protected Supplier<INDArray> updaterParamsSupplier;
         protected ThresholdAlgorithm thresholdAlgorithm;
         protected ResidualPostProcessor residualPostProcessor;
+        protected UpdateEncoder updateEncoder;
+        protected long bucketSize;
 
         protected GradientsAccumulator accumulator;
 
@@ -884,6 +1059,32 @@ public class ParallelWrapper implements AutoCloseable {
             return this;
         }
 
+        /**
+         * Set the update encoder to use instead of threshold encoding, for SHARED_GRADIENTS training mode: for example
+         * top-k, sign or low rank encoding. If set, the threshold algorithm and residual post processor are not used.<br>
+         * A {@link LowRankEncoder} without the parameter layout is replaced by one with the layout of the model, see
+         * {@link LowRankEncoder#forModel(int, Model)}
+         * @param updateEncoder Update encoder to use
+         */
+        public Builder updateEncoder(UpdateEncoder updateEncoder){
+            this.updateEncoder = updateEncoder;
+            return this;
+        }
+
+        /**
+         * Enable overlapping of gradient communication with backprop, for SHARED_GRADIENTS training mode: the updates
+         * for each layer are encoded and shared (in buckets of at least the specified number of values) as soon as
+         * backprop for the layer has completed, instead of once backprop for the whole network has completed.
+         * Likewise, the forward pass of the next iteration for each layer only waits for the updates for that layer.
+         * See {@link EncodedGradientsAccumulator.Builder#bucketSize(long)}
+         * @param bucketSize Minimal number of values per bucket. 0 (default) to disable
+         */
+        public Builder gradientBucketSize(long bucketSize){
+            Preconditions.checkArgument(bucketSize >= 0, "Bucket size must not be negative, got %s", bucketSize);
+            this.bucketSize = bucketSize;
+            return this;
+        }
+
         /**
          * This method returns ParallelWrapper instance
          *
@@ -909,9 +1110,18 @@ public class ParallelWrapper implements AutoCloseable {
                 }
                     break;
                 case SHARED_GRADIENTS: {
-                    Preconditions.checkState(thresholdAlgorithm != null, "Cannot use SHARED_GRADIENTS training mode without setting a threshold algorithm");
+                    Preconditions.checkState(thresholdAlgorithm != null || updateEncoder != null, "Cannot use SHARED_GRADIENTS training mode without setting a threshold algorithm or update encoder");
                     this.trainerContext = new SymmetricTrainerContext();
-                    if (this.accumulator == null) {
+                    if (updateEncoder instanceof LowRankEncoder && ((LowRankEncoder) updateEncoder).getParamLayout() == null)
+                        updateEncoder = LowRankEncoder.forModel(((LowRankEncoder) updateEncoder).getRank(), model);
+                    if (this.accumulator == null && (updateEncoder != null || bucketSize > 0)) {
+                        log.info("Creating new GradientsAccumulator instance with {}, bucket size {}",
+                                (updateEncoder != null ? updateEncoder : thresholdAlgorithm), bucketSize);
+                        this.accumulator = new EncodedGradientsAccumulator.Builder(workers).updateEncoder(updateEncoder)
+                                .thresholdAlgorithm(thresholdAlgorithm).residualPostProcessor(residualPostProcessor)
+                                .bucketSize(bucketSize)
+                                .memoryParameters(EncodedGradientsAccumulator.DEFAULT_INITIAL_MEMORY, 10).build();
+                    } else if (this.accumulator == null) {
                         log.info("Creating new GradientsAccumulator instance with threshold of [5e-4");
                         this.accumulator = new EncodedGradientsAccumulator(workers, thresholdAlgorithm, residualPostProcessor,  false);
                     }
@@ -0,0 +1,61 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.deeplearning4j.parallelism;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Per-worker statistics for the last {@link ParallelWrapper#fit} call: time the worker spent waiting for data, vs. time
+ * spent on actual training. A high data wait fraction means training is bottlenecked by ETL.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class WorkerStats {
+    /**
+     * Index of the worker
+     */
+    private int worker;
+    /**
+     * Number of DataSets/MultiDataSets the worker was trained on
+     */
+    private long batches;
+    /**
+     * Number of DataSets taken from other workers' prefetch buffers (work stealing). Always 0 unless sharded data
+     * is used
+     */
+    private long stolenBatches;
+    /**
+     * Time spent waiting for data, in milliseconds
+     */
+    private long dataWaitTime;
+    /**
+     * Time spent on training, in milliseconds
+     */
+    private long computeTime;
+
+    /**
+     * @return Fraction of time spent waiting for data: dataWaitTime / (dataWaitTime + computeTime)
+     */
+    public double getDataWaitFraction() {
+        long total = dataWaitTime + computeTime;
+        return total == 0 ? 0.0 : dataWaitTime / (double) total;
+    }
+}
@@ -0,0 +1,187 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.parallelism.inference;
+
+import lombok.Getter;
+
+/**
+ * This class implements latency-driven batching for {@link InferenceMode#BATCHED} mode.<br>
+ * Every worker keeps its own cost model for output() calls: cost(n) = overhead + n * perExample,
+ * fitted with exponentially decayed least squares over measured batches. Using that model, scheduler decides:
+ * <ul>
+ *     <li>how many requests can be packed into one batch without breaking target latency</li>
+ *     <li>how long a worker may hold a partially filled batch, waiting for more requests, before it has to flush</li>
+ * </ul>
+ *
+ * PLEASE NOTE: batch limits here are expressed in number of requests, and each request is assumed to hold a single example
+ */
+public class AdaptiveBatchScheduler {
+    // weight of the newest measurement in decayed sums
+    private static final double DECAY = 0.95;
+
+    @Getter
+    private final long maxLatencyNanos;
+    @Getter
+    private final int maxBatchLimit;
+
+    private final CostModel[] models;
+
+    // exponentially weighted average of per-request queueing time, shared by all workers
+    private volatile double avgQueueNanos = 0.0;
+
+    public AdaptiveBatchScheduler(long maxLatencyNanos, int maxBatchLimit, int numWorkers) {
+        if (maxLatencyNanos <= 0)
+            throw new IllegalArgumentException("Max latency should be positive value");
+
+        if (maxBatchLimit < 1)
+            throw new IllegalArgumentException("Batch limit should be positive value");
+
+        this.maxLatencyNanos = maxLatencyNanos;
+        this.maxBatchLimit = maxBatchLimit;
+        this.models = new CostModel[numWorkers];
+        for (int i = 0; i < numWorkers; i++)
+            models[i] = new CostModel();
+    }
+
+    /**
+     * This method is called by worker after each output() call
+     *
+     * @param workerId     id of the worker that did the call
+     * @param examples     number of examples processed
+     * @param computeNanos time spent in output()
+     */
+    public void recordCompute(int workerId, int examples, long computeNanos) {
+        models[workerId].update(examples, computeNanos);
+    }
+
+    /**
+     * This method is called for each request, once its processing started
+     *
+     * @param queueNanos time spent by request in queue
+     */
+    public void recordQueueing(long queueNanos) {
+        // benign race here: this is just an estimate
+        avgQueueNanos = avgQueueNanos * DECAY + queueNanos * (1.0 - DECAY);
+    }
+
+    /**
+     * This method returns estimated time of output() call for a batch of given size
+     */
+    public long estimateComputeNanos(int workerId, int batchSize) {
+        return models[workerId].estimate(batchSize);
+    }
+
+    /**
+     * This method returns max number of requests that can be packed into a single batch for given worker,
+     * so that expected queueing + compute time stays below target latency
+     */
+    public int batchLimit(int workerId) {
+        CostModel model = models[workerId];
+        if (!model.isReady())
+            return maxBatchLimit;
+
+        long budget = maxLatencyNanos - (long) avgQueueNanos;
+        return model.largestBatchWithin(budget, maxBatchLimit);
+    }
+
+    /**
+     * This method returns batch limit for the next batch, regardless of the worker that will pick it up
+     */
+    public int batchLimit() {
+        int limit = maxBatchLimit;
+        for (int i = 0; i < models.length; i++)
+            limit = Math.min(limit, batchLimit(i));
+
+        return limit;
+    }
+
+    /**
+     * This method returns absolute time (in terms of System.nanoTime()) at which worker should stop waiting
+     * for more requests and flush current batch.
+     *
+     * @param workerId       id of the worker holding the batch
+     * @param oldestInput    System.nanoTime() of the oldest request within the batch
+     * @param queueDepth     number of batches waiting in queue. If there's a backlog - batch is flushed immediately
+     * @return deadline for the flush
+     */
+    public long flushDeadline(int workerId, long oldestInput, int queueDepth) {
+        if (queueDepth > 0)
+            return System.nanoTime();
+
+        long compute = models[workerId].isReady() ? estimateComputeNanos(workerId, batchLimit(workerId)) : maxLatencyNanos / 2;
+        return oldestInput + Math.max(0, maxLatencyNanos - compute);
+    }
+
+    /**
+     * Decayed least squares fit of cost(n) = overhead + n * perExample
+     */
+    private static class CostModel {
+        private double sw, sn, st, snn, snt;
+        private long updates;
+
+        private synchronized void update(int examples, long nanos) {
+            sw = sw * DECAY + 1.0;
+            sn = sn * DECAY + examples;
+            st = st * DECAY + nanos;
+            snn = snn * DECAY + (double) examples * examples;
+            snt = snt * DECAY + (double) examples * nanos;
+            updates++;
+        }
+
+        private synchronized boolean isReady() {
+            return updates > 0;
+        }
+
+        private synchronized long estimate(int batchSize) {
+            if (updates == 0)
+                return 0;
+
+            double meanN = sn / sw;
+            double meanT = st / sw;
+            double varN = snn / sw - meanN * meanN;
+
+            double slope;
+            double overhead;
+            if (varN < 1e-6) {
+                // we've seen only one batch size so far, so there's no way to split overhead from per-example cost
+                slope = meanT / Math.max(1.0, meanN);
+                overhead = 0.0;
+            } else {
+                slope = Math.max(0.0, (snt / sw - meanN * meanT) / varN);
+                overhead = Math.max(0.0, meanT - slope * meanN);
+            }
+
+            return (long) (overhead + slope * batchSize);
+        }
+
+        private int largestBatchWithin(long budget, int maxBatchLimit) {
+            if (budget <= 0)
+                return 1;
+
+            int lo = 1, hi = maxBatchLimit;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (estimate(mid) <= budget)
+                    lo = mid;
+                else
+                    hi = mid - 1;
+            }
+
+            return lo;
+        }
+    }
+}
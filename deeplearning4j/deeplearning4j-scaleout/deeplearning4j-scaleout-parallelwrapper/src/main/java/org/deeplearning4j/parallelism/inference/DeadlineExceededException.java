@@ -0,0 +1,30 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.parallelism.inference;
+
+import org.deeplearning4j.exception.DL4JException;
+
+/**
+ * This exception is thrown for ParallelInference requests that were shed because their deadline passed
+ * before any worker started processing them
+ */
+public class DeadlineExceededException extends DL4JException {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
@@ -48,4 +48,32 @@ public interface InferenceObservable {
     void addObserver(Observer observer);
 
     INDArray[] getOutput();
+
+    /**
+     * Get System.nanoTime() timestamps for the moments individual inputs were added to this observable.
+     * Used for queueing latency tracking.
+     *
+     * @return array of timestamps, one per input
+     */
+    long[] getInputTimestamps();
+
+    /**
+     * Get priority class of this observable, used for queue ordering
+     */
+    InferencePriority getPriority();
+
+    /**
+     * This method marks inputs that weren't processed before their deadline as failed, so they won't use any compute.
+     * No more inputs can be added after this call.
+     *
+     * @param now current System.nanoTime() value
+     * @return number of inputs shed
+     */
+    int shedExpired(long now);
+
+    /**
+     * This method marks input added by the calling thread as cancelled: caller isn't waiting for its output anymore.
+     * Cancelled inputs are shed by {@link #shedExpired(long)}, same as expired ones, unless processing has already started.
+     */
+    void cancel();
 }
@@ -0,0 +1,37 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.parallelism.inference;
+
+/**
+ * Priority classes for ParallelInference requests. Queued requests of higher class are always served first.
+ */
+public enum InferencePriority {
+    /**
+     * Latency-sensitive requests, i.e. interactive calls
+     */
+    HIGH,
+
+    /**
+     * Default priority
+     */
+    NORMAL,
+
+    /**
+     * Throughput-oriented requests, i.e. batch scoring
+     */
+    LOW,
+}
@@ -0,0 +1,149 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.parallelism.inference;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets: every power of two is split into 8 sub-buckets,
+ * so reported percentiles are within ~12.5% of the actual value, regardless of magnitude.
+ * All values are expected in nanoseconds.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int NUM_BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong count = new AtomicLong(0);
+    private final AtomicLong sum = new AtomicLong(0);
+    private final AtomicLong max = new AtomicLong(0);
+
+    /**
+     * This method records single latency value
+     *
+     * @param nanos latency, in nanoseconds. Negative values are treated as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+
+        buckets.incrementAndGet(bucketIndex(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+
+        long cMax;
+        while (nanos > (cMax = max.get())) {
+            if (max.compareAndSet(cMax, nanos))
+                break;
+        }
+    }
+
+    /**
+     * @return number of values recorded so far
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return largest recorded value, in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return mean of recorded values, in nanoseconds
+     */
+    public double getMean() {
+        long c = count.get();
+        return c == 0 ? 0.0 : (double) sum.get() / c;
+    }
+
+    /**
+     * This method returns upper bound of the bucket that holds given percentile
+     *
+     * @param percentile value in range [0, 100]
+     * @return latency in nanoseconds, or 0 if nothing was recorded yet
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0.0 || percentile > 100.0)
+            throw new IllegalArgumentException("Percentile should be in range [0, 100], got " + percentile);
+
+        long total = count.get();
+        if (total == 0)
+            return 0;
+
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= target)
+                return Math.min(bucketUpperBound(i), max.get());
+        }
+
+        return max.get();
+    }
+
+    /**
+     * This method returns percentile in the given time units
+     */
+    public long getPercentile(double percentile, TimeUnit unit) {
+        return unit.convert(getPercentile(percentile), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * This method drops all recorded values
+     */
+    public void reset() {
+        for (int i = 0; i < NUM_BUCKETS; i++)
+            buckets.set(i, 0);
+
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    protected static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BITS)) - SUB_BUCKETS;
+        return SUB_BUCKETS + (exp - SUB_BITS) * SUB_BUCKETS + sub;
+    }
+
+    protected static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+
+        int exp = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS;
+        int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        long upper = ((long) (SUB_BUCKETS + sub + 1) << (exp - SUB_BITS)) - 1;
+        return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LatencyHistogram(count=%d, mean=%.1fus, p50=%dus, p90=%dus, p99=%dus, max=%dus)",
+                getCount(), getMean() / 1000.0, getPercentile(50.0) / 1000, getPercentile(90.0) / 1000,
+                getPercentile(99.0) / 1000, getMax() / 1000);
+    }
+}
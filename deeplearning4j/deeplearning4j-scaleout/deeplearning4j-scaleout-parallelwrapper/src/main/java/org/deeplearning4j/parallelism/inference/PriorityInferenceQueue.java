@@ -0,0 +1,241 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.parallelism.inference;
+
+import lombok.NonNull;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded BlockingQueue that keeps separate FIFO lane for each {@link InferencePriority} class.
+ * take()/poll() always return head of the highest non-empty priority lane, so flood of low-priority requests
+ * can't delay interactive ones by more than a single batch.
+ */
+public class PriorityInferenceQueue extends AbstractQueue<InferenceObservable> implements BlockingQueue<InferenceObservable> {
+    private final ArrayDeque<InferenceObservable>[] lanes;
+    private final int capacity;
+    private int count;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    @SuppressWarnings("unchecked")
+    public PriorityInferenceQueue(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Queue capacity should be positive value");
+
+        this.capacity = capacity;
+        this.lanes = new ArrayDeque[InferencePriority.values().length];
+        for (int i = 0; i < lanes.length; i++)
+            lanes[i] = new ArrayDeque<>();
+    }
+
+    /**
+     * This method returns number of queued requests of given priority
+     */
+    public int size(@NonNull InferencePriority priority) {
+        lock.lock();
+        try {
+            return lanes[priority.ordinal()].size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(InferenceObservable observable) {
+        lanes[observable.getPriority().ordinal()].addLast(observable);
+        count++;
+        notEmpty.signal();
+    }
+
+    private InferenceObservable dequeue() {
+        for (ArrayDeque<InferenceObservable> lane : lanes) {
+            InferenceObservable observable = lane.pollFirst();
+            if (observable != null) {
+                count--;
+                notFull.signal();
+                return observable;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean offer(@NonNull InferenceObservable observable) {
+        lock.lock();
+        try {
+            if (count >= capacity)
+                return false;
+
+            enqueue(observable);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(@NonNull InferenceObservable observable, long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count >= capacity) {
+                if (nanos <= 0)
+                    return false;
+                nanos = notFull.awaitNanos(nanos);
+            }
+
+            enqueue(observable);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(@NonNull InferenceObservable observable) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count >= capacity)
+                notFull.await();
+
+            enqueue(observable);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public InferenceObservable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0)
+                notEmpty.await();
+
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public InferenceObservable poll(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0)
+                    return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public InferenceObservable poll() {
+        lock.lock();
+        try {
+            return count == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public InferenceObservable peek() {
+        lock.lock();
+        try {
+            for (ArrayDeque<InferenceObservable> lane : lanes) {
+                if (!lane.isEmpty())
+                    return lane.peekFirst();
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super InferenceObservable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(@NonNull Collection<? super InferenceObservable> c, int maxElements) {
+        if (c == this)
+            throw new IllegalArgumentException("Can't drain queue to itself");
+
+        lock.lock();
+        try {
+            int drained = 0;
+            InferenceObservable observable;
+            while (drained < maxElements && (observable = dequeue()) != null) {
+                c.add(observable);
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * PLEASE NOTE: returned iterator works on a snapshot of the queue, in priority order
+     */
+    @Override
+    public Iterator<InferenceObservable> iterator() {
+        lock.lock();
+        try {
+            List<InferenceObservable> snapshot = new ArrayList<>(count);
+            for (ArrayDeque<InferenceObservable> lane : lanes)
+                snapshot.addAll(lane);
+
+            return Collections.unmodifiableList(snapshot).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -20,7 +20,9 @@ import org.nd4j.shade.guava.base.Preconditions;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.parallelism.inference.DeadlineExceededException;
 import org.deeplearning4j.parallelism.inference.InferenceObservable;
+import org.deeplearning4j.parallelism.inference.InferencePriority;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.primitives.Pair;
 
@@ -39,6 +41,12 @@ public class BasicInferenceObservable extends Observable implements InferenceObs
     private long id;
     private INDArray[] output;
     protected Exception exception;
+    private long timestamp;
+    @Getter
+    protected InferencePriority priority = InferencePriority.NORMAL;
+    // System.nanoTime() value after which this request shouldn't be processed anymore
+    protected long deadline = Long.MAX_VALUE;
+    private volatile boolean cancelled = false;
 
 
     public BasicInferenceObservable(INDArray... inputs) {
@@ -49,6 +57,19 @@ public class BasicInferenceObservable extends Observable implements InferenceObs
         super();
         this.input = inputs;
         this.inputMasks = inputMasks;
+        this.timestamp = System.nanoTime();
+    }
+
+    /**
+     * @param inputs     Input arrays
+     * @param inputMasks Input mask arrays. May be null.
+     * @param priority   Priority class of this request
+     * @param deadline   System.nanoTime() value after which request will be shed instead of processed
+     */
+    public BasicInferenceObservable(INDArray[] inputs, INDArray[] inputMasks, @NonNull InferencePriority priority, long deadline){
+        this(inputs, inputMasks);
+        this.priority = priority;
+        this.deadline = deadline;
     }
 
     @Override
@@ -60,6 +81,26 @@ public class BasicInferenceObservable extends Observable implements InferenceObs
     public void addInput(@NonNull INDArray[] input, INDArray[] inputMasks) {
         this.input = input;
         this.inputMasks = inputMasks;
+        this.timestamp = System.nanoTime();
+    }
+
+    @Override
+    public long[] getInputTimestamps() {
+        return new long[]{timestamp};
+    }
+
+    @Override
+    public int shedExpired(long now) {
+        if (!cancelled && (deadline == Long.MAX_VALUE || now - deadline <= 0))
+            return 0;
+
+        setOutputException(new DeadlineExceededException("Request deadline passed before processing started"));
+        return 1;
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
     }
 
     @Override
@@ -50,4 +50,22 @@ public class BasicInferenceObserver implements Observer {
             LockSupport.parkNanos(1000);
         }
     }
+
+    /**
+     * This method blocks until the observable is done, or until given deadline passes
+     *
+     * @param deadline System.nanoTime() value to wait until. Long.MAX_VALUE to wait without time limit
+     * @return true if the observable is done, false if the deadline passed first
+     */
+    public boolean waitTillDone(long deadline) {
+        if (deadline == Long.MAX_VALUE) {
+            waitTillDone();
+            return true;
+        }
+
+        while (!finished.get() && System.nanoTime() - deadline < 0) {
+            LockSupport.parkNanos(1000);
+        }
+        return finished.get();
+    }
 }
@@ -16,9 +16,12 @@
 
 package org.deeplearning4j.parallelism.inference.observers;
 
+import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.deeplearning4j.parallelism.inference.DeadlineExceededException;
 import org.deeplearning4j.parallelism.inference.InferenceObservable;
+import org.deeplearning4j.parallelism.inference.InferencePriority;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.api.DataSetUtil;
 import org.nd4j.linalg.exception.ND4JIllegalStateException;
@@ -30,7 +33,10 @@ import org.nd4j.linalg.primitives.Pair;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -45,6 +51,13 @@ public class BatchedInferenceObservable extends BasicInferenceObservable impleme
     private List<INDArray[]> inputs = new ArrayList<>();
     private List<INDArray[]> inputMasks = new ArrayList<>();
     private List<INDArray[]> outputs = new ArrayList<>();
+    private List<Long> timestamps = new ArrayList<>();
+    private List<Long> deadlines = new ArrayList<>();
+    // positions of inputs shed due to deadline or cancellation, and positions of inputs actually sent for processing
+    private Set<Integer> expired = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    private List<Integer> active = null;
+    // upper bounds of sequence length buckets, null if bucketing is disabled
+    private int[] sequenceBuckets;
     private AtomicInteger counter = new AtomicInteger(0);
     private ThreadLocal<Integer> position = new ThreadLocal<>();
     private List<int[]> outputBatchInputArrays = new ArrayList<>();
@@ -59,11 +72,39 @@ public class BatchedInferenceObservable extends BasicInferenceObservable impleme
 
     }
 
+    public BatchedInferenceObservable(@NonNull InferencePriority priority) {
+        this(priority, null);
+    }
+
+    /**
+     * @param priority        Priority class of this batch
+     * @param sequenceBuckets Ascending upper bounds of time series length buckets. If not null, time series inputs are
+     *                        grouped by bucket, and each group is padded only up to its own max length. May be null.
+     */
+    public BatchedInferenceObservable(@NonNull InferencePriority priority, int[] sequenceBuckets) {
+        this.priority = priority;
+        this.sequenceBuckets = sequenceBuckets;
+    }
+
     @Override
     public void addInput(INDArray[] input, INDArray[] inputMasks) {
+        addInput(input, inputMasks, Long.MAX_VALUE);
+    }
+
+    /**
+     * This method adds input to the batch
+     *
+     * @param input      Input arrays
+     * @param inputMasks Input mask arrays. May be null.
+     * @param deadline   System.nanoTime() value after which this input will be shed instead of processed. Long.MAX_VALUE for no deadline
+     */
+    public void addInput(INDArray[] input, INDArray[] inputMasks, long deadline) {
         synchronized (locker) {
             inputs.add(input);
             this.inputMasks.add(inputMasks);
+            timestamps.add(System.nanoTime());
+            deadlines.add(deadline);
+            this.deadline = Math.min(this.deadline, deadline);
             position.set(counter.getAndIncrement());
 
             if (isReadLocked.get())
@@ -71,6 +112,49 @@ public class BatchedInferenceObservable extends BasicInferenceObservable impleme
         }
     }
 
+    @Override
+    public int shedExpired(long now) {
+        realLocker.writeLock().lock();
+        try {
+            isLocked.set(true);
+
+            if (deadline != Long.MAX_VALUE && now - deadline > 0) {
+                synchronized (locker) {
+                    for (int i = 0; i < deadlines.size(); i++) {
+                        long d = deadlines.get(i);
+                        if (d != Long.MAX_VALUE && now - d > 0)
+                            expired.add(i);
+                    }
+                }
+            }
+
+            if (expired.isEmpty())
+                return 0;
+        } finally {
+            realLocker.writeLock().unlock();
+        }
+
+        // if nothing is left for processing - notify everyone right away
+        if (!expired.isEmpty() && expired.size() == inputs.size())
+            setOutputException(new DeadlineExceededException("Request deadline passed before processing started"));
+
+        return expired.size();
+    }
+
+    @Override
+    public void cancel() {
+        Integer pos = position.get();
+        if (pos != null)
+            expired.add(pos);
+    }
+
+    /**
+     * This method maps position within processed inputs to the position within all added inputs
+     */
+    private int inputIndex(int activePosition) {
+        return active == null ? activePosition : active.get(activePosition);
+    }
+
     @Override
     public List<Pair<INDArray[],INDArray[]>> getInputBatches() {
         realLocker.writeLock().lock();
@@ -78,19 +162,41 @@ public class BatchedInferenceObservable extends BasicInferenceObservable impleme
 
         outputBatchInputArrays.clear();
 
+        active = new ArrayList<>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            if (!expired.contains(i))
+                active.add(i);
+        }
+
+        if (active.isEmpty()) {
+            realLocker.writeLock().unlock();
+            return Collections.emptyList();
+        }
+
+        if (sequenceBuckets != null && active.size() > 1) {
+            // stable sort, so requests within the same bucket keep their order
+            Collections.sort(active, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return Integer.compare(bucketOf(inputs.get(o1)), bucketOf(inputs.get(o2)));
+                }
+            });
+        }
+
         // this method should pile individual examples into single batch
 
-        if (counter.get() > 1) {
+        if (active.size() > 1) {
 
             int pos = 0;
             List<Pair<INDArray[],INDArray[]>> out = new ArrayList<>();
-            int numArrays = inputs.get(0).length;
-            while(pos < inputs.size()) {
+            while(pos < active.size()) {
 
                 //First: determine which we can actually batch...
                 int lastPossible = pos;
-                for (int i = pos+1; i < inputs.size(); i++) {
-                    if (canBatch(inputs.get(pos), inputs.get(i))) {
+                for (int i = pos+1; i < active.size(); i++) {
+                    boolean batchable = sequenceBuckets == null ? canBatch(inputs.get(inputIndex(pos)), inputs.get(inputIndex(i)))
+                            : canBatchBucketed(inputIndex(pos), inputIndex(i));
+                    if (batchable) {
                         lastPossible = i;
                     } else {
                         break;
@@ -102,16 +208,16 @@ public class BatchedInferenceObservable extends BasicInferenceObservable impleme
                 INDArray[][] fMasksToMerge = null;
                 int fPos = 0;
                 for( int i=pos; i<=lastPossible; i++ ){
-                    featuresToMerge[fPos] = inputs.get(i);
+                    featuresToMerge[fPos] = inputs.get(inputIndex(i));
 
-                    if(inputMasks.get(i) != null) {
+                    if(inputMasks.get(inputIndex(i)) != null) {
                         if(fMasksToMerge == null){
                             fMasksToMerge = new INDArray[countToMerge][0];
                             for( int j=0; j<countToMerge; j++ ){
                                 fMasksToMerge[j] = null;
                             }
                         }
-                        fMasksToMerge[fPos] = inputMasks.get(i);
+                        fMasksToMerge[fPos] = inputMasks.get(inputIndex(i));
                     }
                     fPos++;
                 }
@@ -127,7 +233,18 @@ public class BatchedInferenceObservable extends BasicInferenceObservable impleme
         } else {
             outputBatchInputArrays.add(new int[]{0,0});
             realLocker.writeLock().unlock();
-            return Collections.singletonList(new Pair<>(inputs.get(0), inputMasks.get(0)));
+            return Collections.singletonList(new Pair<>(inputs.get(inputIndex(0)), inputMasks.get(inputIndex(0))));
+        }
+    }
+
+    @Override
+    public long[] getInputTimestamps() {
+        synchronized (locker) {
+            long[] result = new long[timestamps.size()];
+            for (int i = 0; i < result.length; i++)
+                result[i] = timestamps.get(i);
+
+            return result;
         }
     }
 
@@ -146,6 +263,56 @@ public class BatchedInferenceObservable extends BasicInferenceObservable impleme
         return true;
     }
 
+    /**
+     * This method returns length bucket for the given input, based on the length of its first time series array
+     */
+    private int bucketOf(INDArray[] input) {
+        for (INDArray arr : input) {
+            if (arr.rank() == 3) {
+                long length = arr.size(2);
+                for (int b = 0; b < sequenceBuckets.length; b++) {
+                    if (length <= sequenceBuckets[b])
+                        return b;
+                }
+                return sequenceBuckets.length;
+            }
+        }
+        return -1;
+    }
+
+    private boolean canBatchBucketed(int firstIdx, int candidateIdx) {
+        //Time series inputs within the same length bucket are batched together, and padded to the longest one
+        //Everything else still has to have exactly the same shape
+        INDArray[] first = inputs.get(firstIdx);
+        INDArray[] candidate = inputs.get(candidateIdx);
+        if (bucketOf(first) != bucketOf(candidate))
+            return false;
+
+        for (int i = 0; i < first.length; i++) {
+            if (first[i].rank() != candidate[i].rank())
+                return false;
+
+            if (first[i].rank() == 3) {
+                if (first[i].size(1) != candidate[i].size(1))
+                    return false;
+            } else if (!Arrays.equals(first[i].shape(), candidate[i].shape())) {
+                return false;
+            }
+        }
+
+        //Per-timestep and per-output masks can't be merged together
+        INDArray[] fm = inputMasks.get(firstIdx);
+        INDArray[] cm = inputMasks.get(candidateIdx);
+        if (fm != null && cm != null) {
+            for (int i = 0; i < fm.length; i++) {
+                if (fm[i] != null && cm[i] != null && fm[i].rank() != cm[i].rank())
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
     @Override
     public void setOutputBatches(List<INDArray[]> output) {
         //this method should split batched output INDArray[] into multiple separate INDArrays
@@ -190,10 +357,24 @@ public class BatchedInferenceObservable extends BasicInferenceObservable impleme
             for(int i=1; i<indices.length; i++ ){
                 indices[i] = NDArrayIndex.all();
             }
+            // with length bucketing, time series outputs were padded up to the longest input within the batch
+            long maxLength = -1;
+            if (sequenceBuckets != null && netOutput.rank() == 3) {
+                for (int inNum = 0; inNum < numSplits; inNum++) {
+                    INDArray in = inputs.get(inputIndex(firstInputComponent + inNum))[0];
+                    if (in.rank() == 3)
+                        maxLength = Math.max(maxLength, in.size(2));
+                }
+            }
+            boolean trimTime = maxLength > 0 && netOutput.size(2) == maxLength;
+
             int examplesSoFar = 0;
             for( int inNum = 0; inNum < numSplits; inNum++ ){
-                val inSizeEx = inputs.get(firstInputComponent + inNum)[0].size(0);
+                INDArray in = inputs.get(inputIndex(firstInputComponent + inNum))[0];
+                val inSizeEx = in.size(0);
                 indices[0] = NDArrayIndex.interval(examplesSoFar, examplesSoFar+inSizeEx);
+                if (trimTime)
+                    indices[2] = in.rank() == 3 ? NDArrayIndex.interval(0, in.size(2)) : NDArrayIndex.all();
                 out[inNum] = netOutput.get(indices);
                 examplesSoFar += inSizeEx;
             }
@@ -240,6 +421,11 @@ public class BatchedInferenceObservable extends BasicInferenceObservable impleme
     public INDArray[] getOutput() {
         // basically we should take care of splits here: each client should get its own part of output, wrt order number
         checkOutputException();
-        return outputs.get(position.get());
+
+        int pos = position.get();
+        if (expired.contains(pos))
+            throw new DeadlineExceededException("Request deadline passed before processing started");
+
+        return outputs.get(active == null ? pos : active.indexOf(pos));
     }
 }
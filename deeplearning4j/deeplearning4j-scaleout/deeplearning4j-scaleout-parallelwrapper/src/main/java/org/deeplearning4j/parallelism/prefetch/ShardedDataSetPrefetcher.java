@@ -0,0 +1,312 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.deeplearning4j.parallelism.prefetch;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.nd4j.base.Preconditions;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.memory.conf.WorkspaceConfiguration;
+import org.nd4j.linalg.api.memory.enums.AllocationPolicy;
+import org.nd4j.linalg.api.memory.enums.LearningPolicy;
+import org.nd4j.linalg.api.memory.enums.ResetPolicy;
+import org.nd4j.linalg.api.memory.enums.SpillPolicy;
+import org.nd4j.linalg.dataset.api.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIteratorFactory;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sharded data prefetching for {@link org.deeplearning4j.parallelism.ParallelWrapper}: instead of a single iterator
+ * feeding all workers, each worker has its own data shard (one or more iterators, or an iterator created by a
+ * {@link DataSetIteratorFactory}), read by its own background thread into its own prefetch buffer. Prefetch threads are
+ * attached to the device of their worker, and (optionally) allocate DataSets in their own workspace, the same way
+ * {@link org.nd4j.linalg.dataset.AsyncDataSetIterator} does.<br>
+ * <br>
+ * Work stealing: if the buffer of a worker is empty, a DataSet is taken from the buffer of the worker with the most
+ * prefetched DataSets instead - if that buffer has more than one DataSet, or at any time once the worker's own shard is
+ * exhausted. Hence slow or small shards don't stall training. DataSets are only stolen across devices if cross-device
+ * access is supported.<br>
+ * <br>
+ * PLEASE NOTE: {@link #next(int)} isn't thread safe: it's expected to be called from a single thread<br>
+ * PLEASE NOTE: the order in which DataSets are returned isn't deterministic
+ */
+@Slf4j
+public class ShardedDataSetPrefetcher implements AutoCloseable {
+    protected final ShardThread[] threads;
+    protected final AtomicLong[] stolen;
+
+    /**
+     * @param shards       Iterators for each worker: shards.get(i) are read (one after another) for worker i
+     * @param bufferSize   Prefetch buffer size, per worker
+     * @param useWorkspace If true, prefetched DataSets are allocated in a workspace
+     */
+    public ShardedDataSetPrefetcher(@NonNull List<? extends List<? extends DataSetIterator>> shards, int bufferSize,
+                                    boolean useWorkspace) {
+        this(shards, null, shards.size(), bufferSize, useWorkspace);
+    }
+
+    /**
+     * @param factory      Factory used to create one iterator per worker. {@link DataSetIteratorFactory#create()} is
+     *                     called once for each worker (from the worker's prefetch thread), and should return an
+     *                     iterator over a different part of the data each time
+     * @param workers      Number of workers
+     * @param bufferSize   Prefetch buffer size, per worker
+     * @param useWorkspace If true, prefetched DataSets are allocated in a workspace
+     */
+    public ShardedDataSetPrefetcher(@NonNull DataSetIteratorFactory factory, int workers, int bufferSize,
+                                    boolean useWorkspace) {
+        this(null, factory, workers, bufferSize, useWorkspace);
+    }
+
+    protected ShardedDataSetPrefetcher(List<? extends List<? extends DataSetIterator>> shards,
+                                       DataSetIteratorFactory factory, int workers, int bufferSize, boolean useWorkspace) {
+        Preconditions.checkArgument(workers > 0, "Number of workers must be positive, got %s", workers);
+        if (bufferSize < 2)
+            bufferSize = 2;
+
+        int numDevices = Nd4j.getAffinityManager().getNumberOfDevices();
+        threads = new ShardThread[workers];
+        stolen = new AtomicLong[workers];
+        for (int i = 0; i < workers; i++) {
+            List<? extends DataSetIterator> iterators = (shards == null ? null : shards.get(i));
+            // up to bufferSize DataSets in the buffer, one being created, and one in use by each worker (work stealing)
+            WorkspaceConfiguration configuration = WorkspaceConfiguration.builder().minSize(10 * 1024L * 1024L)
+                    .overallocationLimit(bufferSize + workers + 2).policyReset(ResetPolicy.ENDOFBUFFER_REACHED)
+                    .policyLearning(LearningPolicy.FIRST_LOOP).policyAllocation(AllocationPolicy.OVERALLOCATE)
+                    .policySpill(SpillPolicy.REALLOCATE).build();
+
+            threads[i] = new ShardThread(i, iterators, factory, bufferSize, i % numDevices,
+                    useWorkspace ? configuration : null);
+            stolen[i] = new AtomicLong(0);
+        }
+
+        for (ShardThread t : threads)
+            t.start();
+    }
+
+    /**
+     * @return Number of workers (shards)
+     */
+    public int numWorkers() {
+        return threads.length;
+    }
+
+    /**
+     * This method returns next DataSet for the specified worker: from the worker's own prefetch buffer, or from the
+     * buffer of another worker (work stealing). Blocks until a DataSet is available.
+     *
+     * @param worker Index of the worker
+     * @return next DataSet, or null if all shards are exhausted
+     */
+    public DataSet next(int worker) {
+        ShardThread own = threads[worker];
+        boolean crossDevice = Nd4j.getAffinityManager().isCrossDeviceAccessSupported();
+        while (true) {
+            own.rethrow();
+
+            DataSet ds = own.buffer.poll();
+            if (ds != null)
+                return ds;
+
+            boolean ownDepleted = own.isDepleted();
+            ShardThread victim = null;
+            int maxSize = ownDepleted ? 0 : 1;
+            for (ShardThread t : threads) {
+                if (t == own || (!crossDevice && t.deviceId != own.deviceId))
+                    continue;
+
+                t.rethrow();
+                int size = t.buffer.size();
+                if (size > maxSize) {
+                    victim = t;
+                    maxSize = size;
+                }
+            }
+
+            if (victim != null) {
+                ds = victim.buffer.poll();
+                if (ds != null) {
+                    stolen[worker].incrementAndGet();
+                    return ds;
+                }
+            } else if (!ownDepleted) {
+                try {
+                    ds = own.buffer.poll(1, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+
+                if (ds != null)
+                    return ds;
+            } else if (isDepleted()) {
+                return null;
+            } else {
+                // our own shard is exhausted, so we wait for other workers' data
+                LockSupport.parkNanos(100000L);
+            }
+        }
+    }
+
+    /**
+     * @return true if all shards are exhausted, and all prefetched DataSets were returned
+     */
+    public boolean isDepleted() {
+        for (ShardThread t : threads) {
+            t.rethrow();
+            if (!t.isDepleted())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param worker Index of the worker
+     * @return Number of DataSets returned for the specified worker, that were taken from other workers' buffers
+     */
+    public long getStolenCount(int worker) {
+        return stolen[worker].get();
+    }
+
+    /**
+     * This method stops all prefetch threads, and destroys their workspaces.
+     *
+     * PLEASE NOTE: DataSets returned by this prefetcher can't be used after this call
+     */
+    @Override
+    public void close() {
+        for (ShardThread t : threads)
+            t.shouldWork.set(false);
+
+        for (ShardThread t : threads)
+            t.shutdown();
+    }
+
+    protected static class ShardThread extends Thread {
+        protected final LinkedBlockingQueue<DataSet> buffer;
+        protected final List<? extends DataSetIterator> iterators;
+        protected final DataSetIteratorFactory factory;
+        protected final int deviceId;
+        protected final WorkspaceConfiguration configuration;
+        protected final String workspaceId = "SDSP_ITER-" + java.util.UUID.randomUUID().toString();
+        protected final AtomicBoolean shouldWork = new AtomicBoolean(true);
+        protected MemoryWorkspace workspace;
+        protected volatile boolean finished = false;
+        protected volatile RuntimeException throwable;
+
+        protected ShardThread(int worker, List<? extends DataSetIterator> iterators, DataSetIteratorFactory factory,
+                              int bufferSize, int deviceId, WorkspaceConfiguration configuration) {
+            this.buffer = new LinkedBlockingQueue<>(bufferSize);
+            this.iterators = iterators;
+            this.factory = factory;
+            this.deviceId = deviceId;
+            this.configuration = configuration;
+
+            this.setDaemon(true);
+            this.setName("SDSP prefetch thread " + worker);
+        }
+
+        @Override
+        public void run() {
+            Nd4j.getAffinityManager().unsafeSetDevice(deviceId);
+            try {
+                if (configuration != null)
+                    workspace = Nd4j.getWorkspaceManager().getWorkspaceForCurrentThread(configuration, workspaceId);
+
+                List<? extends DataSetIterator> list = iterators;
+                if (factory != null)
+                    list = Collections.singletonList(factory.create());
+
+                for (DataSetIterator iterator : (list == null ? new ArrayList<DataSetIterator>() : list)) {
+                    if (!iterator.hasNext() && iterator.resetSupported())
+                        iterator.reset();
+
+                    while (iterator.hasNext() && shouldWork.get()) {
+                        DataSet ds;
+                        if (workspace != null) {
+                            try (MemoryWorkspace ws = workspace.notifyScopeEntered()) {
+                                ds = iterator.next();
+                            }
+                        } else {
+                            ds = iterator.next();
+                        }
+
+                        // we want to ensure underlying iterator finished dataset creation
+                        Nd4j.getExecutioner().commit();
+
+                        if (ds != null)
+                            buffer.put(ds);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                shouldWork.set(false);
+            } catch (RuntimeException e) {
+                throwable = e;
+            } catch (Exception e) {
+                throwable = new RuntimeException(e);
+            } finally {
+                synchronized (this) {
+                    finished = true;
+                    this.notifyAll();
+                }
+            }
+        }
+
+        protected boolean isDepleted() {
+            // finished flag must be checked first: all DataSets are in the buffer once it's set
+            return finished && buffer.isEmpty();
+        }
+
+        protected void rethrow() {
+            if (throwable != null)
+                throw new RuntimeException("Exception in prefetch thread: " + getName(), throwable);
+        }
+
+        protected void shutdown() {
+            buffer.clear();
+            interrupt();
+            synchronized (this) {
+                while (!finished) {
+                    try {
+                        this.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+            buffer.clear();
+
+            if (workspace != null) {
+                log.debug("Manually destroying SDSP workspace");
+                workspace.destroyWorkspace(true);
+            }
+        }
+    }
+}
@@ -95,6 +95,7 @@ public class DefaultTrainer extends Thread implements Trainer {
     protected Model originalModel;
 
     protected final ReentrantReadWriteLock modelLock = new ReentrantReadWriteLock();
+    protected final AtomicLong computeTime = new AtomicLong(0);
 
     @Override
     public void feedMultiDataSet(@NonNull MultiDataSet dataSet, long etlTime) {
@@ -268,6 +269,14 @@ public class DefaultTrainer extends Thread implements Trainer {
         }
     }
 
+    /**
+     * This method is called by the training thread once training has stopped (i.e., after {@link #shutdown()} has
+     * been called), before the thread terminates
+     */
+    protected void preShutdown() {
+        //No op by default
+    }
+
     /**
      * This method does post-initialization configuration of Model.
      * Good place to configure listeners and all such a things
@@ -382,7 +391,9 @@ public class DefaultTrainer extends Thread implements Trainer {
                     }
                     if (dataSet != null) {
 
+                        long time1 = System.nanoTime();
                         fit(dataSet);
+                        computeTime.addAndGet(System.nanoTime() - time1);
 
                         // if we don't support cross-device stuff (like multi-gpu on windows) - sync back to host
                         if (!Nd4j.getAffinityManager().isCrossDeviceAccessSupported() && (averagingFrequency == 0
@@ -420,7 +431,9 @@ public class DefaultTrainer extends Thread implements Trainer {
                     if (dataSet != null) {
 
                         // just fitting
+                        long time1 = System.nanoTime();
                         fit(dataSet);
+                        computeTime.addAndGet(System.nanoTime() - time1);
 
                         // if we don't support cross-device stuff (like multi-gpu on windows) - sync back to host
                         if (!Nd4j.getAffinityManager().isCrossDeviceAccessSupported() && (averagingFrequency == 0
@@ -444,6 +457,9 @@ public class DefaultTrainer extends Thread implements Trainer {
                     }
                 }
             }
+
+            // classes that extend DefaultTrainer might hook something there
+            preShutdown();
         } catch (Exception e) {
             this.thrownException = e;
             throw new RuntimeException(e);
@@ -501,6 +517,14 @@ public class DefaultTrainer extends Thread implements Trainer {
         return true;
     }
 
+    /**
+     * This method returns total time spent by this trainer on fitting DataSets/MultiDataSets, in milliseconds.
+     * Time spent waiting for data (or idle) isn't included
+     */
+    public long getComputeTime() {
+        return computeTime.get() / 1000000L;
+    }
+
     protected static TrainingListener cloneListener(TrainingListener original) {
         if (original instanceof RoutingIterationListener) {
             return ((RoutingIterationListener) original).clone();
@@ -22,7 +22,9 @@ import org.deeplearning4j.nn.api.Model;
 import org.deeplearning4j.nn.conf.WorkspaceMode;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.optimize.api.ConvexOptimizer;
 import org.deeplearning4j.optimize.listeners.SharedGradient;
+import org.deeplearning4j.optimize.solvers.accumulation.BucketedGradientsAccumulator;
 import org.deeplearning4j.optimize.solvers.accumulation.GradientsAccumulator;
 import org.deeplearning4j.parallelism.ParallelWrapper;
 
@@ -81,6 +83,20 @@ public class SymmetricTrainer extends DefaultTrainer implements CommunicativeTra
         accumulator.touch();
     }
 
+    @Override
+    protected void preShutdown() {
+        super.preShutdown();
+
+        // in bucketed mode, the updates of the last iteration haven't been applied yet: they are usually applied during
+        // the forward pass of the next iteration
+        if (accumulator instanceof BucketedGradientsAccumulator && ((BucketedGradientsAccumulator) accumulator).isBucketed()) {
+            ConvexOptimizer optimizer = (replicatedModel instanceof ComputationGraph ?
+                    ((ComputationGraph) replicatedModel).getOptimizer() : ((MultiLayerNetwork) replicatedModel).getOptimizer());
+            if (optimizer != null)
+                ((BucketedGradientsAccumulator) accumulator).applyRemainingUpdates(optimizer.getStepFunction(), replicatedModel.params());
+        }
+    }
+
 
 
 }
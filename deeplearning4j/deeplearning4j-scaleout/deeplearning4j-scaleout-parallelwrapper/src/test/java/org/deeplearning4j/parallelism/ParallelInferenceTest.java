@@ -35,6 +35,7 @@ import org.nd4j.linalg.io.ClassPathResource;
 import org.deeplearning4j.datasets.iterator.impl.MnistDataSetIterator;
 import org.deeplearning4j.eval.Evaluation;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.parallelism.inference.AdaptiveBatchScheduler;
 import org.deeplearning4j.parallelism.inference.InferenceMode;
 import org.deeplearning4j.parallelism.inference.InferenceObservable;
 import org.deeplearning4j.parallelism.inference.observers.BasicInferenceObserver;
@@ -53,6 +54,7 @@ import java.lang.reflect.Field;
 import java.util.*;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
@@ -218,6 +220,51 @@ public class ParallelInferenceTest extends BaseDL4JTest {
     }
 
 
+    @Test(timeout = 60000L)
+    public void testInferenceBatchedAdaptive1() throws Exception {
+        ParallelInference inf = new ParallelInference.Builder(model).inferenceMode(InferenceMode.BATCHED).batchLimit(16)
+                .maxLatency(20, TimeUnit.MILLISECONDS)
+                .workers(2).build();
+        try {
+            iterator = new MnistDataSetIterator(1, false, 12345);
+
+            INDArray features = iterator.next().getFeatures();
+            assertEquals(model.output(features), inf.output(features));
+            int requests = 1;
+
+            iterator.reset();
+
+            requests += evalClassifcationMultipleThreads(inf, iterator, 10);
+
+            // each request should be tracked
+            assertEquals(requests, inf.getQueueLatencyHistogram().getCount());
+            assertEquals(requests, inf.getComputeLatencyHistogram().getCount());
+            assertTrue(inf.getComputeLatencyHistogram().getPercentile(50.0) > 0);
+        } finally {
+            inf.shutdown();
+        }
+    }
+
+    @Test
+    public void testProviderAdaptive1() throws Exception {
+        LinkedBlockingQueue queue = new LinkedBlockingQueue();
+        BasicInferenceObserver observer = new BasicInferenceObserver();
+        AdaptiveBatchScheduler scheduler = new AdaptiveBatchScheduler(TimeUnit.MILLISECONDS.toNanos(10), 100, 1);
+
+        // 1ms overhead + 1ms per example: only 9 examples fit into 10ms budget
+        scheduler.recordCompute(0, 1, TimeUnit.MILLISECONDS.toNanos(2));
+        scheduler.recordCompute(0, 4, TimeUnit.MILLISECONDS.toNanos(5));
+        assertEquals(9, scheduler.batchLimit());
+
+        ParallelInference.ObservablesProvider provider =
+                        new ParallelInference.ObservablesProvider(10000000L, 100, queue, scheduler);
+
+        for (int i = 0; i < 10; i++)
+            provider.setInput(observer, Nd4j.create(1, 100));
+
+        assertEquals(2, queue.size());
+    }
+
     @Test
     public void testProvider1() throws Exception {
         LinkedBlockingQueue queue = new LinkedBlockingQueue();
@@ -357,7 +404,10 @@ public class ParallelInferenceTest extends BaseDL4JTest {
         log.info(eval.stats());
     }
 
-    protected void evalClassifcationMultipleThreads(@NonNull ParallelInference inf, @NonNull DataSetIterator iterator,
+    /**
+     * @return Number of output requests submitted to the ParallelInference instance
+     */
+    protected int evalClassifcationMultipleThreads(@NonNull ParallelInference inf, @NonNull DataSetIterator iterator,
                     int numThreads) throws Exception {
         DataSet ds = iterator.next();
         log.info("NumColumns: {}", ds.getLabels().columns());
@@ -402,6 +452,7 @@ public class ParallelInferenceTest extends BaseDL4JTest {
             eval.eval(output.getFirst(), output.getSecond());
         }
         log.info(eval.stats());
+        return cnt;
     }
 
 
@@ -451,6 +502,50 @@ public class ParallelInferenceTest extends BaseDL4JTest {
         }
     }
 
+    @Test(timeout = 120000L)
+    public void testParallelInferenceSequenceBuckets() throws Exception {
+        Nd4j.getRandom().setSeed(12345);
+
+        int nIn = 10;
+        int[] tsLengths = {3,5,7,10,12,50,60,100};
+
+        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
+                .activation(Activation.TANH)
+                .seed(12345)
+                .list()
+                .layer(new LSTM.Builder().nIn(nIn).nOut(5).build())
+                .layer(new RnnOutputLayer.Builder().nIn(5).nOut(5).activation(Activation.SOFTMAX).build())
+                .build();
+
+        MultiLayerNetwork net = new MultiLayerNetwork(conf);
+        net.init();
+
+        for( int w : new int[]{1,2}) {
+            final ParallelInference inf =
+                    new ParallelInference.Builder(net)
+                            .inferenceMode(InferenceMode.BATCHED)
+                            .sequenceBuckets(8, 16, 64)
+                            .batchLimit(20)
+                            .queueLimit(64)
+                            .workers(w).build();
+            try {
+                List<INDArray> arrs = new ArrayList<>();
+                List<INDArray> exp = new ArrayList<>();
+                for (int i = 0; i < 3; i++) {
+                    for (int l : tsLengths) {
+                        INDArray in = Nd4j.rand(new int[]{1, nIn, l});
+                        arrs.add(in);
+                        exp.add(net.output(in));
+                    }
+                }
+
+                testParallelInference(inf, arrs, exp);
+            } finally {
+                inf.shutdown();
+            }
+        }
+    }
+
     @Test(timeout = 120000L)
     public void testParallelInferenceVariableLengthTS2() throws Exception {
         Nd4j.getRandom().setSeed(12345);
@@ -823,6 +918,60 @@ public class ParallelInferenceTest extends BaseDL4JTest {
         inf.shutdown();
     }
 
+    @Test(timeout = 60000L)
+    public void testSharedParameters() throws Exception {
+        int nIn = 5;
+
+        val conf = new NeuralNetConfiguration.Builder()
+                .list()
+                .layer(new DenseLayer.Builder().nIn(nIn).nOut(10).activation(Activation.TANH).build())
+                .layer(new OutputLayer.Builder().nIn(10).nOut(3).activation(Activation.SOFTMAX).build())
+                .build();
+
+        val net = new MultiLayerNetwork(conf);
+        net.init();
+
+        for (InferenceMode mode : new InferenceMode[]{InferenceMode.SEQUENTIAL, InferenceMode.BATCHED}) {
+            val inf = new ParallelInference.Builder(net)
+                    .inferenceMode(mode)
+                    .sharedParameters(true)
+                    .workers(4)
+                    .build();
+
+            try {
+                for (int e = 0; e < 20; e++) {
+                    val in = Nd4j.rand(1, nIn);
+                    assertEquals(net.output(in), inf.output(in));
+                }
+
+                // all replicas should be backed by the same parameters array as the original model
+                int cnt = 0;
+                for (val m : inf.getCurrentModelsFromWorkers()) {
+                    if (m != null) {
+                        assertEquals("Failed at model [" + cnt + "]", net.params().data().address(), m.params().data().address());
+                        assertEquals(net.params(), m.params());
+                    }
+                    cnt++;
+                }
+
+                // updated model should be shared as well
+                val net2 = new MultiLayerNetwork(conf.clone());
+                net2.init();
+                inf.updateModel(net2);
+
+                for (val m : inf.getCurrentModelsFromWorkers()) {
+                    assertNotNull(m);
+                    assertEquals(net2.params().data().address(), m.params().data().address());
+                }
+
+                val in = Nd4j.rand(1, nIn);
+                assertEquals(net2.output(in), inf.output(in));
+            } finally {
+                inf.shutdown();
+            }
+        }
+    }
+
     @Test(timeout = 120000L)
     public void testMultiOutputNet() throws Exception {
 
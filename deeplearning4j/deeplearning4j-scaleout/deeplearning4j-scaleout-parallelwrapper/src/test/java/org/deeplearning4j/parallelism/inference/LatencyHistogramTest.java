@@ -0,0 +1,81 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.parallelism.inference;
+
+import org.deeplearning4j.BaseDL4JTest;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest extends BaseDL4JTest {
+
+    @Test
+    public void testBucketBounds() {
+        for (long v : new long[]{0, 1, 7, 8, 9, 15, 16, 1000, 123456789L, Long.MAX_VALUE / 3}) {
+            int idx = LatencyHistogram.bucketIndex(v);
+            assertTrue(LatencyHistogram.bucketUpperBound(idx) >= v);
+            if (idx > 0)
+                assertTrue(LatencyHistogram.bucketUpperBound(idx - 1) < v);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(99.0));
+
+        for (int i = 1; i <= 1000; i++)
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(1000), histogram.getMax());
+        assertEquals(500500.0, histogram.getMean(), 1e-6);
+
+        // bucket precision is 1/8 of magnitude
+        assertEquals(500.0, histogram.getPercentile(50.0, TimeUnit.MICROSECONDS), 500.0 / 8);
+        assertEquals(990.0, histogram.getPercentile(99.0, TimeUnit.MICROSECONDS), 990.0 / 8);
+        assertEquals(1000, histogram.getPercentile(100.0, TimeUnit.MICROSECONDS));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void testSchedulerFlushDeadline() {
+        long target = TimeUnit.MILLISECONDS.toNanos(10);
+        AdaptiveBatchScheduler scheduler = new AdaptiveBatchScheduler(target, 32, 2);
+
+        // no measurements yet: all requests can be batched
+        assertEquals(32, scheduler.batchLimit());
+
+        long now = System.nanoTime();
+        assertTrue(scheduler.flushDeadline(0, now, 1) <= System.nanoTime());
+        assertEquals(now + target / 2, scheduler.flushDeadline(0, now, 0));
+
+        // constant 2ms per example, for a single worker
+        scheduler.recordCompute(1, 1, TimeUnit.MILLISECONDS.toNanos(2));
+        scheduler.recordCompute(1, 3, TimeUnit.MILLISECONDS.toNanos(6));
+        assertEquals(32, scheduler.batchLimit(0));
+        assertEquals(5, scheduler.batchLimit(1));
+        assertEquals(5, scheduler.batchLimit());
+        // full batch takes whole latency budget, so there's nothing to wait for
+        assertTrue(scheduler.flushDeadline(1, now, 0) - now < 1000);
+    }
+}
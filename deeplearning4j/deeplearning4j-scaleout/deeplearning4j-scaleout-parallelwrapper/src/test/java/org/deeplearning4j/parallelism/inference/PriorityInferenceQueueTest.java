@@ -0,0 +1,152 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.parallelism.inference;
+
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.parallelism.inference.observers.BasicInferenceObservable;
+import org.deeplearning4j.parallelism.inference.observers.BatchedInferenceObservable;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PriorityInferenceQueueTest extends BaseDL4JTest {
+
+    private static InferenceObservable request(InferencePriority priority) {
+        return new BasicInferenceObservable(new INDArray[]{Nd4j.create(1, 10)}, null, priority, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testPriorityOrder() throws Exception {
+        PriorityInferenceQueue queue = new PriorityInferenceQueue(16);
+
+        InferenceObservable low1 = request(InferencePriority.LOW);
+        InferenceObservable low2 = request(InferencePriority.LOW);
+        InferenceObservable normal = request(InferencePriority.NORMAL);
+        InferenceObservable high = request(InferencePriority.HIGH);
+
+        queue.put(low1);
+        queue.put(low2);
+        queue.put(normal);
+        queue.put(high);
+
+        assertEquals(4, queue.size());
+        assertEquals(2, queue.size(InferencePriority.LOW));
+        assertSame(high, queue.peek());
+
+        assertSame(high, queue.take());
+        assertSame(normal, queue.take());
+        assertSame(low1, queue.take());
+        assertSame(low2, queue.poll());
+        assertNull(queue.poll());
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testCapacity() throws Exception {
+        PriorityInferenceQueue queue = new PriorityInferenceQueue(2);
+
+        assertTrue(queue.offer(request(InferencePriority.LOW)));
+        assertTrue(queue.offer(request(InferencePriority.LOW)));
+        assertFalse(queue.offer(request(InferencePriority.HIGH)));
+        assertFalse(queue.offer(request(InferencePriority.HIGH), 10, TimeUnit.MILLISECONDS));
+        assertEquals(0, queue.remainingCapacity());
+
+        queue.take();
+        assertTrue(queue.offer(request(InferencePriority.HIGH)));
+        assertEquals(InferencePriority.HIGH, queue.take().getPriority());
+    }
+
+    @Test
+    public void testShedExpired() throws Exception {
+        long now = System.nanoTime();
+
+        InferenceObservable expired = new BasicInferenceObservable(new INDArray[]{Nd4j.create(1, 10)}, null,
+                InferencePriority.HIGH, now - 1);
+        assertEquals(1, expired.shedExpired(now));
+        try {
+            expired.getOutput();
+            fail("Expected exception");
+        } catch (DeadlineExceededException e) {
+            //expected
+        }
+
+        assertEquals(0, request(InferencePriority.HIGH).shedExpired(now));
+
+        // only expired part of the batch should be dropped
+        BatchedInferenceObservable batch = new BatchedInferenceObservable(InferencePriority.LOW);
+        batch.addInput(new INDArray[]{Nd4j.create(1, 10).assign(1.0)}, null, now - 1);
+        batch.addInput(new INDArray[]{Nd4j.create(1, 10).assign(2.0)}, null, Long.MAX_VALUE);
+        batch.addInput(new INDArray[]{Nd4j.create(1, 10).assign(3.0)}, null, now + TimeUnit.SECONDS.toNanos(60));
+
+        assertEquals(1, batch.shedExpired(now));
+
+        INDArray merged = batch.getInputBatches().get(0).getFirst()[0];
+        assertArrayEquals(new long[]{2, 10}, merged.shape());
+        assertEquals(2.0, merged.getRow(0).meanNumber().doubleValue(), 1e-5);
+        assertEquals(3.0, merged.getRow(1).meanNumber().doubleValue(), 1e-5);
+
+        batch.setOutputBatches(Collections.singletonList(new INDArray[]{merged.mul(2)}));
+
+        batch.setPosition(0);
+        try {
+            batch.getOutput();
+            fail("Expected exception");
+        } catch (DeadlineExceededException e) {
+            //expected
+        }
+
+        batch.setPosition(2);
+        assertEquals(6.0, batch.getOutput()[0].meanNumber().doubleValue(), 1e-5);
+    }
+
+    @Test
+    public void testShedCancelled() throws Exception {
+        long now = System.nanoTime();
+
+        InferenceObservable cancelled = request(InferencePriority.NORMAL);
+        cancelled.cancel();
+        assertEquals(1, cancelled.shedExpired(now));
+        try {
+            cancelled.getOutput();
+            fail("Expected exception");
+        } catch (DeadlineExceededException e) {
+            //expected
+        }
+
+        // cancel() drops the input added by the calling thread only
+        BatchedInferenceObservable batch = new BatchedInferenceObservable(InferencePriority.NORMAL);
+        batch.addInput(new INDArray[]{Nd4j.create(1, 10).assign(1.0)}, null, Long.MAX_VALUE);
+        batch.addInput(new INDArray[]{Nd4j.create(1, 10).assign(2.0)}, null, Long.MAX_VALUE);
+        batch.cancel();
+
+        assertEquals(1, batch.shedExpired(now));
+
+        INDArray merged = batch.getInputBatches().get(0).getFirst()[0];
+        assertArrayEquals(new long[]{1, 10}, merged.shape());
+        assertEquals(1.0, merged.meanNumber().doubleValue(), 1e-5);
+
+        batch.setOutputBatches(Collections.singletonList(new INDArray[]{merged.mul(2)}));
+
+        batch.setPosition(0);
+        assertEquals(2.0, batch.getOutput()[0].meanNumber().doubleValue(), 1e-5);
+    }
+}
@@ -20,9 +20,12 @@ import lombok.extern.slf4j.Slf4j;
 import org.deeplearning4j.BaseDL4JTest;
 import org.junit.After;
 import org.junit.Before;
+import org.deeplearning4j.parallelism.inference.InferencePriority;
 import org.junit.Test;
+import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.primitives.Pair;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
@@ -32,6 +35,7 @@ import java.util.List;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 /**
  * @author raver119@gmail.com
@@ -112,6 +116,47 @@ public class BatchedInferenceObservableTest extends BaseDL4JTest {
         }
     }
 
+    @Test
+    public void testSequenceBuckets1() throws Exception {
+        BatchedInferenceObservable observable = new BatchedInferenceObservable(InferencePriority.NORMAL, new int[]{4, 8});
+
+        int[] lengths = {3, 7, 2, 8, 12, 4};
+        for (int i = 0; i < lengths.length; i++) {
+            observable.addInput(new INDArray[]{Nd4j.create(1, 5, lengths[i]).assign(i + 1)}, null);
+            observable.setPosition(i);
+        }
+
+        List<Pair<INDArray[], INDArray[]>> batches = observable.getInputBatches();
+        assertEquals(3, batches.size());
+
+        // bucket [1..4]: inputs 0, 2, 5 - padded to length 4
+        INDArray b0 = batches.get(0).getFirst()[0];
+        INDArray m0 = batches.get(0).getSecond()[0];
+        assertArrayEquals(new long[]{3, 5, 4}, b0.shape());
+        assertEquals(Nd4j.createFromArray(new float[][]{{1, 1, 1, 0}, {1, 1, 0, 0}, {1, 1, 1, 1}}), m0.castTo(DataType.FLOAT));
+
+        // bucket [5..8]: inputs 1, 3 - padded to length 8
+        assertArrayEquals(new long[]{2, 5, 8}, batches.get(1).getFirst()[0].shape());
+
+        // overflow bucket: input 4
+        assertArrayEquals(new long[]{1, 5, 12}, batches.get(2).getFirst()[0].shape());
+        assertNull(batches.get(2).getSecond());
+
+        // identity "network": outputs should be split back per request, and trimmed to original lengths
+        List<INDArray[]> outputs = new ArrayList<>();
+        for (Pair<INDArray[], INDArray[]> p : batches)
+            outputs.add(new INDArray[]{p.getFirst()[0].dup()});
+
+        observable.setOutputBatches(outputs);
+
+        for (int i = 0; i < lengths.length; i++) {
+            observable.setPosition(i);
+            INDArray out = observable.getOutput()[0];
+            assertArrayEquals(new long[]{1, 5, lengths[i]}, out.shape());
+            assertEquals((float) i + 1, out.meanNumber().floatValue(), 1e-5f);
+        }
+    }
+
     @Test
     public void testTearsBatch1() throws Exception {
         BatchedInferenceObservable observable = new BatchedInferenceObservable();
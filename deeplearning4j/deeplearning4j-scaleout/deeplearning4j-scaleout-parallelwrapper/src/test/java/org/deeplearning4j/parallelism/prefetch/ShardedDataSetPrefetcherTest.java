@@ -0,0 +1,201 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.parallelism.prefetch;
+
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.datasets.iterator.ExistingDataSetIterator;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.encoder.SignEncoder;
+import org.deeplearning4j.parallelism.ParallelWrapper;
+import org.deeplearning4j.parallelism.WorkerStats;
+import org.junit.Test;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIteratorFactory;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.learning.config.Sgd;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ShardedDataSetPrefetcherTest extends BaseDL4JTest {
+
+    @Test
+    public void testAllDataReturnedOnce() {
+        for (boolean workspace : new boolean[]{false, true}) {
+            //Shards of different sizes, including an empty one: worker 2 only gets data via work stealing
+            int[] sizes = {10, 3, 0};
+            AtomicInteger id = new AtomicInteger(0);
+            List<List<DataSetIterator>> shards = new ArrayList<>();
+            for (int size : sizes)
+                shards.add(Arrays.<DataSetIterator>asList(shard(size, id)));
+
+            Set<Integer> seen = new HashSet<>();
+            long[] counts = new long[sizes.length];
+            try (ShardedDataSetPrefetcher prefetcher = new ShardedDataSetPrefetcher(shards, 2, workspace)) {
+                boolean done = false;
+                while (!done) {
+                    for (int w = 0; w < sizes.length; w++) {
+                        org.nd4j.linalg.dataset.api.DataSet ds = prefetcher.next(w);
+                        if (ds == null) {
+                            done = true;
+                            break;
+                        }
+                        assertTrue(seen.add(ds.getFeatures().getInt(0)));
+                        counts[w]++;
+                    }
+                }
+
+                assertTrue(prefetcher.isDepleted());
+                assertNull(prefetcher.next(0));
+                assertEquals(counts[2], prefetcher.getStolenCount(2));
+                assertTrue(counts[2] > 0);
+            }
+
+            assertEquals(id.get(), seen.size());
+            assertEquals(13, seen.size());
+        }
+    }
+
+    @Test(timeout = 60000L)
+    public void testWorkStealingFromSlowShard() {
+        AtomicInteger id = new AtomicInteger(0);
+        List<List<DataSetIterator>> shards = new ArrayList<>();
+        shards.add(Arrays.<DataSetIterator>asList(new SlowIterator(shard(5, id), 200)));
+        shards.add(Arrays.<DataSetIterator>asList(shard(50, id)));
+
+        int count = 0;
+        try (ShardedDataSetPrefetcher prefetcher = new ShardedDataSetPrefetcher(shards, 4, true)) {
+            //Worker 0 shard is slow: worker 0 should be fed from worker 1 buffer instead
+            while (prefetcher.next(0) != null)
+                count++;
+
+            assertTrue(prefetcher.getStolenCount(0) > 0);
+            assertEquals(0, prefetcher.getStolenCount(1));
+        }
+        assertEquals(55, count);
+    }
+
+    @Test
+    public void testParallelWrapperSharded() {
+        //Averaging with a list of shards; gradients sharing with a factory
+        for (boolean factory : new boolean[]{false, true}) {
+            ParallelWrapper.TrainingMode mode = factory ? ParallelWrapper.TrainingMode.SHARED_GRADIENTS
+                    : ParallelWrapper.TrainingMode.AVERAGING;
+            MultiLayerNetwork net = net();
+            DataSet all = new DataSet(Nd4j.rand(DataType.FLOAT, 32, 4), Nd4j.rand(DataType.FLOAT, 32, 3));
+            double scoreBefore = net.score(all);
+
+            final List<DataSet> list = new ArrayList<>();
+            for (int i = 0; i < 60; i++)
+                list.add(all);
+
+            ParallelWrapper wrapper = new ParallelWrapper.Builder<>(net)
+                    .workers(2)
+                    .prefetchBuffer(4)
+                    .trainingMode(mode)
+                    .updateEncoder(new SignEncoder())
+                    .build();
+
+            if (factory) {
+                final AtomicInteger shard = new AtomicInteger(0);
+                wrapper.fit(new DataSetIteratorFactory() {
+                    @Override
+                    public DataSetIterator create() {
+                        int s = shard.getAndIncrement();
+                        return new ExistingDataSetIterator(list.subList(s * 30, (s + 1) * 30));
+                    }
+                });
+            } else {
+                wrapper.fit(Arrays.<DataSetIterator>asList(new ExistingDataSetIterator(list.subList(0, 20)),
+                        new ExistingDataSetIterator(list.subList(20, 40)),
+                        new ExistingDataSetIterator(list.subList(40, 60))));
+            }
+
+            List<WorkerStats> stats = wrapper.getWorkerStats();
+            assertEquals(2, stats.size());
+            long batches = 0;
+            for (WorkerStats s : stats) {
+                assertTrue(s.getBatches() > 0);
+                assertTrue(s.getComputeTime() >= 0 && s.getDataWaitTime() >= 0);
+                assertTrue(s.getDataWaitFraction() >= 0.0 && s.getDataWaitFraction() <= 1.0);
+                batches += s.getBatches();
+            }
+            assertEquals(60, batches);
+
+            double scoreAfter = net.score(all);
+            assertTrue(mode + ": " + scoreBefore + " -> " + scoreAfter, scoreAfter < scoreBefore);
+        }
+    }
+
+    private static DataSetIterator shard(int size, AtomicInteger id) {
+        List<DataSet> list = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            DataSet ds = new DataSet(Nd4j.rand(DataType.FLOAT, 4, 4), Nd4j.rand(DataType.FLOAT, 4, 3));
+            ds.getFeatures().putScalar(0, id.getAndIncrement());
+            list.add(ds);
+        }
+        return new ExistingDataSetIterator(list);
+    }
+
+    private static MultiLayerNetwork net() {
+        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder()
+                .dataType(DataType.FLOAT)
+                .seed(12345)
+                .updater(new Sgd(0.1))
+                .list()
+                .layer(new DenseLayer.Builder().nIn(4).nOut(32).activation(Activation.TANH).build())
+                .layer(new OutputLayer.Builder().nIn(32).nOut(3).activation(Activation.IDENTITY)
+                        .lossFunction(LossFunctions.LossFunction.MSE).build())
+                .build();
+        MultiLayerNetwork net = new MultiLayerNetwork(conf);
+        net.init();
+        return net;
+    }
+
+    private static class SlowIterator extends ExistingDataSetIterator {
+        private final long delay;
+
+        private SlowIterator(DataSetIterator iterator, long delay) {
+            super(iterator);
+            this.delay = delay;
+        }
+
+        @Override
+        public DataSet next() {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.next();
+        }
+    }
+}
@@ -23,6 +23,7 @@ import org.deeplearning4j.optimize.api.StepFunction;
 import org.deeplearning4j.optimize.solvers.accumulation.FancyBlockingQueue;
 import org.deeplearning4j.optimize.solvers.accumulation.GradientsAccumulator;
 import org.deeplearning4j.optimize.solvers.accumulation.IndexedTail;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.UpdateDecoder;
 import org.deeplearning4j.spark.parameterserver.networking.v1.messages.SilentUpdatesMessage;
 import org.nd4j.linalg.api.memory.MemoryWorkspace;
 import org.nd4j.linalg.api.ndarray.INDArray;
@@ -167,8 +168,10 @@ public class SilentTrainingDriver implements TrainingDriver<SilentUpdatesMessage
                 } else if (encoding == ThresholdCompression.BITMAP_ENCODING) {
                     Nd4j.getExecutioner().bitmapDecode(message.getUpdates(), updates);
                     denseCounter.incrementAndGet();
-                } else
-                    throw new DL4JInvalidConfigException("Unknown compression header received: " + encoding);
+                } else {
+                    // top-k, sign or low rank encoding
+                    UpdateDecoder.decode(message.getUpdates(), updates);
+                }
 
                 /*
                 if ((sparseCounter.get() + denseCounter.get()) % 100 == 0) {
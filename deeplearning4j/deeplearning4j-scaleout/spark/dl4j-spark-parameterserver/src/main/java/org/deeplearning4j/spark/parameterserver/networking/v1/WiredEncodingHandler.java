@@ -16,10 +16,12 @@
 
 package org.deeplearning4j.spark.parameterserver.networking.v1;
 
+import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import org.deeplearning4j.optimize.solvers.accumulation.EncodingHandler;
 import org.deeplearning4j.optimize.solvers.accumulation.encoding.ResidualPostProcessor;
 import org.deeplearning4j.optimize.solvers.accumulation.encoding.ThresholdAlgorithm;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.UpdateEncoder;
 import org.deeplearning4j.spark.parameterserver.networking.v1.messages.SilentUpdatesMessage;
 import org.nd4j.linalg.api.memory.MemoryWorkspace;
 import org.nd4j.linalg.api.ndarray.INDArray;
@@ -49,6 +51,15 @@ public class WiredEncodingHandler extends EncodingHandler {
         super(thresholdAlgorithm, residualPostProcessor, boundary, encodingDebugMode);
     }
 
+    /**
+     * This method builds new WiredEncodingHandler instance, that uses the given UpdateEncoder instead of threshold encoding
+     *
+     * @param updateEncoder The update encoder to use
+     */
+    public WiredEncodingHandler(@NonNull UpdateEncoder updateEncoder, boolean encodingDebugMode) {
+        super(updateEncoder, encodingDebugMode);
+    }
+
     /**
      * This method sends given message to all registered recipients
      *
@@ -21,12 +21,12 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.deeplearning4j.exception.DL4JInvalidConfigException;
 import org.deeplearning4j.optimize.api.StepFunction;
 import org.deeplearning4j.optimize.solvers.accumulation.FancyBlockingQueue;
 import org.deeplearning4j.optimize.solvers.accumulation.GradientsAccumulator;
 import org.deeplearning4j.optimize.solvers.accumulation.IndexedTail;
 import org.deeplearning4j.optimize.solvers.accumulation.SmartFancyBlockingQueue;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.UpdateDecoder;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.compression.ThresholdCompression;
 import org.nd4j.linalg.exception.ND4JIllegalStateException;
@@ -133,8 +133,10 @@ public class UpdatesConsumer implements UpdatesHandler {
                     } else if (encoding == ThresholdCompression.BITMAP_ENCODING) {
                         Nd4j.getExecutioner().bitmapDecode(array, updates);
                         denseCounter.incrementAndGet();
-                    } else
-                        throw new DL4JInvalidConfigException("Unknown compression header received: " + encoding);
+                    } else {
+                        // top-k, sign or low rank encoding
+                        UpdateDecoder.decode(array, updates);
+                    }
 
 
                     // this simple flag shows that we have something not applied, will be used at finishTraining() method
@@ -22,6 +22,7 @@ import lombok.val;
 import org.deeplearning4j.optimize.solvers.accumulation.EncodingHandler;
 import org.deeplearning4j.optimize.solvers.accumulation.encoding.ResidualPostProcessor;
 import org.deeplearning4j.optimize.solvers.accumulation.encoding.ThresholdAlgorithm;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.UpdateEncoder;
 import org.nd4j.linalg.api.memory.MemoryWorkspace;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
@@ -48,6 +49,15 @@ public class WiredEncodingHandler extends EncodingHandler {
         super(thresholdAlgorithm, residualPostProcessor, boundary, encodingDebugMode);
     }
 
+    /**
+     * This method builds new WiredEncodingHandler instance, that uses the given UpdateEncoder instead of threshold encoding
+     *
+     * @param updateEncoder The update encoder to use
+     */
+    public WiredEncodingHandler(@NonNull UpdateEncoder updateEncoder, boolean encodingDebugMode) {
+        super(updateEncoder, encodingDebugMode);
+    }
+
     /**
      * This method sends given message to all registered recipients
      *
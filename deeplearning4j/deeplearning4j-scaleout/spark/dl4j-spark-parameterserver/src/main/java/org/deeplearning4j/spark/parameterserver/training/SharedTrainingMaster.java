@@ -41,6 +41,10 @@ import org.deeplearning4j.exception.DL4JInvalidConfigException;
 import org.deeplearning4j.optimize.api.TrainingListener;
 import org.deeplearning4j.optimize.solvers.accumulation.encoding.ResidualPostProcessor;
 import org.deeplearning4j.optimize.solvers.accumulation.encoding.ThresholdAlgorithm;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.UpdateEncoder;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.encoder.LowRankEncoder;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.encoder.SignEncoder;
+import org.deeplearning4j.optimize.solvers.accumulation.encoding.encoder.TopKEncoder;
 import org.deeplearning4j.optimize.solvers.accumulation.encoding.residual.ResidualClippingPostProcessor;
 import org.deeplearning4j.optimize.solvers.accumulation.encoding.threshold.AdaptiveThresholdAlgorithm;
 import org.deeplearning4j.spark.api.*;
@@ -120,6 +124,7 @@ public class SharedTrainingMaster extends BaseTrainingMaster<SharedTrainingResul
 
     protected ThresholdAlgorithm thresholdAlgorithm;
     protected ResidualPostProcessor residualPostProcessor;
+    protected UpdateEncoder updateEncoder;
 
     protected Repartition repartition;
     protected RepartitionStrategy repartitionStrategy;
@@ -264,6 +269,7 @@ public class SharedTrainingMaster extends BaseTrainingMaster<SharedTrainingResul
         SharedTrainingConfiguration configuration = SharedTrainingConfiguration.builder()
                 .thresholdAlgorithm(thresholdAlgorithm)
                 .residualPostProcessor(residualPostProcessor)
+                .updateEncoder(updateEncoder)
                 .voidConfiguration(voidConfiguration)
                 .debugLongerIterations(debugLongerIterations)
                 .numberOfWorkersPerNode(numWorkersPerNode)
@@ -295,6 +301,7 @@ public class SharedTrainingMaster extends BaseTrainingMaster<SharedTrainingResul
         SharedTrainingConfiguration configuration = SharedTrainingConfiguration.builder()
                 .thresholdAlgorithm(thresholdAlgorithm)
                 .residualPostProcessor(residualPostProcessor)
+                .updateEncoder(updateEncoder)
                 .voidConfiguration(voidConfiguration).debugLongerIterations(debugLongerIterations)
                 .numberOfWorkersPerNode(numWorkersPerNode)
                 .prefetchSize(workerPrefetchBatches)
@@ -897,6 +904,7 @@ public class SharedTrainingMaster extends BaseTrainingMaster<SharedTrainingResul
     public static class Builder {
         protected ThresholdAlgorithm thresholdAlgorithm = new AdaptiveThresholdAlgorithm();
         protected ResidualPostProcessor residualPostProcessor = new ResidualClippingPostProcessor(5.0, 5);
+        protected UpdateEncoder updateEncoder;
         protected int rddDataSetNumExamples = 1;
         @Deprecated
         protected Repartition repartition = Repartition.Always;
@@ -1108,6 +1116,18 @@ public class SharedTrainingMaster extends BaseTrainingMaster<SharedTrainingResul
             return this;
         }
 
+        /**
+         * Update encoder to use instead of threshold encoding - for example {@link TopKEncoder}, {@link SignEncoder}
+         * or {@link LowRankEncoder}. If set, the threshold algorithm and residual post processor are not used.<br>
+         * Default: null (threshold encoding)
+         *
+         * @param updateEncoder Update encoder to use
+         */
+        public Builder updateEncoder(UpdateEncoder updateEncoder){
+            this.updateEncoder = updateEncoder;
+            return this;
+        }
+
         /**
          * Residual post processor. See {@link ResidualPostProcessor} for details.
          *
@@ -1259,6 +1279,7 @@ public class SharedTrainingMaster extends BaseTrainingMaster<SharedTrainingResul
                     workerPeriodicGCFrequency, encodingDebugMode);
             if (transport != null)
                 master.transport = this.transport;
+            master.updateEncoder = this.updateEncoder;
 
             return master;
         }
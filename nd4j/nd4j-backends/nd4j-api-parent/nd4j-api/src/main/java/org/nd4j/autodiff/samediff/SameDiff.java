@@ -111,10 +111,15 @@ public class SameDiff extends SDBaseOps {
     protected static final String GRAD_FN_KEY = "grad";
 
     //Fields for graph structure and execution
+    /**
+     * Incremented on every change to the graph structure. See {@link #markStructureChanged()}
+     */
+    @Getter
+    private volatile long structureVersion;
     @Getter
-    private final Map<String, Variable> variables = new LinkedHashMap<>();         //Use linked hash map to guarantee iteration order based on order they were added. Used in inputs() and flatbuffers serde
+    private final Map<String, Variable> variables = new VersionedMap<>();         //Use linked hash map to guarantee iteration order based on order they were added. Used in inputs() and flatbuffers serde
     @Getter
-    private final Map<String, SameDiffOp> ops = new LinkedHashMap<>();
+    private final Map<String, SameDiffOp> ops = new VersionedMap<>();
     @Getter
     private final Map<Long, InferenceSession> sessions = new ConcurrentHashMap<>();      //Key: thread ID
 
@@ -279,6 +284,79 @@ public class SameDiff extends SDBaseOps {
     @Getter
     private SameDiff child;
 
+    /**
+     * Executor for running independent ops concurrently during inference. Null (default): ops are executed sequentially.
+     * See {@link #enableInterOpParallelism(int, int)}
+     */
+    @Getter
+    private transient InterOpExecutor interOpExecutor;
+
+    /**
+     * Enable concurrent execution of independent ops (for example, separate branches of a multi-tower model) during
+     * inference, with the available processors split between inter-op and intra-op threads.
+     * See {@link #enableInterOpParallelism(int, int)}
+     *
+     * @param interOpThreads Maximum number of ops to execute at the same time
+     */
+    public SameDiff enableInterOpParallelism(int interOpThreads) {
+        return enableInterOpParallelism(interOpThreads, InterOpExecutor.defaultIntraOpThreads(interOpThreads));
+    }
+
+    /**
+     * Enable concurrent execution of independent ops during inference. Ready ops from independent branches of the graph
+     * are executed at the same time, on a thread pool with the specified number of threads, with each op limited to the
+     * specified number of threads. This is mainly useful for wide graphs with small minibatches, where a single op
+     * can't use all of the available cores.<br>
+     * Results are the same as for sequential execution. Only applies to graphs without control flow - otherwise, ops
+     * are executed sequentially as usual. Not used for training.<br>
+     * Note that the intra-op limit can only be applied process wide (see {@link InterOpExecutor}): it is in effect until
+     * {@link #disableInterOpParallelism()} is called, after which the previous limit is restored.
+     *
+     * @param interOpThreads Maximum number of ops to execute at the same time
+     * @param intraOpThreads Maximum number of threads to use for each op
+     */
+    public SameDiff enableInterOpParallelism(int interOpThreads, int intraOpThreads) {
+        disableInterOpParallelism();
+        interOpExecutor = new InterOpExecutor(interOpThreads, intraOpThreads);
+        return this;
+    }
+
+    /**
+     * If true: intermediate arrays during inference are allocated from a preallocated arena, as per a static memory plan
+     * that is built from the lifetimes of the arrays in the (cached) execution plan for the requested outputs. This
+     * avoids all allocations for intermediate arrays for fixed-shape inference, and the peak memory use is known before
+     * execution. The arena is built after the first execution for a given set of placeholder shapes, and stays allocated
+     * between calls, for as long as the placeholder shapes don't change.<br>
+     * Only applies to graphs without control flow, and not when ops are executed concurrently
+     * (see {@link #enableInterOpParallelism(int, int)}). Disabled by default.
+     */
+    @Getter
+    @Setter
+    private boolean staticMemoryPlanning;
+
+    /**
+     * Record a change to the graph structure (ops, variables, or the connections between them). Cached execution plans
+     * (see {@link InferenceSession}) are only reused while the structure version is unchanged.<br>
+     * Adding or removing ops and variables (including via {@link #getOps()} and {@link #getVariables()}) and the
+     * SameDiff methods that modify the graph call this automatically. Code that modifies {@link SameDiffOp} or
+     * {@link Variable} instances directly (for example, changing an op's inputs) must call this method afterwards.
+     */
+    public void markStructureChanged() {
+        structureVersion++;
+    }
+
+    /**
+     * Disable concurrent execution of independent ops, shut down the inter-op thread pool (if any), and restore the
+     * previous maximum number of threads per op
+     */
+    public SameDiff disableInterOpParallelism() {
+        if (interOpExecutor != null) {
+            interOpExecutor.close();
+            interOpExecutor = null;
+        }
+        return this;
+    }
+
 
     /**
      * Clears debugging state and disables debug mode.
@@ -970,6 +1048,7 @@ public class SameDiff extends SDBaseOps {
      * @param function Differential function
      */
     public void addOutgoingFor(String[] varNames, DifferentialFunction function) {
+        markStructureChanged();
 
         if (function.getOwnName() == null)
             throw new ND4JIllegalStateException("Instance id can not be null. Function not initialized properly");
@@ -1088,6 +1167,7 @@ public class SameDiff extends SDBaseOps {
      * @param function  Function
      */
     public void addArgsFor(String[] variables, DifferentialFunction function) {
+        markStructureChanged();
 
         ArgumentInterceptor interceptor = getArgumentInterceptorToUse();
 
@@ -1144,6 +1224,7 @@ public class SameDiff extends SDBaseOps {
      * Does not use (or remove) ArgumentInterceptor stuff
      */
     public void replaceArgFor(int i, @NonNull SDVariable newArg, @NonNull DifferentialFunction function) {
+        markStructureChanged();
 
         Preconditions.checkArgument(i < function.args().length, "Index out of range: function " +
                 function.getOwnName() + " only has " + function.args().length + " args but you are trying" +
@@ -3067,6 +3148,7 @@ public class SameDiff extends SDBaseOps {
 
         //Remove all sessions in case they have any cached arrays/state
         sessions.clear();
+        markStructureChanged();
 
         //If gradient function has been defined, remove it (so it will be recreated later)
         sameDiffFunctionInstances.remove(GRAD_FN_KEY);
@@ -3165,6 +3247,7 @@ public class SameDiff extends SDBaseOps {
 
         //Remove all sessions in case they have any cached arrays/state
         sessions.clear();
+        markStructureChanged();
 
         //If gradient function has been defined, remove it (so it will be recreated later)
         sameDiffFunctionInstances.remove(GRAD_FN_KEY);
@@ -3277,6 +3360,7 @@ public class SameDiff extends SDBaseOps {
 
         if (anyChanged) {
             sessions.clear();
+            markStructureChanged();
 
             //Recalculate datatypes of outputs, and dynamically update them
             Set<String> allSeenOps = new HashSet<>();
@@ -3336,6 +3420,7 @@ public class SameDiff extends SDBaseOps {
      * @param to   The new name for the variable - no variable with this name must already exist
      */
     public void renameVariable(String from, String to) {
+        markStructureChanged();
         Preconditions.checkState(variables.containsKey(from), "Cannot rename variable \"%s\": no variable with this name exists", from);
         Preconditions.checkState(!variables.containsKey(to), "Cannot rename variable \"%s\" to name \"%s\": a variable with name \"%s\" already exists", from, to, to);
 
@@ -3479,6 +3564,7 @@ public class SameDiff extends SDBaseOps {
      * @param function the function to remove the argument from
      */
     public void removeArgFromOp(String varName, DifferentialFunction function) {
+        markStructureChanged();
         val args = function.args();
 
         for (int i = 0; i < args.length; i++) {
@@ -4231,6 +4317,8 @@ public class SameDiff extends SDBaseOps {
                         finalOutputs.add(v);
                     }
                 }
+                //Ops before differentiation: used to distinguish forward and backward pass ops for gradient checkpointing
+                Set<String> forwardOps = new HashSet<>(sameDiff.ops.keySet());
 
                 if (log.isTraceEnabled()) {
                     String[] initialOutputsStr = allFunctions.get(allFunctions.size() - 1).getOp().outputVariablesNames();
@@ -4526,6 +4614,11 @@ public class SameDiff extends SDBaseOps {
                 }
 
 
+                //Gradient checkpointing: recompute activations during backprop instead of keeping them from the forward pass
+                if (trainingConfig != null && trainingConfig.isGradientCheckpointing()) {
+                    GradientCheckpointing.apply(sameDiff, forwardOps, trainingConfig.getGradientCheckpoints());
+                }
+
                 return new SDVariable[]{sameDiff.var(GRAD_FN_KEY, org.nd4j.linalg.api.buffer.DataType.FLOAT, 1)};
             }
         });
@@ -6121,4 +6214,33 @@ public class SameDiff extends SDBaseOps {
         loopScope.close();
         return updateVariableNamesAndReferences(exits, outputNames);
     }
+
+    /**
+     * Map of ops or variables that marks the graph structure as changed on any modification of the map itself
+     */
+    private class VersionedMap<V> extends LinkedHashMap<String, V> {
+        @Override
+        public V put(String key, V value) {
+            markStructureChanged();
+            return super.put(key, value);
+        }
+
+        @Override
+        public void putAll(Map<? extends String, ? extends V> m) {
+            markStructureChanged();
+            super.putAll(m);
+        }
+
+        @Override
+        public V remove(Object key) {
+            markStructureChanged();
+            return super.remove(key);
+        }
+
+        @Override
+        public void clear() {
+            markStructureChanged();
+            super.clear();
+        }
+    }
 }
@@ -40,6 +40,8 @@ import java.util.*;
  *     <li>The DataSet feature and label mapping - which defines how the feature/label arrays from the DataSet/MultiDataSet
  *     should be associated with SameDiff variables (usually placeholders)</li>
  * </ul>
+ * Optionally, gradient checkpointing can be enabled, to reduce the memory used for forward pass activations during
+ * training at the cost of additional computation - see {@link Builder#gradientCheckpointing(boolean)}.<br>
  * The TrainingConfig instance also stores the iteration count and the epoch count - these values are updated during training
  * and are used for example in learning rate schedules.
  *
@@ -62,6 +64,8 @@ public class TrainingConfig {
     private List<String> lossVariables;
     private int iterationCount;
     private int epochCount;
+    private boolean gradientCheckpointing;
+    private List<String> gradientCheckpoints;
 
 
     private Map<String, List<IEvaluation>> trainEvaluations = new HashMap<>();
@@ -164,6 +168,8 @@ public class TrainingConfig {
         private List<String> lossVariables;
         private boolean skipValidation = false;
         private boolean markLabelsUnused = false;
+        private boolean gradientCheckpointing = false;
+        private List<String> gradientCheckpoints;
 
         private Map<String, List<IEvaluation>> trainEvaluations = new HashMap<>();
         private Map<String, Integer> trainEvaluationLabels = new HashMap<>();
@@ -391,6 +397,36 @@ public class TrainingConfig {
             return this;
         }
 
+        /**
+         * Enable or disable gradient checkpointing (activation recomputation). Disabled by default.<br>
+         * When enabled, only the forward pass activations for a set of checkpoint variables are kept in memory until
+         * they are needed during backprop; other activations needed for backprop are recomputed from the checkpoints
+         * during the backward pass. This reduces memory use for activations (allowing larger minibatches or deeper
+         * networks) at the cost of up to one extra forward pass per iteration.<br>
+         * If no checkpoints are set via {@link #gradientCheckpoints(String...)}, approximately sqrt(n) checkpoints are
+         * selected automatically from the n activations needed for backprop.<br>
+         * Note that this must be set before the gradient function is created - i.e., before the first call to fit or
+         * calculateGradients.
+         *
+         * @param enabled True to enable gradient checkpointing
+         */
+        public Builder gradientCheckpointing(boolean enabled){
+            this.gradientCheckpointing = enabled;
+            return this;
+        }
+
+        /**
+         * Enable gradient checkpointing (see {@link #gradientCheckpointing(boolean)}), using the specified variables
+         * as checkpoints. Usually these are the outputs of layers or blocks in the network.
+         *
+         * @param checkpoints Names of the (activation) variables to keep during the forward pass
+         */
+        public Builder gradientCheckpoints(String... checkpoints){
+            this.gradientCheckpointing = true;
+            this.gradientCheckpoints = Arrays.asList(checkpoints);
+            return this;
+        }
+
         private void addEvaluations(boolean validation, @NonNull Map<String, List<IEvaluation>> evaluationMap, @NonNull Map<String, Integer> labelMap,
                 @NonNull String variableName, int labelIndex, @NonNull IEvaluation... evaluations){
             if(evaluationMap.containsKey(variableName) && labelMap.get(variableName) != labelIndex){
@@ -508,9 +544,12 @@ public class TrainingConfig {
                         validationEvaluations.keySet(), validationEvaluationLabels.keySet());
             }
 
-            return new TrainingConfig(updater, regularization, minimize, dataSetFeatureMapping, dataSetLabelMapping,
+            TrainingConfig tc = new TrainingConfig(updater, regularization, minimize, dataSetFeatureMapping, dataSetLabelMapping,
                     dataSetFeatureMaskMapping, dataSetLabelMaskMapping, lossVariables,
                     trainEvaluations, trainEvaluationLabels, validationEvaluations, validationEvaluationLabels);
+            tc.gradientCheckpointing = gradientCheckpointing;
+            tc.gradientCheckpoints = gradientCheckpoints;
+            return tc;
         }
     }
 
@@ -0,0 +1,418 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.autodiff.samediff.internal;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.nd4j.autodiff.functions.DifferentialFunction;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.VariableType;
+import org.nd4j.linalg.api.ops.CustomOp;
+import org.nd4j.linalg.api.ops.Op;
+import org.nd4j.linalg.api.ops.OpContext;
+import org.nd4j.linalg.api.ops.impl.controlflow.compat.BaseCompatOp;
+import org.nd4j.linalg.api.ops.impl.layers.ExternalErrorsFunction;
+import org.nd4j.linalg.api.ops.impl.shape.tensorops.BaseTensorOp;
+import org.nd4j.linalg.api.ops.impl.transforms.gradient.GradientBackwardsMarker;
+import org.nd4j.linalg.api.ops.impl.transforms.same.Identity;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.*;
+
+/**
+ * ExecutionPlan: a precompiled, flat schedule for executing a fixed set of requested outputs of a static SameDiff graph.<br>
+ * Unlike {@link AbstractSession#output(List, Map, org.nd4j.linalg.dataset.api.MultiDataSet, Collection, List, org.nd4j.autodiff.listeners.At)},
+ * which works out the subgraph, dependencies and execution order dynamically on every call, a plan resolves all of this once:
+ * ops are stored in topological order, every variable is assigned an integer slot, and the step after which each
+ * intermediate array can be released is known in advance. Executing the plan is then a single pass over the schedule,
+ * without any map/set lookups or dependency tracking.<br>
+ * <br>
+ * Plans can only be compiled for graphs without control flow (Switch, Merge, Enter, Exit etc), TensorArray ops,
+ * gradient marker ops and control dependencies - {@link #compile(SameDiff, Set, Collection, Map)} returns null otherwise, in which case the
+ * dynamic execution should be used.<br>
+ * Plans are cached per placeholder data types and shapes (see InferenceSession), so that each plan matches exactly one
+ * static {@link MemoryPlan}. The plan itself doesn't store any shapes: output shapes are still calculated on each
+ * execution, as for some ops they depend on the input values, not only on the input shapes.<br>
+ * <br>
+ * In addition to the sequential schedule, the plan also stores the op dependency graph (successors and number of
+ * predecessors for each op) and use counts for each array, so that independent ops can be executed concurrently - see
+ * {@link InterOpExecutor}.
+ */
+@Getter
+public class ExecutionPlan {
+    /**
+     * Slot types: op outputs, constants/variables and placeholders
+     */
+    public static final int ARRAY = 0;
+    public static final int PARAMETER = 1;
+    public static final int PLACEHOLDER = 2;
+
+    private final String[] slotNames;
+    private final int[] slotTypes;
+    /**
+     * Ops in execution order
+     */
+    private final SameDiffOp[] ops;
+    /**
+     * Op contexts, one per op in the schedule. Created once and reused for every execution of the plan
+     */
+    private final OpContext[] contexts;
+    /**
+     * True for ops that forward their input without copying (Identity)
+     */
+    private final boolean[] passThrough;
+    /**
+     * Slots of op inputs, in op arg order
+     */
+    private final int[][] inputSlots;
+    /**
+     * Slots of op outputs, in op output order
+     */
+    private final int[][] outputSlots;
+    /**
+     * Slots of arrays that are no longer required after the given step, and can be released
+     */
+    private final int[][] releaseAfter;
+    /**
+     * Names of all variables that should be returned, and their slots
+     */
+    private final String[] outputNames;
+    private final int[] outputSlotIdx;
+    /**
+     * Output names, as set - used for allocation of output arrays outside of the memory manager cache
+     */
+    private final Set<String> outputSet;
+    /**
+     * Placeholders required to calculate outputs
+     */
+    private final String[] requiredPlaceholders;
+    /**
+     * Indices of the ops that consume the outputs of each op, in schedule order
+     */
+    private final int[][] successors;
+    /**
+     * Number of (distinct) ops that must be executed before each op
+     */
+    private final int[] numPredecessors;
+    /**
+     * Releasable array slots that each op uses or produces. Used for releasing arrays when ops are executed out of
+     * schedule order: see {@link #getUseCounts()}
+     */
+    private final int[][] releaseCandidates;
+    /**
+     * For each releasable slot: the number of ops that have to complete before the array can be released, including the
+     * op that produces it. 0 for slots that are never released (outputs, parameters, placeholders and aliases)
+     */
+    private final int[] useCounts;
+    /**
+     * Maximum number of ops at the same depth in the graph - 1 for a graph that is a simple chain of ops
+     */
+    private final int maxWidth;
+
+    private ExecutionPlan(String[] slotNames, int[] slotTypes, SameDiffOp[] ops, OpContext[] contexts, boolean[] passThrough,
+                          int[][] inputSlots, int[][] outputSlots, int[][] releaseAfter, String[] outputNames, int[] outputSlotIdx,
+                          String[] requiredPlaceholders, int[][] successors, int[] numPredecessors, int[][] releaseCandidates,
+                          int[] useCounts, int maxWidth) {
+        this.slotNames = slotNames;
+        this.slotTypes = slotTypes;
+        this.ops = ops;
+        this.contexts = contexts;
+        this.passThrough = passThrough;
+        this.inputSlots = inputSlots;
+        this.outputSlots = outputSlots;
+        this.releaseAfter = releaseAfter;
+        this.outputNames = outputNames;
+        this.outputSlotIdx = outputSlotIdx;
+        this.outputSet = new HashSet<>(Arrays.asList(outputNames));
+        this.requiredPlaceholders = requiredPlaceholders;
+        this.successors = successors;
+        this.numPredecessors = numPredecessors;
+        this.releaseCandidates = releaseCandidates;
+        this.useCounts = useCounts;
+        this.maxWidth = maxWidth;
+    }
+
+    /**
+     * @return Number of variable slots in the plan
+     */
+    public int numSlots() {
+        return slotNames.length;
+    }
+
+    /**
+     * @return Number of ops in the schedule
+     */
+    public int numOps() {
+        return ops.length;
+    }
+
+    /**
+     * @return True if the op can be executed as part of a plan
+     */
+    public static boolean isSupported(@NonNull SameDiffOp op) {
+        DifferentialFunction df = op.getOp();
+        if (df instanceof BaseCompatOp || df instanceof BaseTensorOp || df instanceof GradientBackwardsMarker || df instanceof ExternalErrorsFunction)
+            return false;
+        if (!(df instanceof CustomOp) && !(df instanceof Op))
+            return false;
+        return isEmpty(op.getControlDeps()) && isEmpty(op.getVarControlDeps()) && isEmpty(op.getControlDepFor());
+    }
+
+    private static boolean isEmpty(List<String> l) {
+        return l == null || l.isEmpty();
+    }
+
+    /**
+     * Compile the plan
+     *
+     * @param sameDiff    SameDiff instance
+     * @param subgraphOps Ops required to calculate the outputs, as calculated by {@link AbstractSession#initSubgraph(Set)}
+     * @param outputs     All variables to return
+     * @param opContexts  Op contexts, keyed by op name. Contexts for ops that don't have one yet will be created and added
+     * @return The plan, or null if the subgraph can't be executed as a static schedule
+     */
+    public static ExecutionPlan compile(@NonNull SameDiff sameDiff, @NonNull Set<String> subgraphOps, @NonNull Collection<String> outputs,
+                                        @NonNull Map<String, OpContext> opContexts) {
+        Map<String, SameDiffOp> allOps = sameDiff.getOps();
+        Map<String, Variable> allVars = sameDiff.getVariables();
+
+        //Number of not yet scheduled (distinct) producer ops, for each op
+        Map<String, Integer> pending = new HashMap<>();
+        Queue<String> ready = new ArrayDeque<>();
+        for (String opName : allOps.keySet()) {         //Iterate in graph order, so the schedule is deterministic
+            if (!subgraphOps.contains(opName))
+                continue;
+            SameDiffOp op = allOps.get(opName);
+            if (!isSupported(op))
+                return null;
+
+            Set<String> producers = new HashSet<>();
+            String[] args = op.getOp().argNames();
+            if (args != null) {
+                for (String s : args) {
+                    Variable v = allVars.get(s);
+                    if (!isEmpty(v.getControlDeps()))
+                        return null;
+                    if (v.getOutputOfOp() != null)
+                        producers.add(v.getOutputOfOp());
+                }
+            }
+            pending.put(opName, producers.size());
+            if (producers.isEmpty())
+                ready.add(opName);
+        }
+
+        List<String> order = new ArrayList<>(pending.size());
+        while (!ready.isEmpty()) {
+            String opName = ready.remove();
+            order.add(opName);
+
+            Set<String> consumers = new LinkedHashSet<>();
+            for (String out : allOps.get(opName).getOutputsOfOp()) {
+                List<String> l = allVars.get(out).getInputsForOp();
+                if (l != null)
+                    consumers.addAll(l);
+            }
+            for (String c : consumers) {
+                Integer count = pending.get(c);
+                if (count == null)
+                    continue;       //Not in subgraph
+                pending.put(c, count - 1);
+                if (count == 1)
+                    ready.add(c);
+            }
+        }
+        if (order.size() != pending.size()) {
+            //Cycle, or op input that is not produced within the subgraph
+            return null;
+        }
+
+        //Assign slots. Aliases are used for pass-through ops: the output slot shares the array of the input slot
+        Map<String, Integer> slotIdx = new HashMap<>();
+        List<String> slotNames = new ArrayList<>();
+        List<Integer> slotTypes = new ArrayList<>();
+        List<Integer> alias = new ArrayList<>();
+
+        int n = order.size();
+        SameDiffOp[] ops = new SameDiffOp[n];
+        OpContext[] contexts = new OpContext[n];
+        boolean[] passThrough = new boolean[n];
+        int[][] inputSlots = new int[n][];
+        int[][] outputSlots = new int[n][];
+
+        for (int i = 0; i < n; i++) {
+            SameDiffOp op = allOps.get(order.get(i));
+            ops[i] = op;
+            passThrough[i] = op.getOp() instanceof Identity;
+            if (!passThrough[i]) {
+                OpContext oc = opContexts.get(op.getName());
+                if (oc == null) {
+                    oc = Nd4j.getExecutioner().buildContext();
+                    opContexts.put(op.getName(), oc);
+                }
+                contexts[i] = oc;
+            }
+
+            String[] args = op.getOp().argNames();
+            inputSlots[i] = new int[args == null ? 0 : args.length];
+            for (int j = 0; j < inputSlots[i].length; j++)
+                inputSlots[i][j] = slot(args[j], sameDiff, slotIdx, slotNames, slotTypes, alias);
+
+            List<String> outNames = op.getOutputsOfOp();
+            outputSlots[i] = new int[outNames.size()];
+            for (int j = 0; j < outputSlots[i].length; j++) {
+                int s = slot(outNames.get(j), sameDiff, slotIdx, slotNames, slotTypes, alias);
+                outputSlots[i][j] = s;
+                if (passThrough[i] && j == 0 && inputSlots[i].length > 0)
+                    alias.set(s, alias.get(inputSlots[i][0]));
+            }
+        }
+
+        String[] outputNames = new LinkedHashSet<>(outputs).toArray(new String[0]);
+        int[] outputSlotIdx = new int[outputNames.length];
+        for (int i = 0; i < outputNames.length; i++)
+            outputSlotIdx[i] = slot(outputNames[i], sameDiff, slotIdx, slotNames, slotTypes, alias);
+
+        //Work out when each array can be released: after the last step that uses it (or any of its aliases)
+        int numSlots = slotNames.size();
+        int[] lastUse = new int[numSlots];
+        Arrays.fill(lastUse, -1);
+        for (int i = 0; i < n; i++) {
+            for (int s : inputSlots[i])
+                lastUse[alias.get(s)] = i;
+            for (int s : outputSlots[i]) {
+                int root = alias.get(s);
+                if (lastUse[root] < i)
+                    lastUse[root] = i;      //Output not used anywhere after this step: release immediately
+            }
+        }
+
+        boolean[] keep = new boolean[numSlots];
+        for (int s : outputSlotIdx)
+            keep[alias.get(s)] = true;
+
+        List<List<Integer>> release = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            release.add(new ArrayList<Integer>());
+        for (int s = 0; s < numSlots; s++) {
+            if (alias.get(s) == s && slotTypes.get(s) == ARRAY && !keep[s] && lastUse[s] >= 0)
+                release.get(lastUse[s]).add(s);
+        }
+        int[][] releaseAfter = new int[n][];
+        for (int i = 0; i < n; i++) {
+            List<Integer> l = release.get(i);
+            releaseAfter[i] = new int[l.size()];
+            for (int j = 0; j < l.size(); j++)
+                releaseAfter[i][j] = l.get(j);
+        }
+
+        List<String> phs = new ArrayList<>();
+        for (int s = 0; s < numSlots; s++) {
+            if (slotTypes.get(s) == PLACEHOLDER)
+                phs.add(slotNames.get(s));
+        }
+
+        int[] types = new int[numSlots];
+        for (int s = 0; s < numSlots; s++)
+            types[s] = slotTypes.get(s);
+
+        //Op dependency graph, for concurrent execution. Also the depth of each op, to work out the maximum width
+        Map<String, Integer> opIdx = new HashMap<>();
+        for (int i = 0; i < n; i++)
+            opIdx.put(order.get(i), i);
+        List<Set<Integer>> succ = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            succ.add(new TreeSet<Integer>());
+        int[] numPredecessors = new int[n];
+        int[] depth = new int[n];
+        for (int i = 0; i < n; i++) {
+            Set<Integer> preds = new HashSet<>();
+            for (int s : inputSlots[i]) {
+                String producer = allVars.get(slotNames.get(s)).getOutputOfOp();
+                if (producer != null)
+                    preds.add(opIdx.get(producer));
+            }
+            numPredecessors[i] = preds.size();
+            for (int p : preds) {
+                succ.get(p).add(i);
+                depth[i] = Math.max(depth[i], depth[p] + 1);
+            }
+        }
+        int[][] successors = new int[n][];
+        for (int i = 0; i < n; i++)
+            successors[i] = toIntArray(succ.get(i));
+        Map<Integer, Integer> countPerDepth = new HashMap<>();
+        int maxWidth = n == 0 ? 0 : 1;
+        for (int i = 0; i < n; i++) {
+            Integer c = countPerDepth.get(depth[i]);
+            c = (c == null ? 1 : c + 1);
+            countPerDepth.put(depth[i], c);
+            maxWidth = Math.max(maxWidth, c);
+        }
+
+        //Use counts for out-of-order release: the producer op, plus every op that reads the array (directly or via an alias)
+        int[] useCounts = new int[numSlots];
+        int[][] releaseCandidates = new int[n][];
+        for (int i = 0; i < n; i++) {
+            Set<Integer> roots = new LinkedHashSet<>();
+            for (int s : outputSlots[i]) {
+                if (alias.get(s) == s)
+                    roots.add(s);
+            }
+            for (int s : inputSlots[i])
+                roots.add(alias.get(s));
+            Iterator<Integer> iter = roots.iterator();
+            while (iter.hasNext()) {
+                int r = iter.next();
+                if (types[r] != ARRAY || keep[r])
+                    iter.remove();
+                else
+                    useCounts[r]++;
+            }
+            releaseCandidates[i] = toIntArray(roots);
+        }
+
+        return new ExecutionPlan(slotNames.toArray(new String[0]), types, ops, contexts, passThrough, inputSlots, outputSlots,
+                releaseAfter, outputNames, outputSlotIdx, phs.toArray(new String[0]), successors, numPredecessors,
+                releaseCandidates, useCounts, maxWidth);
+    }
+
+    private static int[] toIntArray(Collection<Integer> c) {
+        int[] out = new int[c.size()];
+        int i = 0;
+        for (Integer v : c)
+            out[i++] = v;
+        return out;
+    }
+
+    private static int slot(String name, SameDiff sameDiff, Map<String, Integer> slotIdx, List<String> slotNames,
+                            List<Integer> slotTypes, List<Integer> alias) {
+        Integer idx = slotIdx.get(name);
+        if (idx != null)
+            return idx;
+
+        VariableType vt = sameDiff.getVariable(name).getVariableType();
+        int type = vt == VariableType.PLACEHOLDER ? PLACEHOLDER : (vt == VariableType.ARRAY ? ARRAY : PARAMETER);
+        int s = slotNames.size();
+        slotIdx.put(name, s);
+        slotNames.add(name);
+        slotTypes.add(type);
+        alias.add(s);
+        return s;
+    }
+}
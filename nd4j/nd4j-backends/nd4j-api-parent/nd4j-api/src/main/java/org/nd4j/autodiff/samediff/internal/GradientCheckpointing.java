@@ -0,0 +1,350 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.autodiff.samediff.internal;
+
+import lombok.extern.slf4j.Slf4j;
+import org.nd4j.autodiff.functions.DifferentialFunction;
+import org.nd4j.autodiff.samediff.SDVariable;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.VariableType;
+import org.nd4j.autodiff.samediff.serde.FlatBuffersMapper;
+import org.nd4j.autodiff.samediff.transform.optimize.OptimizationUtil;
+import org.nd4j.base.Preconditions;
+import org.nd4j.linalg.api.ops.impl.controlflow.compat.BaseCompatOp;
+
+import java.util.*;
+
+/**
+ * Gradient checkpointing (activation recomputation) for the SameDiff gradient function.<br>
+ * By default, all forward pass activations that are needed during backprop are kept in memory until the backward pass
+ * op(s) that use them have been executed. With gradient checkpointing, only the activations for a set of checkpoint
+ * variables are kept: the forward pass ops between checkpoints are executed again during the backward pass, just before
+ * their outputs are needed. With approximately sqrt(n) checkpoints for n activations, activation memory is O(sqrt(n))
+ * instead of O(n), at the cost of (at most) one additional forward pass.<br>
+ * <br>
+ * This is implemented as a modification of the gradient function graph:<br>
+ * (a) Forward ops whose outputs are needed by backward ops (and are not checkpoints) are duplicated: the copies (with
+ * names ending in {@link #RECOMPUTE_SUFFIX}) use checkpoints or other recomputed variables as input<br>
+ * (b) Backward ops use the recomputed variables instead of the original forward pass activations, which can then be
+ * released at the end of the forward pass<br>
+ * (c) The recompute ops have control dependencies on the gradients of the next checkpoint(s) in the forward pass, so
+ * recomputation happens only once the backward pass has reached that part of the graph<br>
+ * <br>
+ * Outputs of ops that can't be recomputed (random ops such as dropout) are always kept. Graphs with control flow ops are
+ * not modified.
+ */
+@Slf4j
+public class GradientCheckpointing {
+
+    /**
+     * Suffix for the names of the recompute ops and their outputs
+     */
+    public static final String RECOMPUTE_SUFFIX = "_recompute";
+
+    private GradientCheckpointing() {
+    }
+
+    /**
+     * Apply gradient checkpointing to the specified gradient function
+     *
+     * @param gradFn      Gradient function SameDiff instance, with both forward and backward pass ops
+     * @param forwardOps  Names of the forward pass ops: the ops in the gradient function before differentiation. All
+     *                    other ops are considered part of the backward pass
+     * @param checkpoints Names of the forward pass activations to use as checkpoints. If null or empty: approximately
+     *                    sqrt(n) checkpoints are selected from the n forward pass activations needed for backprop
+     * @return Names of the checkpoints used. Empty if the graph was not modified
+     */
+    public static Set<String> apply(SameDiff gradFn, Collection<String> forwardOps, Collection<String> checkpoints) {
+        Map<String, SameDiffOp> ops = gradFn.getOps();
+        Map<String, Variable> vars = gradFn.getVariables();
+        for (SameDiffOp op : ops.values()) {
+            if (op.getOp() instanceof BaseCompatOp) {
+                log.warn("Gradient checkpointing is not supported for graphs with control flow ops - activations will not be recomputed");
+                return Collections.emptySet();
+            }
+        }
+
+        //Backward pass ops: everything added during differentiation. Note that these can't be found by following the
+        // dependencies of the initial gradient (dL/dL): the backprop ops for loss functions don't use it as an input
+        Set<String> backward = new HashSet<>(ops.keySet());
+        backward.removeAll(forwardOps);
+        List<SameDiffOp> forward = topologicalSort(gradFn, backward);
+
+        //Forward activations needed for backprop, in order of execution. Outputs of ops that can't be recomputed are
+        // always kept
+        Set<String> kept = new HashSet<>();
+        List<String> needed = new ArrayList<>();
+        for (SameDiffOp op : forward) {
+            boolean recomputable = !OptimizationUtil.isStateful(op.getOp()) && isEmpty(op.getControlDeps())
+                    && isEmpty(op.getVarControlDeps());
+            for (String s : op.getOutputsOfOp()) {
+                if (!recomputable)
+                    kept.add(s);
+                if (usedBy(vars.get(s), backward))
+                    needed.add(s);
+            }
+        }
+
+        Set<String> cp = new LinkedHashSet<>();
+        if (checkpoints == null || checkpoints.isEmpty()) {
+            int k = Math.max(1, (int) Math.round(Math.sqrt(needed.size())));
+            for (int i = k - 1; i < needed.size(); i += k) {
+                cp.add(needed.get(i));
+            }
+        } else {
+            for (String s : checkpoints) {
+                Preconditions.checkArgument(vars.containsKey(s), "Cannot use variable \"%s\" as gradient checkpoint: no variable with this name exists", s);
+                cp.add(s);
+            }
+        }
+        kept.addAll(cp);
+
+        //Determine the ops to recompute: producers of needed activations, and their (non-kept) ancestors
+        Set<String> toRecompute = new HashSet<>();
+        Queue<String> queue = new LinkedList<>();
+        for (String s : needed) {
+            if (!kept.contains(s))
+                queue.add(s);
+        }
+        while (!queue.isEmpty()) {
+            Variable v = vars.get(queue.remove());
+            String opName = v.getOutputOfOp();
+            if (opName == null || v.getVariable().getVariableType() != VariableType.ARRAY || kept.contains(v.getName())
+                    || backward.contains(opName) || !toRecompute.add(opName))
+                continue;
+            queue.addAll(ops.get(opName).getInputsToOp());
+        }
+        if (toRecompute.isEmpty()) {
+            log.info("Gradient checkpointing: no activations to recompute");
+            return cp;
+        }
+
+        //Duplicate the ops, in order of execution
+        Map<String, String> recomputed = new HashMap<>();       //Key: forward activation. Value: recomputed activation
+        List<SameDiffOp> copies = new ArrayList<>();
+        Map<String, SameDiffOp> copyOf = new HashMap<>();       //Key: name of the copy. Value: original op
+        for (SameDiffOp op : forward) {
+            if (!toRecompute.contains(op.getName()))
+                continue;
+            SameDiffOp copy = duplicate(gradFn, op, recomputed);
+            copies.add(copy);
+            copyOf.put(copy.getName(), op);
+        }
+
+        //Backward ops use the recomputed activations
+        for (String opName : backward) {
+            SameDiffOp op = ops.get(opName);
+            List<String> in = op.getInputsToOp();
+            if (in == null)
+                continue;
+            for (int i = 0; i < in.size(); i++) {
+                String r = recomputed.get(in.get(i));
+                if (r != null)
+                    gradFn.replaceArgFor(i, gradFn.getVariable(r), op.getOp());
+            }
+        }
+
+        //Delay recomputation until the gradients for the next checkpoints are available
+        int numControlDeps = 0;
+        for (SameDiffOp copy : copies) {
+            Set<String> triggers = new LinkedHashSet<>();
+            for (String c : nextKept(gradFn, copyOf.get(copy.getName()), kept, backward, copyOf.keySet())) {
+                Variable cv = vars.get(c);
+                if (cv.getGradient() != null)
+                    triggers.add(cv.getGradient().name());
+            }
+            if (triggers.isEmpty())
+                continue;
+
+            //A control dependency on a variable that depends on this op would be a cycle
+            Set<String> descendants = descendantOps(gradFn, copy.getOutputsOfOp());
+            for (String t : triggers) {
+                String producer = vars.get(t).getOutputOfOp();
+                if (producer == null || descendants.contains(producer))
+                    continue;
+                addControlDep(copy, vars.get(t));
+                numControlDeps++;
+            }
+        }
+
+        gradFn.markStructureChanged();
+        log.info("Gradient checkpointing: {} checkpoints, {} of {} forward ops are recomputed during backprop ({} control dependencies)",
+                cp.size(), copies.size(), forward.size(), numControlDeps);
+        return cp;
+    }
+
+    /**
+     * Add a copy of the specified op to the graph, using recomputed variables as inputs where available
+     */
+    private static SameDiffOp duplicate(SameDiff sd, SameDiffOp op, Map<String, String> recomputed) {
+        DifferentialFunction orig = op.getOp();
+        DifferentialFunction clone = FlatBuffersMapper.cloneViaSerialize(sd, orig);
+        clone.setSameDiff(sd);
+        String name = sd.getOpName(op.getName() + RECOMPUTE_SUFFIX);
+        clone.setOwnName(name);
+        sd.putOpForId(name, clone);
+
+        List<String> origIn = op.getInputsToOp();
+        String[] in = new String[origIn.size()];
+        for (int i = 0; i < in.length; i++) {
+            String r = recomputed.get(origIn.get(i));
+            in[i] = r == null ? origIn.get(i) : r;
+        }
+        sd.addArgsFor(in, clone);
+
+        List<String> origOut = op.getOutputsOfOp();
+        String[] out = new String[origOut.size()];
+        for (int i = 0; i < out.length; i++) {
+            SDVariable v = sd.getVariable(origOut.get(i));
+            SDVariable o = sd.var(origOut.get(i) + RECOMPUTE_SUFFIX, VariableType.ARRAY, null, v.dataType(), (long[]) null);
+            out[i] = o.name();
+            recomputed.put(origOut.get(i), o.name());
+        }
+        sd.addOutgoingFor(out, clone);
+        return sd.getOps().get(name);
+    }
+
+    /**
+     * @return The kept variables (checkpoints) that are the closest descendants of the specified forward op
+     */
+    private static Set<String> nextKept(SameDiff sd, SameDiffOp op, Set<String> kept, Set<String> backward, Set<String> copies) {
+        Set<String> out = new LinkedHashSet<>();
+        Set<String> seen = new HashSet<>();
+        Queue<String> queue = new LinkedList<>(op.getOutputsOfOp());
+        while (!queue.isEmpty()) {
+            String s = queue.remove();
+            if (!seen.add(s))
+                continue;
+            if (kept.contains(s)) {
+                out.add(s);
+                continue;
+            }
+            List<String> consumers = sd.getVariables().get(s).getInputsForOp();
+            if (consumers == null)
+                continue;
+            for (String c : consumers) {
+                if (!backward.contains(c) && !copies.contains(c))
+                    queue.addAll(sd.getOps().get(c).getOutputsOfOp());
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @return Names of all ops that (directly or indirectly) depend on any of the specified variables, via op inputs
+     * or control dependencies
+     */
+    private static Set<String> descendantOps(SameDiff sd, Collection<String> varNames) {
+        Set<String> out = new HashSet<>();
+        Queue<String> queue = new LinkedList<>(varNames);
+        while (!queue.isEmpty()) {
+            Variable v = sd.getVariables().get(queue.remove());
+            List<String> consumers = new ArrayList<>();
+            if (v.getInputsForOp() != null)
+                consumers.addAll(v.getInputsForOp());
+            if (v.getControlDepsForOp() != null)
+                consumers.addAll(v.getControlDepsForOp());
+            for (String c : consumers) {
+                if (out.add(c)) {
+                    List<String> outputs = sd.getOps().get(c).getOutputsOfOp();
+                    if (outputs != null)
+                        queue.addAll(outputs);
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @return All ops not in the excluded set, in topological order (i.e., an order in which they can be executed)
+     */
+    private static List<SameDiffOp> topologicalSort(SameDiff sd, Set<String> exclude) {
+        Map<String, Integer> remaining = new HashMap<>();
+        Queue<String> queue = new LinkedList<>();
+        for (SameDiffOp op : sd.getOps().values()) {
+            if (exclude.contains(op.getName()))
+                continue;
+            int count = 0;
+            for (String s : inputsAndControlDeps(op)) {
+                String producer = sd.getVariables().get(s).getOutputOfOp();
+                if (producer != null && !exclude.contains(producer))
+                    count++;
+            }
+            remaining.put(op.getName(), count);
+            if (count == 0)
+                queue.add(op.getName());
+        }
+
+        List<SameDiffOp> out = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            SameDiffOp op = sd.getOps().get(queue.remove());
+            out.add(op);
+            for (String s : op.getOutputsOfOp()) {
+                Variable v = sd.getVariables().get(s);
+                List<String> consumers = new ArrayList<>();
+                if (v.getInputsForOp() != null)
+                    consumers.addAll(v.getInputsForOp());
+                if (v.getControlDepsForOp() != null)
+                    consumers.addAll(v.getControlDepsForOp());
+                for (String c : consumers) {
+                    Integer r = remaining.get(c);
+                    if (r == null)
+                        continue;
+                    //Inputs may be repeated (x+x): decrement once per occurrence
+                    int occurrences = Collections.frequency(inputsAndControlDeps(sd.getOps().get(c)), s);
+                    remaining.put(c, r - occurrences);
+                    if (r - occurrences == 0)
+                        queue.add(c);
+                }
+            }
+        }
+        return out;
+    }
+
+    private static List<String> inputsAndControlDeps(SameDiffOp op) {
+        List<String> l = new ArrayList<>();
+        if (op.getInputsToOp() != null)
+            l.addAll(op.getInputsToOp());
+        if (op.getControlDeps() != null)
+            l.addAll(op.getControlDeps());
+        return l;
+    }
+
+    private static void addControlDep(SameDiffOp op, Variable v) {
+        List<String> cds = op.getControlDeps() == null ? new ArrayList<String>() : new ArrayList<>(op.getControlDeps());
+        cds.add(v.getName());
+        op.setControlDeps(cds);
+        List<String> cdFor = v.getControlDepsForOp() == null ? new ArrayList<String>() : new ArrayList<>(v.getControlDepsForOp());
+        cdFor.add(op.getName());
+        v.setControlDepsForOp(cdFor);
+    }
+
+    private static boolean usedBy(Variable v, Set<String> ops) {
+        if (v.getInputsForOp() == null)
+            return false;
+        for (String s : v.getInputsForOp()) {
+            if (ops.contains(s))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean isEmpty(Collection<?> c) {
+        return c == null || c.isEmpty();
+    }
+}
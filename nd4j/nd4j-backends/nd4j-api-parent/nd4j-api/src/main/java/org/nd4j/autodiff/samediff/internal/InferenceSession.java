@@ -26,6 +26,8 @@ import org.nd4j.autodiff.samediff.SDVariable;
 import org.nd4j.autodiff.samediff.SameDiff;
 import org.nd4j.autodiff.samediff.VariableType;
 import org.nd4j.autodiff.samediff.internal.memory.ArrayCacheMemoryMgr;
+import org.nd4j.autodiff.samediff.internal.memory.PlannedMemoryMgr;
+import org.nd4j.autodiff.samediff.internal.memory.SynchronizedMemoryMgr;
 import org.nd4j.base.Preconditions;
 import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.memory.MemoryWorkspace;
@@ -51,6 +53,7 @@ import org.nd4j.linalg.primitives.Pair;
 import org.nd4j.linalg.util.ArrayUtil;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * InferenceSession: Performs inference (forward pass) on a SameDiff instance to get the outputs of the requested nodes.<br>
@@ -87,11 +90,268 @@ public class InferenceSession extends AbstractSession<INDArray, Pair<SameDiffOp,
 
     private Map<String,OpContext> opContexts = new HashMap<>();
 
+    /**
+     * If true: static graphs (no control flow, TensorArray ops or control dependencies) are executed using a cached
+     * {@link ExecutionPlan} instead of the dynamic execution in {@link AbstractSession}, when no listeners are active
+     */
+    @Getter
+    @Setter
+    private boolean planCacheEnabled = true;
+    /**
+     * Compiled plans, keyed by requested outputs and placeholder shapes/types. Null value: plan can't be compiled for
+     * the subgraph. All plans are discarded when the graph structure changes (see {@link SameDiff#markStructureChanged()})
+     */
+    private final Map<PlanKey, ExecutionPlan> plans = new LinkedHashMap<PlanKey, ExecutionPlan>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<PlanKey, ExecutionPlan> eldest) {
+            if (size() <= MAX_CACHED_PLANS)
+                return false;
+            MemoryPlan mp = memoryPlans.remove(eldest.getValue());
+            if (mp != null)
+                mp.close();
+            return true;
+        }
+    };
+    protected static final int MAX_CACHED_PLANS = 32;
+    private long plansStructureVersion = -1;
+
+    /**
+     * Static memory plans, one per execution plan (hence one per set of placeholder shapes and types).
+     * Only used if {@link SameDiff#isStaticMemoryPlanning()} is enabled
+     */
+    @Getter
+    private final Map<ExecutionPlan, MemoryPlan> memoryPlans = new IdentityHashMap<>();
+
     public InferenceSession(@NonNull SameDiff sameDiff) {
         super(sameDiff);
         mmgr = new ArrayCacheMemoryMgr();
     }
 
+    @Override
+    public Map<String, INDArray> output(@NonNull List<String> variables, Map<String, INDArray> placeholderValues,
+                                        MultiDataSet batch, Collection<String> requiredActivations, List<Listener> listeners, At at) {
+        if (!planCacheEnabled || (listeners != null && !listeners.isEmpty()))
+            return super.output(variables, placeholderValues, batch, requiredActivations, listeners, at);
+
+        ExecutionPlan plan = getPlan(variables, requiredActivations, placeholderValues);
+        if (plan == null)
+            return super.output(variables, placeholderValues, batch, requiredActivations, listeners, at);
+
+        return output(plan, placeholderValues, at == null ? At.defaultAt() : at);
+    }
+
+    /**
+     * Get the cached execution plan for the requested outputs, compiling it if required
+     *
+     * @return The plan, or null if outputs can't be calculated using a static plan
+     */
+    protected ExecutionPlan getPlan(List<String> variables, Collection<String> requiredActivations, Map<String, INDArray> placeholderValues) {
+        long version = sameDiff.getStructureVersion();
+        if (version != plansStructureVersion) {
+            for (MemoryPlan mp : memoryPlans.values())
+                mp.close();
+            memoryPlans.clear();
+            plans.clear();
+            plansStructureVersion = version;
+        }
+
+        Map<String, PlaceholderType> placeholders = new HashMap<>();
+        if (placeholderValues != null) {
+            for (Map.Entry<String, INDArray> e : placeholderValues.entrySet()) {
+                INDArray arr = e.getValue();
+                placeholders.put(e.getKey(), arr == null ? null : new PlaceholderType(arr.dataType(), arr.shape()));
+            }
+        }
+        PlanKey key = new PlanKey(new HashSet<>(variables),
+                requiredActivations == null ? Collections.<String>emptySet() : new HashSet<>(requiredActivations),
+                placeholders);
+        if (plans.containsKey(key))
+            return plans.get(key);
+
+        Set<String> allRequired = new HashSet<>(key.getOutputs());
+        allRequired.addAll(key.getRequiredActivations());
+        ExecutionPlan plan = null;
+        if (!allRequired.isEmpty() && sameDiff.variableMap().keySet().containsAll(allRequired)) {
+            subgraph.clear();
+            subgraphOps.clear();
+            zeroInputOpsInSubgraph.clear();
+            initSubgraph(allRequired);
+            plan = ExecutionPlan.compile(sameDiff, subgraphOps, allRequired, opContexts);
+            log.trace("Compiled execution plan for outputs {}: {}", allRequired, plan == null ? "not supported" : plan.numOps() + " ops");
+        }
+        plans.put(key, plan);
+        return plan;
+    }
+
+    /**
+     * Execute a previously compiled plan
+     */
+    protected Map<String, INDArray> output(ExecutionPlan plan, Map<String, INDArray> placeholderValues, At at) {
+        placeholderValues = preprocessPlaceholders(placeholderValues, at);
+        for (String s : plan.getRequiredPlaceholders()) {
+            Preconditions.checkState(placeholderValues != null && placeholderValues.containsKey(s), "No array was provided for required placeholder variable \"%s\"", s);
+        }
+
+        dt.clear();
+        nodeOutputs.clear();
+        tensorArrays.clear();
+
+        String[] names = plan.getSlotNames();
+        int[] types = plan.getSlotTypes();
+        INDArray[] slots = new INDArray[names.length];
+        for (int i = 0; i < slots.length; i++) {
+            if (types[i] == ExecutionPlan.PARAMETER) {
+                slots[i] = getConstantOrVariable(names[i]);
+            } else if (types[i] == ExecutionPlan.PLACEHOLDER) {
+                slots[i] = placeholderValues.get(names[i]);
+            }
+        }
+
+        InterOpExecutor interOp = sameDiff.getInterOpExecutor();
+        if (interOp != null && plan.getMaxWidth() > 1) {
+            executeConcurrent(plan, slots, interOp);
+        } else if (sameDiff.isStaticMemoryPlanning()) {
+            executePlanned(plan, slots, placeholderValues);
+        } else {
+            int[][] releaseAfter = plan.getReleaseAfter();
+            for (int i = 0; i < plan.numOps(); i++) {
+                executeStep(plan, i, slots);
+                for (int s : releaseAfter[i]) {
+                    mmgr.release(slots[s]);
+                    slots[s] = null;
+                }
+            }
+        }
+
+        String[] outNames = plan.getOutputNames();
+        int[] outIdx = plan.getOutputSlotIdx();
+        Map<String, INDArray> out = new HashMap<>();
+        for (int i = 0; i < outNames.length; i++) {
+            out.put(outNames[i], slots[outIdx[i]]);
+            //Keep outputs available via SameDiff.getArrForVarName, as with dynamic execution
+            nodeOutputs.put(new VarId(outNames[i], OUTER_FRAME, 0, null), slots[outIdx[i]]);
+        }
+
+        return postProcessOutput(out);
+    }
+
+    /**
+     * Execute the plan sequentially, with intermediate arrays allocated as per the static memory plan for the current
+     * placeholder shapes. If there is no such memory plan yet, the array shapes and types are recorded during execution,
+     * and a memory plan is built for subsequent executions
+     */
+    protected void executePlanned(ExecutionPlan plan, INDArray[] slots, Map<String, INDArray> placeholderValues) {
+        MemoryPlan memPlan = memoryPlans.get(plan);
+        if (memPlan != null && !memPlan.matches(placeholderValues)) {
+            memoryPlans.remove(plan);
+            memPlan.close();
+            memPlan = null;
+        }
+
+        int[][] releaseAfter = plan.getReleaseAfter();
+        if (memPlan == null) {
+            DataType[] dataTypes = new DataType[slots.length];
+            long[][] shapes = new long[slots.length][];
+            for (int i = 0; i < plan.numOps(); i++) {
+                executeStep(plan, i, slots);
+                for (int s : plan.getOutputSlots()[i]) {
+                    if (slots[s] != null) {
+                        dataTypes[s] = slots[s].dataType();
+                        shapes[s] = slots[s].shape();
+                    }
+                }
+                for (int s : releaseAfter[i]) {
+                    mmgr.release(slots[s]);
+                    slots[s] = null;
+                }
+            }
+            memPlan = MemoryPlan.build(plan, placeholderValues, dataTypes, shapes);
+            memoryPlans.put(plan, memPlan);
+            log.trace("Built static memory plan: {} bytes for intermediate arrays, {} bytes without memory reuse",
+                    memPlan.getArenaBytes(), memPlan.getTotalBytes());
+            return;
+        }
+
+        SessionMemMgr orig = mmgr;
+        PlannedMemoryMgr planned = new PlannedMemoryMgr(memPlan, orig);
+        mmgr = planned;
+        try {
+            for (int i = 0; i < plan.numOps(); i++) {
+                planned.setStep(i);
+                executeStep(plan, i, slots);
+                for (int s : releaseAfter[i]) {
+                    planned.release(slots[s]);
+                    slots[s] = null;
+                }
+            }
+        } finally {
+            mmgr = orig;
+        }
+
+        if (planned.isMismatch()) {
+            //Array shapes depend on something other than the placeholder shapes: rebuild plan on next execution
+            memoryPlans.remove(plan);
+            memPlan.close();
+        }
+    }
+
+    /**
+     * Execute the plan using the inter-op executor: independent ops may be executed at the same time.
+     * Arrays are released once all ops using them have completed
+     */
+    protected void executeConcurrent(final ExecutionPlan plan, final INDArray[] slots, InterOpExecutor interOp) {
+        final int[][] releaseCandidates = plan.getReleaseCandidates();
+        final AtomicIntegerArray remainingUses = new AtomicIntegerArray(plan.getUseCounts());
+        final SessionMemMgr orig = mmgr;
+        mmgr = new SynchronizedMemoryMgr(orig);
+        try {
+            interOp.execute(plan, new InterOpExecutor.Step() {
+                @Override
+                public void execute(int step) {
+                    executeStep(plan, step, slots);
+                    for (int s : releaseCandidates[step]) {
+                        if (remainingUses.decrementAndGet(s) == 0) {
+                            mmgr.release(slots[s]);
+                            slots[s] = null;
+                        }
+                    }
+                }
+            });
+        } finally {
+            mmgr = orig;
+        }
+    }
+
+    /**
+     * Execute a single op of the plan, storing the op outputs in the slots array
+     */
+    protected void executeStep(ExecutionPlan plan, int i, INDArray[] slots) {
+        SameDiffOp op = plan.getOps()[i];
+        int[] in = plan.getInputSlots()[i];
+        INDArray[] args = new INDArray[in.length];
+        for (int j = 0; j < in.length; j++) {
+            args[j] = slots[in[j]];
+            Preconditions.checkNotNull(args[j], "Could not parameterize op %s: array %s (variable %s) is null", op.getName(), j, plan.getSlotNames()[in[j]]);
+        }
+
+        int[] out = plan.getOutputSlots()[i];
+        if (plan.getPassThrough()[i]) {
+            slots[out[0]] = args[0];
+            return;
+        }
+
+        DifferentialFunction df = op.getOp();
+        OpContext oc = plan.getContexts()[i];
+        parameterizeOp(df, oc, args, plan.getOutputSet());
+        INDArray[] outArrs = doExec(df, oc, null, null, null, null);
+        Preconditions.checkState(outArrs.length == out.length, "Unexpected number of outputs from executed op %s:" +
+                " got %s outputs when %s outputs were expected", df.getClass().getSimpleName(), outArrs.length, out.length);
+        for (int j = 0; j < out.length; j++)
+            slots[out[j]] = outArrs[j];
+        df.clearArrays();
+        oc.purge();
+    }
+
     @Override
     protected Map<String, INDArray> preprocessPlaceholders(Map<String, INDArray> placeholders, At at) {
         arrayUseTracker.clear();
@@ -852,6 +1112,19 @@ public class InferenceSession extends AbstractSession<INDArray, Pair<SameDiffOp,
             opContexts.put(opName, oc);
         }
 
+        parameterizeOp(df, oc, args, allReqVariables);
+        return new Pair<>(sdo, oc);
+    }
+
+    /**
+     * Set the inputs and arguments of the op context, and allocate the output arrays
+     *
+     * @param df              Op to parameterize
+     * @param oc              Op context to use for execution of the op
+     * @param args            Op input arrays, in the same order as the op arg names
+     * @param allReqVariables All required variables requested for the current session execution (not just the current op outputs)
+     */
+    protected void parameterizeOp(DifferentialFunction df, OpContext oc, INDArray[] args, Set<String> allReqVariables) {
         if (df instanceof CustomOp) {
             DynamicCustomOp customOp = (DynamicCustomOp) df;
             if (args != null) {
@@ -860,7 +1133,7 @@ public class InferenceSession extends AbstractSession<INDArray, Pair<SameDiffOp,
 
             if (df instanceof Identity) {
                 //We don't need to allocate an output array for Identity, we pass through the input array without copying
-                return new Pair<>(sdo, oc);
+                return;
             }
 
             if(customOp.numIArguments() > 0)
@@ -905,7 +1178,7 @@ public class InferenceSession extends AbstractSession<INDArray, Pair<SameDiffOp,
                 SDVariable axisArgVar = df.arg(1);
                 Preconditions.checkState(axisArgVar.dataType().isIntType(), "Legacy op %s input 1 (axis) was expected to be an integer type, is %s", df.getClass(), axisArgVar.dataType());
 
-                INDArray arr = getArray(axisArgVar, opInputs, allIterInputs);
+                INDArray arr = args[1];
                 Preconditions.checkState(arr != null, "Could not get axis argument for op %s: %s", df.getOwnName(), df.getClass());
                 if (!arr.isEmpty()) {
                     int[] axis = arr.toIntVector();
@@ -923,8 +1196,7 @@ public class InferenceSession extends AbstractSession<INDArray, Pair<SameDiffOp,
                 axisArg = true;
             } else if (op instanceof ScalarOp && df.argNames().length == 2) {
                 //Scalar ops: 2nd input should be treated as scalar...
-                SDVariable scalarVar = df.arg(1);
-                INDArray scalar = getArray(scalarVar, opInputs, allIterInputs);
+                INDArray scalar = args[1];
                 Preconditions.checkState(scalar != null, "Could not get scalar argument for op %s: %s", df.getOwnName(), df.getClass());
                 Preconditions.checkState(scalar.isScalar(), "Scalar argument for op %s (%s) is not a scalar: has shape %ndShape", df.getOwnName(), df.getClass(), scalar);
                 ((ScalarOp) op).setScalar(scalar);
@@ -952,8 +1224,6 @@ public class InferenceSession extends AbstractSession<INDArray, Pair<SameDiffOp,
                 oc.setOutputArray(0, z);
             }
         }
-
-        return new Pair<>(sdo, oc);
     }
 
 
@@ -968,6 +1238,21 @@ public class InferenceSession extends AbstractSession<INDArray, Pair<SameDiffOp,
         }
     }
 
+    @Data
+    @AllArgsConstructor
+    protected static class PlanKey {
+        private Set<String> outputs;
+        private Set<String> requiredActivations;
+        private Map<String, PlaceholderType> placeholders;
+    }
+
+    @Data
+    @AllArgsConstructor
+    protected static class PlaceholderType {
+        private DataType dataType;
+        private long[] shape;
+    }
+
     @Data
     public abstract static class Dep {
         protected String frame;
@@ -0,0 +1,260 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.autodiff.samediff.internal;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.nd4j.base.Preconditions;
+import org.nd4j.linalg.factory.Environment;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * InterOpExecutor: executes the ops of an {@link ExecutionPlan} concurrently, using a bounded thread pool.<br>
+ * An op is submitted for execution as soon as all ops producing its inputs have completed, so independent branches of
+ * the graph (multiple towers, Inception-style blocks, multiple output heads etc) are executed at the same time.
+ * This is mainly useful when each individual op can't use all cores by itself - for example, inference with small
+ * minibatches.<br>
+ * <br>
+ * The available cores are split between inter-op parallelism (number of ops executing at the same time, i.e., the size
+ * of the thread pool) and intra-op parallelism (maximum number of threads used by each op). ND4J has no per-op thread
+ * limit, so the intra-op limit is applied via {@link Environment#setMaxMasterThreads(int)} - a process wide setting.
+ * Changing it while ops are being executed is not safe, hence it is not changed back and forth for each execution:
+ * instead, it is set when the executor is created, and the previous value is restored when the last open executor is
+ * closed. If several executors are open at the same time, the smallest intra-op limit of the open executors is
+ * used.<br>
+ * <br>
+ * Results are deterministic: every op is executed exactly once with the same inputs as in sequential execution, only
+ * the order of execution of independent ops may differ.
+ */
+@Slf4j
+public class InterOpExecutor implements Closeable {
+
+    /**
+     * A single step (op) of a plan
+     */
+    public interface Step {
+        void execute(int step);
+    }
+
+    @Getter
+    private final int interOpThreads;
+    @Getter
+    private final int intraOpThreads;
+    private final ExecutorService executor;
+    private boolean closed;
+
+    //Intra-op limits of all open executors, and the value of maxMasterThreads before the first of these was created
+    private static final Object THREADS_LOCK = new Object();
+    private static final List<Integer> openIntraOpThreads = new ArrayList<>();
+    private static int previousMaxMasterThreads;
+
+    /**
+     * Create an executor, splitting the available processors between inter-op and intra-op threads
+     *
+     * @param interOpThreads Maximum number of ops to execute at the same time
+     */
+    public InterOpExecutor(int interOpThreads) {
+        this(interOpThreads, defaultIntraOpThreads(interOpThreads));
+    }
+
+    /**
+     * @param interOpThreads Maximum number of ops to execute at the same time
+     * @param intraOpThreads Maximum number of threads to use for each op
+     */
+    public InterOpExecutor(int interOpThreads, int intraOpThreads) {
+        Preconditions.checkArgument(interOpThreads > 0, "Number of inter-op threads must be positive, got %s", interOpThreads);
+        Preconditions.checkArgument(intraOpThreads > 0, "Number of intra-op threads must be positive, got %s", intraOpThreads);
+        this.interOpThreads = interOpThreads;
+        this.intraOpThreads = intraOpThreads;
+        synchronized (THREADS_LOCK) {
+            if (openIntraOpThreads.isEmpty())
+                previousMaxMasterThreads = Nd4j.getEnvironment().maxMasterThreads();
+            openIntraOpThreads.add(intraOpThreads);
+            applyIntraOpThreads();
+        }
+        this.executor = Executors.newFixedThreadPool(interOpThreads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SameDiff-InterOp-" + count.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @return Number of intra-op threads so that inter-op * intra-op threads equals the number of available processors
+     */
+    public static int defaultIntraOpThreads(int interOpThreads) {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, interOpThreads));
+    }
+
+    /**
+     * Execute all steps of the plan, in dependency order. Blocks until all steps have been executed.<br>
+     * If any step fails, no further steps are started, and the exception is rethrown once all running steps have completed.
+     *
+     * @param plan Plan to execute
+     * @param step Executes a single step of the plan. Must be safe to call concurrently for different steps
+     */
+    public void execute(@NonNull ExecutionPlan plan, @NonNull Step step) {
+        int n = plan.numOps();
+        if (n == 0)
+            return;
+
+        Run r = new Run(plan, step);
+        r.start();
+        Throwable t = r.error.get();
+        if (t instanceof RuntimeException)
+            throw (RuntimeException) t;
+        if (t instanceof Error)
+            throw (Error) t;
+        if (t != null)
+            throw new RuntimeException("Error during concurrent execution of SameDiff ops", t);
+        Preconditions.checkState(r.completed.get() == n, "Only %s of %s ops were executed", r.completed.get(), n);
+    }
+
+    /**
+     * Shut down the thread pool, and restore the previous maximum number of threads per op if no other executors are open
+     */
+    @Override
+    public void close() {
+        synchronized (THREADS_LOCK) {
+            if (closed)
+                return;
+            closed = true;
+            openIntraOpThreads.remove((Integer) intraOpThreads);
+            applyIntraOpThreads();
+        }
+        executor.shutdown();
+    }
+
+    private static void applyIntraOpThreads() {
+        int threads = previousMaxMasterThreads;
+        if (!openIntraOpThreads.isEmpty()) {
+            threads = Integer.MAX_VALUE;
+            for (int t : openIntraOpThreads)
+                threads = Math.min(threads, t);
+        }
+        if (Nd4j.getEnvironment().maxMasterThreads() != threads)
+            Nd4j.getEnvironment().setMaxMasterThreads(threads);
+    }
+
+    /**
+     * State of a single execution of a plan
+     */
+    private class Run {
+        private final int[][] successors;
+        private final int[] numPredecessors;
+        private final AtomicIntegerArray pending;
+        private final Step step;
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger completed = new AtomicInteger();
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private Run(ExecutionPlan plan, Step step) {
+            this.successors = plan.getSuccessors();
+            this.numPredecessors = plan.getNumPredecessors();
+            this.pending = new AtomicIntegerArray(plan.getNumPredecessors());
+            this.step = step;
+        }
+
+        private void start() {
+            //Hold one "running" count until all initial ops are submitted, so we can't finish early.
+            //Note that initial ops are determined from the plan, not the pending counts: these are modified concurrently
+            running.incrementAndGet();
+            for (int i = 0; i < successors.length; i++) {
+                if (numPredecessors[i] == 0)
+                    submit(i);
+            }
+            finished();
+
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    //Can't return until running ops have completed: they use the session's arrays
+                    interrupted = true;
+                    error.compareAndSet(null, e);
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        private void submit(final int op) {
+            running.incrementAndGet();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        runFrom(op);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                error.compareAndSet(null, e);
+                finished();
+            }
+        }
+
+        /**
+         * Execute the op, then keep going with one of the successors that became ready (if any) on the same thread
+         */
+        private void runFrom(int op) {
+            try {
+                while (op >= 0 && error.get() == null) {
+                    step.execute(op);
+                    completed.incrementAndGet();
+
+                    int next = -1;
+                    for (int s : successors[op]) {
+                        if (pending.decrementAndGet(s) == 0) {
+                            if (next < 0)
+                                next = s;
+                            else
+                                submit(s);
+                        }
+                    }
+                    op = next;
+                }
+            } catch (Throwable t) {
+                error.compareAndSet(null, t);
+            } finally {
+                finished();
+            }
+        }
+
+        private void finished() {
+            if (running.decrementAndGet() == 0)
+                done.countDown();
+        }
+    }
+}
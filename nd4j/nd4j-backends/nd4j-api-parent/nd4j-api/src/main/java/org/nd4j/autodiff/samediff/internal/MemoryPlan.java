@@ -0,0 +1,319 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.autodiff.samediff.internal;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.util.*;
+
+/**
+ * MemoryPlan: a static (ahead of time) memory plan for the intermediate arrays of an {@link ExecutionPlan}, for one set of
+ * placeholder shapes.<br>
+ * The lifetime of each intermediate array is known from the plan: it is created by the step that produces it, and is no
+ * longer needed after its last use (see {@link ExecutionPlan#getReleaseAfter()}). Arrays with non-overlapping lifetimes
+ * can share the same memory, so all intermediate arrays are packed into a single arena per datatype, using the
+ * "greedy by size" heuristic: arrays are placed largest first, each one in the smallest gap (between arrays with
+ * overlapping lifetimes that have already been placed) that it fits in.<br>
+ * <br>
+ * The size of the arena - i.e., the peak memory use for intermediate arrays - is known before execution. Once the arena
+ * has been allocated, executing the plan requires no further allocations for intermediate arrays: the same views of the
+ * arena are reused on every execution.<br>
+ * Array shapes are not known until the graph has been executed once (some output shapes depend on the input values),
+ * so memory plans are built from the shapes of a previous execution with the same placeholder shapes. If an op
+ * requests an array with a different shape than planned, the memory manager falls back to regular allocation.<br>
+ * <br>
+ * Only arrays that are released within the plan are included: requested outputs (and arrays they alias) are returned
+ * to the user, and are always allocated separately.
+ */
+@Getter
+public class MemoryPlan {
+    /**
+     * Alignment of arrays within the arena, in bytes
+     */
+    public static final int ALIGNMENT_BYTES = 64;
+
+    private final ExecutionPlan executionPlan;
+    /**
+     * Placeholder shapes and types that this memory plan was built for, in the order of
+     * {@link ExecutionPlan#getRequiredPlaceholders()}
+     */
+    private final long[][] placeholderShapes;
+    private final DataType[] placeholderTypes;
+    /**
+     * Per slot: datatype, shape and offset (in elements) in the arena for that datatype. Offset -1: not planned
+     */
+    private final DataType[] dataTypes;
+    private final long[][] shapes;
+    private final long[] offsets;
+    /**
+     * Arena size (number of elements) for each datatype
+     */
+    private final Map<DataType, Long> arenaSizes;
+    /**
+     * Total size of all planned arrays, in bytes, without any memory reuse
+     */
+    private final long totalBytes;
+
+    private Map<DataType, INDArray> arenas;
+    private INDArray[] views;
+    private Set<INDArray> viewSet;
+
+    private MemoryPlan(ExecutionPlan executionPlan, long[][] placeholderShapes, DataType[] placeholderTypes, DataType[] dataTypes,
+                       long[][] shapes, long[] offsets, Map<DataType, Long> arenaSizes, long totalBytes) {
+        this.executionPlan = executionPlan;
+        this.placeholderShapes = placeholderShapes;
+        this.placeholderTypes = placeholderTypes;
+        this.dataTypes = dataTypes;
+        this.shapes = shapes;
+        this.offsets = offsets;
+        this.arenaSizes = arenaSizes;
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * Build a memory plan
+     *
+     * @param plan         Execution plan
+     * @param placeholders Placeholder values that the plan was executed with
+     * @param dataTypes    Datatypes of the arrays in each slot, as produced by a previous execution of the plan. Null for slots not produced
+     * @param shapes       Shapes of the arrays in each slot, as produced by a previous execution of the plan. Null for slots not produced
+     * @return The memory plan
+     */
+    public static MemoryPlan build(@NonNull ExecutionPlan plan, Map<String, INDArray> placeholders, @NonNull DataType[] dataTypes,
+                                   @NonNull long[][] shapes) {
+        String[] phNames = plan.getRequiredPlaceholders();
+        long[][] phShapes = new long[phNames.length][];
+        DataType[] phTypes = new DataType[phNames.length];
+        for (int i = 0; i < phNames.length; i++) {
+            INDArray arr = placeholders.get(phNames[i]);
+            phShapes[i] = arr.shape();
+            phTypes[i] = arr.dataType();
+        }
+
+        //Lifetime of each releasable array: [step that produces it, step after which it is released]
+        int numSlots = plan.numSlots();
+        int[] start = new int[numSlots];
+        int[] end = new int[numSlots];
+        Arrays.fill(start, -1);
+        Arrays.fill(end, -1);
+        int[][] releaseAfter = plan.getReleaseAfter();
+        for (int i = 0; i < releaseAfter.length; i++) {
+            for (int s : releaseAfter[i])
+                end[s] = i;
+        }
+        List<Integer> planned = new ArrayList<>();
+        for (int i = 0; i < plan.numOps(); i++) {
+            if (plan.getPassThrough()[i])
+                continue;
+            for (int s : plan.getOutputSlots()[i]) {
+                //Only arrays that are released within the plan: outputs and arrays they alias are returned to the user
+                if (end[s] >= 0 && isPlanned(plan, s, dataTypes[s], shapes[s])) {
+                    start[s] = i;
+                    planned.add(s);
+                }
+            }
+        }
+
+        long[] offsets = new long[numSlots];
+        Arrays.fill(offsets, -1);
+        Map<DataType, List<Integer>> byType = new HashMap<>();
+        long totalBytes = 0;
+        for (Integer s : planned) {
+            List<Integer> l = byType.get(dataTypes[s]);
+            if (l == null) {
+                l = new ArrayList<>();
+                byType.put(dataTypes[s], l);
+            }
+            l.add(s);
+            totalBytes += length(shapes[s]) * dataTypes[s].width();
+        }
+
+        Map<DataType, Long> arenaSizes = new HashMap<>();
+        for (Map.Entry<DataType, List<Integer>> e : byType.entrySet()) {
+            long size = pack(e.getValue(), start, end, shapes, offsets, Math.max(1, ALIGNMENT_BYTES / e.getKey().width()));
+            arenaSizes.put(e.getKey(), size);
+        }
+
+        DataType[] dt = new DataType[numSlots];
+        long[][] sh = new long[numSlots][];
+        for (Integer s : planned) {
+            dt[s] = dataTypes[s];
+            sh[s] = shapes[s];
+        }
+        return new MemoryPlan(plan, phShapes, phTypes, dt, sh, offsets, arenaSizes, totalBytes);
+    }
+
+    private static boolean isPlanned(ExecutionPlan plan, int slot, DataType dt, long[] shape) {
+        if (dt == null || shape == null || plan.getSlotTypes()[slot] != ExecutionPlan.ARRAY)
+            return false;
+        if (!(dt.isNumerical() || dt == DataType.BOOL) || dt.width() <= 0)
+            return false;
+        return length(shape) > 0;
+    }
+
+    /**
+     * Greedy by size packing: place the largest arrays first, each at the lowest offset with a large enough gap between
+     * the (already placed) arrays with overlapping lifetimes
+     *
+     * @return Arena size, in elements
+     */
+    private static long pack(List<Integer> slots, final int[] start, final int[] end, final long[][] shapes, long[] offsets, long align) {
+        List<Integer> order = new ArrayList<>(slots);
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int c = Long.compare(length(shapes[b]), length(shapes[a]));
+                return c != 0 ? c : Integer.compare(start[a], start[b]);
+            }
+        });
+
+        long arenaSize = 0;
+        List<Integer> placed = new ArrayList<>();
+        for (Integer s : order) {
+            long size = length(shapes[s]);
+            //Arrays already placed, that are alive at the same time as this one - sorted by offset
+            List<Integer> overlapping = new ArrayList<>();
+            for (Integer p : placed) {
+                if (start[p] <= end[s] && start[s] <= end[p])
+                    overlapping.add(p);
+            }
+            final long[] offs = offsets;
+            Collections.sort(overlapping, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(offs[a], offs[b]);
+                }
+            });
+
+            long best = -1;
+            long bestGap = Long.MAX_VALUE;
+            long prevEnd = 0;
+            for (Integer p : overlapping) {
+                long gap = offsets[p] - prevEnd;
+                if (gap >= size && gap < bestGap) {
+                    best = prevEnd;
+                    bestGap = gap;
+                }
+                prevEnd = Math.max(prevEnd, align(offsets[p] + length(shapes[p]), align));
+            }
+            if (best < 0)
+                best = prevEnd;
+
+            offsets[s] = best;
+            arenaSize = Math.max(arenaSize, best + size);
+            placed.add(s);
+        }
+        return arenaSize;
+    }
+
+    private static long align(long offset, long align) {
+        return ((offset + align - 1) / align) * align;
+    }
+
+    private static long length(long[] shape) {
+        long l = 1;
+        for (long d : shape)
+            l *= d;
+        return l;
+    }
+
+    /**
+     * @return Peak memory use for intermediate arrays (i.e., total arena size), in bytes
+     */
+    public long getArenaBytes() {
+        long bytes = 0;
+        for (Map.Entry<DataType, Long> e : arenaSizes.entrySet())
+            bytes += e.getValue() * e.getKey().width();
+        return bytes;
+    }
+
+    /**
+     * @return True if the memory plan was built for the same placeholder shapes and types
+     */
+    public boolean matches(Map<String, INDArray> placeholders) {
+        String[] phNames = executionPlan.getRequiredPlaceholders();
+        for (int i = 0; i < phNames.length; i++) {
+            INDArray arr = placeholders.get(phNames[i]);
+            if (arr == null || arr.dataType() != placeholderTypes[i] || !Arrays.equals(arr.shape(), placeholderShapes[i]))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the (preallocated) array for the specified slot
+     *
+     * @return The array, or null if the slot isn't planned, or the datatype/shape differs from the plan
+     */
+    public INDArray getArray(int slot, DataType dataType, long[] shape) {
+        if (offsets[slot] < 0 || dataTypes[slot] != dataType || !Arrays.equals(shapes[slot], shape))
+            return null;
+        if (views == null)
+            allocate();
+        return views[slot];
+    }
+
+    /**
+     * @return True if the array is part of the arena
+     */
+    public boolean isArenaArray(INDArray arr) {
+        return viewSet != null && viewSet.contains(arr);
+    }
+
+    /**
+     * Allocate the arenas, and create the views for each planned slot
+     */
+    protected synchronized void allocate() {
+        if (views != null)
+            return;
+        Map<DataType, INDArray> a = new HashMap<>();
+        for (Map.Entry<DataType, Long> e : arenaSizes.entrySet())
+            a.put(e.getKey(), Nd4j.createUninitializedDetached(e.getKey(), e.getValue()));
+
+        INDArray[] v = new INDArray[offsets.length];
+        Set<INDArray> set = Collections.newSetFromMap(new IdentityHashMap<INDArray, Boolean>());
+        for (int s = 0; s < offsets.length; s++) {
+            if (offsets[s] < 0)
+                continue;
+            INDArray arena = a.get(dataTypes[s]);
+            v[s] = arena.get(NDArrayIndex.interval(offsets[s], offsets[s] + length(shapes[s]))).reshape('c', shapes[s]);
+            set.add(v[s]);
+        }
+        arenas = a;
+        viewSet = set;
+        views = v;
+    }
+
+    /**
+     * Release the arenas. They will be reallocated if the plan is used again
+     */
+    public synchronized void close() {
+        if (arenas != null) {
+            for (INDArray arr : arenas.values())
+                arr.close();
+        }
+        arenas = null;
+        views = null;
+        viewSet = null;
+    }
+}
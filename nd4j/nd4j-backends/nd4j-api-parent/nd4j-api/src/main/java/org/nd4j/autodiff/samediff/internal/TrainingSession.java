@@ -42,6 +42,8 @@ public class TrainingSession extends InferenceSession {
 
     public TrainingSession(SameDiff sameDiff) {
         super(sameDiff);
+        //Training relies on per-op hooks in getOutputs (updates, regularization), which plan execution bypasses
+        setPlanCacheEnabled(false);
     }
 
     /**
@@ -0,0 +1,90 @@
+package org.nd4j.autodiff.samediff.internal.memory;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.nd4j.autodiff.samediff.internal.MemoryPlan;
+import org.nd4j.autodiff.samediff.internal.SessionMemMgr;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.shape.LongShapeDescriptor;
+
+/**
+ * A memory manager that serves the intermediate arrays of a (sequentially executed)
+ * {@link org.nd4j.autodiff.samediff.internal.ExecutionPlan} from the preallocated arena of a {@link MemoryPlan}.<br>
+ * Before each step of the plan is executed, {@link #setStep(int)} must be called: the n-th allocation during a step is
+ * for the n-th output of the op. Arrays that are not part of the memory plan - detached arrays (outputs), unplanned
+ * slots, or arrays with a different shape/datatype than planned - are allocated using the underlying memory manager.
+ * See {@link #isMismatch()} to check if any array did not match the plan.<br>
+ * Releasing arena arrays is a no-op: their memory is reused as per the plan.
+ */
+public class PlannedMemoryMgr implements SessionMemMgr {
+
+    @Getter
+    private final MemoryPlan memoryPlan;
+    @Getter
+    private final SessionMemMgr underlying;
+    private final int[][] outputSlots;
+
+    private int step = -1;
+    private int count;
+    /**
+     * True if any planned array was requested with a different shape or datatype than planned
+     */
+    @Getter
+    private boolean mismatch;
+
+    public PlannedMemoryMgr(@NonNull MemoryPlan memoryPlan, @NonNull SessionMemMgr underlying) {
+        this.memoryPlan = memoryPlan;
+        this.underlying = underlying;
+        this.outputSlots = memoryPlan.getExecutionPlan().getOutputSlots();
+    }
+
+    /**
+     * Set the index of the plan step that is about to be executed
+     */
+    public void setStep(int step) {
+        this.step = step;
+        this.count = 0;
+    }
+
+    @Override
+    public INDArray allocate(boolean detached, DataType dataType, long... shape) {
+        int idx = count++;
+        if (!detached && step >= 0 && idx < outputSlots[step].length) {
+            int slot = outputSlots[step][idx];
+            if (memoryPlan.getOffsets()[slot] >= 0) {
+                INDArray arr = memoryPlan.getArray(slot, dataType, shape);
+                if (arr != null)
+                    return arr;
+                mismatch = true;
+            }
+        }
+        return underlying.allocate(detached, dataType, shape);
+    }
+
+    @Override
+    public INDArray allocate(boolean detached, LongShapeDescriptor descriptor) {
+        return allocate(detached, descriptor.dataType(), descriptor.getShape());
+    }
+
+    @Override
+    public INDArray ulike(INDArray arr) {
+        return underlying.ulike(arr);
+    }
+
+    @Override
+    public INDArray dup(INDArray arr) {
+        return underlying.dup(arr);
+    }
+
+    @Override
+    public void release(@NonNull INDArray array) {
+        if (!memoryPlan.isArenaArray(array))
+            underlying.release(array);
+    }
+
+    @Override
+    public void close() {
+        underlying.close();
+    }
+}
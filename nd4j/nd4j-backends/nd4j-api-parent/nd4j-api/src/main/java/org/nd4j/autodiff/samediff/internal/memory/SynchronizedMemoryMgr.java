@@ -0,0 +1,54 @@
+package org.nd4j.autodiff.samediff.internal.memory;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.nd4j.autodiff.samediff.internal.SessionMemMgr;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.shape.LongShapeDescriptor;
+
+/**
+ * A thread-safe view of another {@link SessionMemMgr}: all calls are synchronized and forwarded to the underlying
+ * memory manager.<br>
+ * Used when multiple ops of the same session are executed concurrently - see
+ * {@link org.nd4j.autodiff.samediff.internal.InterOpExecutor}
+ */
+public class SynchronizedMemoryMgr implements SessionMemMgr {
+
+    @Getter
+    private final SessionMemMgr underlying;
+
+    public SynchronizedMemoryMgr(@NonNull SessionMemMgr underlying) {
+        this.underlying = underlying;
+    }
+
+    @Override
+    public synchronized INDArray allocate(boolean detached, DataType dataType, long... shape) {
+        return underlying.allocate(detached, dataType, shape);
+    }
+
+    @Override
+    public synchronized INDArray allocate(boolean detached, LongShapeDescriptor descriptor) {
+        return underlying.allocate(detached, descriptor);
+    }
+
+    @Override
+    public synchronized INDArray ulike(INDArray arr) {
+        return underlying.ulike(arr);
+    }
+
+    @Override
+    public synchronized INDArray dup(INDArray arr) {
+        return underlying.dup(arr);
+    }
+
+    @Override
+    public synchronized void release(INDArray array) {
+        underlying.release(array);
+    }
+
+    @Override
+    public synchronized void close() {
+        underlying.close();
+    }
+}
@@ -67,23 +67,29 @@ public class GraphTransformUtil {
             //Step 1: replace the old outputs with new outputs
             //So for initial graph (x -> y -> z) and post application of processor we now have (x -> (y, A); y->z),
             // we want to end up with (x -> A -> z)
-            List<DifferentialFunction> allSubGraphFns = sg.allFunctionsInSubgraph();
+            //Note: ops must be compared by identity (SubGraph.inSubgraph), not equals: equals for some ops only compares
+            // the op configuration, not the op's name
             for (int i = 0; i < oldOutputs.size(); i++) {
                 String oldOutVarName = oldOutputs.get(i).name();
                 String newOutVarName = newOutputs.get(i).name();
                 Preconditions.checkState(!oldOutVarName.equals(newOutVarName), "Reusing old variables not yet implemented");
 
                 //Update inputs for ops: if X->opA, and now Y->opA, then X.inputsForOps contains "opA"; Y.inputsForOps should be updated
+                //Note that Y may be an existing variable (for example, when removing an op entirely) - in which case
+                // the existing ops using Y must be kept
                 List<String> oldInputsForOps = sd.getVariables().get(oldOutVarName).getInputsForOp();
                 if (oldInputsForOps != null) {
+                    Variable newOutVar = sd.getVariables().get(newOutVarName);
                     List<String> newInputsForOps = new ArrayList<>();
+                    if (newOutVar.getInputsForOp() != null)
+                        newInputsForOps.addAll(newOutVar.getInputsForOp());
                     for (String s : oldInputsForOps) {
                         DifferentialFunction df = sd.getOpById(s);
-                        if (!allSubGraphFns.contains(df)) {
+                        if (!sg.inSubgraph(df) && !newInputsForOps.contains(s)) {
                             newInputsForOps.add(s);
                         }
                     }
-                    sd.getVariables().get(newOutVarName).setInputsForOp(newInputsForOps);
+                    newOutVar.setInputsForOp(newInputsForOps);
                 }
 
 
@@ -142,7 +148,7 @@ public class GraphTransformUtil {
                         // (2) variable is now connected directly as an output: (A->B->C) becomes (A->C)
                         // For the latter case, this
                         DifferentialFunction df = sd.getOpById(opName);
-                        if (allSubGraphFns.contains(df)) {
+                        if (sg.inSubgraph(df)) {
                             newInputsForOp.remove(opName);
                         }
                     }
@@ -164,6 +170,8 @@ public class GraphTransformUtil {
                     }
                 }
             }
+            //Op inputs were modified in place above: make sure cached execution plans aren't reused
+            sd.markStructureChanged();
         }
 
         return sd;
@@ -0,0 +1,140 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.autodiff.samediff.transform.optimize;
+
+import org.nd4j.autodiff.functions.DifferentialFunction;
+import org.nd4j.autodiff.samediff.SDVariable;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.transform.*;
+import org.nd4j.base.Preconditions;
+
+import java.util.*;
+
+/**
+ * Base class for optimization passes that replace subgraphs using {@link GraphTransformUtil}.<br>
+ * Subclasses find the subgraphs to replace ({@link #findMatches(SameDiff, Set)}) and create their replacements
+ * ({@link #replace(SameDiff, SubGraph)}). All matches are replaced, and the pass is repeated until no more matches are
+ * found (or {@link #getMaxIterations()} is reached), as replacing one subgraph may enable further replacements.<br>
+ * Output variables of replaced subgraphs keep their names: newly created replacement variables are renamed to the
+ * name of the variable they replace. Ops and constants that are no longer used after the replacement are removed.
+ */
+public abstract class BaseReplacementPass implements OptimizationPass {
+
+    /**
+     * @return Maximum number of times to search for (and replace) matching subgraphs
+     */
+    protected int getMaxIterations() {
+        return 10;
+    }
+
+    /**
+     * Find the subgraphs to replace. Subgraphs must not overlap.
+     *
+     * @param sd      SameDiff instance
+     * @param outputs Variables that must be preserved
+     * @return Map of root op name (i.e., the op producing the output of the subgraph) to the names of the other ops
+     * in the subgraph (may be empty). Empty if nothing should be replaced
+     */
+    protected abstract Map<String, List<String>> findMatches(SameDiff sd, Set<String> outputs);
+
+    /**
+     * Create the replacement for the specified subgraph.
+     *
+     * @param sd       SameDiff instance to add the replacement to
+     * @param subGraph Subgraph to replace
+     * @return Map of output variable name (of the ops in the subgraph) to the variable that should replace it. Must
+     * contain all subgraph outputs that are used elsewhere in the graph, or are outputs
+     */
+    protected abstract Map<String, SDVariable> replace(SameDiff sd, SubGraph subGraph);
+
+    @Override
+    public SameDiff apply(SameDiff sd, Set<String> outputs) {
+        for (int i = 0; i < getMaxIterations(); i++) {
+            Map<String, List<String>> matches = findMatches(sd, outputs);
+            if (matches.isEmpty())
+                break;
+
+            final Map<String, String> renames = new LinkedHashMap<>();
+            final Set<String> inputs = new HashSet<>();
+            sd = GraphTransformUtil.replaceSubgraphsMatching(sd, new MatchPredicate(matches), new SubGraphProcessor() {
+                @Override
+                public List<SDVariable> processSubgraph(SameDiff sd, SubGraph subGraph) {
+                    Set<String> before = new HashSet<>(sd.getVariables().keySet());
+                    for (SDVariable v : subGraph.inputs())
+                        inputs.add(v.name());
+
+                    Map<String, SDVariable> replacements = replace(sd, subGraph);
+                    for (Map.Entry<String, SDVariable> e : replacements.entrySet()) {
+                        if (!before.contains(e.getValue().name()))
+                            renames.put(e.getKey(), e.getValue().name());
+                    }
+
+                    List<SDVariable> out = new ArrayList<>();
+                    for (SDVariable v : subGraph.outputs()) {
+                        SDVariable r = replacements.get(v.name());
+                        Preconditions.checkState(r != null, "Optimization pass %s: no replacement was provided for variable \"%s\"", getName(), v.name());
+                        out.add(r);
+                    }
+                    return out;
+                }
+            });
+
+            //Restore the original names, now that the replaced variables have been removed
+            for (Map.Entry<String, String> e : renames.entrySet()) {
+                if (!sd.hasVariable(e.getKey()) && sd.hasVariable(e.getValue()))
+                    sd.renameVariable(e.getValue(), e.getKey());
+            }
+            OptimizationUtil.removeDeadOps(sd, outputs, inputs);
+        }
+        return sd;
+    }
+
+    /**
+     * Matches exactly the (precomputed) subgraphs to replace
+     */
+    private static class MatchPredicate extends SubGraphPredicate {
+        private final Map<String, List<String>> matches;
+
+        private MatchPredicate(final Map<String, List<String>> matches) {
+            super(new OpPredicate() {
+                @Override
+                public boolean matches(SameDiff sameDiff, DifferentialFunction function) {
+                    return matches.containsKey(function.getOwnName());
+                }
+            });
+            this.matches = matches;
+        }
+
+        @Override
+        public boolean matches(SameDiff sameDiff, DifferentialFunction rootFn) {
+            return root.matches(sameDiff, rootFn);
+        }
+
+        @Override
+        public SubGraph getSubGraph(SameDiff sd, DifferentialFunction rootFn) {
+            List<DifferentialFunction> childNodes = new ArrayList<>();
+            for (String s : matches.get(rootFn.getOwnName()))
+                childNodes.add(sd.getOpById(s));
+            return SubGraph.builder()
+                    .sameDiff(sd)
+                    .rootNode(rootFn)
+                    .childNodes(childNodes)
+                    .build();
+        }
+    }
+}
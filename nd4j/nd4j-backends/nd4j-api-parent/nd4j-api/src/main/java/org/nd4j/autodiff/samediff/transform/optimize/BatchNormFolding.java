@@ -0,0 +1,129 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.autodiff.samediff.transform.optimize;
+
+import org.nd4j.autodiff.samediff.SDVariable;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.internal.SameDiffOp;
+import org.nd4j.autodiff.samediff.transform.SubGraph;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.impl.broadcast.BroadcastMulOp;
+import org.nd4j.linalg.api.ops.impl.layers.convolution.BatchNorm;
+import org.nd4j.linalg.api.ops.impl.layers.convolution.Conv2D;
+import org.nd4j.linalg.api.ops.impl.layers.convolution.config.Conv2DConfig;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.util.*;
+
+/**
+ * Batch normalization folding: conv2d followed by (inference mode) batch normalization is replaced by a single conv2d
+ * op, with the batch norm scale and shift folded into the convolution weights and bias:<br>
+ * {@code scale = gamma / sqrt(variance + epsilon)}<br>
+ * {@code W' = W * scale} (per output channel)<br>
+ * {@code b' = (b - mean) * scale + beta}<br>
+ * <br>
+ * Only applies if the weights, bias and all batch norm parameters are constants or variables (i.e., their values are
+ * known), the batch norm is over the channels dimension, and the convolution output isn't used elsewhere.<br>
+ * The folded weights and bias are constants: the resulting graph is for inference only.
+ */
+public class BatchNormFolding extends BaseReplacementPass {
+
+    @Override
+    public String getName() {
+        return "batchnorm-folding";
+    }
+
+    @Override
+    protected Map<String, List<String>> findMatches(SameDiff sd, Set<String> outputs) {
+        Map<String, List<String>> out = new LinkedHashMap<>();
+        for (SameDiffOp op : sd.getOps().values()) {
+            if (!(op.getOp() instanceof BatchNorm) || OptimizationUtil.hasControlDeps(sd, op))
+                continue;
+            BatchNorm bn = (BatchNorm) op.getOp();
+            List<String> in = op.getInputsToOp();
+            if (in.size() != 3 + (bn.isApplyGamma() ? 1 : 0) + (bn.isApplyBeta() ? 1 : 0))
+                continue;
+
+            SameDiffOp conv = OptimizationUtil.producer(sd, in.get(0));
+            if (conv == null || conv.getOp().getClass() != Conv2D.class || OptimizationUtil.hasControlDeps(sd, conv)
+                    || !OptimizationUtil.isSingleUse(sd, in.get(0), outputs))
+                continue;
+
+            INDArray w = OptimizationUtil.knownArray(sd, conv.getInputsToOp().get(1));
+            int oCAxis = OptimizationUtil.conv2dOutChannelAxis((Conv2D) conv.getOp());
+            if (w == null || w.rank() != 4 || oCAxis < 0 || !w.dataType().isFPType())
+                continue;
+            if (conv.getInputsToOp().size() > 2 && OptimizationUtil.knownArray(sd, conv.getInputsToOp().get(2)) == null)
+                continue;
+
+            //Batch norm must be over the channels dimension only
+            Conv2DConfig c = ((Conv2D) conv.getOp()).getConfig();
+            int channels = c.isNHWC() ? 3 : 1;
+            int[] axis = bn.getJaxis();
+            int bnAxis = axis == null ? 3 : (axis.length == 1 ? (axis[0] < 0 ? axis[0] + 4 : axis[0]) : -1);
+            if (bnAxis != channels)
+                continue;
+
+            boolean allKnown = true;
+            for (int i = 1; i < in.size(); i++) {
+                INDArray arr = OptimizationUtil.knownArray(sd, in.get(i));
+                if (arr == null || arr.length() != w.size(oCAxis))
+                    allKnown = false;
+            }
+            if (allKnown)
+                out.put(op.getName(), Collections.singletonList(conv.getName()));
+        }
+        return out;
+    }
+
+    @Override
+    protected Map<String, SDVariable> replace(SameDiff sd, SubGraph subGraph) {
+        BatchNorm bn = (BatchNorm) subGraph.getRootNode();
+        Conv2D conv = (Conv2D) subGraph.getChildNodes().get(0);
+        SDVariable[] bnIn = bn.args();
+        SDVariable[] convIn = conv.args();
+
+        INDArray w = OptimizationUtil.knownArray(sd, convIn[1].name());
+        DataType dt = w.dataType();
+        int oCAxis = OptimizationUtil.conv2dOutChannelAxis(conv);
+        long oC = w.size(oCAxis);
+
+        int idx = 3;
+        INDArray mean = vector(OptimizationUtil.knownArray(sd, bnIn[1].name()), dt, oC);
+        INDArray var = vector(OptimizationUtil.knownArray(sd, bnIn[2].name()), dt, oC);
+        INDArray gamma = bn.isApplyGamma() ? vector(OptimizationUtil.knownArray(sd, bnIn[idx++].name()), dt, oC) : Nd4j.ones(dt, oC);
+        INDArray beta = bn.isApplyBeta() ? vector(OptimizationUtil.knownArray(sd, bnIn[idx].name()), dt, oC) : Nd4j.zeros(dt, oC);
+        INDArray b = convIn.length > 2 ? vector(OptimizationUtil.knownArray(sd, convIn[2].name()), dt, oC) : Nd4j.zeros(dt, oC);
+
+        INDArray scale = gamma.div(Transforms.sqrt(var.add(bn.getEpsilon()), false));
+        INDArray newW = w.dup();
+        Nd4j.getExecutioner().exec(new BroadcastMulOp(newW, scale, newW, oCAxis));
+        INDArray newB = b.sub(mean).muli(scale).addi(beta);
+
+        SDVariable wVar = sd.constant(OptimizationUtil.uniqueName(sd, convIn[1].name() + "_bnfolded"), newW);
+        SDVariable bVar = sd.constant(OptimizationUtil.uniqueName(sd, bn.getOwnName() + "_bias_bnfolded"), newB);
+        SDVariable newOut = new Conv2D(sd, convIn[0], wVar, bVar, conv.getConfig()).outputVariable();
+        return Collections.singletonMap(bn.outputVariable().name(), newOut);
+    }
+
+    private static INDArray vector(INDArray arr, DataType dt, long length) {
+        return arr.castTo(dt).reshape(length);
+    }
+}
@@ -0,0 +1,149 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.autodiff.samediff.transform.optimize;
+
+import org.nd4j.autodiff.functions.DifferentialFunction;
+import org.nd4j.autodiff.samediff.SDVariable;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.internal.SameDiffOp;
+import org.nd4j.autodiff.samediff.transform.SubGraph;
+import org.nd4j.linalg.api.ops.DynamicCustomOp;
+import org.nd4j.linalg.api.ops.IndexAccumulation;
+import org.nd4j.linalg.api.ops.Op;
+import org.nd4j.linalg.api.ops.ReduceOp;
+
+import java.util.*;
+
+/**
+ * Common subexpression elimination: if two (or more) ops perform the same calculation - the same op type with the
+ * same arguments, on the same inputs - only the first is kept, and the outputs of the others are replaced by its
+ * outputs.<br>
+ * Random ops, control flow ops, in-place ops and ops with control dependencies are never merged. An op whose outputs
+ * are to be preserved is never replaced (but may be kept as the op that others are replaced by).<br>
+ * Merging duplicated inputs may in turn make their consumers identical: these are merged in the next iteration.
+ */
+public class CommonSubexpressionElimination extends BaseReplacementPass {
+
+    private Map<String, String> replaceBy;
+
+    @Override
+    public String getName() {
+        return "common-subexpression-elimination";
+    }
+
+    @Override
+    protected Map<String, List<String>> findMatches(SameDiff sd, Set<String> outputs) {
+        Map<String, List<String>> out = new LinkedHashMap<>();
+        replaceBy = new HashMap<>();
+        //Candidates are grouped by op class and inputs; the first op of each distinct calculation is kept
+        Map<String, List<SameDiffOp>> groups = new HashMap<>();
+        for (SameDiffOp op : sd.getOps().values()) {
+            if (!isCandidate(sd, op))
+                continue;
+            String key = op.getOp().getClass().getName() + "/" + op.getInputsToOp();
+            List<SameDiffOp> l = groups.get(key);
+            if (l == null) {
+                l = new ArrayList<>();
+                groups.put(key, l);
+            }
+
+            SameDiffOp same = null;
+            for (SameDiffOp o : l) {
+                if (equivalent(o, op)) {
+                    same = o;
+                    break;
+                }
+            }
+
+            if (same == null) {
+                l.add(op);
+            } else if (!Collections.disjoint(op.getOutputsOfOp(), outputs)) {
+                //Keep ops with outputs to preserve
+                continue;
+            } else {
+                out.put(op.getName(), Collections.<String>emptyList());
+                replaceBy.put(op.getName(), same.getName());
+            }
+        }
+        return out;
+    }
+
+    private static boolean isCandidate(SameDiff sd, SameDiffOp op) {
+        DifferentialFunction df = op.getOp();
+        if (op.getOutputsOfOp() == null || op.getOutputsOfOp().isEmpty() || op.getInputsToOp() == null
+                || OptimizationUtil.isStateful(df) || OptimizationUtil.hasControlDeps(sd, op) || df.isInPlace())
+            return false;
+        return !(df instanceof DynamicCustomOp) || !((DynamicCustomOp) df).isInplaceCall();
+    }
+
+    private static boolean equivalent(SameDiffOp op1, SameDiffOp op2) {
+        DifferentialFunction a = op1.getOp();
+        DifferentialFunction b = op2.getOp();
+        if (a.getClass() != b.getClass() || !op1.getInputsToOp().equals(op2.getInputsToOp())
+                || op1.getOutputsOfOp().size() != op2.getOutputsOfOp().size())
+            return false;
+
+        if (a instanceof DynamicCustomOp) {
+            DynamicCustomOp c1 = (DynamicCustomOp) a;
+            DynamicCustomOp c2 = (DynamicCustomOp) b;
+            if (!c1.opName().equals(c2.opName()) || !Arrays.equals(c1.iArgs(), c2.iArgs()) || !Arrays.equals(c1.tArgs(), c2.tArgs())
+                    || !Arrays.equals(c1.bArgs(), c2.bArgs()) || !Arrays.equals(c1.dArgs(), c2.dArgs()))
+                return false;
+        } else {
+            if (!Arrays.equals(a.getDimensions(), b.getDimensions()))
+                return false;
+            if (a instanceof Op && !Arrays.deepEquals(((Op) a).extraArgs(), ((Op) b).extraArgs()))
+                return false;
+            if (a.getScalarValue() == null ? b.getScalarValue() != null : !a.getScalarValue().equals(b.getScalarValue()))
+                return false;
+            if (a instanceof ReduceOp && ((ReduceOp) a).isKeepDims() != ((ReduceOp) b).isKeepDims())
+                return false;
+            if (a instanceof IndexAccumulation && ((IndexAccumulation) a).isKeepDims() != ((IndexAccumulation) b).isKeepDims())
+                return false;
+        }
+
+        //Any other configuration (not reflected in the op's arguments)
+        try {
+            Map<String, Object> p1 = a.propertiesForFunction();
+            Map<String, Object> p2 = b.propertiesForFunction();
+            if (p1 == null || p2 == null)
+                return p1 == p2;
+            if (!p1.keySet().equals(p2.keySet()))
+                return false;
+            for (String s : p1.keySet()) {
+                if (!Objects.deepEquals(p1.get(s), p2.get(s)))
+                    return false;
+            }
+        } catch (Exception e) {
+            //Can't determine the configuration - can't be sure the ops are the same
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    protected Map<String, SDVariable> replace(SameDiff sd, SubGraph subGraph) {
+        DifferentialFunction root = subGraph.getRootNode();
+        SDVariable[] from = root.outputVariables();
+        SDVariable[] to = sd.getOpById(replaceBy.get(root.getOwnName())).outputVariables();
+        Map<String, SDVariable> out = new HashMap<>();
+        for (int i = 0; i < from.length; i++)
+            out.put(from[i].name(), to[i]);
+        return out;
+    }
+}
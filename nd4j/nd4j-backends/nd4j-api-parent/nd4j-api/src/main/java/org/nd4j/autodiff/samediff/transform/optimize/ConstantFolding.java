@@ -0,0 +1,118 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.autodiff.samediff.transform.optimize;
+
+import org.nd4j.autodiff.samediff.SDVariable;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.VariableType;
+import org.nd4j.autodiff.samediff.internal.SameDiffOp;
+import org.nd4j.autodiff.samediff.transform.SubGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.*;
+
+/**
+ * Constant folding: ops whose inputs are all constants (directly, or via other foldable ops) are executed once, and
+ * replaced by constants holding their results.<br>
+ * Only ops whose results depend only on their inputs are folded - random ops, control flow ops and ops with control
+ * dependencies are not. Trainable variables are not considered constant.<br>
+ * Note that folding may increase the size of the graph's constants, for example when folding ops such as tile.
+ */
+public class ConstantFolding extends BaseReplacementPass {
+
+    private Map<String, INDArray> values;
+
+    @Override
+    public String getName() {
+        return "constant-folding";
+    }
+
+    @Override
+    protected Map<String, List<String>> findMatches(SameDiff sd, Set<String> outputs) {
+        //Find all ops that depend only on constants
+        Set<String> foldable = new HashSet<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (SameDiffOp op : sd.getOps().values()) {
+                if (!foldable.contains(op.getName()) && isFoldable(sd, op, foldable)) {
+                    foldable.add(op.getName());
+                    changed = true;
+                }
+            }
+        }
+
+        //Replace only the foldable ops whose outputs are used elsewhere: the other foldable ops are then no longer used
+        Map<String, List<String>> out = new LinkedHashMap<>();
+        List<String> toCalc = new ArrayList<>();
+        for (SameDiffOp op : sd.getOps().values()) {
+            if (foldable.contains(op.getName()) && usedOutsideOf(sd, op, foldable, outputs)) {
+                out.put(op.getName(), Collections.<String>emptyList());
+                toCalc.addAll(op.getOutputsOfOp());
+            }
+        }
+        if (out.isEmpty())
+            return out;
+
+        //No placeholders are required: these ops depend only on constants
+        values = sd.output(Collections.<String, INDArray>emptyMap(), toCalc);
+        return out;
+    }
+
+    private static boolean isFoldable(SameDiff sd, SameDiffOp op, Set<String> foldable) {
+        if (op.getOutputsOfOp() == null || op.getOutputsOfOp().isEmpty() || OptimizationUtil.isStateful(op.getOp())
+                || OptimizationUtil.hasControlDeps(sd, op))
+            return false;
+        if (op.getInputsToOp() != null) {
+            for (String s : op.getInputsToOp()) {
+                VariableType t = sd.getVariable(s).getVariableType();
+                if (t == VariableType.CONSTANT)
+                    continue;
+                SameDiffOp p = OptimizationUtil.producer(sd, s);
+                if (t != VariableType.ARRAY || p == null || !foldable.contains(p.getName()))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean usedOutsideOf(SameDiff sd, SameDiffOp op, Set<String> foldable, Set<String> outputs) {
+        for (String s : op.getOutputsOfOp()) {
+            if (outputs.contains(s))
+                return true;
+            List<String> l = sd.getVariables().get(s).getInputsForOp();
+            if (l != null) {
+                for (String o : l) {
+                    if (!foldable.contains(o))
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected Map<String, SDVariable> replace(SameDiff sd, SubGraph subGraph) {
+        Map<String, SDVariable> out = new HashMap<>();
+        for (SDVariable v : subGraph.getRootNode().outputVariables()) {
+            String name = v.name();
+            out.put(name, sd.constant(OptimizationUtil.uniqueName(sd, name + "_folded"), values.get(name)));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,105 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.autodiff.samediff.transform.optimize;
+
+import org.nd4j.autodiff.samediff.SDVariable;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.internal.SameDiffOp;
+import org.nd4j.autodiff.samediff.transform.SubGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.DynamicCustomOp;
+import org.nd4j.linalg.api.ops.impl.broadcast.BiasAdd;
+import org.nd4j.linalg.api.ops.impl.layers.convolution.Conv2D;
+import org.nd4j.linalg.api.ops.impl.transforms.pairwise.arithmetic.AddOp;
+
+import java.util.*;
+
+/**
+ * Conv2d + bias fusion: a conv2d op without bias, followed by a bias add (BiasAdd op, or an add op with a vector that
+ * broadcasts along the channels dimension) is replaced by a single conv2d op with bias.<br>
+ * Only applies if the bias is a constant or variable vector (of the same datatype as the weights) with one value per
+ * output channel, and the convolution output isn't used elsewhere.<br>
+ * Note that activation functions can't be fused into the conv2d op itself: the conv2d op has no activation argument.
+ */
+public class ConvBiasFusion extends BaseReplacementPass {
+
+    @Override
+    public String getName() {
+        return "conv-bias-fusion";
+    }
+
+    @Override
+    protected Map<String, List<String>> findMatches(SameDiff sd, Set<String> outputs) {
+        Map<String, List<String>> out = new LinkedHashMap<>();
+        for (SameDiffOp op : sd.getOps().values()) {
+            Class<?> c = op.getOp().getClass();
+            if ((c != BiasAdd.class && c != AddOp.class) || op.getInputsToOp().size() != 2 || OptimizationUtil.hasControlDeps(sd, op))
+                continue;
+
+            for (int i = 0; i < 2; i++) {
+                //BiasAdd: input 0 is the input, 1 is the bias. Add: either order
+                if (c == BiasAdd.class && i == 1)
+                    break;
+                String in = op.getInputsToOp().get(i);
+                String bias = op.getInputsToOp().get(1 - i);
+                SameDiffOp conv = OptimizationUtil.producer(sd, in);
+                if (conv != null && matches(sd, op, conv, in, bias, outputs)) {
+                    out.put(op.getName(), Collections.singletonList(conv.getName()));
+                    break;
+                }
+            }
+        }
+        return out;
+    }
+
+    private static boolean matches(SameDiff sd, SameDiffOp add, SameDiffOp conv, String convOut, String bias, Set<String> outputs) {
+        if (conv.getOp().getClass() != Conv2D.class || conv.getInputsToOp().size() != 2 || OptimizationUtil.hasControlDeps(sd, conv)
+                || !OptimizationUtil.isSingleUse(sd, convOut, outputs))
+            return false;
+
+        //Bias must be added along the channels dimension
+        boolean nhwc = ((Conv2D) conv.getOp()).getConfig().isNHWC();
+        if (add.getOp() instanceof BiasAdd) {
+            boolean[] bArgs = ((DynamicCustomOp) add.getOp()).bArgs();
+            boolean nchw = bArgs != null && bArgs.length > 0 && bArgs[0];
+            if (nchw == nhwc)
+                return false;
+        } else if (!nhwc) {
+            return false;
+        }
+
+        INDArray w = OptimizationUtil.knownArray(sd, conv.getInputsToOp().get(1));
+        INDArray b = OptimizationUtil.knownArray(sd, bias);
+        if (w == null || b == null || w.rank() != 4 || b.rank() != 1 || w.dataType() != b.dataType())
+            return false;
+        int oCAxis = OptimizationUtil.conv2dOutChannelAxis((Conv2D) conv.getOp());
+        return oCAxis >= 0 && b.length() == w.size(oCAxis);
+    }
+
+    @Override
+    protected Map<String, SDVariable> replace(SameDiff sd, SubGraph subGraph) {
+        DynamicCustomOp add = (DynamicCustomOp) subGraph.getRootNode();
+        Conv2D conv = (Conv2D) subGraph.getChildNodes().get(0);
+        SDVariable convOut = conv.outputVariable();
+        SDVariable[] addIn = add.args();
+        SDVariable bias = addIn[0].name().equals(convOut.name()) ? addIn[1] : addIn[0];
+        SDVariable[] convIn = conv.args();
+        SDVariable newOut = new Conv2D(sd, convIn[0], convIn[1], bias, conv.getConfig()).outputVariable();
+        return Collections.singletonMap(add.outputVariable().name(), newOut);
+    }
+}
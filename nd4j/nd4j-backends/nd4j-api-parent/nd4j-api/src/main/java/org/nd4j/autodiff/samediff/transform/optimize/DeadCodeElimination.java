@@ -0,0 +1,40 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.autodiff.samediff.transform.optimize;
+
+import org.nd4j.autodiff.samediff.SameDiff;
+
+import java.util.Set;
+
+/**
+ * Dead code elimination: removes all ops (and constants) that are not required to calculate the specified outputs.<br>
+ * Placeholders and trainable variables are never removed.
+ */
+public class DeadCodeElimination implements OptimizationPass {
+
+    @Override
+    public String getName() {
+        return "dead-code-elimination";
+    }
+
+    @Override
+    public SameDiff apply(SameDiff sd, Set<String> outputs) {
+        OptimizationUtil.removeDeadOps(sd, outputs, null);
+        return sd;
+    }
+}
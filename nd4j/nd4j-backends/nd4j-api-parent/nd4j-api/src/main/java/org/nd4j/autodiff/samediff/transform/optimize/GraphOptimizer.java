@@ -0,0 +1,134 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.autodiff.samediff.transform.optimize;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.base.Preconditions;
+
+import java.util.*;
+
+/**
+ * GraphOptimizer: a pipeline of graph level {@link OptimizationPass}es, applied in order to a SameDiff graph.<br>
+ * The original SameDiff instance is not modified: a copy is optimized and returned, along with the number of ops that
+ * were removed by each pass - see {@link OptimizationResult}.<br>
+ * <br>
+ * The default pipeline ({@link #defaultOptimizer()}) is intended for inference, and consists of:<br>
+ * - {@link DeadCodeElimination}: removes ops that are not required to calculate the outputs<br>
+ * - {@link IdentityElimination}: removes identity ops, and no-ops that nothing depends on<br>
+ * - {@link ConstantFolding}: replaces subgraphs that depend only on constants with their (precomputed) values<br>
+ * - {@link CommonSubexpressionElimination}: merges ops that perform the same calculation on the same inputs<br>
+ * - {@link ConvBiasFusion}: fuses a bias add into the preceding convolution<br>
+ * - {@link BatchNormFolding}: folds batch normalization into the weights and bias of the preceding convolution<br>
+ * - {@link MatMulBiasFusion}: fuses matrix multiply + bias add (+ ReLU) into a single xw_plus_b or relu_layer op<br>
+ * <br>
+ * Note that some passes (batch norm folding in particular) replace trainable parameters by constants: optimized graphs
+ * should only be used for inference.<br>
+ * Usage:
+ * <pre>
+ * {@code OptimizationResult r = GraphOptimizer.defaultOptimizer().optimize(sd, "out");
+ * SameDiff optimized = r.getSameDiff();}
+ * </pre>
+ */
+@Slf4j
+public class GraphOptimizer {
+
+    @Getter
+    private final List<OptimizationPass> passes;
+
+    public GraphOptimizer(@NonNull OptimizationPass... passes) {
+        this(Arrays.asList(passes));
+    }
+
+    public GraphOptimizer(@NonNull List<OptimizationPass> passes) {
+        this.passes = Collections.unmodifiableList(new ArrayList<>(passes));
+    }
+
+    /**
+     * @return An optimizer with the default pipeline of passes, for inference. See {@link GraphOptimizer} for details
+     */
+    public static GraphOptimizer defaultOptimizer() {
+        return new GraphOptimizer(
+                new DeadCodeElimination(),
+                new IdentityElimination(),
+                new ConstantFolding(),
+                new CommonSubexpressionElimination(),
+                new ConvBiasFusion(),
+                new BatchNormFolding(),
+                new MatMulBiasFusion());
+    }
+
+    /**
+     * Optimize a copy of the graph, preserving all of the graph's outputs - i.e., all variables that are not used by
+     * any op - as well as any loss variables and the outputs set via {@link SameDiff#setOutputs(List)}
+     *
+     * @param sd Graph to optimize. Not modified
+     * @return The optimized graph, and the results of each pass
+     */
+    public OptimizationResult optimize(@NonNull SameDiff sd) {
+        return optimize(sd, (Collection<String>) null);
+    }
+
+    /**
+     * Optimize a copy of the graph, for calculating only the specified outputs
+     *
+     * @param sd      Graph to optimize. Not modified
+     * @param outputs Names of the variables to preserve. If null or empty, all of the graph's outputs are preserved
+     * @return The optimized graph, and the results of each pass
+     */
+    public OptimizationResult optimize(@NonNull SameDiff sd, String... outputs) {
+        return optimize(sd, outputs == null ? null : Arrays.asList(outputs));
+    }
+
+    /**
+     * Optimize a copy of the graph, for calculating only the specified outputs
+     *
+     * @param sd      Graph to optimize. Not modified
+     * @param outputs Names of the variables to preserve. If null or empty, all of the graph's outputs are preserved
+     * @return The optimized graph, and the results of each pass
+     */
+    public OptimizationResult optimize(@NonNull SameDiff sd, Collection<String> outputs) {
+        Set<String> preserve = new HashSet<>();
+        if (outputs == null || outputs.isEmpty()) {
+            preserve.addAll(OptimizationUtil.graphOutputs(sd));
+        } else {
+            for (String s : outputs) {
+                Preconditions.checkArgument(sd.hasVariable(s), "Cannot optimize graph: requested output variable \"%s\" does not exist", s);
+                preserve.add(s);
+            }
+        }
+        if (sd.outputs() != null)
+            preserve.addAll(sd.outputs());
+        preserve.addAll(sd.getLossVariables());
+        preserve = Collections.unmodifiableSet(preserve);
+
+        SameDiff current = sd.dup();
+        List<OptimizationResult.PassResult> results = new ArrayList<>();
+        for (OptimizationPass p : passes) {
+            int before = current.getOps().size();
+            current = p.apply(current, preserve);
+            current.markStructureChanged();
+            int after = current.getOps().size();
+            log.debug("Optimization pass \"{}\": {} ops removed ({} -> {} ops)", p.getName(), before - after, before, after);
+            results.add(new OptimizationResult.PassResult(p.getName(), before, after));
+        }
+        return new OptimizationResult(current, results);
+    }
+}
@@ -0,0 +1,91 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.autodiff.samediff.transform.optimize;
+
+import org.nd4j.autodiff.samediff.SDVariable;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.internal.SameDiffOp;
+import org.nd4j.autodiff.samediff.transform.SubGraph;
+import org.nd4j.linalg.api.ops.NoOp;
+import org.nd4j.linalg.api.ops.impl.controlflow.compat.BaseCompatOp;
+import org.nd4j.linalg.api.ops.impl.transforms.same.Identity;
+
+import java.util.*;
+
+/**
+ * Identity and no-op elimination: identity ops are removed, with their consumers using the identity op's input
+ * directly. No-ops that nothing depends on are removed.<br>
+ * Identity ops are kept if their output is one of the outputs to preserve, if they are part of a control dependency,
+ * or if they are connected to control flow ops (where they may be required for frame/iteration semantics).
+ */
+public class IdentityElimination extends BaseReplacementPass {
+
+    @Override
+    public String getName() {
+        return "identity-elimination";
+    }
+
+    @Override
+    public SameDiff apply(SameDiff sd, Set<String> outputs) {
+        sd = super.apply(sd, outputs);
+
+        for (SameDiffOp op : new ArrayList<>(sd.getOps().values())) {
+            if (op.getOp() instanceof NoOp && !OptimizationUtil.hasControlDeps(sd, op) && (op.getOutputsOfOp() == null || op.getOutputsOfOp().isEmpty()))
+                OptimizationUtil.removeOp(sd, op);
+        }
+        return sd;
+    }
+
+    @Override
+    protected Map<String, List<String>> findMatches(SameDiff sd, Set<String> outputs) {
+        Map<String, List<String>> out = new LinkedHashMap<>();
+        for (SameDiffOp op : sd.getOps().values()) {
+            if (op.getOp().getClass() != Identity.class || op.getInputsToOp() == null || op.getInputsToOp().size() != 1
+                    || op.getOutputsOfOp() == null || op.getOutputsOfOp().size() != 1)
+                continue;
+            String in = op.getInputsToOp().get(0);
+            String outName = op.getOutputsOfOp().get(0);
+            if (outputs.contains(outName) || OptimizationUtil.hasControlDeps(sd, op))
+                continue;
+
+            SameDiffOp p = OptimizationUtil.producer(sd, in);
+            if (p != null && p.getOp() instanceof BaseCompatOp)
+                continue;
+            if (usedByControlFlow(sd, outName))
+                continue;
+            out.put(op.getName(), Collections.<String>emptyList());
+        }
+        return out;
+    }
+
+    private static boolean usedByControlFlow(SameDiff sd, String varName) {
+        List<String> l = sd.getVariables().get(varName).getInputsForOp();
+        if (l != null) {
+            for (String s : l) {
+                if (sd.getOps().get(s).getOp() instanceof BaseCompatOp)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected Map<String, SDVariable> replace(SameDiff sd, SubGraph subGraph) {
+        return Collections.singletonMap(subGraph.getRootNode().outputVariable().name(), subGraph.getRootNode().arg(0));
+    }
+}
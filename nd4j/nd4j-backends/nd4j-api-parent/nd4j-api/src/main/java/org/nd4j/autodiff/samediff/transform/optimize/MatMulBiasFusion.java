@@ -0,0 +1,136 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.autodiff.samediff.transform.optimize;
+
+import org.nd4j.autodiff.samediff.SDVariable;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.internal.SameDiffOp;
+import org.nd4j.autodiff.samediff.transform.SubGraph;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.DynamicCustomOp;
+import org.nd4j.linalg.api.ops.impl.broadcast.BiasAdd;
+import org.nd4j.linalg.api.ops.impl.reduce.Mmul;
+import org.nd4j.linalg.api.ops.impl.scalar.RectifiedLinear;
+import org.nd4j.linalg.api.ops.impl.transforms.ReluLayer;
+import org.nd4j.linalg.api.ops.impl.transforms.custom.XwPlusB;
+import org.nd4j.linalg.api.ops.impl.transforms.pairwise.arithmetic.AddOp;
+
+import java.util.*;
+
+/**
+ * Matrix multiply + bias (+ ReLU) fusion: {@code relu(mmul(x,W) + b)} is replaced by a single relu_layer op, and
+ * {@code mmul(x,W) + b} by a single xw_plus_b op.<br>
+ * Only applies if the weights are a constant or variable matrix and the bias a constant or variable vector (of the
+ * same datatype), the matrix multiply has no transpose arguments, and the intermediate results aren't used elsewhere.
+ * Other activation functions are not fused: there is no fused op for them.
+ */
+public class MatMulBiasFusion extends BaseReplacementPass {
+
+    @Override
+    public String getName() {
+        return "matmul-bias-activation-fusion";
+    }
+
+    @Override
+    protected Map<String, List<String>> findMatches(SameDiff sd, Set<String> outputs) {
+        Map<String, List<String>> out = new LinkedHashMap<>();
+        //First: relu(mmul + bias) - the bias add ops of these must not also be matched on their own
+        Set<String> used = new HashSet<>();
+        for (SameDiffOp op : sd.getOps().values()) {
+            if (op.getOp().getClass() != RectifiedLinear.class || op.getInputsToOp().size() != 1 || op.getOp().isInPlace()
+                    || op.getOp().getScalarValue() == null || op.getOp().getScalarValue().getDouble(0) != 0.0
+                    || OptimizationUtil.hasControlDeps(sd, op))
+                continue;
+            String in = op.getInputsToOp().get(0);
+            SameDiffOp add = OptimizationUtil.producer(sd, in);
+            if (add == null || !OptimizationUtil.isSingleUse(sd, in, outputs))
+                continue;
+            SameDiffOp mmul = matchBiasAdd(sd, add, outputs);
+            if (mmul != null) {
+                out.put(op.getName(), Arrays.asList(add.getName(), mmul.getName()));
+                used.add(add.getName());
+            }
+        }
+
+        for (SameDiffOp op : sd.getOps().values()) {
+            if (used.contains(op.getName()))
+                continue;
+            SameDiffOp mmul = matchBiasAdd(sd, op, outputs);
+            if (mmul != null)
+                out.put(op.getName(), Collections.singletonList(mmul.getName()));
+        }
+        return out;
+    }
+
+    /**
+     * @return The matrix multiply op, if the op is a bias add of a matrix multiply that can be fused; null otherwise
+     */
+    private static SameDiffOp matchBiasAdd(SameDiff sd, SameDiffOp op, Set<String> outputs) {
+        Class<?> c = op.getOp().getClass();
+        if ((c != AddOp.class && c != BiasAdd.class) || op.getInputsToOp().size() != 2 || OptimizationUtil.hasControlDeps(sd, op))
+            return null;
+        for (int i = 0; i < 2; i++) {
+            if (c == BiasAdd.class && i == 1)
+                break;
+            String in = op.getInputsToOp().get(i);
+            String bias = op.getInputsToOp().get(1 - i);
+            SameDiffOp mmul = OptimizationUtil.producer(sd, in);
+            if (mmul != null && mmul.getOp().getClass() == Mmul.class && OptimizationUtil.isSingleUse(sd, in, outputs)
+                    && isFusable(sd, mmul, bias))
+                return mmul;
+        }
+        return null;
+    }
+
+    private static boolean isFusable(SameDiff sd, SameDiffOp mmul, String bias) {
+        if (mmul.getInputsToOp().size() != 2 || OptimizationUtil.hasControlDeps(sd, mmul))
+            return false;
+        Mmul m = (Mmul) mmul.getOp();
+        for (long l : m.iArgs()) {
+            if (l != 0)     //Transpose args
+                return false;
+        }
+        double[] tArgs = m.tArgs();
+        if (tArgs != null && tArgs.length > 0 && (tArgs[0] != 1.0 || (tArgs.length > 1 && tArgs[1] != 0.0)))
+            return false;
+
+        INDArray w = OptimizationUtil.knownArray(sd, mmul.getInputsToOp().get(1));
+        INDArray b = OptimizationUtil.knownArray(sd, bias);
+        long[] xShape = sd.getVariable(mmul.getInputsToOp().get(0)).getShape();
+        return w != null && b != null && w.rank() == 2 && b.rank() == 1 && b.length() == w.size(1)
+                && w.dataType() == b.dataType() && (xShape == null || xShape.length == 2);
+    }
+
+    @Override
+    protected Map<String, SDVariable> replace(SameDiff sd, SubGraph subGraph) {
+        List<?> children = subGraph.getChildNodes();
+        DynamicCustomOp add = (DynamicCustomOp) (children.size() == 2 ? children.get(0) : subGraph.getRootNode());
+        Mmul mmul = (Mmul) children.get(children.size() - 1);
+        SDVariable mmulOut = mmul.outputVariable();
+        SDVariable[] addIn = add.args();
+        SDVariable bias = addIn[0].name().equals(mmulOut.name()) ? addIn[1] : addIn[0];
+        SDVariable[] mmulIn = mmul.args();
+
+        SDVariable newOut;
+        if (children.size() == 2)
+            newOut = new ReluLayer(sd, mmulIn[0], mmulIn[1], bias).outputVariable();
+        else
+            newOut = new XwPlusB(sd, mmulIn[0], mmulIn[1], bias).outputVariable();
+        return Collections.singletonMap(subGraph.getRootNode().outputVariable().name(), newOut);
+    }
+}
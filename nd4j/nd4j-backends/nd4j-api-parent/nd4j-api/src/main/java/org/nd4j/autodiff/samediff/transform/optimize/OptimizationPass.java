@@ -0,0 +1,47 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.autodiff.samediff.transform.optimize;
+
+import org.nd4j.autodiff.samediff.SameDiff;
+
+import java.util.Set;
+
+/**
+ * A single graph optimization pass, as used in a {@link GraphOptimizer} pipeline.<br>
+ * A pass transforms a graph into an equivalent graph: the values of the specified output variables must be the same
+ * (up to floating point rounding) before and after the pass is applied. Output variables must not be removed or renamed.
+ */
+public interface OptimizationPass {
+
+    /**
+     * @return Name of the pass, as used in the {@link OptimizationResult}
+     */
+    String getName();
+
+    /**
+     * Apply the optimization pass. Implementations may modify the provided SameDiff instance in place, or return a
+     * new (modified) instance.
+     *
+     * @param sd      SameDiff instance to optimize
+     * @param outputs Names of the variables that must be preserved: variables that are requested by the user, loss
+     *                variables, etc
+     * @return The optimized SameDiff instance
+     */
+    SameDiff apply(SameDiff sd, Set<String> outputs);
+
+}
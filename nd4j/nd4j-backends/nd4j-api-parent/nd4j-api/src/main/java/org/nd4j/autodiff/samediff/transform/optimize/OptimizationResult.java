@@ -0,0 +1,96 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.autodiff.samediff.transform.optimize;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.Getter;
+import org.nd4j.autodiff.samediff.SameDiff;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of applying a {@link GraphOptimizer} to a graph: the optimized graph, and the number of ops removed by each
+ * of the optimization passes
+ */
+@Getter
+public class OptimizationResult {
+
+    /**
+     * Result of a single pass
+     */
+    @Data
+    @AllArgsConstructor
+    public static class PassResult {
+        private final String name;
+        private final int opsBefore;
+        private final int opsAfter;
+
+        /**
+         * @return Number of ops removed by the pass. May be negative if a pass adds ops
+         */
+        public int getOpsRemoved() {
+            return opsBefore - opsAfter;
+        }
+    }
+
+    private final SameDiff sameDiff;
+    private final List<PassResult> passResults;
+
+    public OptimizationResult(SameDiff sameDiff, List<PassResult> passResults) {
+        this.sameDiff = sameDiff;
+        this.passResults = Collections.unmodifiableList(passResults);
+    }
+
+    /**
+     * @return Total number of ops removed by all passes
+     */
+    public int getOpsRemoved() {
+        int removed = 0;
+        for (PassResult r : passResults)
+            removed += r.getOpsRemoved();
+        return removed;
+    }
+
+    /**
+     * @param passName Name of the pass
+     * @return Number of ops removed by the pass with the specified name (summed, if the pass was applied more than once)
+     */
+    public int getOpsRemoved(String passName) {
+        int removed = 0;
+        for (PassResult r : passResults) {
+            if (r.getName().equals(passName))
+                removed += r.getOpsRemoved();
+        }
+        return removed;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("OptimizationResult(");
+        for (int i = 0; i < passResults.size(); i++) {
+            PassResult r = passResults.get(i);
+            if (i > 0)
+                sb.append(", ");
+            sb.append(r.getName()).append(": ").append(r.getOpsRemoved()).append(" ops removed");
+        }
+        return sb.append(")").toString();
+    }
+}
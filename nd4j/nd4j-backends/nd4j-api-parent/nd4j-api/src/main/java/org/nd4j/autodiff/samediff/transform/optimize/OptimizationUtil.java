@@ -0,0 +1,235 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.autodiff.samediff.transform.optimize;
+
+import org.nd4j.autodiff.functions.DifferentialFunction;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.VariableType;
+import org.nd4j.autodiff.samediff.internal.SameDiffOp;
+import org.nd4j.autodiff.samediff.internal.Variable;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.NoOp;
+import org.nd4j.linalg.api.ops.RandomOp;
+import org.nd4j.linalg.api.ops.impl.controlflow.compat.BaseCompatOp;
+import org.nd4j.linalg.api.ops.impl.layers.ExternalErrorsFunction;
+import org.nd4j.linalg.api.ops.impl.layers.convolution.Conv2D;
+
+import java.util.*;
+
+/**
+ * Utility methods for the graph optimization passes - see {@link GraphOptimizer}
+ */
+public class OptimizationUtil {
+
+    private OptimizationUtil() {
+    }
+
+    /**
+     * @return Names of all variables that are not used by any op (as an input or control dependency)
+     */
+    public static Set<String> graphOutputs(SameDiff sd) {
+        Set<String> out = new LinkedHashSet<>();
+        for (Variable v : sd.getVariables().values()) {
+            if (isEmpty(v.getInputsForOp()) && isEmpty(v.getControlDepsForOp()) && isEmpty(v.getControlDepsForVar()))
+                out.add(v.getName());
+        }
+        return out;
+    }
+
+    /**
+     * @return True if the op, or any of its outputs, is part of a control dependency
+     */
+    public static boolean hasControlDeps(SameDiff sd, SameDiffOp op) {
+        if (!isEmpty(op.getControlDeps()) || !isEmpty(op.getVarControlDeps()) || !isEmpty(op.getControlDepFor()))
+            return true;
+        if (op.getOutputsOfOp() != null) {
+            for (String s : op.getOutputsOfOp()) {
+                Variable v = sd.getVariables().get(s);
+                if (!isEmpty(v.getControlDeps()) || !isEmpty(v.getControlDepsForOp()) || !isEmpty(v.getControlDepsForVar()))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return True if the variable is used as the input to exactly one op (and nothing else), and is not an output
+     */
+    public static boolean isSingleUse(SameDiff sd, String varName, Set<String> outputs) {
+        if (outputs.contains(varName))
+            return false;
+        Variable v = sd.getVariables().get(varName);
+        return v.getInputsForOp() != null && v.getInputsForOp().size() == 1 && isEmpty(v.getControlDepsForOp())
+                && isEmpty(v.getControlDepsForVar());
+    }
+
+    /**
+     * @return The op that produces the specified variable, or null if the variable is not the output of an op
+     */
+    public static SameDiffOp producer(SameDiff sd, String varName) {
+        String opName = sd.getVariables().get(varName).getOutputOfOp();
+        return opName == null ? null : sd.getOps().get(opName);
+    }
+
+    /**
+     * @return The array for the variable, if the variable is a constant or (trainable) variable. Null otherwise
+     */
+    public static INDArray knownArray(SameDiff sd, String varName) {
+        VariableType t = sd.getVariable(varName).getVariableType();
+        if (t != VariableType.CONSTANT && t != VariableType.VARIABLE)
+            return null;
+        return sd.getArrForVarName(varName);
+    }
+
+    /**
+     * @return True if the op must not be modified or removed by optimization passes that depend on an op's result only
+     * depending on its inputs: random ops, control flow ops etc
+     */
+    public static boolean isStateful(DifferentialFunction df) {
+        return df instanceof RandomOp || df instanceof BaseCompatOp || df instanceof ExternalErrorsFunction
+                || df instanceof NoOp || df.getClass().getName().contains(".random.");
+    }
+
+    /**
+     * @return Axis of the output channels in the conv2d weights, or -1 if the weights format is unknown
+     */
+    public static int conv2dOutChannelAxis(Conv2D conv) {
+        long[] iArgs = conv.iArgs();
+        long wFormat = iArgs.length > 10 ? iArgs[10] : 0;
+        //0: [kH, kW, iC, oC], 1: [oC, iC, kH, kW], 2: [oC, kH, kW, iC]
+        if (wFormat == 0)
+            return 3;
+        return wFormat == 1 || wFormat == 2 ? 0 : -1;
+    }
+
+    /**
+     * @return A variable name, based on the specified name, that does not yet exist in the graph
+     */
+    public static String uniqueName(SameDiff sd, String base) {
+        if (!sd.hasVariable(base))
+            return base;
+        int i = 1;
+        while (sd.hasVariable(base + "_" + i))
+            i++;
+        return base + "_" + i;
+    }
+
+    /**
+     * Remove all ops whose outputs are not used by any other op, and are not one of the specified outputs. Ops with no
+     * outputs at all (other than unused no-ops) are not removed.<br>
+     * Constants that are no longer used after removing ops are also removed, if they are in the specified set of
+     * candidates.
+     *
+     * @param sd         SameDiff instance to modify
+     * @param outputs    Variables that must not be removed
+     * @param candidates Constants that may be removed if no longer used. If null: all unused constants are removed
+     * @return Number of ops removed
+     */
+    public static int removeDeadOps(SameDiff sd, Set<String> outputs, Collection<String> candidates) {
+        Set<String> constants = candidates == null ? null : new HashSet<>(candidates);
+        int removed = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            //Iterate in reverse order: ops are usually added in order of execution, so this removes chains in one pass
+            List<SameDiffOp> ops = new ArrayList<>(sd.getOps().values());
+            for (int i = ops.size() - 1; i >= 0; i--) {
+                SameDiffOp op = ops.get(i);
+                if (isDead(sd, op, outputs)) {
+                    Set<String> inputs = removeOp(sd, op);
+                    if (constants != null)
+                        constants.addAll(inputs);
+                    removed++;
+                    changed = true;
+                }
+            }
+        }
+
+        for (Variable v : new ArrayList<>(sd.getVariables().values())) {
+            String name = v.getName();
+            if (v.getVariable().getVariableType() == VariableType.CONSTANT && (constants == null || constants.contains(name))
+                    && !outputs.contains(name) && isUnused(v)) {
+                sd.getVariables().remove(name);
+            }
+        }
+        return removed;
+    }
+
+    private static boolean isDead(SameDiff sd, SameDiffOp op, Set<String> outputs) {
+        if (!isEmpty(op.getControlDepFor()))
+            return false;
+        if (isEmpty(op.getOutputsOfOp()))
+            return op.getOp() instanceof NoOp;
+        for (String s : op.getOutputsOfOp()) {
+            if (outputs.contains(s) || !isUnused(sd.getVariables().get(s)))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isUnused(Variable v) {
+        return isEmpty(v.getInputsForOp()) && isEmpty(v.getControlDepsForOp()) && isEmpty(v.getControlDepsForVar());
+    }
+
+    /**
+     * Remove the op and its output variables from the graph, and remove any references to the op from its inputs
+     *
+     * @return Names of the op's inputs (including control dependencies)
+     */
+    public static Set<String> removeOp(SameDiff sd, SameDiffOp op) {
+        Map<String, Variable> vars = sd.getVariables();
+        String opName = op.getName();
+        Set<String> inputs = new LinkedHashSet<>();
+        if (op.getInputsToOp() != null)
+            inputs.addAll(op.getInputsToOp());
+        for (String s : inputs) {
+            Variable v = vars.get(s);
+            if (v != null && v.getInputsForOp() != null) {
+                List<String> l = new ArrayList<>(v.getInputsForOp());
+                l.removeAll(Collections.singleton(opName));
+                v.setInputsForOp(l);
+            }
+        }
+
+        Set<String> cds = new LinkedHashSet<>();
+        if (op.getControlDeps() != null)
+            cds.addAll(op.getControlDeps());
+        if (op.getVarControlDeps() != null)
+            cds.addAll(op.getVarControlDeps());
+        for (String s : cds) {
+            Variable v = vars.get(s);
+            if (v != null && v.getControlDepsForOp() != null) {
+                List<String> l = new ArrayList<>(v.getControlDepsForOp());
+                l.removeAll(Collections.singleton(opName));
+                v.setControlDepsForOp(l);
+            }
+        }
+        inputs.addAll(cds);
+
+        if (op.getOutputsOfOp() != null) {
+            for (String s : op.getOutputsOfOp())
+                vars.remove(s);
+        }
+        sd.getOps().remove(opName);
+        return inputs;
+    }
+
+    private static boolean isEmpty(Collection<?> c) {
+        return c == null || c.isEmpty();
+    }
+}
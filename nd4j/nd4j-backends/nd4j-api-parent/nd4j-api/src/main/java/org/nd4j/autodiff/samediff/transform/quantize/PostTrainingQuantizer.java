@@ -0,0 +1,400 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.autodiff.samediff.transform.quantize;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.nd4j.autodiff.functions.DifferentialFunction;
+import org.nd4j.autodiff.samediff.SDVariable;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.autodiff.samediff.VariableType;
+import org.nd4j.autodiff.samediff.internal.SameDiffOp;
+import org.nd4j.autodiff.samediff.internal.Variable;
+import org.nd4j.autodiff.samediff.transform.optimize.OptimizationUtil;
+import org.nd4j.base.Preconditions;
+import org.nd4j.evaluation.IEvaluation;
+import org.nd4j.evaluation.classification.Evaluation;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.impl.broadcast.BroadcastDivOp;
+import org.nd4j.linalg.api.ops.impl.layers.convolution.Conv2D;
+import org.nd4j.linalg.api.ops.impl.reduce.Mmul;
+import org.nd4j.linalg.api.ops.impl.transforms.custom.FakeQuantWithMinMaxVars;
+import org.nd4j.linalg.api.ops.impl.transforms.custom.XwPlusB;
+import org.nd4j.linalg.dataset.api.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.BooleanIndexing;
+import org.nd4j.linalg.indexing.conditions.Conditions;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Post-training quantization for SameDiff inference graphs.<br>
+ * The weights of matrix multiplication ({@code mmul}, {@code xw_plus_b}, {@code relu_layer}) and {@code conv2d} ops
+ * are quantized to symmetric 8-bit integers, with one scale per output channel (or optionally one scale per weights
+ * array): {@code Wq = round(W / scale)}, {@code scale = max(abs(W)) / 127}. The weights are stored as INT8 constants
+ * and are dequantized when the graph is executed, which reduces the size of the graph parameters (and of the saved
+ * model) by up to 4x for FLOAT weights.<br>
+ * Activations (the inputs to the quantized ops) are calibrated by running the graph on a representative data set and
+ * recording the range of values for each activation. A fake quantization op ({@code fake_quant_with_min_max_vars}) is
+ * then inserted before each quantized op, so the quantized graph has the accuracy of a graph using 8-bit activations.
+ * <br>
+ * The accuracy change caused by quantization can be measured using {@link #evaluate(SameDiff, SameDiff, DataSetIterator, String)}.
+ * <br>
+ * Usage:
+ * <pre>
+ * {@code
+ * QuantizationResult r = new PostTrainingQuantizer().quantize(sd, calibrationData);
+ * SameDiff quantized = r.getSameDiff();
+ * QuantizationEvaluation e = PostTrainingQuantizer.evaluate(sd, quantized, testData, "softmax");
+ * System.out.println(e.getAccuracyDelta());
+ * }
+ * </pre>
+ * Note that the original graph is not modified. The quantized graph is intended for inference only: quantized weights
+ * are constants, and are not trainable. Biases are not quantized.
+ */
+@Slf4j
+public class PostTrainingQuantizer {
+
+    /**
+     * Maximum absolute value of the quantized weights: weights are quantized to the range [-127, 127]
+     */
+    public static final int QUANT_MAX = 127;
+    /**
+     * Number of bits for quantized activations
+     */
+    public static final int ACTIVATION_BITS = 8;
+
+    private final QuantizationConfig config;
+
+    public PostTrainingQuantizer() {
+        this(QuantizationConfig.builder().build());
+    }
+
+    public PostTrainingQuantizer(@NonNull QuantizationConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Quantize the specified graph, using the specified data for calibration of the activation ranges
+     *
+     * @param sd              Graph to quantize. Is not modified
+     * @param calibrationData Representative data to calibrate the activation ranges. The DataSet features are fed into
+     *                        the placeholder specified by {@link QuantizationConfig#getFeatureMapping()}, or the
+     *                        TrainingConfig feature mapping if not set. Labels are not used.
+     * @return The quantization result, including the quantized graph
+     */
+    public QuantizationResult quantize(@NonNull SameDiff sd, @NonNull DataSetIterator calibrationData) {
+        //Copy without updater state: updater state isn't needed for inference, and isn't valid for the quantized weights
+        SameDiff q = copy(sd);
+
+        //Key: weights variable name. Value: axis of the output channels
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        Set<String> activations = new LinkedHashSet<>();
+        List<SameDiffOp> quantizedOps = new ArrayList<>();
+        findQuantizable(q, weights, activations, quantizedOps);
+        if (quantizedOps.isEmpty()) {
+            log.warn("No quantizable ops found in graph");
+            return new QuantizationResult(q, Collections.<String, INDArray>emptyMap(), Collections.<String, double[]>emptyMap(),
+                    paramBytes(sd), paramBytes(q));
+        }
+
+        Map<String, double[]> ranges = config.isQuantizeActivations() ?
+                calibrate(q, activations, calibrationData) : Collections.<String, double[]>emptyMap();
+
+        Map<String, INDArray> scales = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> e : weights.entrySet()) {
+            scales.put(e.getKey(), quantizeWeights(q, e.getKey(), e.getValue()));
+        }
+        for (Map.Entry<String, double[]> e : ranges.entrySet()) {
+            quantizeActivation(q, e.getKey(), e.getValue(), quantizedOps);
+        }
+
+        //Copy again, to discard the arrays of the removed floating point weights
+        SameDiff out = copy(q);
+        QuantizationResult r = new QuantizationResult(out, scales, ranges, paramBytes(sd), paramBytes(out));
+        log.info("Quantized {} ops: {}", quantizedOps.size(), r);
+        return r;
+    }
+
+    /**
+     * Evaluate the original and quantized graphs on the same data using {@link Evaluation}, to determine the accuracy
+     * change caused by quantization. Both graphs must have a TrainingConfig with the DataSet feature mapping set.
+     *
+     * @param original       Original graph
+     * @param quantized      Quantized graph
+     * @param data           Data to evaluate on
+     * @param outputVariable Name of the (classifier) output variable to evaluate
+     * @return Evaluations for both graphs
+     */
+    public static QuantizationEvaluation evaluate(@NonNull SameDiff original, @NonNull SameDiff quantized,
+                                                  @NonNull DataSetIterator data, @NonNull String outputVariable) {
+        return evaluate(original, quantized, data, outputVariable, new Evaluation(), new Evaluation());
+    }
+
+    /**
+     * Evaluate the original and quantized graphs on the same data, to determine the change in the evaluation metrics
+     * caused by quantization. Both graphs must have a TrainingConfig with the DataSet feature mapping set.
+     *
+     * @param original       Original graph
+     * @param quantized      Quantized graph
+     * @param data           Data to evaluate on
+     * @param outputVariable Name of the output variable to evaluate
+     * @param originalEval   Evaluation instance for the original graph
+     * @param quantizedEval  Evaluation instance (of the same type) for the quantized graph
+     * @return Evaluations for both graphs
+     */
+    public static QuantizationEvaluation evaluate(@NonNull SameDiff original, @NonNull SameDiff quantized, @NonNull DataSetIterator data,
+                                                  @NonNull String outputVariable, @NonNull IEvaluation originalEval,
+                                                  @NonNull IEvaluation quantizedEval) {
+        Preconditions.checkArgument(originalEval.getClass() == quantizedEval.getClass(), "Evaluations must be of the same type," +
+                " got %s and %s", originalEval.getClass(), quantizedEval.getClass());
+        if (data.resetSupported())
+            data.reset();
+        original.evaluate(data, outputVariable, originalEval);
+        if (data.resetSupported())
+            data.reset();
+        quantized.evaluate(data, outputVariable, quantizedEval);
+        return new QuantizationEvaluation(originalEval, quantizedEval);
+    }
+
+    /**
+     * Find the ops that can be quantized: ops with known (constant or variable) floating point weights, where the
+     * weights are not used by any ops that can't be quantized
+     */
+    protected void findQuantizable(SameDiff sd, Map<String, Integer> weights, Set<String> activations, List<SameDiffOp> quantizedOps) {
+        Map<String, Integer> candidates = new LinkedHashMap<>();
+        Set<String> invalid = new HashSet<>();
+        for (SameDiffOp op : sd.getOps().values()) {
+            if (config.getExcludedOps().contains(op.getName()))
+                continue;
+            int axis = weightChannelAxis(op.getOp());
+            List<String> in = op.getInputsToOp();
+            if (axis < 0 || in == null || in.size() < 2)
+                continue;
+            String w = in.get(1);
+            INDArray arr = OptimizationUtil.knownArray(sd, w);
+            int expRank = op.getOp() instanceof Conv2D ? 4 : 2;
+            if (arr == null || !arr.dataType().isFPType() || arr.rank() != expRank || in.get(0).equals(w)
+                    || (candidates.containsKey(w) && candidates.get(w) != axis)) {
+                invalid.add(w);
+                continue;
+            }
+            candidates.put(w, axis);
+        }
+
+        //Weights must only be used by quantizable ops (as the weights input), and must not be graph outputs
+        Set<String> outputs = OptimizationUtil.graphOutputs(sd);
+        for (Map.Entry<String, Integer> e : candidates.entrySet()) {
+            String w = e.getKey();
+            Variable v = sd.getVariables().get(w);
+            if (invalid.contains(w) || outputs.contains(w) || !isEmpty(v.getControlDepsForOp()) || !isEmpty(v.getControlDepsForVar()))
+                continue;
+            boolean allQuantizable = true;
+            for (String opName : v.getInputsForOp()) {
+                SameDiffOp op = sd.getOps().get(opName);
+                if (config.getExcludedOps().contains(opName) || weightChannelAxis(op.getOp()) < 0 || !w.equals(op.getInputsToOp().get(1))) {
+                    allQuantizable = false;
+                    break;
+                }
+            }
+            if (!allQuantizable)
+                continue;
+
+            weights.put(w, e.getValue());
+            for (String opName : v.getInputsForOp()) {
+                SameDiffOp op = sd.getOps().get(opName);
+                quantizedOps.add(op);
+                String act = op.getInputsToOp().get(0);
+                if (sd.getVariable(act).dataType().isFPType())
+                    activations.add(act);
+            }
+        }
+    }
+
+    /**
+     * @return Axis of the output channels for the weights (input 1) of the op, or -1 if the op can't be quantized
+     */
+    protected static int weightChannelAxis(DifferentialFunction df) {
+        long[] iArgs;
+        if (df instanceof Mmul) {
+            //iArgs: transpose A, transpose B, transpose result
+            iArgs = ((Mmul) df).iArgs();
+            return iArgs.length > 1 && iArgs[1] != 0 ? 0 : 1;
+        } else if (df instanceof XwPlusB) {
+            //Also covers ReluLayer. iArgs: optional transpose for weights ([N, K] instead of [K, N])
+            iArgs = ((XwPlusB) df).iArgs();
+            return iArgs.length > 0 && iArgs[0] != 0 ? 0 : 1;
+        } else if (df.getClass() == Conv2D.class) {
+            return OptimizationUtil.conv2dOutChannelAxis((Conv2D) df);
+        }
+        return -1;
+    }
+
+    /**
+     * Run the calibration data through the graph, and record the range of each of the activations
+     *
+     * @return Key: activation name. Value: [min, max], including 0
+     */
+    protected Map<String, double[]> calibrate(SameDiff sd, Set<String> activations, DataSetIterator data) {
+        String feature = config.getFeatureMapping();
+        if (feature == null) {
+            Preconditions.checkState(sd.getTrainingConfig() != null && sd.getTrainingConfig().getDataSetFeatureMapping() != null
+                            && sd.getTrainingConfig().getDataSetFeatureMapping().size() == 1, "No feature mapping is set in " +
+                            "the QuantizationConfig, and the SameDiff instance does not have a TrainingConfig with exactly one " +
+                            "DataSet feature mapping");
+            feature = sd.getTrainingConfig().getDataSetFeatureMapping().get(0);
+        }
+
+        List<String> toCalc = new ArrayList<>();
+        for (String s : activations) {
+            if (!s.equals(feature))
+                toCalc.add(s);
+        }
+
+        Map<String, double[]> ranges = new LinkedHashMap<>();
+        if (data.resetSupported())
+            data.reset();
+        int count = 0;
+        while (data.hasNext() && (config.getMaxCalibrationBatches() <= 0 || count < config.getMaxCalibrationBatches())) {
+            DataSet ds = data.next();
+            Map<String, INDArray> ph = Collections.singletonMap(feature, ds.getFeatures());
+            Map<String, INDArray> out = new HashMap<>();
+            if (!toCalc.isEmpty())
+                out.putAll(sd.output(ph, toCalc));
+            out.putAll(ph);
+
+            for (String s : activations) {
+                INDArray arr = out.get(s);
+                double min = arr.minNumber().doubleValue();
+                double max = arr.maxNumber().doubleValue();
+                double[] r = ranges.get(s);
+                if (r == null) {
+                    ranges.put(s, new double[]{min, max});
+                } else {
+                    r[0] = Math.min(r[0], min);
+                    r[1] = Math.max(r[1], max);
+                }
+            }
+            count++;
+        }
+        Preconditions.checkState(count > 0, "No calibration data: DataSetIterator has no DataSets");
+
+        for (double[] r : ranges.values()) {
+            //Zero must be exactly representable (for padding, relu outputs etc)
+            r[0] = Math.min(r[0], 0.0);
+            r[1] = Math.max(r[1], 0.0);
+            if (r[0] == r[1])
+                r[1] = r[0] + 1e-6;
+        }
+        return ranges;
+    }
+
+    /**
+     * Replace the specified weights by INT8 weights and a dequantization (cast and multiply by scale)
+     *
+     * @return The scales used for quantization
+     */
+    protected INDArray quantizeWeights(SameDiff sd, String wName, int axis) {
+        INDArray w = OptimizationUtil.knownArray(sd, wName);
+        DataType dt = w.dataType();
+
+        INDArray scale;
+        long[] scaleShape = new long[w.rank()];
+        Arrays.fill(scaleShape, 1);
+        if (config.isPerChannel()) {
+            int[] dims = new int[w.rank() - 1];
+            for (int i = 0, j = 0; i < w.rank(); i++) {
+                if (i != axis)
+                    dims[j++] = i;
+            }
+            scale = w.amax(dims).divi(QUANT_MAX);
+            scaleShape[axis] = w.size(axis);
+        } else {
+            scale = Nd4j.scalar(dt, w.amaxNumber().doubleValue() / QUANT_MAX).reshape(1);
+        }
+        //All zero channels: any scale will do
+        BooleanIndexing.replaceWhere(scale, 1.0, Conditions.equals(0.0));
+
+        //Weights are in range [-127, 127] after rounding by definition of the scale
+        INDArray qArr = w.dup();
+        if (config.isPerChannel()) {
+            Nd4j.getExecutioner().exec(new BroadcastDivOp(qArr, scale, qArr, axis));
+        } else {
+            qArr.divi(scale.getDouble(0));
+        }
+        qArr = Transforms.round(qArr, false).castTo(DataType.INT8);
+
+        SDVariable qVar = sd.constant(OptimizationUtil.uniqueName(sd, wName + "_int8"), qArr);
+        SDVariable sVar = sd.constant(OptimizationUtil.uniqueName(sd, wName + "_scale"), scale.reshape(scaleShape));
+        SDVariable deq = qVar.castTo(dt).mul(sVar);
+
+        Variable v = sd.getVariables().get(wName);
+        for (String opName : new ArrayList<>(v.getInputsForOp())) {
+            sd.replaceArgFor(1, deq, sd.getOpById(opName));
+        }
+        sd.getVariables().remove(wName);
+        //Keep the original name for the dequantized weights
+        sd.renameVariable(deq.name(), wName);
+        return scale;
+    }
+
+    /**
+     * Insert a fake quantization op for the specified activation, before each of the quantized ops that use it
+     */
+    protected void quantizeActivation(SameDiff sd, String name, double[] range, List<SameDiffOp> quantizedOps) {
+        DataType dt = sd.getVariable(name).dataType();
+        SDVariable min = sd.constant(OptimizationUtil.uniqueName(sd, name + "_qmin"), Nd4j.scalar(dt, range[0]).reshape(1));
+        SDVariable max = sd.constant(OptimizationUtil.uniqueName(sd, name + "_qmax"), Nd4j.scalar(dt, range[1]).reshape(1));
+        SDVariable fq = new FakeQuantWithMinMaxVars(sd, sd.getVariable(name), min, max, false, ACTIVATION_BITS).outputVariable();
+        for (SameDiffOp op : quantizedOps) {
+            if (name.equals(op.getInputsToOp().get(0)))
+                sd.replaceArgFor(0, fq, op.getOp());
+        }
+    }
+
+    /**
+     * @return Total size in bytes of all constants and variables in the graph
+     */
+    protected static long paramBytes(SameDiff sd) {
+        long bytes = 0;
+        for (SDVariable v : sd.variables()) {
+            if (v.getVariableType() == VariableType.CONSTANT || v.getVariableType() == VariableType.VARIABLE) {
+                INDArray arr = v.getArr();
+                if (arr != null)
+                    bytes += arr.length() * arr.dataType().width();
+            }
+        }
+        return bytes;
+    }
+
+    private static SameDiff copy(SameDiff sd) {
+        try {
+            return SameDiff.fromFlatBuffers(sd.asFlatBuffers(false), false);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static boolean isEmpty(Collection<?> c) {
+        return c == null || c.isEmpty();
+    }
+}
@@ -0,0 +1,65 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.autodiff.samediff.transform.quantize;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Configuration for {@link PostTrainingQuantizer}
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class QuantizationConfig {
+
+    /**
+     * If true (default): weights are quantized using one scale per output channel. If false: one scale is used for the
+     * entire weights array
+     */
+    @Builder.Default
+    private boolean perChannel = true;
+    /**
+     * If true (default): the inputs (activations) to quantized ops are quantized to 8 bits, using the ranges observed
+     * during calibration
+     */
+    @Builder.Default
+    private boolean quantizeActivations = true;
+    /**
+     * Maximum number of minibatches to use for calibration. 0 (default): use all minibatches from the iterator
+     */
+    @Builder.Default
+    private int maxCalibrationBatches = 0;
+    /**
+     * Name of the placeholder that the DataSet features should be fed into. If null (default): the feature mapping
+     * from the SameDiff instance's TrainingConfig is used
+     */
+    private String featureMapping;
+    /**
+     * Names of ops that should not be quantized
+     */
+    @Builder.Default
+    private Set<String> excludedOps = Collections.emptySet();
+
+}
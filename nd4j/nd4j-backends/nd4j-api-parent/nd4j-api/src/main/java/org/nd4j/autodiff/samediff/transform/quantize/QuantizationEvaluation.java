@@ -0,0 +1,63 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.autodiff.samediff.transform.quantize;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.nd4j.evaluation.IEvaluation;
+import org.nd4j.evaluation.IMetric;
+import org.nd4j.evaluation.classification.Evaluation;
+
+/**
+ * Evaluation of a quantized graph against the original (floating point) graph on the same data -
+ * see {@link PostTrainingQuantizer#evaluate(org.nd4j.autodiff.samediff.SameDiff, org.nd4j.autodiff.samediff.SameDiff,
+ * org.nd4j.linalg.dataset.api.iterator.DataSetIterator, String)}
+ */
+@Getter
+@AllArgsConstructor
+public class QuantizationEvaluation {
+
+    private final IEvaluation original;
+    private final IEvaluation quantized;
+
+    /**
+     * @param metric Metric to get the change of
+     * @return Value of the metric for the quantized graph minus the value for the original graph
+     */
+    public double getDelta(IMetric metric) {
+        return quantized.getValue(metric) - original.getValue(metric);
+    }
+
+    /**
+     * @return Accuracy of the quantized graph minus accuracy of the original graph. Only applicable if the evaluations
+     * are {@link Evaluation} instances
+     */
+    public double getAccuracyDelta() {
+        return getDelta(Evaluation.Metric.ACCURACY);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("========== Original ==========\n").append(original.stats())
+                .append("\n========== Quantized ==========\n").append(quantized.stats());
+        if (original instanceof Evaluation)
+            sb.append("\n\nAccuracy delta: ").append(String.format("%.4f", getAccuracyDelta()));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,74 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.autodiff.samediff.transform.quantize;
+
+import lombok.Getter;
+import org.nd4j.autodiff.samediff.SameDiff;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The result of applying a {@link PostTrainingQuantizer} to a graph: the quantized graph, the per-channel weight
+ * scales, the activation ranges from calibration and the size of the graph parameters before and after quantization
+ */
+@Getter
+public class QuantizationResult {
+
+    private final SameDiff sameDiff;
+    /**
+     * Key: name of the (original) weights variable. Value: the scale(s) used to quantize it, one per output channel
+     */
+    private final Map<String, INDArray> weightScales;
+    /**
+     * Key: name of the activation variable. Value: [min, max] as observed during calibration
+     */
+    private final Map<String, double[]> activationRanges;
+    /**
+     * Total size, in bytes, of all constants and variables in the original graph
+     */
+    private final long originalParamBytes;
+    /**
+     * Total size, in bytes, of all constants and variables in the quantized graph
+     */
+    private final long quantizedParamBytes;
+
+    public QuantizationResult(SameDiff sameDiff, Map<String, INDArray> weightScales, Map<String, double[]> activationRanges,
+                              long originalParamBytes, long quantizedParamBytes) {
+        this.sameDiff = sameDiff;
+        this.weightScales = Collections.unmodifiableMap(weightScales);
+        this.activationRanges = Collections.unmodifiableMap(activationRanges);
+        this.originalParamBytes = originalParamBytes;
+        this.quantizedParamBytes = quantizedParamBytes;
+    }
+
+    /**
+     * @return Size of the original graph parameters divided by the size of the quantized graph parameters
+     */
+    public double getCompressionRatio() {
+        return quantizedParamBytes == 0 ? 1.0 : originalParamBytes / (double) quantizedParamBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "QuantizationResult(quantizedWeights=" + weightScales.size() + ", quantizedActivations=" + activationRanges.size()
+                + ", originalParamBytes=" + originalParamBytes + ", quantizedParamBytes=" + quantizedParamBytes
+                + ", compressionRatio=" + String.format("%.2f", getCompressionRatio()) + ")";
+    }
+}
@@ -19,14 +19,12 @@ package org.nd4j.linalg.learning;
 import lombok.Data;
 import lombok.NonNull;
 import lombok.val;
-import org.apache.commons.math3.util.FastMath;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.api.ops.impl.transforms.floating.Sqrt;
+import org.nd4j.linalg.api.ops.impl.updaters.AmsGradUpdater;
 import org.nd4j.linalg.api.shape.Shape;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.indexing.NDArrayIndex;
 import org.nd4j.linalg.learning.config.AMSGrad;
-import org.nd4j.linalg.ops.transforms.Transforms;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -102,28 +100,11 @@ public class AMSGradUpdater implements GradientUpdater<AMSGrad> {
         double learningRate = config.getLearningRate(iteration, epoch);
         double epsilon = config.getEpsilon();
 
+        //Single fused op: updates m, v and vHat in-place, and replaces the gradient with the update
         //m_t = b_1 * m_{t-1} + (1-b_1) * g_t       eq 1 pg 3
-        INDArray oneMinusBeta1Grad = gradient.mul(1.0 - beta1);
-        m.muli(beta1).addi(oneMinusBeta1Grad);
-
         //v_t = b_2 * v_{t-1} + (1-b_2) * (g_t)^2   eq 1 pg 3
-        INDArray oneMinusBeta2GradSquared = gradient.mul(gradient).muli(1 - beta2);
-        v.muli(beta2).addi(oneMinusBeta2GradSquared);
-
-        double beta1t = FastMath.pow(beta1, iteration + 1);
-        double beta2t = FastMath.pow(beta2, iteration + 1);
-
         //vHat_t = max(vHat_{t-1}, v_t)
-        Transforms.max(vHat, v, false);
-
-        double alphat = learningRate * FastMath.sqrt(1 - beta2t) / (1 - beta1t);
-        if (Double.isNaN(alphat) || alphat == 0.0)
-            alphat = epsilon;
-
-        //gradient array contains: sqrt(vHat) + eps
-        Nd4j.getExecutioner().exec(new Sqrt(vHat, gradient)).addi(epsilon);
-
-        //gradient = alphat * m_t / (sqrt(vHat) + eps)
-        gradient.rdivi(m).muli(alphat);
+        //gradient = alphat * m_t / (sqrt(vHat) + eps), alphat = lr * sqrt(1-b_2^t) / (1-b_1^t)
+        Nd4j.exec(new AmsGradUpdater(gradient, v, m, vHat, learningRate, beta1, beta2, epsilon, iteration));
     }
 }
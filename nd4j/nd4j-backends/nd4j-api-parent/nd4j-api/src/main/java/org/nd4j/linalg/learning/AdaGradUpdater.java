@@ -21,14 +21,12 @@ import lombok.Data;
 import lombok.EqualsAndHashCode;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.api.shape.Shape;
+import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.learning.config.AdaGrad;
 
 import java.util.Collections;
 import java.util.Map;
 
-import static org.nd4j.linalg.ops.transforms.Transforms.sqrt;
-
-
 /**
  * Vectorized Learning Rate used per Connection Weight
  * <p/>
@@ -98,10 +96,8 @@ public class AdaGradUpdater implements GradientUpdater<AdaGrad> {
         double learningRate = config.getLearningRate(iteration, epoch);
         double epsilon = config.getEpsilon();
 
-        historicalGradient.addi(gradient.mul(gradient));
-
-        INDArray sqrtHistory = sqrt(historicalGradient.dup(gradientReshapeOrder), false).addi(epsilon);
+        //Single fused op: historicalGradient += g^2 (in-place)
         // lr * gradient / (sqrt(sumSquaredGradients) + epsilon)
-        gradient.muli(sqrtHistory.rdivi(learningRate));
+        Nd4j.exec(new org.nd4j.linalg.api.ops.impl.updaters.AdaGradUpdater(gradient, historicalGradient, learningRate, epsilon));
     }
 }
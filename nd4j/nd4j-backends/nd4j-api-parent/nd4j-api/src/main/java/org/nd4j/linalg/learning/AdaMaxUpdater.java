@@ -18,14 +18,11 @@ package org.nd4j.linalg.learning;
 
 import lombok.Data;
 import lombok.NonNull;
-import org.apache.commons.math3.util.FastMath;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.api.ops.impl.transforms.custom.Max;
 import org.nd4j.linalg.api.shape.Shape;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.indexing.NDArrayIndex;
 import org.nd4j.linalg.learning.config.AdaMax;
-import org.nd4j.linalg.ops.transforms.Transforms;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -98,23 +95,13 @@ public class AdaMaxUpdater implements GradientUpdater<AdaMax> {
         if (m == null || u == null)
             throw new IllegalStateException("Updater has not been initialized with view state");
 
-        //m = B_1 * m + (1-B_1)*grad
-        m.muli(config.getBeta1()).addi(gradient.mul(1 - config.getBeta1()));
-
-        //u = max(B_2 * u, |grad|)
-        u.muli(config.getBeta2());
-        Transforms.abs(gradient, false); //In-place should be OK here, original gradient values aren't used again later
-        Nd4j.getExecutioner().exec(new Max(u, gradient, u));
-
-        double beta1t = FastMath.pow(config.getBeta1(), iteration + 1);
-
         double learningRate = config.getLearningRate(iteration, epoch);
-        double alphat = learningRate / (1.0 - beta1t);
-        if (Double.isNaN(alphat) || Double.isInfinite(alphat) || alphat == 0.0) {
-            alphat = config.getEpsilon();
-        }
 
-        u.addi(1e-32); // prevent NaNs in params
-        gradient.assign(m).muli(alphat).divi(u);
+        //Single fused op: updates m and u in-place, and replaces the gradient with the update
+        //m = B_1 * m + (1-B_1)*grad
+        //u = max(B_2 * u, |grad|)
+        //update = alphat * m / (u + 1e-32), alphat = lr / (1 - B_1^t)
+        Nd4j.exec(new org.nd4j.linalg.api.ops.impl.updaters.AdaMaxUpdater(gradient, u, m, learningRate,
+                config.getBeta1(), config.getBeta2(), config.getEpsilon(), iteration));
     }
 }
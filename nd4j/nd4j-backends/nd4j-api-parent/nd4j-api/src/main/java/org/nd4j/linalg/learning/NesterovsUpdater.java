@@ -19,7 +19,6 @@ package org.nd4j.linalg.learning;
 import lombok.Data;
 import lombok.NonNull;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.api.ops.impl.transforms.pairwise.arithmetic.AddOp;
 import org.nd4j.linalg.api.shape.Shape;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.learning.config.Nesterovs;
@@ -96,15 +95,7 @@ public class NesterovsUpdater implements GradientUpdater<Nesterovs> {
         // x += mu * v_prev + (-1 - mu) * v
         //i.e., we do params -= updatedGradient, not params += updatedGradient
 
-        //v = mu * v - lr * gradient
-        INDArray vPrev = v.dup(gradientReshapeOrder);
-        v.muli(momentum).subi(gradient.dup(gradientReshapeOrder).muli(learningRate)); //Modify state array in-place
-
-        /*
-        Next line is equivalent to:
-        INDArray ret = vPrev.muli(momentum).addi(v.mul(-momentum - 1));
-        gradient.assign(ret);
-        */
-        Nd4j.getExecutioner().exec(new AddOp(vPrev.muli(momentum), v.mul(-momentum - 1), gradient));
+        //Single fused op: v = mu * v - lr * gradient (in-place), gradient = mu * v_prev + (-1 - mu) * v
+        Nd4j.exec(new org.nd4j.linalg.api.ops.impl.updaters.NesterovsUpdater(gradient, v, learningRate, momentum));
     }
 }
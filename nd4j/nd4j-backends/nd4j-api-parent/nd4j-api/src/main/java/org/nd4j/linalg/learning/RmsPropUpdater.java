@@ -20,8 +20,8 @@ import lombok.Data;
 import lombok.NonNull;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.api.shape.Shape;
+import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.learning.config.RmsProp;
-import org.nd4j.linalg.ops.transforms.Transforms;
 
 import java.util.Collections;
 import java.util.Map;
@@ -85,8 +85,8 @@ public class RmsPropUpdater implements GradientUpdater<RmsProp> {
         double rmsDecay = config.getRmsDecay();
         double epsilon = config.getEpsilon();
 
-        lastGradient.muli(rmsDecay).addi(gradient.mul(gradient).muli(1 - rmsDecay));
+        //Single fused op: cache = decay * cache + (1-decay) * g^2 (in-place)
         // lr * gradient / (sqrt(cache) + 1e-8)
-        gradient.muli(learningRate).divi(Transforms.sqrt(lastGradient.dup(gradientReshapeOrder), false).addi(epsilon));
+        Nd4j.exec(new org.nd4j.linalg.api.ops.impl.updaters.RmsPropUpdater(gradient, lastGradient, learningRate, rmsDecay, epsilon));
     }
 }
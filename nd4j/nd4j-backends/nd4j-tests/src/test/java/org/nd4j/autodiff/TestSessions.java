@@ -22,22 +22,25 @@ import org.nd4j.autodiff.listeners.Operation;
 import org.nd4j.autodiff.samediff.SDVariable;
 import org.nd4j.autodiff.samediff.SameDiff;
 import org.nd4j.autodiff.samediff.internal.AbstractSession;
+import org.nd4j.autodiff.samediff.internal.ExecutionPlan;
 import org.nd4j.autodiff.samediff.internal.FrameIter;
 import org.nd4j.autodiff.samediff.internal.InferenceSession;
+import org.nd4j.autodiff.samediff.internal.MemoryPlan;
+import org.nd4j.autodiff.samediff.internal.SameDiffOp;
 import org.nd4j.autodiff.samediff.internal.memory.NoOpMemoryMgr;
 import org.nd4j.imports.graphmapper.tf.TFGraphMapper;
 import org.nd4j.linalg.BaseNd4jTest;
 import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.OpContext;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.factory.Nd4jBackend;
 import org.nd4j.linalg.io.ClassPathResource;
+import org.nd4j.linalg.ops.transforms.Transforms;
+import org.nd4j.linalg.util.ArrayUtil;
 
 import java.io.File;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 
 import static org.junit.Assert.*;
 
@@ -257,4 +260,254 @@ public class TestSessions extends BaseNd4jTest {
         }
 
     }
+
+    @Test
+    public void testExecutionPlan(){
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, 4);
+        SDVariable w = sd.var("w", Nd4j.rand(DataType.FLOAT, 4, 3));
+        SDVariable b = sd.var("b", Nd4j.rand(DataType.FLOAT, 3));
+        SDVariable h = sd.nn.tanh("h", in.mmul(w).add(b));
+        SDVariable id = sd.identity("id", h);
+        SDVariable[] cols = sd.unstack(new String[]{"c0", "c1", "c2"}, id, 1, 3);     //c2 is never used
+        SDVariable sum = sd.sum("sum", cols[0].mul(cols[1]), 0);
+        SDVariable out = sd.concat("out", 1, h, id);
+        SDVariable unused = in.sub("unused", 1.0);
+
+        //Plan should contain only required ops, in dependency order
+        InferenceSession is = new InferenceSession(sd);
+        List<String> outputs = Arrays.asList("out", "sum", "w");
+        ExecutionPlan plan = ExecutionPlan.compile(sd, subgraphOps(sd, outputs), outputs, new HashMap<String, OpContext>());
+        assertNotNull(plan);
+        Set<String> scheduled = new HashSet<>();
+        for (int i = 0; i < plan.numOps(); i++) {
+            SameDiffOp op = plan.getOps()[i];
+            assertNotEquals(sd.getVariableOutputOp("unused").getOwnName(), op.getName());
+            for (String s : op.getInputsToOp()) {
+                if (sd.getVariableOutputOp(s) != null)
+                    assertTrue(scheduled.contains(sd.getVariableOutputOp(s).getOwnName()));
+            }
+            scheduled.add(op.getName());
+        }
+
+        //Cached plan execution should give same results as dynamic execution, for different batch sizes and repeated calls
+        InferenceSession dynamic = new InferenceSession(sd);
+        dynamic.setPlanCacheEnabled(false);
+        for (int i = 0; i < 6; i++) {
+            Map<String,INDArray> ph = Collections.singletonMap("in", Nd4j.rand(DataType.FLOAT, 1 + i % 3, 4));
+            Map<String,INDArray> exp = dynamic.output(outputs, ph, null, Collections.<String>emptyList(), null, At.defaultAt(Operation.INFERENCE));
+            Map<String,INDArray> act = is.output(outputs, ph, null, Collections.<String>emptyList(), null, At.defaultAt(Operation.INFERENCE));
+            assertEquals(exp, act);
+        }
+
+        //Placeholder requested as output, and placeholder cast
+        INDArray inD = Nd4j.rand(DataType.DOUBLE, 2, 4);
+        Map<String,INDArray> m = is.output(Arrays.asList("in", "h"), Collections.singletonMap("in", inD), null,
+                Collections.<String>emptyList(), null, At.defaultAt(Operation.INFERENCE));
+        assertEquals(inD.castTo(DataType.FLOAT), m.get("in"));
+        assertEquals(sd.nn.tanh(sd.constant(inD.castTo(DataType.FLOAT)).mmul(w).add(b)).eval(), m.get("h"));
+
+        try {
+            is.output(Collections.singletonList("out"), Collections.<String,INDArray>emptyMap(), null,
+                    Collections.<String>emptyList(), null, At.defaultAt(Operation.INFERENCE));
+            fail("Expected exception");
+        } catch (IllegalStateException e){
+            assertTrue(e.getMessage(), e.getMessage().contains("No array was provided") && e.getMessage().contains("\"in\""));
+        }
+    }
+
+    @Test
+    public void testExecutionPlanStructureChange(){
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, 3);
+        SDVariable a = in.add("a", 1.0);
+        SDVariable b = in.mul("b", 2.0);
+        SDVariable out = sd.math().abs("out", a);
+
+        INDArray arr = Nd4j.rand(DataType.FLOAT, 2, 3);
+        Map<String,INDArray> ph = Collections.singletonMap("in", arr);
+        assertEquals(Transforms.abs(arr.add(1.0)), sd.output(ph, "out").get("out"));
+
+        //Rewire the output op to use b instead of a: same number of ops and variables, but the cached plan is stale
+        long version = sd.getStructureVersion();
+        sd.replaceArgFor(0, b, sd.getVariableOutputOp("out"));
+        assertNotEquals(version, sd.getStructureVersion());
+        assertEquals(Transforms.abs(arr.mul(2.0)), sd.output(ph, "out").get("out"));
+
+        //Plans are also keyed by placeholder type and shape
+        INDArray arr2 = Nd4j.rand(DataType.DOUBLE, 5, 3);
+        assertEquals(Transforms.abs(arr2.mul(2.0)).castTo(DataType.FLOAT), sd.output(Collections.singletonMap("in", arr2), "out").get("out"));
+    }
+
+    @Test
+    public void testExecutionPlanNotSupported(){
+        //Control flow ops can't be executed with a static plan
+        SameDiff sd = SameDiff.create();
+        SDVariable x = sd.placeHolder("x", DataType.FLOAT, 3,3);
+        SDVariable b = sd.placeHolder("b", DataType.BOOL);
+        SDVariable[] switchOut = sd.f().switchOp(x, b);
+        SDVariable merge = sd.f().merge(switchOut[0].add(1.0), switchOut[1].add(10.0));
+
+        List<String> outputs = Collections.singletonList(merge.name());
+        assertNull(ExecutionPlan.compile(sd, subgraphOps(sd, outputs), outputs, new HashMap<String, OpContext>()));
+
+        Map<String,INDArray> m = new HashMap<>();
+        m.put("x", Nd4j.create(DataType.FLOAT, 3,3));
+        m.put("b", Nd4j.scalar(true));
+        Map<String,INDArray> outMap = new InferenceSession(sd).output(outputs, m, null, Collections.<String>emptyList(),
+                null, At.defaultAt(Operation.INFERENCE));
+        assertEquals(Nd4j.create(DataType.FLOAT, 3,3).add(10.0), outMap.get(merge.name()));
+    }
+
+    @Test
+    public void testInterOpParallelism(){
+        //Multi-tower graph: towers are independent, and can be executed at the same time
+        Nd4j.getRandom().setSeed(12345);
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, 8);
+        SDVariable sum = null;
+        for( int i=0; i<4; i++ ){
+            SDVariable w = sd.var("w" + i, Nd4j.rand(DataType.FLOAT, 8, 6));
+            SDVariable b = sd.var("b" + i, Nd4j.rand(DataType.FLOAT, 6));
+            SDVariable tower = sd.nn().tanh(in.mmul(w).add(b));
+            sum = (sum == null ? tower : sum.add(tower));
+        }
+        SDVariable out = sum.mul("out", 0.25);
+        SDVariable out2 = sd.math().abs(in).sum("out2", 1);
+
+        List<String> outputs = Arrays.asList("out", "out2");
+        ExecutionPlan plan = ExecutionPlan.compile(sd, subgraphOps(sd, outputs), outputs, new HashMap<String, OpContext>());
+        assertNotNull(plan);
+        assertTrue(String.valueOf(plan.getMaxWidth()), plan.getMaxWidth() >= 4);
+
+        //Dependency graph should be consistent with the schedule
+        int[] preds = new int[plan.numOps()];
+        for( int i=0; i<plan.numOps(); i++ ){
+            for(int s : plan.getSuccessors()[i]){
+                assertTrue(s > i);
+                preds[s]++;
+            }
+        }
+        assertArrayEquals(plan.getNumPredecessors(), preds);
+
+        List<INDArray> inputs = Arrays.asList(Nd4j.rand(DataType.FLOAT, 1, 8), Nd4j.rand(DataType.FLOAT, 5, 8));
+        List<Map<String,INDArray>> expected = new ArrayList<>();
+        for(INDArray arr : inputs) {
+            expected.add(sd.output(Collections.singletonMap("in", arr), "out", "out2"));
+        }
+
+        int masterThreads = Nd4j.getEnvironment().maxMasterThreads();
+        sd.enableInterOpParallelism(4, 1);
+        try {
+            assertEquals(4, sd.getInterOpExecutor().getInterOpThreads());
+            assertEquals(1, sd.getInterOpExecutor().getIntraOpThreads());
+            assertEquals(1, Nd4j.getEnvironment().maxMasterThreads());
+            for (int rep = 0; rep < 5; rep++) {
+                for (int i = 0; i < inputs.size(); i++) {
+                    Map<String, INDArray> act = sd.output(Collections.singletonMap("in", inputs.get(i)), "out", "out2");
+                    assertEquals(expected.get(i), act);
+                }
+            }
+
+            //Errors in ops executed on the inter-op threads should be propagated to the caller
+            try {
+                sd.output(Collections.singletonMap("in", Nd4j.rand(DataType.FLOAT, 3, 7)), "out", "out2");
+                fail("Expected exception");
+            } catch (Exception e) {
+                //Expected
+            }
+        } finally {
+            sd.disableInterOpParallelism();
+        }
+        assertNull(sd.getInterOpExecutor());
+        //Process wide thread limit should be restored once no executors are open
+        assertEquals(masterThreads, Nd4j.getEnvironment().maxMasterThreads());
+    }
+
+    @Test
+    public void testStaticMemoryPlan(){
+        Nd4j.getRandom().setSeed(12345);
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, 10);
+        SDVariable x = in;
+        for( int i=0; i<4; i++ ){
+            SDVariable w = sd.var("w" + i, Nd4j.rand(DataType.FLOAT, 10, 10));
+            SDVariable b = sd.var("b" + i, Nd4j.rand(DataType.FLOAT, 10));
+            x = sd.nn().tanh(x.mmul(w).add(b));
+        }
+        SDVariable out = sd.nn().softmax("out", x);
+
+        List<INDArray> inputs = Arrays.asList(Nd4j.rand(DataType.FLOAT, 4, 10), Nd4j.rand(DataType.FLOAT, 4, 10), Nd4j.rand(DataType.FLOAT, 7, 10));
+        List<INDArray> expected = new ArrayList<>();
+        for(INDArray arr : inputs){
+            expected.add(sd.outputSingle(Collections.singletonMap("in", arr), "out"));
+        }
+
+        sd.setStaticMemoryPlanning(true);
+        for( int rep=0; rep<3; rep++ ) {
+            for (int i = 0; i < inputs.size(); i++) {
+                INDArray act = sd.outputSingle(Collections.singletonMap("in", inputs.get(i)), "out");
+                assertEquals(expected.get(i), act);
+            }
+        }
+
+        InferenceSession is = sd.getSessions().get(Thread.currentThread().getId());
+        //Plans are keyed by placeholder shape: one execution plan and one memory plan per input shape
+        assertEquals(2, is.getMemoryPlans().size());
+        MemoryPlan mp = null;
+        MemoryPlan mp4 = null;
+        for(MemoryPlan p : is.getMemoryPlans().values()){
+            if(Arrays.equals(new long[]{7, 10}, p.getPlaceholderShapes()[0])){
+                mp = p;
+            } else if(Arrays.equals(new long[]{4, 10}, p.getPlaceholderShapes()[0])){
+                mp4 = p;
+            }
+        }
+        assertNotNull(mp);
+        assertNotNull(mp4);
+        assertNotSame(mp.getExecutionPlan(), mp4.getExecutionPlan());
+        assertTrue(mp.getArenaBytes() > 0);
+        assertTrue(mp.getArenaBytes() + " vs. " + mp.getTotalBytes(), mp.getArenaBytes() < mp.getTotalBytes());
+
+        //Arrays that are alive at the same time must not share memory
+        ExecutionPlan plan = mp.getExecutionPlan();
+        int n = plan.numSlots();
+        int[] start = new int[n];
+        int[] end = new int[n];
+        for( int i=0; i<plan.numOps(); i++ ){
+            for(int s : plan.getOutputSlots()[i])
+                start[s] = i;
+            for(int s : plan.getReleaseAfter()[i])
+                end[s] = i;
+        }
+        int count = 0;
+        for( int s1=0; s1<n; s1++ ){
+            if(mp.getOffsets()[s1] < 0)
+                continue;
+            count++;
+            for( int s2=s1+1; s2<n; s2++ ){
+                if(mp.getOffsets()[s2] < 0 || mp.getDataTypes()[s1] != mp.getDataTypes()[s2] || start[s1] > end[s2] || start[s2] > end[s1])
+                    continue;
+                long e1 = mp.getOffsets()[s1] + ArrayUtil.prodLong(mp.getShapes()[s1]);
+                long e2 = mp.getOffsets()[s2] + ArrayUtil.prodLong(mp.getShapes()[s2]);
+                assertTrue(e1 <= mp.getOffsets()[s2] || e2 <= mp.getOffsets()[s1]);
+            }
+        }
+        assertTrue(count > 0);
+    }
+
+    private static Set<String> subgraphOps(SameDiff sd, List<String> outputs){
+        //Ops required for the outputs: all ops the outputs (transitively) depend on
+        Set<String> ops = new HashSet<>();
+        Deque<String> queue = new ArrayDeque<>(outputs);
+        while (!queue.isEmpty()) {
+            String v = queue.remove();
+            if (sd.getVariableOutputOp(v) == null)
+                continue;
+            String op = sd.getVariableOutputOp(v).getOwnName();
+            if (ops.add(op))
+                queue.addAll(sd.getOps().get(op).getInputsToOp());
+        }
+        return ops;
+    }
 }
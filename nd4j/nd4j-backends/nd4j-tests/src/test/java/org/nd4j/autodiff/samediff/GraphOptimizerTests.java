@@ -0,0 +1,190 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.nd4j.autodiff.samediff;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+import org.nd4j.autodiff.functions.DifferentialFunction;
+import org.nd4j.autodiff.samediff.transform.optimize.*;
+import org.nd4j.linalg.BaseNd4jTest;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.impl.layers.convolution.BatchNorm;
+import org.nd4j.linalg.api.ops.impl.layers.convolution.Conv2D;
+import org.nd4j.linalg.api.ops.impl.layers.convolution.config.Conv2DConfig;
+import org.nd4j.linalg.api.ops.impl.transforms.ReluLayer;
+import org.nd4j.linalg.api.ops.impl.transforms.custom.XwPlusB;
+import org.nd4j.linalg.api.ops.impl.transforms.same.Identity;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.factory.Nd4jBackend;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class GraphOptimizerTests extends BaseNd4jTest {
+
+    public GraphOptimizerTests(Nd4jBackend b) {
+        super(b);
+    }
+
+    @Override
+    public char ordering() {
+        return 'c';
+    }
+
+    @Test
+    public void testIdentityAndDeadCodeElimination() {
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, 4);
+        SDVariable id1 = sd.identity(in);
+        SDVariable id2 = sd.identity(id1);
+        SDVariable a = id2.mul(2.0);
+        //in is also used directly: its other consumers must be kept when the identity ops are removed
+        SDVariable b = in.add(1.0);
+        SDVariable out = a.add("out", b);
+        SDVariable unused = sd.math().tanh(in.sub(3.0));
+
+        INDArray inArr = Nd4j.rand(DataType.FLOAT, 3, 4);
+        INDArray exp = sd.outputSingle(Collections.singletonMap("in", inArr), "out");
+
+        OptimizationResult r = new GraphOptimizer(new DeadCodeElimination(), new IdentityElimination()).optimize(sd, "out");
+        log.info("Result: {}", r);
+        assertEquals(2, r.getOpsRemoved("dead-code-elimination"));
+        assertEquals(2, r.getOpsRemoved("identity-elimination"));
+        assertEquals(4, r.getOpsRemoved());
+
+        SameDiff opt = r.getSameDiff();
+        assertEquals(3, opt.getOps().size());
+        for (DifferentialFunction df : opt.ops())
+            assertFalse(df instanceof Identity);
+        assertFalse(opt.hasVariable(unused.name()));
+        assertEquals(exp, opt.outputSingle(Collections.singletonMap("in", inArr), "out"));
+
+        //Original graph is not modified
+        assertEquals(7, sd.getOps().size());
+        assertEquals(exp, sd.outputSingle(Collections.singletonMap("in", inArr), "out"));
+    }
+
+    @Test
+    public void testConstantFoldingAndCSE() {
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, 4);
+        SDVariable c = sd.constant("c", Nd4j.linspace(DataType.FLOAT, 1, 4, 1));
+        SDVariable c2 = sd.math().square(c).add(1.0);       //2 ops, constants only
+        SDVariable x = in.mul(c2);
+
+        //Duplicated calculations: 2x tanh(x), 2x tanh(x)*2
+        SDVariable t1 = sd.math().tanh(x).mul(2.0);
+        SDVariable t2 = sd.math().tanh(x).mul(2.0);
+        SDVariable out = t1.add("out", t2);
+
+        INDArray inArr = Nd4j.rand(DataType.FLOAT, 3, 4);
+        INDArray exp = sd.outputSingle(Collections.singletonMap("in", inArr), "out");
+
+        OptimizationResult r = new GraphOptimizer(new ConstantFolding(), new CommonSubexpressionElimination()).optimize(sd);
+        log.info("Result: {}", r);
+        assertEquals(2, r.getOpsRemoved("constant-folding"));
+        assertEquals(2, r.getOpsRemoved("common-subexpression-elimination"));
+
+        SameDiff opt = r.getSameDiff();
+        assertEquals(4, opt.getOps().size());
+        assertEquals(VariableType.CONSTANT, opt.getVariable(c2.name()).getVariableType());
+        assertFalse(opt.hasVariable("c"));
+        assertEquals(exp, opt.outputSingle(Collections.singletonMap("in", inArr), "out"));
+    }
+
+    @Test
+    public void testMatMulBiasFusion() {
+        Nd4j.getRandom().setSeed(12345);
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.DOUBLE, -1, 4);
+        SDVariable w0 = sd.var("w0", Nd4j.rand(DataType.DOUBLE, 4, 5).subi(0.5));
+        SDVariable b0 = sd.var("b0", Nd4j.rand(DataType.DOUBLE, 5).subi(0.5));
+        SDVariable w1 = sd.var("w1", Nd4j.rand(DataType.DOUBLE, 5, 3));
+        SDVariable b1 = sd.var("b1", Nd4j.rand(DataType.DOUBLE, 3));
+        SDVariable h = sd.nn().relu("h", in.mmul(w0).add(b0), 0.0);
+        SDVariable out = h.mmul(w1).add("out", b1);
+
+        INDArray inArr = Nd4j.rand(DataType.DOUBLE, 3, 4);
+        Map<String, INDArray> exp = sd.output(Collections.singletonMap("in", inArr), "h", "out");
+
+        OptimizationResult r = GraphOptimizer.defaultOptimizer().optimize(sd, "h", "out");
+        assertEquals(3, r.getOpsRemoved("matmul-bias-activation-fusion"));
+
+        SameDiff opt = r.getSameDiff();
+        assertEquals(2, opt.getOps().size());
+        assertTrue(opt.getVariableOutputOp("h") instanceof ReluLayer);
+        assertTrue(opt.getVariableOutputOp("out") instanceof XwPlusB);
+        Map<String, INDArray> act = opt.output(Collections.singletonMap("in", inArr), "h", "out");
+        assertEquals(exp.get("h"), act.get("h"));
+        assertEquals(exp.get("out"), act.get("out"));
+    }
+
+    @Test
+    public void testBatchNormFoldingAndConvBiasFusion() {
+        Nd4j.getRandom().setSeed(12345);
+        int oC = 3;
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.DOUBLE, -1, 5, 5, 2);
+        SDVariable w = sd.var("w", Nd4j.rand(DataType.DOUBLE, 2, 2, 2, oC));
+        SDVariable b = sd.var("b", Nd4j.rand(DataType.DOUBLE, oC));
+        Conv2DConfig c = Conv2DConfig.builder().kH(2).kW(2).dataFormat(Conv2DConfig.NHWC).build();
+
+        //conv2d -> bias add -> batch norm
+        SDVariable conv = sd.cnn().conv2d(in, w, c);
+        SDVariable bias = sd.nn().biasAdd(conv, b, false);
+        SDVariable mean = sd.constant("mean", Nd4j.rand(DataType.DOUBLE, oC));
+        SDVariable var = sd.constant("var", Nd4j.rand(DataType.DOUBLE, oC).addi(0.5));
+        SDVariable gamma = sd.constant("gamma", Nd4j.rand(DataType.DOUBLE, oC));
+        SDVariable beta = sd.constant("beta", Nd4j.rand(DataType.DOUBLE, oC));
+        SDVariable out = sd.nn().batchNorm("out", bias, mean, var, gamma, beta, 1e-3, 3);
+
+        OptimizationResult r = GraphOptimizer.defaultOptimizer().optimize(sd, "out");
+        log.info("Result: {}", r);
+        assertEquals(1, r.getOpsRemoved("conv-bias-fusion"));
+        assertEquals(1, r.getOpsRemoved("batchnorm-folding"));
+
+        SameDiff opt = r.getSameDiff();
+        assertEquals(1, opt.getOps().size());
+        DifferentialFunction df = opt.getVariableOutputOp("out");
+        assertTrue(df instanceof Conv2D);
+        assertFalse(df instanceof BatchNorm);
+        assertEquals(3, df.args().length);
+
+        //Check the folded parameters
+        INDArray scale = gamma.getArr().div(Transforms.sqrt(var.getArr().add(1e-3)));
+        INDArray expW = w.getArr().dup();
+        for (int i = 0; i < oC; i++) {
+            expW.get(NDArrayIndex.all(), NDArrayIndex.all(),
+                    NDArrayIndex.all(), NDArrayIndex.point(i)).muli(scale.getDouble(i));
+        }
+        INDArray expB = b.getArr().sub(mean.getArr()).mul(scale).add(beta.getArr());
+        assertEquals(expW, df.arg(1).getArr());
+        assertEquals(expB, df.arg(2).getArr());
+        assertFalse(opt.hasVariable("mean"));
+
+        INDArray inArr = Nd4j.rand(DataType.DOUBLE, 2, 5, 5, 2);
+        INDArray exp = sd.outputSingle(Collections.singletonMap("in", inArr), "out");
+        INDArray act = opt.outputSingle(Collections.singletonMap("in", inArr), "out");
+        assertTrue(exp.equalsWithEps(act, 1e-6));
+    }
+}
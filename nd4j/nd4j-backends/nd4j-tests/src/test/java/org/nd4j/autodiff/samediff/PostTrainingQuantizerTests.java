@@ -0,0 +1,175 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.nd4j.autodiff.samediff;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+import org.nd4j.autodiff.functions.DifferentialFunction;
+import org.nd4j.autodiff.samediff.transform.quantize.PostTrainingQuantizer;
+import org.nd4j.autodiff.samediff.transform.quantize.QuantizationConfig;
+import org.nd4j.autodiff.samediff.transform.quantize.QuantizationEvaluation;
+import org.nd4j.autodiff.samediff.transform.quantize.QuantizationResult;
+import org.nd4j.evaluation.classification.Evaluation;
+import org.nd4j.linalg.BaseNd4jTest;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.impl.layers.convolution.config.Conv2DConfig;
+import org.nd4j.linalg.api.ops.impl.transforms.custom.FakeQuantWithMinMaxVars;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.adapter.SingletonDataSetIterator;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.dataset.api.iterator.TestDataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.factory.Nd4jBackend;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.nd4j.linalg.learning.config.Sgd;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class PostTrainingQuantizerTests extends BaseNd4jTest {
+
+    public PostTrainingQuantizerTests(Nd4jBackend b) {
+        super(b);
+    }
+
+    @Override
+    public char ordering() {
+        return 'c';
+    }
+
+    @Test
+    public void testQuantizeMlp() {
+        Nd4j.getRandom().setSeed(12345);
+        int nIn = 32;
+        int nHidden = 64;
+        int nOut = 10;
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, nIn);
+        SDVariable label = sd.placeHolder("label", DataType.FLOAT, -1, nOut);
+        SDVariable w0 = sd.var("w0", Nd4j.randn(DataType.FLOAT, nIn, nHidden).muli(0.2));
+        SDVariable b0 = sd.var("b0", Nd4j.randn(DataType.FLOAT, nHidden).muli(0.1));
+        SDVariable w1 = sd.var("w1", Nd4j.randn(DataType.FLOAT, nHidden, nOut).muli(0.2));
+        SDVariable b1 = sd.var("b1", Nd4j.randn(DataType.FLOAT, nOut).muli(0.1));
+        SDVariable h = sd.nn().relu(in.mmul(w0).add(b0), 0.0);
+        SDVariable out = sd.nn().softmax("out", h.mmul(w1).add(b1));
+        sd.setTrainingConfig(TrainingConfig.builder().updater(new Sgd(0.1))
+                .dataSetFeatureMapping("in").dataSetLabelMapping("label").build());
+
+        //Labels: predictions of the original network, so original accuracy is 1.0
+        INDArray f = Nd4j.rand(DataType.FLOAT, 200, nIn).subi(0.5).muli(4);
+        INDArray exp = sd.outputSingle(Collections.singletonMap("in", f), "out");
+        INDArray l = Nd4j.zeros(DataType.FLOAT, 200, nOut);
+        INDArray argMax = exp.argMax(1);
+        for (int i = 0; i < 200; i++)
+            l.putScalar(i, argMax.getInt(i), 1.0);
+        DataSetIterator iter = new TestDataSetIterator(new DataSet(f, l), 50);
+
+        QuantizationResult r = new PostTrainingQuantizer().quantize(sd, iter);
+        log.info("Result: {}", r);
+        SameDiff q = r.getSameDiff();
+
+        assertEquals(2, r.getWeightScales().size());
+        assertEquals(nHidden, r.getWeightScales().get("w0").length());
+        assertEquals(nOut, r.getWeightScales().get("w1").length());
+        assertEquals(2, r.getActivationRanges().size());
+        double[] inRange = r.getActivationRanges().get("in");
+        assertEquals(f.minNumber().doubleValue(), inRange[0], 1e-6);
+        assertEquals(f.maxNumber().doubleValue(), inRange[1], 1e-6);
+        assertTrue(r.getCompressionRatio() > 3.0);
+
+        //Weights are stored as INT8, and the original (floating point) weights are no longer in the graph
+        INDArray w0q = q.getArrForVarName("w0_int8");
+        assertEquals(DataType.INT8, w0q.dataType());
+        assertTrue(w0q.amaxNumber().intValue() == PostTrainingQuantizer.QUANT_MAX);
+        assertEquals(VariableType.ARRAY, q.getVariable("w0").getVariableType());
+        int fakeQuant = 0;
+        for (DifferentialFunction df : q.ops()) {
+            if (df instanceof FakeQuantWithMinMaxVars)
+                fakeQuant++;
+        }
+        assertEquals(2, fakeQuant);
+
+        //Dequantized weights are within half a quantization step of the original weights
+        INDArray w0deq = q.outputSingle(Collections.<String, INDArray>emptyMap(), "w0");
+        INDArray scale = r.getWeightScales().get("w0");
+        INDArray diff = Transforms.abs(w0deq.sub(w0.getArr()));
+        for (int i = 0; i < nHidden; i++) {
+            double maxDiff = diff.get(NDArrayIndex.all(), NDArrayIndex.point(i)).maxNumber().doubleValue();
+            assertTrue(maxDiff <= scale.getDouble(i) / 2 + 1e-6);
+        }
+
+        INDArray act = q.outputSingle(Collections.singletonMap("in", f), "out");
+        double maxDiff = Transforms.abs(exp.sub(act)).maxNumber().doubleValue();
+        assertTrue("Max diff: " + maxDiff, maxDiff < 0.1);
+
+        QuantizationEvaluation e = PostTrainingQuantizer.evaluate(sd, q, iter, "out");
+        log.info("Evaluation: {}", e);
+        assertEquals(1.0, e.getOriginal().getValue(Evaluation.Metric.ACCURACY), 0.0);
+        assertTrue(e.getAccuracyDelta() <= 0.0 && e.getAccuracyDelta() > -0.1);
+
+        //Original graph is not modified
+        assertEquals(VariableType.VARIABLE, sd.getVariable("w0").getVariableType());
+        assertEquals(exp, sd.outputSingle(Collections.singletonMap("in", f), "out"));
+    }
+
+    @Test
+    public void testQuantizeConv2dPerChannel() {
+        Nd4j.getRandom().setSeed(12345);
+        int oC = 4;
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.placeHolder("in", DataType.FLOAT, -1, 6, 6, 3);
+        INDArray wArr = Nd4j.randn(DataType.FLOAT, 3, 3, 3, oC);
+        //Very different ranges for the output channels
+        for (int i = 0; i < oC; i++)
+            wArr.get(NDArrayIndex.all(), NDArrayIndex.all(), NDArrayIndex.all(), NDArrayIndex.point(i)).muli(Math.pow(10, i - 2));
+        SDVariable w = sd.constant("w", wArr);
+        SDVariable b = sd.constant("b", Nd4j.rand(DataType.FLOAT, oC));
+        SDVariable out = sd.cnn().conv2d("out", in, w, b, Conv2DConfig.builder().kH(3).kW(3).dataFormat(Conv2DConfig.NHWC).build());
+
+        INDArray f = Nd4j.rand(DataType.FLOAT, 8, 6, 6, 3);
+        INDArray exp = sd.outputSingle(Collections.singletonMap("in", f), "out");
+
+        for (boolean perChannel : new boolean[]{true, false}) {
+            QuantizationConfig c = QuantizationConfig.builder().featureMapping("in").perChannel(perChannel)
+                    .quantizeActivations(false).build();
+            QuantizationResult r = new PostTrainingQuantizer(c).quantize(sd, new SingletonDataSetIterator(new DataSet(f, null)));
+            SameDiff q = r.getSameDiff();
+            assertTrue(r.getActivationRanges().isEmpty());
+            assertEquals(perChannel ? oC : 1, r.getWeightScales().get("w").length());
+            assertArrayEquals(perChannel ? new long[]{1, 1, 1, oC} : new long[]{1, 1, 1, 1}, q.getArrForVarName("w_scale").shape());
+
+            INDArray act = q.outputSingle(Collections.singletonMap("in", f), "out");
+            //Compare output channel with the smallest weights: per-tensor quantization loses almost all precision
+            INDArray expC = exp.get(NDArrayIndex.all(), NDArrayIndex.all(), NDArrayIndex.all(), NDArrayIndex.point(0));
+            INDArray actC = act.get(NDArrayIndex.all(), NDArrayIndex.all(), NDArrayIndex.all(), NDArrayIndex.point(0));
+            INDArray bias = b.getArr().get(NDArrayIndex.point(0));
+            double relErr = Transforms.abs(expC.sub(actC)).maxNumber().doubleValue()
+                    / Transforms.abs(expC.sub(bias)).maxNumber().doubleValue();
+            log.info("perChannel={}, relative error: {}", perChannel, relErr);
+            if (perChannel) {
+                assertTrue(relErr < 0.02);
+                assertTrue(exp.equalsWithEps(act, 0.1));
+            } else {
+                assertTrue(relErr > 0.1);
+            }
+        }
+    }
+}
@@ -16,8 +16,11 @@
 
 package org.nd4j.autodiff.samediff;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -25,13 +28,20 @@ import java.util.Map;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.junit.Test;
+import org.nd4j.autodiff.listeners.At;
+import org.nd4j.autodiff.listeners.BaseListener;
+import org.nd4j.autodiff.listeners.Listener;
+import org.nd4j.autodiff.listeners.Operation;
 import org.nd4j.autodiff.listeners.impl.ScoreListener;
 import org.nd4j.autodiff.listeners.records.History;
+import org.nd4j.autodiff.samediff.internal.GradientCheckpointing;
+import org.nd4j.autodiff.samediff.internal.SameDiffOp;
 import org.nd4j.evaluation.IEvaluation;
 import org.nd4j.evaluation.classification.Evaluation;
 import org.nd4j.linalg.BaseNd4jTest;
 import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.OpContext;
 import org.nd4j.linalg.dataset.DataSet;
 import org.nd4j.linalg.dataset.IrisDataSetIterator;
 import org.nd4j.linalg.dataset.MultiDataSet;
@@ -342,6 +352,100 @@ public class SameDiffTrainingTest extends BaseNd4jTest {
     }
 
 
+    @Test
+    public void testGradientCheckpointing() {
+        int nLayers = 9;
+        INDArray f = Nd4j.rand(DataType.DOUBLE, 8, 5);
+        INDArray l = Nd4j.rand(DataType.DOUBLE, 8, 3);
+        DataSet ds = new DataSet(f, l);
+
+        Map<String, INDArray> expParams = null;
+        for (String cp : new String[]{null, "auto", "a2,a5"}) {
+            Nd4j.getRandom().setSeed(12345);
+            SameDiff sd = SameDiff.create();
+            SDVariable in = sd.placeHolder("in", DataType.DOUBLE, -1, 5);
+            SDVariable label = sd.placeHolder("label", DataType.DOUBLE, -1, 3);
+            SDVariable x = in;
+            for (int i = 0; i < nLayers; i++) {
+                long nIn = i == 0 ? 5 : 6;
+                long nOut = i == nLayers - 1 ? 3 : 6;
+                SDVariable w = sd.var("w" + i, Nd4j.rand(DataType.DOUBLE, nIn, nOut).subi(0.5));
+                SDVariable b = sd.var("b" + i, Nd4j.rand(DataType.DOUBLE, nOut).subi(0.5));
+                x = sd.math().tanh("a" + i, x.mmul(w).add(b));
+            }
+            sd.loss().meanSquaredError("loss", label, x, null);
+
+            TrainingConfig.Builder b = TrainingConfig.builder().updater(new Sgd(0.1))
+                    .dataSetFeatureMapping("in").dataSetLabelMapping("label");
+            if ("auto".equals(cp)) {
+                b.gradientCheckpointing(true);
+            } else if (cp != null) {
+                b.gradientCheckpoints(cp.split(","));
+            }
+            sd.setTrainingConfig(b.build());
+
+            final List<String> execOrder = new ArrayList<>();
+            Listener l2 = new BaseListener() {
+                @Override
+                public boolean isActive(Operation operation) {
+                    return true;
+                }
+
+                @Override
+                public void opExecution(SameDiff sd, At at, org.nd4j.linalg.dataset.api.MultiDataSet batch, SameDiffOp op,
+                                        OpContext opContext, INDArray[] outputs) {
+                    execOrder.add(op.getName());
+                }
+            };
+            sd.fit(ds, l2);
+            sd.fit(ds);
+
+            Map<String, INDArray> params = new HashMap<>();
+            for (SDVariable v : sd.variables()) {
+                if (v.getVariableType() == VariableType.VARIABLE)
+                    params.put(v.name(), v.getArr());
+            }
+            if (cp == null) {
+                expParams = params;
+                assertTrue(execOrder.size() > 0);
+                continue;
+            }
+
+            //Same result as without checkpointing
+            assertEquals(expParams.keySet(), params.keySet());
+            for (String s : params.keySet()) {
+                assertTrue(s, expParams.get(s).equalsWithEps(params.get(s), 1e-10));
+            }
+
+            SameDiff gradFn = sd.getFunction("grad");
+            int numRecompute = 0;
+            for (SameDiffOp op : gradFn.getOps().values()) {
+                if (!op.getName().contains(GradientCheckpointing.RECOMPUTE_SUFFIX))
+                    continue;
+                numRecompute++;
+                //Recomputation happens only once the gradients for the next checkpoint are available
+                if (op.getControlDeps() != null) {
+                    for (String t : op.getControlDeps()) {
+                        String producer = gradFn.getVariables().get(t).getOutputOfOp();
+                        assertTrue(execOrder.indexOf(producer) < execOrder.indexOf(op.getName()));
+                    }
+                }
+            }
+            assertTrue(numRecompute > 0);
+
+            //Checkpointed activations are used by backprop directly; others are only used by forward ops (or recomputed)
+            if (!"auto".equals(cp)) {
+                assertTrue(gradFn.getVariables().containsKey("a3" + GradientCheckpointing.RECOMPUTE_SUFFIX));
+                assertFalse(gradFn.getVariables().containsKey("a2" + GradientCheckpointing.RECOMPUTE_SUFFIX));
+                assertFalse(gradFn.getVariables().containsKey("a5" + GradientCheckpointing.RECOMPUTE_SUFFIX));
+                for (String opName : gradFn.getVariables().get("a3").getInputsForOp()) {
+                    assertTrue(opName, sd.getOps().containsKey(opName));
+                }
+            }
+        }
+    }
+
+
     @Override
     public char ordering() {
         return 'c';
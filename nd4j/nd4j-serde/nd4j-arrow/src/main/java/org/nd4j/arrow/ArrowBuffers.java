@@ -0,0 +1,296 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.arrow;
+
+import lombok.NonNull;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.vector.BaseFixedWidthVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.complex.FixedSizeListVector;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.bytedeco.javacpp.Pointer;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.memory.pointers.PagedPointer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Zero copy interop between arrow {@link FieldVector}s and {@link INDArray}s.<br>
+ * Fixed width numeric vectors (float, double and signed/unsigned integer vectors) can be wrapped as a {@link DataBuffer}
+ * or {@link INDArray} that uses the vector's memory directly: no data is copied, and changes to the array are visible
+ * in the vector (and vice versa). A {@link FixedSizeListVector} of a fixed width numeric type - for example, one
+ * feature vector per row - is wrapped as a matrix with shape [numRows, listSize].<br>
+ * In the other direction, {@link #createVector(String, DataType, int, BufferAllocator)} and
+ * {@link #createMatrixVector(String, DataType, int, int, BufferAllocator)} allocate arrow vectors that can then be
+ * viewed as an {@link INDArray} and written to directly, and {@link #toVector(INDArray, String, BufferAllocator)}
+ * copies an existing array into a new vector with one bulk copy.<br>
+ * <br>
+ * Note that the wrapped arrays do not own the memory: the vector (and the arrow buffers it uses) must not be closed or
+ * cleared while the array is in use. Use {@link INDArray#dup()} to get a copy that is independent of the vector.
+ * Null values are not supported: wrapping a vector that contains nulls throws an exception.
+ */
+public class ArrowBuffers {
+
+    private ArrowBuffers() {
+    }
+
+    /**
+     * Get the ND4J data type for the given arrow vector
+     *
+     * @param vector Fixed width numeric vector, or a fixed size list vector of a fixed width numeric type
+     * @return Data type
+     */
+    public static DataType dataType(@NonNull FieldVector vector) {
+        if (vector instanceof FixedSizeListVector)
+            return dataType(((FixedSizeListVector) vector).getDataVector());
+        return dataType(vector.getField().getType());
+    }
+
+    /**
+     * Get the ND4J data type for the given arrow type
+     *
+     * @param type Arrow type. Must be a floating point (single or double precision) or integer type
+     * @return Data type
+     */
+    public static DataType dataType(@NonNull ArrowType type) {
+        if (type instanceof ArrowType.FloatingPoint) {
+            FloatingPointPrecision p = ((ArrowType.FloatingPoint) type).getPrecision();
+            switch (p) {
+                case SINGLE:
+                    return DataType.FLOAT;
+                case DOUBLE:
+                    return DataType.DOUBLE;
+                default:
+                    throw new IllegalArgumentException("Unsupported floating point precision: " + p);
+            }
+        } else if (type instanceof ArrowType.Int) {
+            ArrowType.Int t = (ArrowType.Int) type;
+            switch (t.getBitWidth()) {
+                case 8:
+                    return t.getIsSigned() ? DataType.BYTE : DataType.UBYTE;
+                case 16:
+                    return t.getIsSigned() ? DataType.SHORT : DataType.UINT16;
+                case 32:
+                    return t.getIsSigned() ? DataType.INT : DataType.UINT32;
+                case 64:
+                    return t.getIsSigned() ? DataType.LONG : DataType.UINT64;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported arrow type: " + type + ". Only fixed width floating point " +
+                "(single or double precision) and integer types are supported");
+    }
+
+    /**
+     * Get the arrow type for the given ND4J data type
+     *
+     * @param dataType Data type. Must be FLOAT, DOUBLE, or one of the signed or unsigned integer types
+     * @return Arrow type
+     */
+    public static ArrowType arrowType(@NonNull DataType dataType) {
+        switch (dataType) {
+            case FLOAT:
+                return new ArrowType.FloatingPoint(FloatingPointPrecision.SINGLE);
+            case DOUBLE:
+                return new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE);
+            case BYTE:
+                return new ArrowType.Int(8, true);
+            case UBYTE:
+                return new ArrowType.Int(8, false);
+            case SHORT:
+                return new ArrowType.Int(16, true);
+            case UINT16:
+                return new ArrowType.Int(16, false);
+            case INT:
+                return new ArrowType.Int(32, true);
+            case UINT32:
+                return new ArrowType.Int(32, false);
+            case LONG:
+                return new ArrowType.Int(64, true);
+            case UINT64:
+                return new ArrowType.Int(64, false);
+            default:
+                throw new IllegalArgumentException("Unsupported data type: " + dataType);
+        }
+    }
+
+    /**
+     * Wrap the data of the given fixed width numeric vector as a {@link DataBuffer}, without copying it.
+     * The returned buffer has length {@code vector.getValueCount()}
+     *
+     * @param vector Vector to wrap
+     * @return Data buffer using the vector's memory
+     */
+    public static DataBuffer wrap(@NonNull FieldVector vector) {
+        if (!(vector instanceof BaseFixedWidthVector))
+            throw new IllegalArgumentException("Only fixed width vectors can be wrapped, got " + vector.getClass().getSimpleName());
+        DataType dataType = dataType(vector);
+        checkNoNulls(vector);
+        return wrap(vector.getDataBuffer().memoryAddress(), dataType, vector.getValueCount());
+    }
+
+    /**
+     * Wrap the given arrow vector as an {@link INDArray}, without copying the data.<br>
+     * Fixed width vectors are returned as a column vector with shape [numRows, 1]. A {@link FixedSizeListVector} is
+     * returned as a matrix with shape [numRows, listSize], one row per list.
+     *
+     * @param vector Vector to wrap
+     * @return Array using the vector's memory
+     */
+    public static INDArray toArray(@NonNull FieldVector vector) {
+        if (vector instanceof FixedSizeListVector) {
+            FixedSizeListVector list = (FixedSizeListVector) vector;
+            checkNoNulls(list);
+            int rows = list.getValueCount();
+            int listSize = list.getListSize();
+            FieldVector data = list.getDataVector();
+            if (!(data instanceof BaseFixedWidthVector))
+                throw new IllegalArgumentException("Only fixed size lists of fixed width vectors can be wrapped, got " +
+                        data.getClass().getSimpleName());
+            checkNoNulls(data);
+            if (rows == 0)
+                return Nd4j.create(dataType(data), 0, listSize);
+            DataBuffer buffer = wrap(data.getDataBuffer().memoryAddress(), dataType(data), (long) rows * listSize);
+            return Nd4j.create(buffer, new long[]{rows, listSize}, new long[]{listSize, 1}, 0, 'c');
+        }
+
+        int rows = vector.getValueCount();
+        if (rows == 0)
+            return Nd4j.create(dataType(vector), 0, 1);
+        return Nd4j.create(wrap(vector), new long[]{rows, 1}, new long[]{1, 1}, 0, 'c');
+    }
+
+    /**
+     * Create a [numRows, numColumns] matrix from the given fixed width numeric vectors, one vector per column.
+     * Each column is copied into the matrix with a single op: no element by element copies are done. The result is
+     * 'f' order, so that each column is contiguous.
+     *
+     * @param columns  Column vectors. All vectors must have the same number of values
+     * @param dataType Data type of the returned array. Columns are cast to this type, if necessary
+     * @return Matrix
+     */
+    public static INDArray toMatrix(@NonNull List<FieldVector> columns, @NonNull DataType dataType) {
+        if (columns.isEmpty())
+            throw new IllegalArgumentException("No columns provided");
+        int rows = columns.get(0).getValueCount();
+        INDArray out = Nd4j.createUninitialized(dataType, new long[]{rows, columns.size()}, 'f');
+        for (int i = 0; i < columns.size(); i++) {
+            FieldVector v = columns.get(i);
+            if (v.getValueCount() != rows)
+                throw new IllegalArgumentException("All columns must have the same number of values: column 0 has " +
+                        rows + " values, column " + i + " (\"" + v.getField().getName() + "\") has " + v.getValueCount());
+            if (rows > 0)
+                out.getColumn(i, true).assign(toArray(v));
+        }
+        return out;
+    }
+
+    /**
+     * Create a new fixed width vector, with all values set (not null). The values are not initialized: use
+     * {@link #toArray(FieldVector)} to get an array view of the vector, and write the values to that array directly.
+     *
+     * @param name      Name of the vector
+     * @param dataType  Data type of the vector
+     * @param length    Number of values
+     * @param allocator Allocator to use for the vector's memory
+     * @return The new vector
+     */
+    public static FieldVector createVector(@NonNull String name, @NonNull DataType dataType, int length, @NonNull BufferAllocator allocator) {
+        Field f = new Field(name, FieldType.nullable(arrowType(dataType)), null);
+        BaseFixedWidthVector v = (BaseFixedWidthVector) f.createVector(allocator);
+        v.allocateNew(length);
+        v.setValueCount(length);
+        setAllValid(v, length);
+        return v;
+    }
+
+    /**
+     * Create a new {@link FixedSizeListVector} for a [numRows, numColumns] matrix, one list of numColumns values per
+     * row, with all values set (not null). As per {@link #createVector(String, DataType, int, BufferAllocator)}, the
+     * values are not initialized: use {@link #toArray(FieldVector)} to get a matrix view of the vector.
+     *
+     * @param name       Name of the vector
+     * @param dataType   Data type of the values
+     * @param numRows    Number of rows (lists)
+     * @param numColumns Number of values per row
+     * @param allocator  Allocator to use for the vector's memory
+     * @return The new vector
+     */
+    public static FixedSizeListVector createMatrixVector(@NonNull String name, @NonNull DataType dataType, int numRows,
+                                                         int numColumns, @NonNull BufferAllocator allocator) {
+        FixedSizeListVector v = FixedSizeListVector.empty(name, numColumns, allocator);
+        v.addOrGetVector(FieldType.nullable(arrowType(dataType)));
+        v.setInitialCapacity(numRows);
+        v.allocateNew();
+        v.setValueCount(numRows);
+        setAllValid(v, numRows);
+        setAllValid(v.getDataVector(), numRows * numColumns);
+        return v;
+    }
+
+    /**
+     * Copy the given array into a new arrow vector, with a single bulk copy.<br>
+     * Vectors (rank 1, or row/column vectors) are converted to a fixed width vector; matrices are converted to a
+     * {@link FixedSizeListVector}, one list per row - see {@link #createMatrixVector(String, DataType, int, int, BufferAllocator)}
+     *
+     * @param arr       Array to convert
+     * @param name      Name of the vector
+     * @param allocator Allocator to use for the vector's memory
+     * @return The new vector
+     */
+    public static FieldVector toVector(@NonNull INDArray arr, @NonNull String name, @NonNull BufferAllocator allocator) {
+        if (arr.isVectorOrScalar() || arr.isEmpty()) {
+            FieldVector v = createVector(name, arr.dataType(), (int) arr.length(), allocator);
+            if (!arr.isEmpty())
+                toArray(v).assign(arr.reshape(arr.length(), 1));
+            return v;
+        } else if (arr.rank() == 2) {
+            FixedSizeListVector v = createMatrixVector(name, arr.dataType(), (int) arr.rows(), (int) arr.columns(), allocator);
+            toArray(v).assign(arr);
+            return v;
+        }
+        throw new IllegalArgumentException("Only vectors and matrices can be converted, got array with shape " +
+                Arrays.toString(arr.shape()));
+    }
+
+    private static DataBuffer wrap(long address, DataType dataType, long length) {
+        if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN)
+            throw new IllegalStateException("Arrow buffers can only be wrapped on little endian platforms");
+        Pointer p = new PagedPointer(address).capacity(length).limit(length);
+        return Nd4j.createBuffer(p, length, dataType);
+    }
+
+    private static void checkNoNulls(FieldVector vector) {
+        if (vector.getNullCount() > 0)
+            throw new IllegalStateException("Vector \"" + vector.getField().getName() + "\" contains " +
+                    vector.getNullCount() + " null values: null values are not supported");
+    }
+
+    private static void setAllValid(FieldVector vector, int length) {
+        int numBytes = (length + 7) / 8;
+        if (numBytes > 0)
+            Pointer.memset(new PagedPointer(vector.getValidityBuffer().memoryAddress()), 0xFF, numBytes);
+    }
+}
@@ -0,0 +1,140 @@
+/* ******************************************************************************
+ * Copyright (c) 2020 Konduit K.K.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.nd4j.arrow;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.*;
+import org.apache.arrow.vector.complex.FixedSizeListVector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.BaseND4JTest;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ArrowBuffersTest extends BaseND4JTest {
+
+    private BufferAllocator allocator;
+
+    @Before
+    public void before() {
+        allocator = new RootAllocator(Long.MAX_VALUE);
+    }
+
+    @After
+    public void after() {
+        allocator.close();
+    }
+
+    @Test
+    public void testWrapVector() {
+        try (Float8Vector v = new Float8Vector("x", allocator); IntVector iv = new IntVector("i", allocator)) {
+            v.allocateNew(5);
+            iv.allocateNew(5);
+            for (int i = 0; i < 5; i++) {
+                v.set(i, i * 1.5);
+                iv.set(i, 10 * i);
+            }
+            v.setValueCount(5);
+            iv.setValueCount(5);
+
+            DataBuffer db = ArrowBuffers.wrap(v);
+            assertEquals(DataType.DOUBLE, db.dataType());
+            assertEquals(5, db.length());
+
+            INDArray arr = ArrowBuffers.toArray(v);
+            assertArrayEquals(new long[]{5, 1}, arr.shape());
+            assertEquals(Nd4j.createFromArray(0, 1.5, 3.0, 4.5, 6.0).reshape(5, 1), arr);
+            assertEquals(Nd4j.createFromArray(0, 10, 20, 30, 40).reshape(5, 1), ArrowBuffers.toArray(iv));
+
+            //No copy: changes to the array are visible in the vector
+            arr.muli(2);
+            assertEquals(9.0, v.get(3), 0.0);
+            v.set(0, -1.0);
+            assertEquals(-1.0, arr.getDouble(0), 0.0);
+        }
+    }
+
+    @Test
+    public void testWrapFixedSizeList() {
+        try (FixedSizeListVector v = ArrowBuffers.createMatrixVector("m", DataType.FLOAT, 3, 4, allocator)) {
+            assertEquals(0, v.getNullCount());
+            assertEquals(0, v.getDataVector().getNullCount());
+            INDArray m = ArrowBuffers.toArray(v);
+            assertArrayEquals(new long[]{3, 4}, m.shape());
+            m.assign(Nd4j.linspace(DataType.FLOAT, 1, 12, 1).reshape(3, 4));
+
+            Float4Vector data = (Float4Vector) v.getDataVector();
+            assertEquals(12, data.getValueCount());
+            assertEquals(7.0f, data.get(6), 0.0f);
+            assertEquals(Arrays.asList(5.0f, 6.0f, 7.0f, 8.0f), v.getObject(1));
+        }
+    }
+
+    @Test
+    public void testToVector() {
+        INDArray vec = Nd4j.linspace(DataType.DOUBLE, 1, 6, 1);
+        try (FieldVector v = ArrowBuffers.toVector(vec, "v", allocator)) {
+            assertTrue(v instanceof Float8Vector);
+            assertEquals(6, v.getValueCount());
+            assertEquals(0, v.getNullCount());
+            assertEquals(4.0, ((Float8Vector) v).get(3), 0.0);
+            assertEquals(vec.reshape(6, 1), ArrowBuffers.toArray(v));
+        }
+
+        INDArray matrix = Nd4j.linspace(DataType.LONG, 1, 6, 1).reshape('f', 2, 3);
+        try (FieldVector v = ArrowBuffers.toVector(matrix, "m", allocator)) {
+            assertTrue(v instanceof FixedSizeListVector);
+            assertEquals(DataType.LONG, ArrowBuffers.dataType(v));
+            assertEquals(matrix, ArrowBuffers.toArray(v));
+        }
+    }
+
+    @Test
+    public void testToMatrix() {
+        try (Float4Vector a = (Float4Vector) ArrowBuffers.createVector("a", DataType.FLOAT, 4, allocator);
+             BigIntVector b = (BigIntVector) ArrowBuffers.createVector("b", DataType.LONG, 4, allocator)) {
+            ArrowBuffers.toArray(a).assign(Nd4j.createFromArray(1f, 2f, 3f, 4f).reshape(4, 1));
+            ArrowBuffers.toArray(b).assign(Nd4j.createFromArray(5L, 6L, 7L, 8L).reshape(4, 1));
+
+            List<FieldVector> cols = Arrays.<FieldVector>asList(a, b);
+            INDArray m = ArrowBuffers.toMatrix(cols, DataType.DOUBLE);
+            INDArray exp = Nd4j.createFromArray(new double[][]{{1, 5}, {2, 6}, {3, 7}, {4, 8}});
+            assertEquals(exp, m);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNullsNotSupported() {
+        try (Float4Vector v = new Float4Vector("x", allocator)) {
+            v.allocateNew(3);
+            v.set(0, 1.0f);
+            v.setNull(1);
+            v.set(2, 1.0f);
+            v.setValueCount(3);
+            ArrowBuffers.toArray(v);
+        }
+    }
+}